@@ -0,0 +1,174 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler
+
+import com.xiaoyv.java.compiler.tools.exec.JavaProgramConsole
+import com.xiaoyv.java.compiler.utils.FileUtils
+import com.xiaoyv.java.compiler.utils.GlobalUtils
+import kotlinx.coroutines.CancellableContinuation
+import java.io.Closeable
+import java.io.File
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * JavaBuildContext
+ *
+ * 一次编译会话的上下文：持有独立的编译设置、编译日志、运行缓存文件夹和正在运行的程序，
+ * 不同的上下文可以同时编译、转换、运行，互不影响。
+ *
+ * [JavaEngine.classCompiler]、[JavaEngine.dexCompiler]、[JavaEngine.javaProgram] 的方法
+ * 使用默认上下文 [JavaEngine.defaultContext]，同一时间只能有一个程序运行。
+ *
+ * 程序的标准输入输出按线程路由到各自的程序，见 [com.xiaoyv.java.compiler.tools.exec.io.JavaStdio]
+ *
+ * @param setting  编译设置
+ * @param logFile  编译日志文件
+ * @param cacheDir 运行缓存文件夹（dex 优化输出等）
+ * @param workDir  会话文件夹，关闭时删除，为 null 时不删除
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaBuildContext(
+    val setting: JavaEngineSetting,
+    val logFile: File,
+    val cacheDir: File,
+    private val workDir: File? = null
+) : Closeable {
+
+    /**
+     * 上下文编号，用于区分 [JavaEngine.pipelineEvents] 中不同上下文的事件
+     */
+    val id: Int = nextId.getAndIncrement()
+
+    /**
+     * 当前上下文正在运行的程序
+     */
+    @Volatile
+    var program: JavaProgramConsole? = null
+        internal set
+
+    /**
+     * 删除旧日志并创建空白日志文件
+     */
+    fun restLog(): File {
+        JavaEngineSetting.createAndCleanFile(logFile)
+        return logFile
+    }
+
+    /**
+     * 创建并清空运行缓存文件夹
+     */
+    fun restCacheDir(): String = JavaEngineSetting.createAndCleanDir(cacheDir)
+
+    /**
+     * 关闭当前上下文正在运行的程序
+     */
+    fun resetProgram() {
+        program?.close()
+        program = null
+    }
+
+    /**
+     * 编译 class，参数同 [com.xiaoyv.java.compiler.tools.java.JavaClassCompiler.compile]
+     */
+    @JvmOverloads
+    suspend fun compileClass(
+        sourceFileOrDir: File,
+        buildDir: File,
+        libFolder: File? = null,
+        compileProgress: (String, Int) -> Unit = { _, _ -> }
+    ): File = JavaEngine.classCompiler.compile(
+        sourceFileOrDir, buildDir, libFolder, emptyList(), this, compileProgress
+    )
+
+    /**
+     * 转换 dex，参数同 [com.xiaoyv.java.compiler.tools.dex.JavaDexCompiler.compile]
+     */
+    @JvmOverloads
+    suspend fun compileDex(
+        sourceFileList: List<File>,
+        buildDir: File,
+        libFolder: File? = null
+    ): File = JavaEngine.dexCompiler.compile(sourceFileList, buildDir, libFolder, emptyList(), this)
+
+    /**
+     * 运行 dex，参数同 [com.xiaoyv.java.compiler.tools.exec.JavaProgram.run]
+     */
+    suspend fun run(
+        dexFile: File,
+        args: Array<String> = emptyArray(),
+        chooseMainClassToRun: (List<String>, CancellableContinuation<String>) -> Unit =
+            JavaEngine.javaProgram.defaultChooseMainClassToRun,
+        printOut: (CharSequence) -> Unit = { },
+        printErr: (CharSequence) -> Unit = { },
+        libraryDexFiles: List<File> = emptyList(),
+    ): JavaProgramConsole = JavaEngine.javaProgram.run(
+        dexFile, args, chooseMainClassToRun, printOut, printErr, libraryDexFiles, this
+    )
+
+    /**
+     * 内存编译并运行，参数同 [JavaEngine.runInMemory]
+     */
+    suspend fun runInMemory(
+        sources: Map<String, String>,
+        args: Array<String> = emptyArray(),
+        libFolder: File? = null,
+        chooseMainClassToRun: (List<String>, CancellableContinuation<String>) -> Unit =
+            JavaEngine.javaProgram.defaultChooseMainClassToRun,
+        printOut: (CharSequence) -> Unit = { },
+        printErr: (CharSequence) -> Unit = { },
+    ): JavaProgramConsole {
+        val dexBytes = if (setting.isCompileResultCache) {
+            JavaEngine.resultCache.compile(sources, libFolder, this)
+        } else {
+            val classes = JavaEngine.classCompiler.compileInMemory(sources, libFolder, this)
+            JavaEngine.dexCompiler.compileInMemory(classes, libFolder, this)
+        }
+        val libraryDexFiles = libFolder?.let { JavaEngine.dexCompiler.compileLibraries(it, this) }.orEmpty()
+        return JavaEngine.javaProgram.run(
+            dexBytes, args, chooseMainClassToRun, printOut, printErr, libraryDexFiles, this
+        )
+    }
+
+    /**
+     * 关闭正在运行的程序，并删除会话文件夹
+     */
+    override fun close() {
+        resetProgram()
+        workDir?.let { FileUtils.delete(it) }
+    }
+
+    companion object {
+        private val nextId = AtomicInteger()
+
+        /**
+         * 默认上下文：使用全局的编译设置、日志文件和缓存文件夹
+         */
+        internal fun default() = JavaBuildContext(
+            JavaEngine.compilerSetting,
+            File(JavaEngineSetting.logFilePath),
+            File(JavaEngineSetting.defaultCacheDirPath)
+        )
+
+        /**
+         * 创建独立的会话上下文，编译设置为当前全局设置的快照
+         *
+         * @param setting 编译设置
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun create(setting: JavaEngineSetting = JavaEngine.compilerSetting.snapshot()): JavaBuildContext {
+            val workDir = File(
+                GlobalUtils.getApp().filesDir.absolutePath + "/tmp/session/" + UUID.randomUUID()
+            )
+            return JavaBuildContext(
+                setting,
+                File(workDir, "class_compile.log"),
+                File(workDir, "cache"),
+                workDir
+            )
+        }
+    }
+}
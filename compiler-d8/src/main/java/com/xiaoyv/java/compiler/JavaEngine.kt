@@ -3,11 +3,17 @@ package com.xiaoyv.java.compiler
 import android.app.Application
 import android.util.Log
 import com.xiaoyv.java.compiler.tools.dex.JavaDexCompiler
+import com.xiaoyv.java.compiler.tools.dex.JavaDexResultCache
 import com.xiaoyv.java.compiler.tools.exec.JavaProgram
 import com.xiaoyv.java.compiler.tools.exec.JavaProgramConsole
 import com.xiaoyv.java.compiler.tools.java.JavaClassCompiler
+import com.xiaoyv.java.compiler.tools.module.JavaModuleBuilder
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelineEvent
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelineSummary
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelineTracer
 import com.xiaoyv.java.compiler.utils.GlobalUtils
 import com.xiaoyv.java.compiler.utils.ResourceUtils
+import kotlinx.coroutines.CancellableContinuation
 import kotlinx.coroutines.CoroutineExceptionHandler
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -31,7 +37,14 @@ object JavaEngine {
     lateinit var stdSystemErr: PrintStream
     lateinit var stdSystemIn: InputStream
 
-    internal var lastProgram: JavaProgramConsole? = null
+    /**
+     * 默认上下文运行的程序
+     */
+    internal var lastProgram: JavaProgramConsole?
+        get() = defaultContext.program
+        set(value) {
+            defaultContext.program = value
+        }
 
     val CompileExceptionHandler = CoroutineExceptionHandler { _, throwable ->
         logError(throwable)
@@ -45,6 +58,14 @@ object JavaEngine {
         JavaEngineSetting()
     }
 
+    /**
+     * 默认上下文，使用全局的编译设置、日志文件和缓存文件夹
+     */
+    @JvmStatic
+    val defaultContext: JavaBuildContext by lazy(LazyThreadSafetyMode.SYNCHRONIZED) {
+        JavaBuildContext.default()
+    }
+
     /**
      * Class 编译器
      */
@@ -61,6 +82,22 @@ object JavaEngine {
         JavaDexCompiler()
     }
 
+    /**
+     * 编译结果缓存
+     */
+    @JvmStatic
+    val resultCache: JavaDexResultCache by lazy(LazyThreadSafetyMode.SYNCHRONIZED) {
+        JavaDexResultCache()
+    }
+
+    /**
+     * 多模块构建
+     */
+    @JvmStatic
+    val moduleBuilder: JavaModuleBuilder by lazy(LazyThreadSafetyMode.SYNCHRONIZED) {
+        JavaModuleBuilder()
+    }
+
     /**
      * Dex 执行器
      */
@@ -69,6 +106,55 @@ object JavaEngine {
         JavaProgram()
     }
 
+    /**
+     * 编译运行流程的耗时统计
+     */
+    @JvmStatic
+    val tracer: JavaPipelineTracer by lazy(LazyThreadSafetyMode.SYNCHRONIZED) {
+        JavaPipelineTracer()
+    }
+
+    /**
+     * 编译运行流程各阶段的开始、结束事件：耗时、输入输出字节数、类数量、内存分配估算、缓存命中
+     */
+    @JvmStatic
+    val pipelineEvents: Flow<JavaPipelineEvent>
+        get() = tracer.events
+
+    /**
+     * 各阶段的汇总统计，可以定期上报后调用 [JavaPipelineTracer.resetSummary] 清空
+     */
+    @JvmStatic
+    fun pipelineSummary(): JavaPipelineSummary = tracer.summary()
+
+    /**
+     * 内存编译并运行：源码 -> 类文件 -> dex -> 类加载器，全程在内存中完成，不读写源码、类文件和程序 dex
+     *
+     * @param sources    源码集合，key 为文件名（如：Main.java，pkg/Main.java），value 为源码内容
+     * @param args       文件参数
+     * @param libFolder  存放依赖的文件夹，依赖 dex 走 [JavaDexCompiler.compileLibraries] 的缓存
+     * @see JavaProgram.run
+     */
+    @JvmStatic
+    suspend fun runInMemory(
+        sources: Map<String, String>,
+        args: Array<String> = emptyArray(),
+        libFolder: File? = null,
+        chooseMainClassToRun: (List<String>, CancellableContinuation<String>) -> Unit = javaProgram.defaultChooseMainClassToRun,
+        printOut: (CharSequence) -> Unit = { },
+        printErr: (CharSequence) -> Unit = { },
+    ): JavaProgramConsole = defaultContext.runInMemory(
+        sources, args, libFolder, chooseMainClassToRun, printOut, printErr
+    )
+
+    /**
+     * 创建独立的会话上下文，可与其它上下文同时编译、运行
+     *
+     * @see JavaBuildContext.create
+     */
+    @JvmStatic
+    fun createContext(): JavaBuildContext = JavaBuildContext.create()
+
     /**
      * 初始化
      */
@@ -104,7 +190,7 @@ object JavaEngine {
     }
 
     /**
-     * 恢复系统的默认标准流
+     * 恢复系统的默认标准流，卸载标准流路由，下次运行程序时重新安装
      */
     fun resetStdStream() {
         System.setIn(stdSystemIn)
@@ -116,8 +202,7 @@ object JavaEngine {
      * 清空遗留的程序
      */
     fun resetProgram() {
-        lastProgram?.close()
-        lastProgram = null
+        defaultContext.resetProgram()
     }
 
     internal fun logInfo(msg: String) {
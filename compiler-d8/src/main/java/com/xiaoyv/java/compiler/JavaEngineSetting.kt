@@ -3,19 +3,26 @@
 package com.xiaoyv.java.compiler
 
 import android.graphics.Color
+import android.os.Build
 import androidx.annotation.ColorInt
 import com.android.tools.r8.DiagnosticsLevel
 import com.xiaoyv.java.compiler.utils.FileUtils
 import com.xiaoyv.java.compiler.utils.GlobalUtils
 import com.xiaoyv.java.compiler.utils.SPUtils
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 
-class JavaEngineSetting {
+class JavaEngineSetting private constructor(private val setting: SettingStore) {
 
     /**
      * 设置相关的 SP
      */
-    private val setting: SPUtils = SPUtils.getInstance(SETTING_KEY)
+    constructor() : this(PreferenceStore(SPUtils.getInstance(SETTING_KEY)))
+
+    /**
+     * 当前设置的快照，之后对原设置的修改不会影响快照，对快照的修改也不会保存
+     */
+    fun snapshot(): JavaEngineSetting = JavaEngineSetting(MemoryStore(setting.getAll()))
 
     /**
      * 恢复默认配置
@@ -26,7 +33,19 @@ class JavaEngineSetting {
         setting.put(SP_KEY_COMPILE_TARGET, DEFAULT_TARGET_VERSION)
         setting.put(SP_KEY_COMPILE_ENCODING, DEFAULT_COMPILE_CHARSET)
         setting.put(SP_KEY_COMPILE_VERBOSE, false)
+        setting.put(SP_KEY_COMPILE_SESSION, true)
+        setting.put(SP_KEY_COMPILE_INCREMENTAL, false)
+        setting.put(SP_KEY_COMPILE_JAVAC, false)
+        setting.put(SP_KEY_COMPILE_DEX_INCREMENTAL, false)
+        setting.put(SP_KEY_COMPILE_DEX_MIN_API, Build.VERSION.SDK_INT)
+        setting.put(SP_KEY_COMPILE_RESULT_CACHE, true)
         setting.put(SP_KEY_RUN_ARGS, "")
+        setting.put(SP_KEY_RUN_LOADER_CACHE, true)
+        setting.put(SP_KEY_RUN_WALL_TIME, 0)
+        setting.put(SP_KEY_RUN_CPU_TIME, 0)
+        setting.put(SP_KEY_RUN_MAX_OUTPUT, 0)
+        setting.put(SP_KEY_RUN_MAX_THREADS, 0)
+        setting.put(SP_KEY_RUN_OUTPUT_STORE, false)
     }
 
     /**
@@ -75,6 +94,27 @@ class JavaEngineSetting {
         set(value) = setting.put(SP_KEY_COMPILE_VERBOSE, value)
         get() = setting.getBoolean(SP_KEY_COMPILE_VERBOSE, false)
 
+    /**
+     * 是否复用常驻的编译会话（rt.jar 和依赖 jar 只加载一次）
+     */
+    var isClassCompileSession: Boolean
+        set(value) = setting.put(SP_KEY_COMPILE_SESSION, value)
+        get() = setting.getBoolean(SP_KEY_COMPILE_SESSION, true)
+
+    /**
+     * 是否增量编译（仅重新编译改动的源文件及其依赖方）
+     */
+    var isClassIncremental: Boolean
+        set(value) = setting.put(SP_KEY_COMPILE_INCREMENTAL, value)
+        get() = setting.getBoolean(SP_KEY_COMPILE_INCREMENTAL, false)
+
+    /**
+     * 是否使用内置的 javac 编译（编译上下文常驻复用，只支持全量编译，开启时 [isClassIncremental] 不生效）
+     */
+    var isClassCompileJavac: Boolean
+        set(value) = setting.put(SP_KEY_COMPILE_JAVAC, value)
+        get() = setting.getBoolean(SP_KEY_COMPILE_JAVAC, false)
+
     /**
      * 运行参数
      */
@@ -82,6 +122,69 @@ class JavaEngineSetting {
         set(value) = setting.put(SP_KEY_RUN_ARGS, value.ifEmpty { "" })
         get() = setting.getString(SP_KEY_RUN_ARGS).ifEmpty { "" }
 
+    /**
+     * 是否缓存程序的类加载器文件（相同的 dex 复用上次的校验和优化结果）
+     */
+    var isDexLoaderCache: Boolean
+        set(value) = setting.put(SP_KEY_RUN_LOADER_CACHE, value)
+        get() = setting.getBoolean(SP_KEY_RUN_LOADER_CACHE, true)
+
+    /**
+     * 运行超时（毫秒），0 为不限制
+     */
+    var runWallTimeMillis: Int
+        set(value) = setting.put(SP_KEY_RUN_WALL_TIME, value.coerceAtLeast(0))
+        get() = setting.getInt(SP_KEY_RUN_WALL_TIME, 0)
+
+    /**
+     * 程序每个线程的 CPU 时间上限（毫秒），0 为不限制，仅在支持 ThreadMXBean 的平台生效
+     */
+    var runCpuTimeMillis: Int
+        set(value) = setting.put(SP_KEY_RUN_CPU_TIME, value.coerceAtLeast(0))
+        get() = setting.getInt(SP_KEY_RUN_CPU_TIME, 0)
+
+    /**
+     * 程序输出（System.out + System.err）的字节数上限，0 为不限制
+     */
+    var runMaxOutputBytes: Int
+        set(value) = setting.put(SP_KEY_RUN_MAX_OUTPUT, value.coerceAtLeast(0))
+        get() = setting.getInt(SP_KEY_RUN_MAX_OUTPUT, 0)
+
+    /**
+     * 程序同时存活的线程数上限（包括主线程），0 为不限制
+     */
+    var runMaxThreads: Int
+        set(value) = setting.put(SP_KEY_RUN_MAX_THREADS, value.coerceAtLeast(0))
+        get() = setting.getInt(SP_KEY_RUN_MAX_THREADS, 0)
+
+    /**
+     * 是否将程序的完整输出保存到日志文件，见 [com.xiaoyv.java.compiler.tools.exec.JavaProgramConsole.outputStore]
+     */
+    var isOutputStore: Boolean
+        set(value) = setting.put(SP_KEY_RUN_OUTPUT_STORE, value)
+        get() = setting.getBoolean(SP_KEY_RUN_OUTPUT_STORE, false)
+
+    /**
+     * 是否增量编译 Dex（按类缓存，只 dex 改动的类）
+     */
+    var isDexIncremental: Boolean
+        set(value) = setting.put(SP_KEY_COMPILE_DEX_INCREMENTAL, value)
+        get() = setting.getBoolean(SP_KEY_COMPILE_DEX_INCREMENTAL, false)
+
+    /**
+     * Dex 最低 API 等级，默认为当前设备的系统版本
+     */
+    var dexMinApiLevel: Int
+        set(value) = setting.put(SP_KEY_COMPILE_DEX_MIN_API, value)
+        get() = setting.getInt(SP_KEY_COMPILE_DEX_MIN_API, Build.VERSION.SDK_INT)
+
+    /**
+     * 是否缓存编译结果（相同的源码、依赖和设置直接复用上次的 dex）
+     */
+    var isCompileResultCache: Boolean
+        set(value) = setting.put(SP_KEY_COMPILE_RESULT_CACHE, value)
+        get() = setting.getBoolean(SP_KEY_COMPILE_RESULT_CACHE, true)
+
     /**
      * 运行参数
      */
@@ -107,6 +210,57 @@ class JavaEngineSetting {
         set(@ColorInt value) = setting.put(SP_KEY_CONSOLE_COLOR_ERROR, value)
         @ColorInt get() = setting.getInt(SP_KEY_CONSOLE_COLOR_ERROR, Color.RED)
 
+    /**
+     * 设置的存储
+     */
+    private interface SettingStore {
+        fun getAll(): Map<String, *>
+        fun getString(key: String): String
+        fun getBoolean(key: String, defaultValue: Boolean): Boolean
+        fun getInt(key: String, defaultValue: Int): Int
+        fun put(key: String, value: String)
+        fun put(key: String, value: Boolean)
+        fun put(key: String, value: Int)
+    }
+
+    /**
+     * SP 存储
+     */
+    private class PreferenceStore(private val sp: SPUtils) : SettingStore {
+        override fun getAll(): Map<String, *> = sp.all
+        override fun getString(key: String): String = sp.getString(key)
+        override fun getBoolean(key: String, defaultValue: Boolean) = sp.getBoolean(key, defaultValue)
+        override fun getInt(key: String, defaultValue: Int) = sp.getInt(key, defaultValue)
+        override fun put(key: String, value: String) = sp.put(key, value)
+        override fun put(key: String, value: Boolean) = sp.put(key, value)
+        override fun put(key: String, value: Int) = sp.put(key, value)
+    }
+
+    /**
+     * 内存存储，用于快照
+     */
+    private class MemoryStore(values: Map<String, *>) : SettingStore {
+        private val values = ConcurrentHashMap<String, Any>().apply {
+            values.forEach { (key, value) -> if (value != null) put(key, value) }
+        }
+
+        override fun getAll(): Map<String, *> = HashMap(values)
+        override fun getString(key: String) = values[key] as? String ?: ""
+        override fun getBoolean(key: String, defaultValue: Boolean) = values[key] as? Boolean ?: defaultValue
+        override fun getInt(key: String, defaultValue: Int) = values[key] as? Int ?: defaultValue
+        override fun put(key: String, value: String) {
+            values[key] = value
+        }
+
+        override fun put(key: String, value: Boolean) {
+            values[key] = value
+        }
+
+        override fun put(key: String, value: Int) {
+            values[key] = value
+        }
+    }
+
     companion object {
         private const val SETTING_KEY = "JavaSetting"
         private const val DEFAULT_SOURCE_VERSION = "1.8"
@@ -121,9 +275,21 @@ class JavaEngineSetting {
         private const val SP_KEY_COMPILE_TARGET = "compile_target"
         private const val SP_KEY_COMPILE_ENCODING = "compile_encoding"
         private const val SP_KEY_COMPILE_VERBOSE = "compile_verbose"
+        private const val SP_KEY_COMPILE_SESSION = "compile_session"
+        private const val SP_KEY_COMPILE_INCREMENTAL = "compile_incremental"
+        private const val SP_KEY_COMPILE_JAVAC = "compile_javac"
         private const val SP_KEY_RUN_ARGS = "run_args"
+        private const val SP_KEY_RUN_LOADER_CACHE = "run_loader_cache"
+        private const val SP_KEY_RUN_WALL_TIME = "run_wall_time"
+        private const val SP_KEY_RUN_CPU_TIME = "run_cpu_time"
+        private const val SP_KEY_RUN_MAX_OUTPUT = "run_max_output"
+        private const val SP_KEY_RUN_MAX_THREADS = "run_max_threads"
+        private const val SP_KEY_RUN_OUTPUT_STORE = "run_output_store"
 
         private const val SP_KEY_COMPILE_DEX_LOG_LEVEL = "compile_dex_log_level"
+        private const val SP_KEY_COMPILE_DEX_INCREMENTAL = "compile_dex_incremental"
+        private const val SP_KEY_COMPILE_DEX_MIN_API = "compile_dex_min_api"
+        private const val SP_KEY_COMPILE_RESULT_CACHE = "compile_result_cache"
         private const val SP_KEY_CONSOLE_COLOR_OUTPUT = "console_color_out"
         private const val SP_KEY_CONSOLE_COLOR_ERROR = "console_color_err"
 
@@ -137,7 +303,43 @@ class JavaEngineSetting {
          * 默认缓存路径
          */
         val defaultCacheDir: String
-            get() = createAndCleanDir(GlobalUtils.getApp().filesDir.absolutePath + "/tmp/compiler")
+            get() = createAndCleanDir(defaultCacheDirPath)
+
+        /**
+         * 默认缓存路径（不清空）
+         */
+        val defaultCacheDirPath: String
+            get() = GlobalUtils.getApp().filesDir.absolutePath + "/tmp/compiler"
+
+        /**
+         * 依赖 jar 预编译 dex 的缓存路径
+         */
+        val defaultDexLibraryCacheDir: String
+            get() = GlobalUtils.getApp().filesDir.absolutePath + "/cache/dex-lib"
+
+        /**
+         * 编译结果 dex 的缓存路径
+         */
+        val defaultDexResultCacheDir: String
+            get() = GlobalUtils.getApp().filesDir.absolutePath + "/cache/dex-result"
+
+        /**
+         * 程序 dex 和优化输出的缓存路径
+         */
+        val defaultDexLoaderCacheDir: String
+            get() = GlobalUtils.getApp().filesDir.absolutePath + "/cache/dex-loader"
+
+        /**
+         * 程序输出日志的保存路径
+         */
+        val defaultOutputStoreDir: String
+            get() = GlobalUtils.getApp().cacheDir.absolutePath + "/program-output"
+
+        /**
+         * javac 保存 jar 索引的文件夹
+         */
+        val defaultJavacIndexDir: String
+            get() = GlobalUtils.getApp().cacheDir.absolutePath + "/javac-index"
 
         /**
          * 编译日志文件保存路径
@@ -146,6 +348,12 @@ class JavaEngineSetting {
             get() = GlobalUtils.getApp().cacheDir.absolutePath +
                     File.separator + "class_compile.log"
 
+        /**
+         * 只保存在内存中的设置，全部为默认值，修改不会写入 SP
+         */
+        @JvmStatic
+        fun inMemory(): JavaEngineSetting = JavaEngineSetting(MemoryStore(emptyMap<String, Any>()))
+
         /**
          * 创建并清空目标文件夹
          */
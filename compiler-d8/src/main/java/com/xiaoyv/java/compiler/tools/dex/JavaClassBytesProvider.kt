@@ -0,0 +1,25 @@
+package com.xiaoyv.java.compiler.tools.dex
+
+import com.android.tools.r8.ClassFileResourceProvider
+import com.android.tools.r8.ProgramResource
+import com.android.tools.r8.origin.Origin
+
+/**
+ * 为 D8 提供内存中的 classpath 类
+ *
+ * @param classes key 为类描述符（如：Lpackage/Hello;），value 为类文件内容
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+internal class JavaClassBytesProvider(private val classes: Map<String, ByteArray>) : ClassFileResourceProvider {
+
+    override fun getClassDescriptors(): Set<String> = classes.keys
+
+    override fun getProgramResource(descriptor: String): ProgramResource? {
+        val bytes = classes[descriptor] ?: return null
+        return ProgramResource.fromBytes(
+            Origin.unknown(), ProgramResource.Kind.CF, bytes, setOf(descriptor)
+        )
+    }
+}
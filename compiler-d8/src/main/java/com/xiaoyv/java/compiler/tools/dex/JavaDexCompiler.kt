@@ -2,12 +2,14 @@
 
 package com.xiaoyv.java.compiler.tools.dex
 
-import com.android.tools.r8.D8
-import com.android.tools.r8.D8Command
+import com.android.tools.r8.*
 import com.android.tools.r8.origin.Origin
+import com.xiaoyv.java.compiler.JavaBuildContext
 import com.xiaoyv.java.compiler.JavaEngine
 import com.xiaoyv.java.compiler.JavaEngineSetting
 import com.xiaoyv.java.compiler.exception.CompileException
+import com.xiaoyv.java.compiler.tools.java.JavaClassHelper
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelinePhase
 import com.xiaoyv.java.compiler.utils.FileUtils
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
@@ -16,10 +18,20 @@ import java.io.File
 /**
  * JavaDexCompiler
  *
+ * @param libraryCacheDir 依赖 jar 预编译 dex 的缓存文件夹，为 null 时使用默认路径
+ *
  * @author why
  * @since 2022/3/7
  */
-class JavaDexCompiler {
+class JavaDexCompiler @JvmOverloads constructor(private val libraryCacheDir: File? = null) {
+
+    /**
+     * 依赖 jar 的预编译 dex 缓存
+     */
+    val libraryCache: JavaDexLibraryCache by lazy(LazyThreadSafetyMode.SYNCHRONIZED) {
+        libraryCacheDir?.let { JavaDexLibraryCache(it) } ?: JavaDexLibraryCache()
+    }
+
     /**
      * 根据文件路径执行编译操作
      *
@@ -47,12 +59,16 @@ class JavaDexCompiler {
      *
      * @param sourceFileList  待编译文件或文件夹的整体集合，内容可以是 *.zip，*.jar，*.class
      * @param buildDir         build Dir
+     * @param libFolder        存放依赖的文件夹，依赖只参与解析，不会编译进 classes.dex
      */
     suspend fun compile(
         sourceFileList: List<String>,
-        buildDir: String
+        buildDir: String,
+        libFolder: String? = null
     ): File = compile(
-        sourceFileList.map { File(it) }.filter { it.exists() && it.isFile }, File(buildDir)
+        sourceFileList.map { File(it) }.filter { it.exists() && it.isFile },
+        File(buildDir),
+        libFolder?.let { File(it) }
     )
 
     /**
@@ -60,54 +76,223 @@ class JavaDexCompiler {
      *
      * @param sourceFileList  待编译文件或文件夹的整体集合，内容可以是 *.zip，*.jar，*.class
      * @param buildDir         build Dir
+     * @param libFolder        存放依赖的文件夹，依赖只参与解析，不会编译进 classes.dex
+     * @param classpath        额外的类路径，如上游模块的 classes.jar，只参与解析
+     * @param context          编译上下文，提供编译设置
      */
     suspend fun compile(
         sourceFileList: List<File>,
-        buildDir: File
+        buildDir: File,
+        libFolder: File? = null,
+        classpath: List<File> = emptyList(),
+        context: JavaBuildContext = JavaEngine.defaultContext
     ): File = withContext(Dispatchers.IO) {
+        JavaEngine.tracer.trace(JavaPipelinePhase.DEX_COMPILE, context) { span ->
+            val setting = context.setting
 
-        if (sourceFileList.isEmpty()) {
-            throw CompileException("待编译源文件不存在")
-        }
+            if (sourceFileList.isEmpty()) {
+                throw CompileException("待编译源文件不存在")
+            }
 
-        // Dex.jar 保存文件夹
-        val buildDexDir = buildDexDir(buildDir)
-
-        // 遍历待编译的的 class 相关包或文件
-        val sourceFiles = StringBuilder().apply {
-            sourceFileList.filter {
-                val isArchive = it.name.endsWith("class") ||
-                        it.name.endsWith("jar") ||
-                        it.name.endsWith("zip")
-                it.exists() && it.isFile && isArchive
-            }.forEach {
-                append(it.absolutePath)
-                append(" ")
+            // Dex.jar 保存文件夹
+            val buildDexDir = buildDexDir(buildDir)
+
+            // 依赖 jar，通过 classpath 参与编译
+            val libJars = classpath + libFolder?.let { JavaClassHelper.getLibJars(it) }.orEmpty()
+
+            // 增量编译：只 dex 改动的类，再合并缓存
+            if (setting.isDexIncremental) {
+                JavaDexIncremental(buildDir, setting).compile(
+                    sourceFileList = sourceFileList.filter { isArchive(it) },
+                    buildDexDir = buildDexDir,
+                    libraryFiles = listOf(File(setting.rtPath).toPath()),
+                    classpathFiles = libJars.map { it.toPath() },
+                    minApiLevel = setting.dexMinApiLevel
+                )
+            } else {
+                // 遍历待编译的的 class 相关包或文件
+                val sourceFiles = StringBuilder().apply {
+                    sourceFileList.filter { isArchive(it) }.forEach {
+                        append(it.absolutePath)
+                        append(" ")
+                    }
+                }
+
+                // 编译命令
+                val compileCmd = arrayListOf(
+                    "--lib", setting.rtPath,
+                    "--output", buildDexDir.absolutePath,
+                    "--min-api", setting.dexMinApiLevel.toString(),
+                    "--release"
+                ).also { cmd ->
+                    libJars.forEach {
+                        cmd.add("--classpath")
+                        cmd.add(it.absolutePath)
+                    }
+                    cmd.add(sourceFiles.toString())
+                }.toTypedArray()
+
+                // 编译命令
+                JavaEngine.logInfo("编译命令: \n ${compileCmd.joinToString(" ")}")
+
+                // 编译
+                D8.run(D8Command.parse(compileCmd, Origin.root(), JavaDexDiagnosticsHandler(setting)).build())
             }
+
+            val classesDex = buildDexDir.absolutePath + File.separator + "classes.dex"
+            if (FileUtils.isFileExists(classesDex).not()) {
+                throw CompileException("编译失败，目标文件未找到：$classesDex")
+            }
+
+            span.bytesIn = sourceFileList.filter { isArchive(it) }.sumOf { it.length() }
+            span.bytesOut = FileUtils.getFileLength(classesDex)
+            File(classesDex)
         }
+    }
+
+    /**
+     * 在内存中将类文件编译为 dex，不读写任何文件
+     *
+     * @param classes   类文件集合，value 为类文件内容，见 [com.xiaoyv.java.compiler.tools.java.JavaClassCompiler.compileInMemory]
+     * @param libFolder 存放依赖的文件夹，依赖只参与解析，不会编译进结果
+     * @param context   编译上下文，提供编译设置
+     * @return dex 文件内容，按 classes.dex、classes2.dex ... 的顺序排列
+     */
+    @JvmOverloads
+    suspend fun compileInMemory(
+        classes: Map<String, ByteArray>,
+        libFolder: File? = null,
+        context: JavaBuildContext = JavaEngine.defaultContext
+    ): List<ByteArray> = withContext(Dispatchers.IO) {
+        JavaEngine.tracer.trace(JavaPipelinePhase.DEX_COMPILE, context) { span ->
+            val setting = context.setting
+            if (classes.isEmpty()) {
+                throw CompileException("待编译源文件不存在")
+            }
+
+            val dexFiles = sortedMapOf<Int, ByteArray>()
+            val libJars = libFolder?.let { JavaClassHelper.getLibJars(it) }.orEmpty()
 
-        // 编译命令
-        val compileCmd = arrayListOf(
-            "--lib", JavaEngine.compilerSetting.rtPath,
-            "--output", buildDexDir.absolutePath,
-            "--release",
-            sourceFiles.toString()
-        ).toTypedArray()
+            val command = D8Command.builder(JavaDexDiagnosticsHandler(setting))
+                .setMode(CompilationMode.RELEASE)
+                .setMinApiLevel(setting.dexMinApiLevel)
+                .addLibraryFiles(File(setting.rtPath).toPath())
+                .addClasspathFiles(libJars.map { it.toPath() })
+                .setProgramConsumer(object : DexIndexedConsumer.ForwardingConsumer(null) {
+                    override fun accept(
+                        fileIndex: Int,
+                        data: ByteDataView,
+                        descriptors: MutableSet<String>,
+                        handler: DiagnosticsHandler
+                    ) {
+                        synchronized(dexFiles) {
+                            dexFiles[fileIndex] = data.copyByteData()
+                        }
+                    }
+                })
+                .apply {
+                    classes.values.forEach { addClassProgramData(it, Origin.unknown()) }
+                }
+                .build()
+            D8.run(command)
 
-        // 编译命令
-        JavaEngine.logInfo("编译命令: \n ${compileCmd.joinToString(" ")}")
+            if (dexFiles.isEmpty()) {
+                throw CompileException("编译失败，未生成 dex")
+            }
+            span.classCount = classes.size
+            span.bytesIn = classes.values.sumOf { it.size.toLong() }
+            span.bytesOut = dexFiles.values.sumOf { it.size.toLong() }
+            dexFiles.values.toList()
+        }
+    }
 
-        // 编译
-        D8.run(D8Command.parse(compileCmd, Origin.root(), JavaDexDiagnosticsHandler()).build())
+    /**
+     * 在内存中将类文件逐个编译为中间 dex，每个类（连同它的 lambda 等合成类）一个 dex，用于热重载时只编译改动的类
+     *
+     * @param classes          待编译的类文件，key 为类的内部名称（如：pkg/Main）
+     * @param classpathClasses 未改动的类文件，只参与解析和脱糖，key 同上
+     * @param libFolder        存放依赖的文件夹，依赖只参与解析，不会编译进结果
+     * @param context          编译上下文，提供编译设置
+     * @return 每个类的 dex，key 为类的内部名称；D8 单独输出的合成类（如全局合成类）也在其中，key 为合成类的内部名称
+     */
+    @JvmOverloads
+    suspend fun compilePerClassInMemory(
+        classes: Map<String, ByteArray>,
+        classpathClasses: Map<String, ByteArray> = emptyMap(),
+        libFolder: File? = null,
+        context: JavaBuildContext = JavaEngine.defaultContext
+    ): Map<String, ByteArray> = withContext(Dispatchers.IO) {
+        JavaEngine.tracer.trace(JavaPipelinePhase.DEX_COMPILE, context) { span ->
+            if (classes.isEmpty()) {
+                return@withContext emptyMap<String, ByteArray>()
+            }
+            val setting = context.setting
+            val dexFiles = hashMapOf<String, ByteArray>()
+            val libJars = libFolder?.let { JavaClassHelper.getLibJars(it) }.orEmpty()
 
-        val classesDex = buildDexDir.absolutePath + File.separator + "classes.dex"
-        if (FileUtils.isFileExists(classesDex).not()) {
-            throw CompileException("编译失败，目标文件未找到：$classesDex")
+            val command = D8Command.builder(JavaDexDiagnosticsHandler(setting))
+                // 热重载优先编译速度
+                .setMode(CompilationMode.DEBUG)
+                .setMinApiLevel(setting.dexMinApiLevel)
+                .setIntermediate(true)
+                .addLibraryFiles(File(setting.rtPath).toPath())
+                .addClasspathFiles(libJars.map { it.toPath() })
+                .addClasspathResourceProvider(
+                    JavaClassBytesProvider(classpathClasses.mapKeys { (name, _) -> "L$name;" })
+                )
+                .setProgramConsumer(object : DexFilePerClassFileConsumer.ForwardingConsumer(null) {
+                    override fun accept(
+                        primaryClassDescriptor: String,
+                        data: ByteDataView,
+                        descriptors: MutableSet<String>,
+                        handler: DiagnosticsHandler
+                    ) {
+                        val name = primaryClassDescriptor.substring(1, primaryClassDescriptor.length - 1)
+                        synchronized(dexFiles) {
+                            dexFiles[name] = data.copyByteData()
+                        }
+                    }
+                })
+                .apply {
+                    classes.values.forEach { addClassProgramData(it, Origin.unknown()) }
+                }
+                .build()
+            D8.run(command)
+            span.classCount = classes.size
+            span.bytesIn = classes.values.sumOf { it.size.toLong() }
+            span.bytesOut = dexFiles.values.sumOf { it.size.toLong() }
+            dexFiles
         }
+    }
+
+    /**
+     * 获取依赖 jar 预编译的 dex 文件，未缓存的依赖会先编译，已缓存的直接复用
+     *
+     * @param libFolder 存放依赖的文件夹
+     * @param context   编译上下文，提供编译设置
+     * @return 依赖的 dex 文件集合，运行时通过 [com.xiaoyv.java.compiler.tools.exec.JavaProgram.run] 的 libraryDexFiles 加载
+     */
+    suspend fun compileLibraries(
+        libFolder: String,
+        context: JavaBuildContext = JavaEngine.defaultContext
+    ): List<File> = compileLibraries(File(libFolder), context)
 
-        return@withContext File(classesDex)
+    suspend fun compileLibraries(
+        libFolder: File,
+        context: JavaBuildContext = JavaEngine.defaultContext
+    ): List<File> = withContext(Dispatchers.IO) {
+        libraryCache.dexLibraries(libFolder, context.setting)
     }
 
+    /**
+     * 是否为可编译的 class 相关包或文件
+     */
+    private fun isArchive(file: File): Boolean {
+        val isArchive = file.name.endsWith("class") ||
+                file.name.endsWith("jar") ||
+                file.name.endsWith("zip")
+        return file.exists() && file.isFile && isArchive
+    }
 
     /**
      * Dex 保存文件夹
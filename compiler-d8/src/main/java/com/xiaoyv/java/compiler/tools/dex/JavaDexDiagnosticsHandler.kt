@@ -4,6 +4,7 @@ import com.android.tools.r8.Diagnostic
 import com.android.tools.r8.DiagnosticsHandler
 import com.android.tools.r8.DiagnosticsLevel
 import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.JavaEngineSetting
 
 /**
  * JavaDexDiagnosticsHandler
@@ -11,12 +12,14 @@ import com.xiaoyv.java.compiler.JavaEngine
  * @author why
  * @since 2022/3/8
  */
-class JavaDexDiagnosticsHandler : DiagnosticsHandler {
+class JavaDexDiagnosticsHandler(
+    private val setting: JavaEngineSetting = JavaEngine.compilerSetting
+) : DiagnosticsHandler {
 
     override fun modifyDiagnosticsLevel(
         level: DiagnosticsLevel,
         diagnostic: Diagnostic
     ): DiagnosticsLevel {
-        return DiagnosticsLevel.valueOf(JavaEngine.compilerSetting.dexLogLevel)
+        return DiagnosticsLevel.valueOf(setting.dexLogLevel)
     }
 }
\ No newline at end of file
@@ -0,0 +1,225 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler.tools.dex
+
+import com.android.tools.r8.*
+import com.android.tools.r8.origin.Origin
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.JavaEngineSetting
+import com.xiaoyv.java.compiler.utils.EncryptUtils
+import com.xiaoyv.java.compiler.utils.FileUtils
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.File
+import java.nio.file.Path
+import java.util.zip.ZipFile
+
+/**
+ * JavaDexIncremental
+ *
+ * 按类缓存 D8 的中间产物（intermediate dex），key 为类文件内容的哈希。
+ * 每次构建只重新 dex 改动过的类，再将全部缓存的 dex 合并为最终的 classes.dex。
+ *
+ * D8 输出的主类不属于输入类的 dex（如多个类共用的合成类）按类描述符缓存，
+ * 同时记录生成它的那一批类，只要其中仍有类在使用就参与合并，见 [storeSynthetic]。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaDexIncremental(buildDir: File, private val setting: JavaEngineSetting) {
+
+    /**
+     * 单个类的 dex 缓存文件夹
+     */
+    private val dexCacheDir = File(buildDir.absolutePath + File.separator + "dex-cache")
+
+    /**
+     * 共用合成类的 dex 缓存文件夹
+     */
+    private val syntheticDir = File(dexCacheDir, "synthetic")
+
+    /**
+     * 增量编译 dex
+     *
+     * @param sourceFileList  待编译的 *.class，*.jar，*.zip 集合
+     * @param buildDexDir     classes.dex 输出文件夹
+     * @param libraryFiles    编译依赖的库（rt.jar 等）
+     * @param classpathFiles  编译依赖的第三方 jar
+     * @param minApiLevel     最低 API 等级
+     */
+    fun compile(
+        sourceFileList: List<File>,
+        buildDexDir: File,
+        libraryFiles: List<Path>,
+        classpathFiles: List<Path>,
+        minApiLevel: Int
+    ) {
+        FileUtils.createOrExistsDir(dexCacheDir)
+
+        val classes = readClasses(sourceFileList, minApiLevel)
+        val missing = classes.filter { !cacheFile(it).exists() }
+
+        JavaEngine.logInfo("增量 Dex：共 ${classes.size} 个类，需重新编译 ${missing.size} 个")
+
+        // 只 dex 改动的类，其余的类作为 classpath 参与脱糖
+        if (missing.isNotEmpty()) {
+            val missingByDescriptor = missing.associateBy { it.descriptor }
+            val missingDescriptors = missingByDescriptor.keys
+            val missingHashes = missing.map { it.hash }
+            val classpath = classes.filter { it.descriptor !in missingDescriptors }
+
+            val command = D8Command.builder(JavaDexDiagnosticsHandler(setting))
+                .setMode(CompilationMode.RELEASE)
+                .setMinApiLevel(minApiLevel)
+                .setIntermediate(true)
+                .addLibraryFiles(libraryFiles)
+                .addClasspathFiles(classpathFiles)
+                .addClasspathResourceProvider(JavaClassBytesProvider(classpath.associate { it.descriptor to it.bytes }))
+                .setProgramConsumer(object : DexFilePerClassFileConsumer.ForwardingConsumer(null) {
+                    override fun accept(
+                        primaryClassDescriptor: String,
+                        data: ByteDataView,
+                        descriptors: MutableSet<String>,
+                        handler: DiagnosticsHandler
+                    ) {
+                        val entry = missingByDescriptor[primaryClassDescriptor]
+                        if (entry != null) {
+                            cacheFile(entry).writeBytes(data.copyByteData())
+                        } else {
+                            storeSynthetic(primaryClassDescriptor, data.copyByteData(), missingHashes)
+                        }
+                    }
+                })
+                .apply {
+                    missing.forEach { addClassProgramData(it.bytes, Origin.unknown()) }
+                }
+                .build()
+            D8.run(command)
+        }
+
+        // 合并全部类的 dex，以及仍在使用的共用合成类
+        val used = classes.map { it.hash }.toSet()
+        val synthetics = syntheticDexFiles(used)
+        val merge = D8Command.builder(JavaDexDiagnosticsHandler(setting))
+            .setMode(CompilationMode.RELEASE)
+            .setMinApiLevel(minApiLevel)
+            .addLibraryFiles(libraryFiles)
+            .setOutput(buildDexDir.toPath(), OutputMode.DexIndexed)
+            .apply {
+                classes.forEach { addDexProgramData(cacheFile(it).readBytes(), Origin.unknown()) }
+                synthetics.forEach { addDexProgramData(it.readBytes(), Origin.unknown()) }
+            }
+            .build()
+        D8.run(merge)
+
+        // 清理不再使用的缓存
+        val usedNames = classes.map { cacheFile(it).name }.toSet()
+        dexCacheDir.listFiles()?.filter { it.isFile && it.name !in usedNames }?.forEach { it.delete() }
+    }
+
+    private fun cacheFile(entry: ClassEntry) = File(dexCacheDir, entry.hash + ".dex")
+
+    /**
+     * 缓存主类不属于输入类的 dex，按类描述符保存，再次生成时覆盖，合并时不会出现重复的类
+     *
+     * @param descriptor 主类描述符
+     * @param bytes      dex 内容
+     * @param owners     生成它的那一批类的哈希
+     */
+    internal fun storeSynthetic(descriptor: String, bytes: ByteArray, owners: Collection<String>) {
+        FileUtils.createOrExistsDir(syntheticDir)
+        val name = EncryptUtils.encryptMD5ToString(descriptor.toByteArray())
+        File(syntheticDir, name + OWNERS_SUFFIX).writeText(owners.joinToString("\n"))
+        File(syntheticDir, "$name.dex").writeBytes(bytes)
+        JavaEngine.logInfo("增量 Dex：缓存共用合成类 $descriptor")
+    }
+
+    /**
+     * 仍在使用的共用合成类的 dex，生成它的类都已不再使用时删除
+     *
+     * @param used 本次构建全部类的哈希
+     */
+    internal fun syntheticDexFiles(used: Set<String>): List<File> {
+        val owners = syntheticDir.listFiles()?.filter { it.name.endsWith(OWNERS_SUFFIX) }.orEmpty()
+        return owners.sortedBy { it.name }.mapNotNull { ownersFile ->
+            val dexFile = File(syntheticDir, ownersFile.name.removeSuffix(OWNERS_SUFFIX) + ".dex")
+            if (dexFile.exists() && ownersFile.readLines().any { it in used }) {
+                dexFile
+            } else {
+                ownersFile.delete()
+                dexFile.delete()
+                null
+            }
+        }
+    }
+
+    /**
+     * 读取全部类文件
+     */
+    private fun readClasses(sourceFileList: List<File>, minApiLevel: Int): List<ClassEntry> {
+        val classes = linkedMapOf<String, ClassEntry>()
+        val add: (ByteArray) -> Unit = { bytes ->
+            val descriptor = readClassDescriptor(bytes)
+            val hash = EncryptUtils.encryptMD5ToString(bytes) + "-" + minApiLevel
+            classes[descriptor] = ClassEntry(descriptor, bytes, hash)
+        }
+        sourceFileList.forEach { file ->
+            if (file.name.endsWith(".class")) {
+                add(file.readBytes())
+            } else {
+                ZipFile(file).use { zip ->
+                    zip.entries().asSequence()
+                        .filter { !it.isDirectory && it.name.endsWith(".class") }
+                        .forEach { entry -> add(zip.getInputStream(entry).use { it.readBytes() }) }
+                }
+            }
+        }
+        return classes.values.toList()
+    }
+
+    /**
+     * 从类文件的常量池中读取类描述符，如：Lpackage/Hello;
+     */
+    private fun readClassDescriptor(bytes: ByteArray): String {
+        DataInputStream(ByteArrayInputStream(bytes)).use { input ->
+            // magic + minor + major
+            input.skipBytes(8)
+            val poolCount = input.readUnsignedShort()
+            val utf8 = arrayOfNulls<String>(poolCount)
+            val classNameIndex = IntArray(poolCount)
+            var index = 1
+            while (index < poolCount) {
+                when (input.readUnsignedByte()) {
+                    1 -> utf8[index] = input.readUTF()
+                    7 -> classNameIndex[index] = input.readUnsignedShort()
+                    8, 16, 19, 20 -> input.skipBytes(2)
+                    15 -> input.skipBytes(3)
+                    3, 4, 9, 10, 11, 12, 17, 18 -> input.skipBytes(4)
+                    5, 6 -> {
+                        input.skipBytes(8)
+                        index++
+                    }
+                    else -> throw IllegalArgumentException("无法解析的类文件常量池")
+                }
+                index++
+            }
+            // access_flags
+            input.skipBytes(2)
+            val thisClass = input.readUnsignedShort()
+            return "L" + utf8[classNameIndex[thisClass]] + ";"
+        }
+    }
+
+    /**
+     * 类文件
+     *
+     * @param descriptor 类描述符
+     * @param bytes      类文件内容
+     * @param hash       类文件内容哈希（含 min-api）
+     */
+    private class ClassEntry(val descriptor: String, val bytes: ByteArray, val hash: String)
+
+    companion object {
+        private const val OWNERS_SUFFIX = ".owners"
+    }
+}
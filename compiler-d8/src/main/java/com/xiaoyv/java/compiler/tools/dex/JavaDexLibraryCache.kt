@@ -0,0 +1,130 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler.tools.dex
+
+import com.android.tools.r8.*
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.JavaEngineSetting
+import com.xiaoyv.java.compiler.exception.CompileException
+import com.xiaoyv.java.compiler.tools.java.JavaClassHelper
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelinePhase
+import com.xiaoyv.java.compiler.utils.EncryptUtils
+import com.xiaoyv.java.compiler.utils.FileUtils
+import java.io.File
+
+/**
+ * JavaDexLibraryCache
+ *
+ * 依赖 jar 的预编译 dex 缓存。每个 jar 只 dex 一次，
+ * 缓存 key 为 jar 内容的 SHA-256 + D8 版本 + min-api，之后的构建直接复用缓存的 dex。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaDexLibraryCache(private val cacheDir: File = File(JavaEngineSetting.defaultDexLibraryCacheDir)) {
+
+    /**
+     * 获取 lib 文件夹内全部依赖 jar 对应的 dex 文件，未缓存的 jar 会先编译
+     *
+     * @param libFolder  存放依赖的文件夹
+     * @param setting    编译设置，提供 rt.jar 和最低 API 等级
+     * @return 全部依赖的 dex 文件，可与程序 dex 一起交给 DexClassLoader
+     */
+    @JvmOverloads
+    fun dexLibraries(
+        libFolder: File,
+        setting: JavaEngineSetting = JavaEngine.compilerSetting
+    ): List<File> {
+        val jars = JavaClassHelper.getLibJars(libFolder)
+        return jars.flatMap { jar ->
+            dexLibrary(jar, jars - jar, setting)
+        }
+    }
+
+    /**
+     * 获取单个依赖 jar 对应的 dex 文件
+     *
+     * @param jar           依赖 jar
+     * @param classpathJars 该 jar 可能引用的其它依赖
+     * @param setting       编译设置，提供 rt.jar 和最低 API 等级
+     */
+    @JvmOverloads
+    fun dexLibrary(
+        jar: File,
+        classpathJars: List<File> = emptyList(),
+        setting: JavaEngineSetting = JavaEngine.compilerSetting
+    ): List<File> = JavaEngine.tracer.trace(JavaPipelinePhase.DEX_LIBRARY, null) { span ->
+        val minApiLevel = setting.dexMinApiLevel
+        val key = cacheKey(jar, minApiLevel)
+        val keyDir = File(cacheDir, key)
+        val completeFile = File(keyDir, COMPLETE_FILE)
+
+        span.bytesIn = jar.length()
+        span.cacheHit = completeFile.exists()
+
+        // 命中缓存
+        if (completeFile.exists()) {
+            JavaEngine.logInfo("依赖 Dex 命中缓存：${jar.name} -> $key")
+            keyDir.setLastModified(System.currentTimeMillis())
+            return@trace listDexFiles(keyDir).also { span.bytesOut = it.sumOf { dex -> dex.length() } }
+        }
+
+        JavaEngine.logInfo("依赖 Dex 编译：${jar.name} -> $key")
+
+        // 先输出到本线程独占的临时文件夹，写完整后再重命名，避免中断或并发编译时留下不完整的缓存
+        val tmpDir = File(cacheDir, "$key$TMP_SUFFIX.${Thread.currentThread().id}")
+        JavaEngineSetting.createAndCleanDir(tmpDir)
+
+        try {
+            val command = D8Command.builder(JavaDexDiagnosticsHandler(setting))
+                .setMode(CompilationMode.RELEASE)
+                .setMinApiLevel(minApiLevel)
+                .addProgramFiles(jar.toPath())
+                .addClasspathFiles(classpathJars.map { it.toPath() })
+                .addLibraryFiles(File(setting.rtPath).toPath())
+                .setOutput(tmpDir.toPath(), OutputMode.DexIndexed)
+                .build()
+            D8.run(command)
+            File(tmpDir, COMPLETE_FILE).createNewFile()
+            commit(tmpDir, keyDir)
+        } finally {
+            FileUtils.deleteDir(tmpDir)
+        }
+        listDexFiles(keyDir).also { span.bytesOut = it.sumOf { dex -> dex.length() } }
+    }
+
+    /**
+     * 将写完整的临时文件夹重命名为缓存文件夹，其它编译已经写入时保留已有的缓存
+     */
+    private fun commit(tmpDir: File, keyDir: File) = synchronized(JavaDexLibraryCache::class.java) {
+        if (File(keyDir, COMPLETE_FILE).exists()) {
+            return
+        }
+        // 旧版本中断时留下的不完整缓存
+        FileUtils.deleteDir(keyDir)
+        if (!tmpDir.renameTo(keyDir)) {
+            throw CompileException("依赖 Dex 缓存写入失败：${keyDir.absolutePath}")
+        }
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    fun clear() {
+        FileUtils.deleteAllInDir(cacheDir)
+    }
+
+    private fun listDexFiles(keyDir: File) = keyDir.listFiles { file ->
+        file.isFile && file.name.endsWith(".dex")
+    }.orEmpty().sortedBy { it.name }
+
+    private fun cacheKey(jar: File, minApiLevel: Int): String {
+        val d8Version = Version.getVersionString().replace(Regex("[^A-Za-z0-9.]"), "_")
+        return EncryptUtils.encryptSHA256File2String(jar) + "-" + d8Version + "-" + minApiLevel
+    }
+
+    companion object {
+        private const val COMPLETE_FILE = ".complete"
+        private const val TMP_SUFFIX = ".tmp"
+    }
+}
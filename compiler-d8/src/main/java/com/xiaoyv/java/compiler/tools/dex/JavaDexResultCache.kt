@@ -0,0 +1,284 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler.tools.dex
+
+import com.xiaoyv.java.compiler.JavaBuildContext
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.JavaEngineSetting
+import com.xiaoyv.java.compiler.tools.java.JavaClassHelper
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelinePhase
+import com.xiaoyv.java.compiler.utils.EncryptUtils
+import com.xiaoyv.java.compiler.utils.FileUtils
+import java.io.File
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * JavaDexResultCache
+ *
+ * 编译结果缓存：相同的源码（忽略换行符和行尾空白的差异）、依赖和编译设置，
+ * 直接返回上次编译的 dex，不再经过 ECJ 和 D8。
+ *
+ * 缓存保存在磁盘上，总大小超过 [maxBytes] 时按最近最少使用淘汰。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaDexResultCache @JvmOverloads constructor(
+    private val cacheDir: File = File(JavaEngineSetting.defaultDexResultCacheDir),
+    maxBytes: Long = DEFAULT_MAX_BYTES
+) {
+
+    /**
+     * 缓存占用磁盘的上限（字节）
+     */
+    @Volatile
+    var maxBytes: Long = maxBytes
+        set(value) {
+            field = value
+            synchronized(this) { trimToSize() }
+        }
+
+    /**
+     * 缓存索引，按访问顺序排列，key 为缓存 key，value 为占用字节数
+     */
+    private val entries = LinkedHashMap<String, Long>(16, 0.75f, true)
+
+    private var totalBytes = 0L
+
+    /**
+     * jar 内容哈希，key 为 jar 的绝对路径，避免每次都重新计算 rt.jar 等大文件的哈希
+     */
+    private val jarHashes = hashMapOf<String, Pair<String, String>>()
+
+    private val hitCount = AtomicLong()
+    private val missCount = AtomicLong()
+
+    init {
+        loadEntries()
+    }
+
+    /**
+     * 编译源码，命中缓存时直接返回缓存的 dex
+     *
+     * @param sources   源码集合，key 为文件名（如：Main.java，pkg/Main.java），value 为源码内容
+     * @param libFolder 存放依赖的文件夹
+     * @param context   编译上下文
+     * @return dex 文件内容，按 classes.dex、classes2.dex ... 的顺序排列
+     */
+    @JvmOverloads
+    suspend fun compile(
+        sources: Map<String, String>,
+        libFolder: File? = null,
+        context: JavaBuildContext = JavaEngine.defaultContext
+    ): List<ByteArray> {
+        val key = cacheKey(sources, libFolder, context.setting)
+        val cached = JavaEngine.tracer.trace(JavaPipelinePhase.RESULT_CACHE, context) { span ->
+            get(key).also {
+                span.cacheHit = it != null
+                span.bytesOut = it?.sumOf { dex -> dex.size.toLong() } ?: -1
+            }
+        }
+        if (cached != null) {
+            return cached
+        }
+
+        val classes = JavaEngine.classCompiler.compileInMemory(sources, libFolder, context)
+        val dexBytes = JavaEngine.dexCompiler.compileInMemory(classes, libFolder, context)
+        put(key, dexBytes)
+        return dexBytes
+    }
+
+    /**
+     * 计算缓存 key：源码 + 依赖 jar + 编译设置
+     */
+    fun cacheKey(sources: Map<String, String>, libFolder: File?, setting: JavaEngineSetting): String {
+        val builder = StringBuilder()
+        builder.append(setting.classSourceVersion).append('|')
+            .append(setting.classTargetVersion).append('|')
+            .append(setting.compileEncoding).append('|')
+            .append(setting.dexMinApiLevel).append('\n')
+
+        val jars = listOf(File(setting.rtPath)) +
+                libFolder?.let { JavaClassHelper.getLibJars(it) }.orEmpty()
+        jars.forEach {
+            builder.append(jarHash(it)).append('\n')
+        }
+
+        sources.toSortedMap().forEach { (fileName, code) ->
+            builder.append(fileName).append('\n')
+                .append(normalize(code)).append('\u0000')
+        }
+        return EncryptUtils.encryptSHA256ToString(builder.toString().toByteArray())
+    }
+
+    /**
+     * 读取缓存，在锁内读取，避免读到一半时被 [trimToSize] 删除
+     */
+    fun get(key: String): List<ByteArray>? {
+        val entryDir = File(cacheDir, key)
+        val dexBytes = synchronized(this) {
+            val size = entries[key] ?: return miss()
+            val dexBytes = runCatching { readDexFiles(entryDir) }.getOrNull()
+            // 文件缺失或不完整时视为未命中
+            if (dexBytes.isNullOrEmpty() || dexBytes.sumOf { it.size.toLong() } != size) {
+                remove(key)
+                return miss()
+            }
+            dexBytes
+        }
+        entryDir.setLastModified(System.currentTimeMillis())
+        hitCount.incrementAndGet()
+        JavaEngine.logInfo("编译结果命中缓存：$key")
+        return dexBytes
+    }
+
+    private fun miss(): List<ByteArray>? {
+        missCount.incrementAndGet()
+        return null
+    }
+
+    /**
+     * 写入缓存
+     */
+    fun put(key: String, dexBytes: List<ByteArray>) {
+        val size = dexBytes.sumOf { it.size.toLong() }
+        if (size > maxBytes) {
+            return
+        }
+
+        // 先写入临时文件夹，完成后再重命名，避免中断时留下不完整的缓存
+        val tmpDir = File(cacheDir, "$key$TMP_SUFFIX.${Thread.currentThread().id}")
+        JavaEngineSetting.createAndCleanDir(tmpDir)
+        dexBytes.forEachIndexed { index, bytes ->
+            File(tmpDir, dexFileName(index)).writeBytes(bytes)
+        }
+
+        synchronized(this) {
+            val entryDir = File(cacheDir, key)
+            remove(key)
+            if (!tmpDir.renameTo(entryDir)) {
+                FileUtils.deleteDir(tmpDir)
+                return
+            }
+            entries[key] = size
+            totalBytes += size
+            trimToSize()
+        }
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        totalBytes = 0
+        FileUtils.deleteAllInDir(cacheDir)
+    }
+
+    /**
+     * 缓存统计
+     */
+    val stats: Stats
+        @Synchronized get() = Stats(hitCount.get(), missCount.get(), entries.size, totalBytes)
+
+    private fun trimToSize() {
+        val iterator = entries.entries.iterator()
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            val (key, size) = iterator.next()
+            iterator.remove()
+            totalBytes -= size
+            FileUtils.deleteDir(File(cacheDir, key))
+        }
+    }
+
+    private fun remove(key: String) {
+        entries.remove(key)?.let { totalBytes -= it }
+        FileUtils.deleteDir(File(cacheDir, key))
+    }
+
+    private fun loadEntries() {
+        FileUtils.createOrExistsDir(cacheDir)
+        cacheDir.listFiles().orEmpty()
+            .filter { it.isDirectory }
+            .onEach {
+                // 清理中断时遗留的临时文件夹
+                if (it.name.contains(TMP_SUFFIX)) FileUtils.deleteDir(it)
+            }
+            .filter { it.exists() }
+            .sortedBy { it.lastModified() }
+            .forEach { entryDir ->
+                val size = entryDir.listFiles().orEmpty().sumOf { it.length() }
+                entries[entryDir.name] = size
+                totalBytes += size
+            }
+        trimToSize()
+    }
+
+    private fun readDexFiles(entryDir: File): List<ByteArray> {
+        val dexBytes = arrayListOf<ByteArray>()
+        var index = 0
+        while (true) {
+            val dexFile = File(entryDir, dexFileName(index++))
+            if (!dexFile.exists()) {
+                return dexBytes
+            }
+            dexBytes.add(dexFile.readBytes())
+        }
+    }
+
+    private fun dexFileName(index: Int) = if (index == 0) "classes.dex" else "classes${index + 1}.dex"
+
+    /**
+     * 统一换行符并去掉行尾空白，格式上的差异不影响缓存命中
+     */
+    private fun normalize(code: String) = code.lineSequence()
+        .map { it.trimEnd() }
+        .joinToString("\n")
+        .trimEnd()
+
+    private fun jarHash(jar: File): String {
+        val path = jar.absolutePath
+        val signature = "${jar.length()}:${jar.lastModified()}"
+        synchronized(jarHashes) {
+            jarHashes[path]?.let { (cachedSignature, hash) ->
+                if (cachedSignature == signature) return hash
+            }
+        }
+        val hash = EncryptUtils.encryptSHA256File2String(jar)
+        synchronized(jarHashes) {
+            jarHashes[path] = signature to hash
+        }
+        return hash
+    }
+
+    /**
+     * 缓存统计
+     *
+     * @param hitCount    命中次数
+     * @param missCount   未命中次数
+     * @param entryCount  缓存条目数
+     * @param totalBytes  缓存占用磁盘字节数
+     */
+    data class Stats(
+        val hitCount: Long,
+        val missCount: Long,
+        val entryCount: Int,
+        val totalBytes: Long
+    ) {
+        /**
+         * 命中率
+         */
+        val hitRate: Float
+            get() = if (hitCount + missCount == 0L) 0f else hitCount.toFloat() / (hitCount + missCount)
+    }
+
+    companion object {
+        private const val TMP_SUFFIX = ".tmp"
+
+        /**
+         * 默认缓存上限 64MB
+         */
+        const val DEFAULT_MAX_BYTES = 64L * 1024 * 1024
+    }
+}
@@ -29,6 +29,7 @@ import java.io.OutputStream;
 import java.io.UTFDataFormatException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.AbstractList;
@@ -121,6 +122,19 @@ public final class Dex {
         }
     }
 
+    /**
+     * Creates a new dex that reads from a read-only memory mapping of the plain
+     * dex file {@code file}, without copying its bytes onto the heap.
+     */
+    public static Dex map(File file) throws IOException {
+        if (!file.getName().endsWith(".dex")) {
+            throw new DexException("unknown output extension: " + file);
+        }
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            return new Dex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
     /**
      * It is the caller's responsibility to close {@code in}.
      */
@@ -311,6 +325,79 @@ public final class Dex {
         open(CHECKSUM_OFFSET).writeInt(computeChecksum());
     }
 
+    /**
+     * Look up a string index by binary search; string ids are sorted by contents.
+     * Returns a negative value if {@code s} is not in this dex.
+     */
+    public int findStringIndex(String s) {
+        return Collections.binarySearch(strings, s);
+    }
+
+    /**
+     * Look up a type index by binary search; type ids are sorted by string index.
+     * Returns a negative value if {@code descriptor} is not in this dex.
+     */
+    public int findTypeIndex(String descriptor) {
+        int stringIndex = findStringIndex(descriptor);
+        if (stringIndex < 0) {
+            return stringIndex;
+        }
+        return Collections.binarySearch(typeIds, stringIndex);
+    }
+
+    /**
+     * Look up a name index from a method index. Cheaper than:
+     * {@code methodIds().get(methodIndex).getNameIndex();}
+     */
+    public int nameIndexFromMethodIndex(int methodIndex) {
+        checkBounds(methodIndex, tableOfContents.methodIds.size);
+        int position = tableOfContents.methodIds.off + (SizeOf.MEMBER_ID_ITEM * methodIndex);
+        position += SizeOf.USHORT;  // declaringClassIndex
+        position += SizeOf.USHORT;  // protoIndex
+        return data.getInt(position);
+    }
+
+    /**
+     * Look up a declaring class type index from a method index. Cheaper than:
+     * {@code methodIds().get(methodIndex).getDeclaringClassIndex();}
+     */
+    public int declaringClassIndexFromMethodIndex(int methodIndex) {
+        checkBounds(methodIndex, tableOfContents.methodIds.size);
+        int position = tableOfContents.methodIds.off + (SizeOf.MEMBER_ID_ITEM * methodIndex);
+        return data.getShort(position) & 0xFFFF;  // declaringClassIndex
+    }
+
+    /**
+     * Look up parameter type indices from a method index. Cheaper than:
+     * {@code readTypeList(protoIds().get(methodIds().get(methodIndex).getProtoIndex()).getParametersOffset()).getTypes();}
+     */
+    public short[] parameterTypeIndicesFromMethodIndex(int methodIndex) {
+        checkBounds(methodIndex, tableOfContents.methodIds.size);
+        int position = tableOfContents.methodIds.off + (SizeOf.MEMBER_ID_ITEM * methodIndex);
+        position += SizeOf.USHORT;  // declaringClassIndex
+        int protoIndex = data.getShort(position) & 0xFFFF;
+        checkBounds(protoIndex, tableOfContents.protoIds.size);
+        position = tableOfContents.protoIds.off + (SizeOf.PROTO_ID_ITEM * protoIndex);
+        position += SizeOf.UINT;  // shortyIndex
+        position += SizeOf.UINT;  // returnTypeIndex
+        int parametersOffset = data.getInt(position);
+        if (parametersOffset == 0) {
+            return EMPTY_SHORT_ARRAY;
+        }
+        position = parametersOffset;
+        int size = data.getInt(position);
+        if (size <= 0) {
+            throw new AssertionError("Unexpected parameter type list size: " + size);
+        }
+        position += SizeOf.UINT;
+        short[] types = new short[size];
+        for (int i = 0; i < size; i++) {
+            types[i] = data.getShort(position);
+            position += SizeOf.USHORT;
+        }
+        return types;
+    }
+
     /**
      * Look up a descriptor index from a type index. Cheaper than:
      * {@code open(tableOfContents.typeIds.off + (index * SizeOf.TYPE_ID_ITEM)).readInt();}
@@ -0,0 +1,313 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler.tools.exec
+
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.JavaEngineSetting
+import com.xiaoyv.java.compiler.utils.EncryptUtils
+import com.xiaoyv.java.compiler.utils.FileUtils
+import dalvik.system.DexClassLoader
+import java.io.File
+import java.lang.ref.WeakReference
+
+/**
+ * JavaDexLoaderCache
+ *
+ * 类加载器缓存：按 dex 内容（以及依赖 dex）的哈希为每个程序保留一个固定的文件夹，
+ * 存放 dex 文件和优化输出，内容不变的程序再次运行时，运行时直接复用上次的校验和优化结果。
+ *
+ * 每次运行仍然创建新的 [DexClassLoader]，程序的静态变量不会残留到下一次运行，
+ * 复用的只是磁盘上的 dex 和优化输出。
+ *
+ * 依赖 dex 由单独的条目保存优化输出，不同程序共用同一组依赖时复用同一个条目。
+ *
+ * 条目数超过 [maxEntries] 时按最近最少使用淘汰，仍有类加载器存活的条目不会淘汰，
+ * 避免删除运行中程序的 dex 和优化输出。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaDexLoaderCache @JvmOverloads constructor(
+    private val cacheDir: File = File(JavaEngineSetting.defaultDexLoaderCacheDir),
+    maxEntries: Int = DEFAULT_MAX_ENTRIES
+) {
+
+    /**
+     * 最多保留的程序数
+     */
+    @Volatile
+    var maxEntries: Int = maxEntries
+        set(value) {
+            field = value
+            synchronized(this) { trimToSize() }
+        }
+
+    /**
+     * 缓存索引，按访问顺序排列
+     */
+    private val entries = LinkedHashMap<String, File>(16, 0.75f, true)
+
+    /**
+     * 正在使用的条目，key 为缓存 key
+     */
+    private val pins = hashMapOf<String, EntryPin>()
+
+    init {
+        loadEntries()
+    }
+
+    /**
+     * 创建加载 dex 文件的类加载器
+     *
+     * @param dexFile         Dex文件
+     * @param libraryDexFiles 依赖 jar 预编译的 dex 文件，由父加载器加载
+     */
+    fun createClassLoader(dexFile: File, libraryDexFiles: List<File> = emptyList()): ClassLoader {
+        val key = hashKey(listOf(EncryptUtils.encryptSHA256File2String(dexFile)), libraryDexFiles)
+        return createEntryClassLoader(key, libraryDexFiles) { dir ->
+            FileUtils.copyFile(dexFile, File(dir, dexFileName(0)))
+        }
+    }
+
+    /**
+     * 创建加载内存中 dex 的类加载器，dex 只在第一次运行时写入缓存
+     *
+     * @param dexBytes        Dex文件内容
+     * @param libraryDexFiles 依赖 jar 预编译的 dex 文件，由父加载器加载
+     */
+    fun createClassLoader(dexBytes: List<ByteArray>, libraryDexFiles: List<File> = emptyList()): ClassLoader =
+        createClassLoader(cacheKey(dexBytes, libraryDexFiles), dexBytes, libraryDexFiles)
+
+    /**
+     * 使用 [cacheKey] 预先计算的 key 创建加载内存中 dex 的类加载器，
+     * 同一个程序多次创建类加载器时（如批量评测）不必每次都重新计算 dex 的哈希
+     *
+     * @param key             [cacheKey] 计算的缓存 key，必须与 [dexBytes] 和 [libraryDexFiles] 对应
+     * @param dexBytes        Dex文件内容
+     * @param libraryDexFiles 依赖 jar 预编译的 dex 文件，由父加载器加载
+     */
+    fun createClassLoader(key: String, dexBytes: List<ByteArray>, libraryDexFiles: List<File> = emptyList()): ClassLoader {
+        return createEntryClassLoader(key, libraryDexFiles) { dir ->
+            dexBytes.forEachIndexed { index, bytes ->
+                File(dir, dexFileName(index)).writeBytes(bytes)
+            }
+        }
+    }
+
+    /**
+     * 清空全部缓存，仍有类加载器存活的条目保留
+     */
+    @Synchronized
+    fun clear() {
+        val iterator = entries.entries.iterator()
+        while (iterator.hasNext()) {
+            val (key, entryDir) = iterator.next()
+            if (!isInUse(key)) {
+                iterator.remove()
+                FileUtils.deleteDir(entryDir)
+            }
+        }
+    }
+
+    /**
+     * 已缓存的程序数
+     */
+    val size: Int
+        @Synchronized get() = entries.size
+
+    /**
+     * 计算内存中 dex 的缓存 key
+     *
+     * @param dexBytes        Dex文件内容
+     * @param libraryDexFiles 依赖 jar 预编译的 dex 文件
+     */
+    fun cacheKey(dexBytes: List<ByteArray>, libraryDexFiles: List<File> = emptyList()): String =
+        hashKey(dexBytes.map { EncryptUtils.encryptSHA256ToString(it) }, libraryDexFiles)
+
+    /**
+     * 依赖 dex 的路径和修改时间参与哈希，运行时会校验优化输出记录的类加载器结构
+     */
+    private fun hashKey(dexHashes: List<String>, libraryDexFiles: List<File>): String {
+        val builder = StringBuilder()
+        dexHashes.forEach { builder.append(it).append('\n') }
+        libraryDexFiles.forEach {
+            builder.append(it.absolutePath).append(':')
+                .append(it.length()).append(':')
+                .append(it.lastModified()).append('\n')
+        }
+        return EncryptUtils.encryptSHA256ToString(builder.toString().toByteArray())
+    }
+
+    /**
+     * 创建类加载器，创建期间以及类加载器存活期间，程序和依赖的条目都不会被淘汰
+     */
+    private fun createEntryClassLoader(key: String, libraryDexFiles: List<File>, writer: (File) -> Unit): ClassLoader {
+        val libraryKey = if (libraryDexFiles.isEmpty()) null else LIBRARY_PREFIX + hashKey(emptyList(), libraryDexFiles)
+        val keys = listOfNotNull(libraryKey, key)
+        synchronized(this) {
+            keys.forEach { pins.getOrPut(it) { EntryPin() }.loading++ }
+        }
+        try {
+            val libraryDir = libraryKey?.let { libraryEntry(it) }
+            val entryDir = entry(key, writer)
+            val classLoader = loadEntry(entryDir, libraryDir, libraryDexFiles)
+            // 程序的类加载器持有依赖的类加载器，两个条目跟随程序的类加载器一起释放
+            synchronized(this) {
+                keys.forEach { pins[it]?.loaders?.add(WeakReference(classLoader)) }
+            }
+            return classLoader
+        } finally {
+            synchronized(this) {
+                keys.forEach {
+                    pins[it]?.let { pin -> pin.loading-- }
+                    isInUse(it)
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取依赖 dex 的条目，只存放依赖的优化输出，dex 文件仍在预编译的位置
+     */
+    private fun libraryEntry(key: String): File = synchronized(this) {
+        val entryDir = File(cacheDir, key)
+        FileUtils.createOrExistsDir(File(entryDir, OPTIMIZED_DIR))
+        entries[key] = entryDir
+        trimToSize()
+        entryDir
+    }
+
+    /**
+     * 获取缓存条目，不存在时通过 [writer] 写入 dex
+     */
+    private fun entry(key: String, writer: (File) -> Unit): File {
+        val entryDir = File(cacheDir, key)
+        synchronized(this) {
+            if (entries[key] != null && File(entryDir, dexFileName(0)).exists()) {
+                JavaEngine.logInfo("类加载器命中缓存：$key")
+                return entryDir
+            }
+        }
+
+        // 先写入临时文件夹，完成后再重命名，避免中断时留下不完整的缓存
+        val tmpDir = File(cacheDir, "$key$TMP_SUFFIX.${Thread.currentThread().id}")
+        JavaEngineSetting.createAndCleanDir(tmpDir)
+        writer.invoke(tmpDir)
+        if (!File(tmpDir, dexFileName(0)).exists()) {
+            FileUtils.deleteDir(tmpDir)
+            throw IllegalStateException("类加载器缓存写入失败：$tmpDir")
+        }
+        // Android 14 起 DexClassLoader 只加载只读的 dex 文件
+        tmpDir.listFiles().orEmpty().forEach { it.setReadOnly() }
+        FileUtils.createOrExistsDir(File(tmpDir, OPTIMIZED_DIR))
+
+        synchronized(this) {
+            if (entries[key] != null && File(entryDir, dexFileName(0)).exists()) {
+                // 其它线程已经写入
+                FileUtils.deleteDir(tmpDir)
+                return entryDir
+            }
+            FileUtils.deleteDir(entryDir)
+            if (!tmpDir.renameTo(entryDir)) {
+                FileUtils.deleteDir(tmpDir)
+                throw IllegalStateException("类加载器缓存写入失败：$entryDir")
+            }
+            entries[key] = entryDir
+            trimToSize()
+        }
+        return entryDir
+    }
+
+    private fun loadEntry(entryDir: File, libraryDir: File?, libraryDexFiles: List<File>): ClassLoader {
+        val optimizedDirectory = File(entryDir, OPTIMIZED_DIR).absolutePath
+        entryDir.setLastModified(System.currentTimeMillis())
+
+        val parent = if (libraryDir == null) {
+            ClassLoader.getSystemClassLoader()
+        } else {
+            libraryDir.setLastModified(System.currentTimeMillis())
+            val libraryDexPath = libraryDexFiles.joinToString(File.pathSeparator) { it.absolutePath }
+            val libraryOptimizedDirectory = File(libraryDir, OPTIMIZED_DIR).absolutePath
+            DexClassLoader(libraryDexPath, libraryOptimizedDirectory, null, ClassLoader.getSystemClassLoader())
+        }
+
+        val dexPath = entryDir.listFiles().orEmpty()
+            .filter { it.isFile && it.name.endsWith(".dex") }
+            .sortedBy { dexIndex(it.name) }
+            .joinToString(File.pathSeparator) { it.absolutePath }
+        return DexClassLoader(dexPath, optimizedDirectory, null, parent)
+    }
+
+    /**
+     * 淘汰最近最少使用的条目，正在使用的条目跳过，此时条目数可能暂时超过 [maxEntries]
+     */
+    private fun trimToSize() {
+        val iterator = entries.entries.iterator()
+        while (entries.size > maxEntries && iterator.hasNext()) {
+            val (key, entryDir) = iterator.next()
+            if (isInUse(key)) {
+                continue
+            }
+            iterator.remove()
+            FileUtils.deleteDir(entryDir)
+        }
+    }
+
+    /**
+     * 条目是否正在创建类加载器，或者仍有类加载器存活，不再使用的记录顺带清理
+     */
+    private fun isInUse(key: String): Boolean {
+        val pin = pins[key] ?: return false
+        pin.loaders.removeAll { it.get() == null }
+        if (pin.loading > 0 || pin.loaders.isNotEmpty()) {
+            return true
+        }
+        pins.remove(key)
+        return false
+    }
+
+    private fun loadEntries() {
+        FileUtils.createOrExistsDir(cacheDir)
+        cacheDir.listFiles().orEmpty()
+            .filter { it.isDirectory }
+            .onEach {
+                // 清理中断时遗留的临时文件夹
+                if (it.name.contains(TMP_SUFFIX)) FileUtils.deleteDir(it)
+            }
+            .filter { it.exists() }
+            .sortedBy { it.lastModified() }
+            .forEach { entries[it.name] = it }
+        trimToSize()
+    }
+
+    private fun dexFileName(index: Int) = if (index == 0) "classes.dex" else "classes${index + 1}.dex"
+
+    private fun dexIndex(name: String) =
+        name.removePrefix("classes").removeSuffix(".dex").toIntOrNull() ?: 1
+
+    /**
+     * 条目的使用记录
+     */
+    private class EntryPin {
+        /**
+         * 正在创建的类加载器数
+         */
+        var loading = 0
+
+        /**
+         * 使用该条目的类加载器
+         */
+        val loaders = arrayListOf<WeakReference<ClassLoader>>()
+    }
+
+    companion object {
+        private const val TMP_SUFFIX = ".tmp"
+        private const val OPTIMIZED_DIR = "oat"
+        private const val LIBRARY_PREFIX = "lib-"
+
+        /**
+         * 默认最多保留 16 个程序
+         */
+        const val DEFAULT_MAX_ENTRIES = 16
+    }
+}
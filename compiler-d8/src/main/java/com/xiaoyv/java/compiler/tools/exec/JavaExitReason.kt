@@ -0,0 +1,52 @@
+package com.xiaoyv.java.compiler.tools.exec
+
+/**
+ * JavaExitReason
+ *
+ * 程序结束的原因
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+enum class JavaExitReason(val message: String) {
+    /**
+     * 全部非守护线程正常结束
+     */
+    NORMAL("程序运行结束"),
+
+    /**
+     * 主线程抛出未捕获的异常
+     */
+    EXCEPTION("程序异常退出"),
+
+    /**
+     * 超过 [JavaRunLimits.wallTimeMillis]
+     */
+    TIMEOUT("程序运行超时"),
+
+    /**
+     * 超过 [JavaRunLimits.cpuTimeMillis]
+     */
+    CPU_TIME_LIMIT("程序 CPU 时间超出限制"),
+
+    /**
+     * 超过 [JavaRunLimits.maxOutputBytes]
+     */
+    OUTPUT_LIMIT("程序输出超出限制"),
+
+    /**
+     * 超过 [JavaRunLimits.maxThreads]
+     */
+    THREAD_LIMIT("程序线程数超出限制"),
+
+    /**
+     * 运行中被关闭
+     */
+    KILLED("程序被强制结束");
+
+    /**
+     * 是否因为运行限制或关闭而被终止
+     */
+    val isTerminated: Boolean
+        get() = this != NORMAL && this != EXCEPTION
+}
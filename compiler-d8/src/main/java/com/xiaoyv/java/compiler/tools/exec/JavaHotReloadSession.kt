@@ -0,0 +1,218 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler.tools.exec
+
+import android.os.Build
+import com.xiaoyv.java.compiler.JavaBuildContext
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.JavaEngineSetting
+import com.xiaoyv.java.compiler.exception.CompileException
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelinePhase
+import dalvik.system.DexClassLoader
+import dalvik.system.InMemoryDexClassLoader
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.Closeable
+import java.io.File
+import java.nio.ByteBuffer
+
+/**
+ * JavaHotReloadSession
+ *
+ * 热重载会话：修改代码后重新运行，不必每次都完整地编译、转换、创建类加载器和控制台。
+ *
+ * - 依赖 dex 只在第一次运行时加载到父加载器，之后一直复用
+ * - 每个类单独转换为 dex 并缓存，重新运行时只转换类文件有变化的类
+ * - 程序的类放在一个小的子加载器中，每次重新运行都丢弃旧的子加载器，静态变量不会残留
+ * - 控制台在多次运行之间保持不变，重新运行时只结束上一次运行的程序线程
+ *
+ * 通过 [JavaProgram.hotReload] 创建。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaHotReloadSession internal constructor(
+    private val program: JavaProgram,
+    val context: JavaBuildContext,
+    private val libFolder: File?,
+    private val printOut: (CharSequence) -> Unit,
+    private val printErr: (CharSequence) -> Unit
+) : Closeable {
+
+    private val mutex = Mutex()
+
+    /**
+     * 依赖 dex 的父加载器
+     */
+    private var libraryLoader: ClassLoader? = null
+
+    /**
+     * 上一次运行的类，key 为类的内部名称（如：pkg/Main）
+     */
+    private var classes: Map<String, ClassDex> = emptyMap()
+
+    /**
+     * D8 单独输出、不属于任何源码类的合成类（如全局合成类），key 为合成类的内部名称
+     */
+    private var synthetics: Map<String, SyntheticDex> = emptyMap()
+
+    /**
+     * 多次运行共用的控制台
+     */
+    @Volatile
+    var console: JavaProgramConsole? = null
+        private set
+
+    /**
+     * 运行次数
+     */
+    @Volatile
+    var reloadCount = 0
+        private set
+
+    /**
+     * 编译并运行，控制台已存在时结束上一次运行的程序，在同一个控制台中重新运行
+     *
+     * @param sources   源码集合，key 为文件名（如：Main.java，pkg/Main.java），value 为源码内容
+     * @param args      文件参数
+     * @param mainClass 主类的全路径，为 null 时运行第一个包含 main 方法的类
+     */
+    @JvmOverloads
+    suspend fun reload(
+        sources: Map<String, String>,
+        args: Array<String> = emptyArray(),
+        mainClass: String? = null
+    ): JavaProgramConsole = mutex.withLock {
+        withContext(Dispatchers.IO) {
+            val startTime = System.currentTimeMillis()
+
+            // 源码整体编译，会话模式下 rt.jar 和依赖只加载一次
+            val compiled = JavaEngine.classCompiler.compileInMemory(sources, libFolder, context)
+
+            // 只转换类文件有变化的类，其余的类作为 classpath 参与脱糖
+            val changed = compiled.filter { (name, bytes) -> classes[name]?.bytes?.contentEquals(bytes) != true }
+            val unchanged = compiled.filterKeys { it !in changed }
+            val dexFiles = JavaEngine.dexCompiler.compilePerClassInMemory(changed, unchanged, libFolder, context)
+            classes = compiled.mapValues { (name, bytes) ->
+                val dex = dexFiles[name] ?: classes[name]?.takeIf { name !in changed }?.dex
+                ?: throw CompileException("热重载编译失败，未生成 dex：$name")
+                ClassDex(bytes, dex)
+            }
+            // 不对应任何源码类的 dex 同样要加载，否则运行时找不到合成类
+            synthetics = updateSynthetics(synthetics, unchanged.keys, changed.keys, dexFiles.filterKeys { it !in compiled })
+            val dexBytes = classes.values.map { it.dex } + synthetics.values.map { it.dex }
+
+            // 加载主类
+            val main = mainClass ?: JavaProgramHelper.queryMainFunctionList(dexBytes).firstOrNull()
+            ?: throw CompileException("未找到包含 main(String[] args) 方法的可执行类")
+            val method = JavaEngine.tracer.trace(JavaPipelinePhase.CLASS_LOAD, context) {
+                createClassLoader(dexBytes).loadClass(main).getDeclaredMethod("main", Array<String>::class.java)
+            }
+
+            // 控制台保持不变，只替换运行的程序
+            val console = console?.takeIf { it.isRunning && context.program == it }
+            if (console != null) {
+                console.restart()
+            }
+            val current = console ?: program.openConsole(context, printOut, printErr).also {
+                this@JavaHotReloadSession.console = it
+            }
+            program.invokeMain(current, main, method, args)
+
+            reloadCount++
+            JavaEngine.logInfo(
+                "热重载：共 ${classes.size} 个类，转换 ${changed.size} 个，耗时：${System.currentTimeMillis() - startTime}ms"
+            )
+            current
+        }
+    }
+
+    /**
+     * 关闭控制台，结束正在运行的程序
+     */
+    override fun close() {
+        console?.close()
+        console = null
+        classes = emptyMap()
+        synthetics = emptyMap()
+    }
+
+    /**
+     * 创建子加载器，父加载器为依赖 dex 的加载器
+     *
+     * Android 8.1 以下不支持同时加载多个内存中的 dex，此时将全部类合并为一个 dex
+     */
+    private suspend fun createClassLoader(dexBytes: List<ByteArray>): ClassLoader {
+        val parent = libraryLoader()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            val buffers = dexBytes.map { ByteBuffer.wrap(it) }.toTypedArray()
+            return InMemoryDexClassLoader(buffers, parent)
+        }
+
+        val merged = JavaEngine.dexCompiler.compileInMemory(
+            classes.mapValues { it.value.bytes }, libFolder, context
+        )
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && merged.size == 1) {
+            return InMemoryDexClassLoader(ByteBuffer.wrap(merged.first()), parent)
+        }
+        val optimizedDirectory = JavaEngineSetting.createAndCleanDir(File(context.cacheDir, "hot-reload"))
+        val dexPath = merged.mapIndexed { index, bytes ->
+            val name = if (index == 0) "classes.dex" else "classes${index + 1}.dex"
+            File(optimizedDirectory, name).also { it.writeBytes(bytes) }.absolutePath
+        }.joinToString(File.pathSeparator)
+        return DexClassLoader(dexPath, optimizedDirectory, null, parent)
+    }
+
+    /**
+     * 依赖 dex 的加载器，只在第一次运行时创建
+     */
+    private suspend fun libraryLoader(): ClassLoader {
+        libraryLoader?.let { return it }
+
+        val libraryDexFiles = libFolder?.let { JavaEngine.dexCompiler.compileLibraries(it, context) }.orEmpty()
+        val loader = if (libraryDexFiles.isEmpty()) {
+            ClassLoader.getSystemClassLoader()
+        } else {
+            val optimizedDirectory = JavaEngineSetting.createAndCleanDir(File(context.cacheDir, "hot-reload-lib"))
+            val libraryDexPath = libraryDexFiles.joinToString(File.pathSeparator) { it.absolutePath }
+            DexClassLoader(libraryDexPath, optimizedDirectory, null, ClassLoader.getSystemClassLoader())
+        }
+        libraryLoader = loader
+        return loader
+    }
+
+    /**
+     * 类文件和对应的 dex
+     */
+    private class ClassDex(val bytes: ByteArray, val dex: ByteArray)
+
+    /**
+     * 合成类的 dex
+     *
+     * @param owners 生成它时转换的类
+     */
+    internal class SyntheticDex(val owners: Set<String>, val dex: ByteArray)
+
+    companion object {
+        /**
+         * 本次运行的合成类：上一次的合成类只在生成它的类中仍有未重新转换的类时保留，
+         * 否则由本次转换重新生成，或者已不再需要，不会一直累积
+         *
+         * @param previous  上一次运行的合成类
+         * @param unchanged 本次未重新转换的类
+         * @param changed   本次重新转换的类
+         * @param generated 本次转换输出的合成类
+         */
+        internal fun updateSynthetics(
+            previous: Map<String, SyntheticDex>,
+            unchanged: Set<String>,
+            changed: Set<String>,
+            generated: Map<String, ByteArray>
+        ): Map<String, SyntheticDex> {
+            val kept = previous.filterValues { synthetic -> synthetic.owners.any { it in unchanged } }
+            return kept + generated.mapValues { SyntheticDex(changed, it.value) }
+        }
+    }
+}
@@ -2,12 +2,21 @@ package com.xiaoyv.java.compiler.tools.exec
 
 import android.text.SpannableStringBuilder
 import android.text.style.ForegroundColorSpan
+import com.xiaoyv.java.compiler.JavaBuildContext
 import com.xiaoyv.java.compiler.JavaEngine
 import com.xiaoyv.java.compiler.JavaEngineSetting
 import com.xiaoyv.java.compiler.exception.CompileException
+import com.xiaoyv.java.compiler.tools.exec.judge.JavaJudgeCase
+import com.xiaoyv.java.compiler.tools.exec.judge.JavaJudgeCompareMode
+import com.xiaoyv.java.compiler.tools.exec.judge.JavaJudgeResult
+import com.xiaoyv.java.compiler.tools.exec.judge.JavaJudgeRunner
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelinePhase
+import com.xiaoyv.java.compiler.utils.FileUtils
 import dalvik.system.DexClassLoader
 import kotlinx.coroutines.*
 import java.io.File
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
 
@@ -19,7 +28,14 @@ import kotlin.coroutines.resumeWithException
  */
 class JavaProgram {
 
-    private val defaultChooseMainClassToRun: (List<String>, CancellableContinuation<String>) -> Unit =
+    /**
+     * 程序 dex 和优化输出的缓存
+     */
+    val loaderCache: JavaDexLoaderCache by lazy(LazyThreadSafetyMode.SYNCHRONIZED) {
+        JavaDexLoaderCache()
+    }
+
+    internal val defaultChooseMainClassToRun: (List<String>, CancellableContinuation<String>) -> Unit =
         { mainFunClasses, continuation ->
             if (mainFunClasses.isEmpty()) {
                 continuation.resumeWithException(CompileException("未找到包含 main(String[] args) 方法的可执行类"))
@@ -40,6 +56,8 @@ class JavaProgram {
      * @param dexFile 文件路径
      * @param args 文件参数
      * @param chooseMainClassToRun 选取一个主类进行运行
+     * @param libraryDexFiles 依赖 jar 预编译的 dex 文件，见 [com.xiaoyv.java.compiler.tools.dex.JavaDexCompiler.compileLibraries]
+     * @param context 运行上下文，同一上下文同时只运行一个程序，运行新程序时关闭旧程序
      * @return [JavaProgramConsole] 可以关闭该程序相关句柄
      */
     suspend fun run(
@@ -48,7 +66,9 @@ class JavaProgram {
         chooseMainClassToRun: (List<String>, CancellableContinuation<String>) -> Unit = defaultChooseMainClassToRun,
         printOut: (CharSequence) -> Unit = { },
         printErr: (CharSequence) -> Unit = { },
-    ) = run(File(dexFile), args, chooseMainClassToRun, printOut, printErr)
+        libraryDexFiles: List<File> = emptyList(),
+        context: JavaBuildContext = JavaEngine.defaultContext,
+    ) = run(File(dexFile), args, chooseMainClassToRun, printOut, printErr, libraryDexFiles, context)
 
     suspend fun run(
         dexFile: File,
@@ -56,12 +76,117 @@ class JavaProgram {
         chooseMainClassToRun: (List<String>, CancellableContinuation<String>) -> Unit = defaultChooseMainClassToRun,
         printOut: (CharSequence) -> Unit = { },
         printErr: (CharSequence) -> Unit = { },
+        libraryDexFiles: List<File> = emptyList(),
+        context: JavaBuildContext = JavaEngine.defaultContext,
     ) = withContext(Dispatchers.IO) {
-        JavaEngine.resetProgram()
+        context.resetProgram()
 
         // 包含的全部 Main 方法
         val mainFunctionList = JavaProgramHelper.queryMainFunctionList(dexFile)
 
+        launchProgram(mainFunctionList, args, chooseMainClassToRun, printOut, printErr, context) {
+            if (context.setting.isDexLoaderCache) {
+                return@launchProgram loaderCache.createClassLoader(dexFile, libraryDexFiles)
+            }
+
+            // 程序 dex 在前，依赖 dex 在后
+            val dexPath = (listOf(dexFile) + libraryDexFiles).joinToString(File.pathSeparator) {
+                it.absolutePath
+            }
+
+            val optimizedDirectory = context.restCacheDir()
+            DexClassLoader(dexPath, optimizedDirectory, null, ClassLoader.getSystemClassLoader())
+        }
+    }
+
+    /**
+     * 运行内存中的 Dex，不读写程序的 dex 文件
+     *
+     * @param dexBytes Dex文件内容，见 [com.xiaoyv.java.compiler.tools.dex.JavaDexCompiler.compileInMemory]
+     * @see run
+     */
+    suspend fun run(
+        dexBytes: List<ByteArray>,
+        args: Array<String> = emptyArray(),
+        chooseMainClassToRun: (List<String>, CancellableContinuation<String>) -> Unit = defaultChooseMainClassToRun,
+        printOut: (CharSequence) -> Unit = { },
+        printErr: (CharSequence) -> Unit = { },
+        libraryDexFiles: List<File> = emptyList(),
+        context: JavaBuildContext = JavaEngine.defaultContext,
+    ) = withContext(Dispatchers.IO) {
+        context.resetProgram()
+
+        // 包含的全部 Main 方法
+        val mainFunctionList = JavaProgramHelper.queryMainFunctionList(dexBytes)
+
+        launchProgram(mainFunctionList, args, chooseMainClassToRun, printOut, printErr, context) {
+            JavaProgramHelper.createMemoryClassLoader(dexBytes, libraryDexFiles, context)
+        }
+    }
+
+    /**
+     * 创建热重载会话，修改源码后通过 [JavaHotReloadSession.reload] 在同一个控制台中重新运行，
+     * 只有变化的类需要重新转换为 dex
+     *
+     * @param libFolder 存放依赖的文件夹，依赖只在第一次运行时加载
+     * @param context 运行上下文，会话关闭前不要在同一上下文中运行其它程序
+     */
+    fun hotReload(
+        libFolder: File? = null,
+        printOut: (CharSequence) -> Unit = { },
+        printErr: (CharSequence) -> Unit = { },
+        context: JavaBuildContext = JavaEngine.defaultContext,
+    ) = JavaHotReloadSession(this, context, libFolder, printOut, printErr)
+
+    /**
+     * 批量评测：同一个程序按多组输入并发运行，每组用例使用新的类加载器，边运行边比较输出
+     *
+     * @param dexBytes Dex文件内容
+     * @param cases 评测用例
+     * @param mainClass 主类的全路径，为 null 时运行第一个包含 main 方法的类
+     * @param limits 每组用例的运行限制，为 null 时读取编译设置
+     * @param compareMode 输出的比较方式
+     * @param parallelism 同时运行的用例数
+     * @param libraryDexFiles 依赖 jar 预编译的 dex 文件
+     * @param context 运行上下文，提供编译设置
+     * @return 评测结果，与 [cases] 的顺序一致
+     */
+    suspend fun judge(
+        dexBytes: List<ByteArray>,
+        cases: List<JavaJudgeCase>,
+        mainClass: String? = null,
+        limits: JavaRunLimits? = null,
+        compareMode: JavaJudgeCompareMode = JavaJudgeCompareMode.IGNORE_TRAILING_WHITESPACE,
+        parallelism: Int = Runtime.getRuntime().availableProcessors(),
+        libraryDexFiles: List<File> = emptyList(),
+        context: JavaBuildContext = JavaEngine.defaultContext,
+    ): List<JavaJudgeResult> = withContext(Dispatchers.IO) {
+        val main = mainClass ?: JavaProgramHelper.queryMainFunctionList(dexBytes).firstOrNull()
+        ?: throw CompileException("未找到包含 main(String[] args) 方法的可执行类")
+
+        JavaJudgeRunner(
+            dexBytes = dexBytes,
+            mainClass = main,
+            libraryDexFiles = libraryDexFiles,
+            limits = limits ?: JavaRunLimits.from(context.setting),
+            compareMode = compareMode,
+            loaderCache = loaderCache,
+            context = context
+        ).run(cases, parallelism.coerceAtLeast(1))
+    }
+
+    /**
+     * 选取主类，并在新的 [JavaProgramConsole] 中运行
+     */
+    private suspend fun launchProgram(
+        mainFunctionList: List<String>,
+        args: Array<String>,
+        chooseMainClassToRun: (List<String>, CancellableContinuation<String>) -> Unit,
+        printOut: (CharSequence) -> Unit,
+        printErr: (CharSequence) -> Unit,
+        context: JavaBuildContext,
+        createClassLoader: () -> ClassLoader
+    ) = coroutineScope {
         // 选者的 Fun
         val mainClass = suspendCancellableCoroutine<String> {
             launch(Dispatchers.Main) {
@@ -69,49 +194,97 @@ class JavaProgram {
             }
         }
 
-        val optimizedDirectory = JavaEngineSetting.defaultCacheDir
-        val dexClassLoader = DexClassLoader(
-            dexFile.absolutePath, optimizedDirectory, null, ClassLoader.getSystemClassLoader()
-        )
-
-        // 加载 Class
-        val clazz = dexClassLoader.loadClass(mainClass)
-        // 获取 main 方法
-        val method = clazz.getDeclaredMethod("main", Array<String>::class.java)
-
-        JavaProgramConsole().apply {
-            logNormalListener = {
-                runCatching {
-                    // 输出样式
-                    val colorSpan = ForegroundColorSpan(JavaEngine.compilerSetting.normalLogColor)
-                    printOut.invoke(SpannableStringBuilder().apply {
-                        append(it)
-                        setSpan(colorSpan, 0, it.length, 0)
-                    })
-                }
+        val method = JavaEngine.tracer.trace(JavaPipelinePhase.CLASS_LOAD, context) {
+            // 加载 Class
+            val clazz = createClassLoader().loadClass(mainClass)
+            // 获取 main 方法
+            clazz.getDeclaredMethod("main", Array<String>::class.java)
+        }
+
+        openConsole(context, printOut, printErr).also {
+            invokeMain(it, mainClass, method, args)
+        }
+    }
+
+    /**
+     * 创建控制台：绑定输出回调、开启日志代理，并设置为上下文正在运行的程序
+     */
+    internal fun openConsole(
+        context: JavaBuildContext,
+        printOut: (CharSequence) -> Unit,
+        printErr: (CharSequence) -> Unit
+    ) = JavaProgramConsole(JavaRunLimits.from(context.setting)).apply {
+        logNormalListener = {
+            runCatching {
+                // 输出样式
+                val colorSpan = ForegroundColorSpan(context.setting.normalLogColor)
+                printOut.invoke(SpannableStringBuilder().apply {
+                    append(it)
+                    setSpan(colorSpan, 0, it.length, 0)
+                })
             }
-            logErrorListener = {
-                runCatching {
-                    // 错误样式
-                    val colorSpan = ForegroundColorSpan(JavaEngine.compilerSetting.errorLogColor)
-                    printErr.invoke(SpannableStringBuilder().apply {
-                        append(it)
-                        setSpan(colorSpan, 0, it.length, 0)
-                    })
-                }
+        }
+        logErrorListener = {
+            runCatching {
+                // 错误样式
+                val colorSpan = ForegroundColorSpan(context.setting.errorLogColor)
+                printErr.invoke(SpannableStringBuilder().apply {
+                    append(it)
+                    setSpan(colorSpan, 0, it.length, 0)
+                })
             }
+        }
 
-            // 开启日志代理
-            interceptSystemPrint()
+        // 保存完整输出
+        if (context.setting.isOutputStore) {
+            val dir = File(JavaEngineSetting.defaultOutputStoreDir)
+            FileUtils.createOrExistsDir(dir)
+            openOutputStore(File.createTempFile("output-", ".log", dir))
+        }
+
+        // 开启日志代理
+        interceptSystemPrint()
 
-            JavaEngine.lastProgram = this
+        this.context = context
+        context.program = this
+    }
 
-            launch(Dispatchers.IO) {
-                // 调用静态方法可以直接传 null
-                delay(100)
-                method.invoke(null, args)
-                delay(100)
+    /**
+     * 在控制台的新线程组中调用 main 方法，并监视程序直到结束
+     */
+    internal fun invokeMain(
+        console: JavaProgramConsole,
+        mainClass: String,
+        method: Method,
+        args: Array<String>
+    ) = console.launch(Dispatchers.IO) {
+        val sandbox = console.sandbox
+        JavaEngine.tracer.trace(JavaPipelinePhase.PROGRAM_START, console.context) {
+            delay(100)
+        }
+        val exitReason = JavaEngine.tracer.trace(JavaPipelinePhase.PROGRAM_RUN, console.context) { span ->
+            console.execute("JavaProgram-$mainClass") {
+                try {
+                    // 调用静态方法可以直接传 null
+                    method.invoke(null, args)
+                } catch (e: InvocationTargetException) {
+                    // 与 JVM 一致，未捕获的异常由线程组输出到程序的 System.err
+                    throw e.targetException
+                }
+            }
+            // 监视程序直到结束，超过运行限制时终止
+            sandbox.watch().also {
+                span.bytesOut = sandbox.outputSize
+                if (it != JavaExitReason.NORMAL && it != JavaExitReason.KILLED) {
+                    span.error = it.message
+                }
+            }
+        }
+        if (exitReason.isTerminated && exitReason != JavaExitReason.KILLED) {
+            withContext(Dispatchers.Main) {
+                console.logErrorListener.invoke(this, "\n${exitReason.message}\n")
             }
         }
+        delay(100)
     }
 }
\ No newline at end of file
@@ -1,53 +1,134 @@
 package com.xiaoyv.java.compiler.tools.exec
 
-import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.JavaBuildContext
+import com.xiaoyv.java.compiler.JavaEngineSetting
 import com.xiaoyv.java.compiler.tools.exec.io.JavaInputStream
+import com.xiaoyv.java.compiler.tools.exec.io.JavaOutputPump
+import com.xiaoyv.java.compiler.tools.exec.io.JavaOutputStore
 import com.xiaoyv.java.compiler.tools.exec.io.JavaOutputStream
-import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteQueue
-import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteQueueListener
+import com.xiaoyv.java.compiler.tools.exec.io.JavaStdinFeeder
+import com.xiaoyv.java.compiler.tools.exec.io.JavaStdio
+import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteRingBuffer
 import kotlinx.coroutines.*
+import java.io.File
 import java.io.InputStream
 import java.io.PrintStream
-import java.nio.charset.StandardCharsets
+import java.nio.channels.ReadableByteChannel
 import java.util.concurrent.atomic.AtomicBoolean
 
-class JavaProgramConsole : CoroutineScope by MainScope() {
+/**
+ * JavaProgramConsole
+ *
+ * 运行中的程序：持有程序的标准流、线程组和运行沙箱
+ *
+ * @param limits 运行限制
+ */
+class JavaProgramConsole @JvmOverloads constructor(
+    val limits: JavaRunLimits = JavaRunLimits.UNLIMITED
+) : CoroutineScope by MainScope() {
     /**
      * System.in
      */
-    private lateinit var inputStream: InputStream
+    internal lateinit var inputStream: InputStream
+        private set
 
     /**
      * System.out
      */
-    private lateinit var outputStream: PrintStream
+    internal lateinit var outputStream: PrintStream
+        private set
 
     /**
      * System.err
      */
-    private lateinit var errorStream: PrintStream
+    internal lateinit var errorStream: PrintStream
+        private set
+
+    /**
+     * 标准流的缓冲区，第一次使用时才创建，[attachStreams] 直接使用调用方的流，不需要缓冲区
+     */
+    private val streamBuffers = lazy(LazyThreadSafetyMode.SYNCHRONIZED) { StreamBuffers() }
 
     /**
      * uses for 输入
      */
-    private val inputBuffer = ByteQueue(ByteQueue.QUEUE_SIZE)
+    private val inputBuffer: ByteRingBuffer
+        get() = streamBuffers.value.input
+
+    /**
+     * 按顺序写入标准输入
+     */
+    private val stdinFeeder: JavaStdinFeeder
+        get() = streamBuffers.value.stdinFeeder
 
     /**
      * buffer for 正常输出
      */
-    private val stdoutBuffer = ByteQueue(ByteQueue.QUEUE_SIZE)
+    private val stdoutBuffer: ByteRingBuffer
+        get() = streamBuffers.value.stdout
 
     /**
      * buffer for 错误删除
      */
-    private val stderrBuffer = ByteQueue(ByteQueue.QUEUE_SIZE)
+    private val stderrBuffer: ByteRingBuffer
+        get() = streamBuffers.value.stderr
+
+    /**
+     * 标准输出和错误输出的输出泵
+     */
+    private var pumps: List<JavaOutputPump> = emptyList()
+
+    private var pumpJobs: List<Job> = emptyList()
+
+    /**
+     * 关闭时交付剩余输出并归还缓冲区的任务
+     */
+    private var closeJob: Job? = null
+
+    /**
+     * 程序的完整输出（System.out + System.err 按写入顺序），未开启时为 null，见 [JavaEngineSetting.isOutputStore]
+     *
+     * 输出很多时界面只显示最近的部分，需要时再按行或字节偏移分页读取
+     */
+    var outputStore: JavaOutputStore? = null
+        private set
+
+    /**
+     * 程序所属的上下文
+     */
+    internal var context: JavaBuildContext? = null
+
+    /**
+     * 程序线程所在的线程组
+     */
+    internal var threadGroup: JavaProgramThreadGroup? = null
+        private set
+
+    private val running = AtomicBoolean(false)
+
+    /**
+     * 当前运行的沙箱，热重载时每次运行都会替换
+     */
+    @Volatile
+    var sandbox = JavaProgramSandbox(this, limits)
+        private set
 
-    private val receiveBuffer = ByteArray(ByteQueue.QUEUE_SIZE)
+    /**
+     * 程序结束的原因，运行中为 null
+     */
+    val exitReason: JavaExitReason?
+        get() = sandbox.exitReason
+
+    /**
+     * 等待程序结束
+     */
+    suspend fun awaitExit(): JavaExitReason = sandbox.awaitExit()
 
     /**
      * 程序是否在运行
      */
-    private val isRunning = AtomicBoolean(false)
+    val isRunning: Boolean
+        get() = running.get()
 
     /**
      * 日志回调
@@ -55,103 +136,196 @@ class JavaProgramConsole : CoroutineScope by MainScope() {
     var logNormalListener: CoroutineScope.(String) -> Unit = {}
     var logErrorListener: CoroutineScope.(String) -> Unit = {}
 
+    /**
+     * 保存完整输出到 [file]，需在 [interceptSystemPrint] 前调用
+     */
+    internal fun openOutputStore(file: File) {
+        outputStore = JavaOutputStore(file)
+    }
+
     internal fun interceptSystemPrint() {
-        var length = 0
+        inputStream = JavaInputStream(inputBuffer) { currentSandbox().exitReason == null }
 
-        inputStream = JavaInputStream(inputBuffer)
-        outputStream = PrintStream(JavaOutputStream(stdoutBuffer, object : ByteQueueListener {
-            override fun onUpdate() {
-                if (!isRunning.get()) {
-                    return
-                }
-                val bytesAvailable = stdoutBuffer.bytesAvailable
-                val bytesToRead = bytesAvailable.coerceAtMost(receiveBuffer.size)
+        // 输出按帧合并后交给主线程
+        val stdoutPump = JavaOutputPump(stdoutBuffer, { logNormalListener(it) })
+        val stderrPump = JavaOutputPump(stderrBuffer, { logErrorListener(it) })
+        val store = outputStore
+        outputStream = PrintStream(JavaOutputStream(stdoutBuffer, stdoutPump, { currentSandbox().onOutput(it) }, store))
+        errorStream = PrintStream(JavaOutputStream(stderrBuffer, stderrPump, { currentSandbox().onOutput(it) }, store))
 
-                runCatching {
-                    val bytesRead = stdoutBuffer.read(receiveBuffer, 0, bytesToRead)
-                    val out = String(receiveBuffer, 0, bytesRead, StandardCharsets.UTF_8)
-                    length += out.length
+        running.set(true)
 
-                    launch(Dispatchers.Main) {
-                        logNormalListener.invoke(this, out)
-                    }
-                }
-            }
-        }))
-        errorStream = PrintStream(JavaOutputStream(stderrBuffer, object : ByteQueueListener {
-            override fun onUpdate() {
-                if (!isRunning.get()) {
-                    return
-                }
-                val bytesAvailable = stderrBuffer.bytesAvailable
-                val bytesToRead = bytesAvailable.coerceAtMost(receiveBuffer.size)
+        pumps = listOf(stdoutPump, stderrPump)
+        pumpJobs = pumps.map { it.start(this) }
+        stdinFeeder.start(this)
 
-                runCatching {
-                    val bytesRead = stderrBuffer.read(receiveBuffer, 0, bytesToRead)
-                    val err = String(receiveBuffer, 0, bytesRead, StandardCharsets.UTF_8)
-                    length += err.length
+        // 安装标准流路由，程序线程的读写转发到上面的代理流
+        JavaStdio.install()
+    }
 
-                    launch(Dispatchers.Main) {
-                        logErrorListener.invoke(this, err)
-                    }
-                }
-            }
-        }))
+    /**
+     * 直接使用调用方提供的标准流，不经过缓冲区和输出回调，用于批量评测等不需要界面输出的场景
+     */
+    internal fun attachStreams(input: InputStream, output: PrintStream, error: PrintStream) {
+        inputStream = input
+        outputStream = output
+        errorStream = error
 
-        isRunning.set(true)
+        running.set(true)
 
-        // 置空
-        inputBuffer.reset()
-        stdoutBuffer.reset()
-        stderrBuffer.reset()
+        JavaStdio.install()
+    }
 
-        // 设置代理流
-        System.setIn(inputStream)
-        System.setOut(outputStream)
-        System.setErr(errorStream)
+    /**
+     * 在新的线程组中启动程序线程，程序线程以及它创建的线程读写标准流时都会路由到本程序
+     *
+     * @param name  线程组名称
+     * @param block 程序入口
+     */
+    internal fun execute(name: String, block: () -> Unit): Thread {
+        val group = JavaProgramThreadGroup(this, sandbox, name)
+        threadGroup = group
+        return Thread(group, {
+            JavaStdio.attach(this)
+            block()
+        }, "main").apply {
+            sandbox.onStart(this)
+            start()
+        }
     }
 
     /**
-     * 写入用户输入信息
+     * 结束当前运行的程序线程，保留标准流和输出回调，用于在同一个控制台中重新运行（热重载）
+     *
+     * 上一次运行的线程可能还要一段时间才会退出（Android 无法强制结束线程），
+     * 这些线程的读写按所在线程组的沙箱判断，旧沙箱已经终止，输出被丢弃、读取立即结束，
+     * 不会混入新一次运行的输出，也不会抢走新一次运行的输入
+     *
+     * @return 下一次运行使用的沙箱
+     */
+    internal fun restart(): JavaProgramSandbox {
+        sandbox.terminate(JavaExitReason.KILLED, false)
+        return JavaProgramSandbox(this, limits).also { sandbox = it }
+    }
+
+    /**
+     * 当前线程所属运行的沙箱，不在本控制台的程序线程组中时（如主线程）为当前运行的沙箱
+     */
+    private fun currentSandbox(): JavaProgramSandbox =
+        JavaStdio.currentThreadGroup()?.takeIf { it.program == this }?.sandbox ?: sandbox
+
+    /**
+     * 关闭程序的标准流：阻塞的读写立即返回，之后的输出全部丢弃，已写入的输出仍会交付
+     */
+    internal fun closeStreams() {
+        if (!streamBuffers.isInitialized()) {
+            return
+        }
+        inputBuffer.close()
+        finishOutput()
+    }
+
+    private fun finishOutput() {
+        if (!streamBuffers.isInitialized()) {
+            return
+        }
+        if (pumps.isEmpty()) {
+            stdoutBuffer.finish()
+            stderrBuffer.finish()
+        } else {
+            pumps.forEach { it.finish() }
+        }
+    }
+
+    /**
+     * 写入用户输入信息，末尾自动追加换行，不阻塞调用线程
      *
      * @param stdin 输入信息
+     * @return 程序未运行时不写入，返回 false
      */
     fun inputStdin(stdin: String): Boolean {
-        if (!isRunning.get()) {
+        if (!isRunning) {
             return false
         }
-        runCatching {
-            // 获取输入信息的字节
-            val bytes = stdin.toByteArray()
-            // 向输入流写入
-            inputBuffer.write(bytes, 0, bytes.size)
-            // 提交
-            val submitBytes = byteArrayOf('\n'.code.toByte())
-            inputBuffer.write(submitBytes, 0, submitBytes.size)
-            return true
-        }.onFailure {
-            it.printStackTrace()
-        }
-        return false
+        stdinFeeder.feed("$stdin\n".toByteArray())
+        return true
     }
 
     /**
-     * 关闭程序运行
+     * 写入标准输入，按提交顺序在 IO 线程写入，缓冲区写满时等待程序读取，不阻塞调用线程
+     *
+     * [bytes] 不会复制，写入时才读取，返回的任务结束前不要修改，需要复用数组时先复制一份
+     *
+     * @param endOfInput 写入后结束输入，程序读完后读取到 EOF
+     * @return 写入完成时结束的任务，可以等待或取消
+     */
+    @JvmOverloads
+    fun inputStdin(bytes: ByteArray, endOfInput: Boolean = false): Job = stdinFeeder.feed(bytes, endOfInput)
+
+    /**
+     * 将输入流的全部内容作为标准输入，写入完成后关闭输入流
+     *
+     * @see inputStdin
+     */
+    @JvmOverloads
+    fun inputStdin(input: InputStream, endOfInput: Boolean = true): Job = stdinFeeder.feed(input, endOfInput)
+
+    /**
+     * 将文件的全部内容作为标准输入，大文件按块读取，不会整体读入内存
+     *
+     * @see inputStdin
+     */
+    @JvmOverloads
+    fun inputStdin(file: File, endOfInput: Boolean = true): Job = stdinFeeder.feed(file, endOfInput)
+
+    /**
+     * 将通道的全部内容作为标准输入，写入完成后关闭通道，通道需为阻塞模式
+     *
+     * @see inputStdin
+     */
+    @JvmOverloads
+    fun inputStdin(channel: ReadableByteChannel, endOfInput: Boolean = true): Job =
+        stdinFeeder.feed(channel, endOfInput)
+
+    /**
+     * 之前提交的输入写入完成后结束输入，程序读完后读取到 EOF
+     */
+    fun closeStdin(): Job = stdinFeeder.finish()
+
+    /**
+     * 关闭程序运行，已写入的输出交付完成后再归还缓冲区并取消作用域，见 [awaitClosed]
      */
     fun close() {
-        isRunning.set(false)
-        JavaEngine.resetStdStream()
+        // 程序仍在运行时强制结束
+        sandbox.terminate(JavaExitReason.KILLED)
+        running.set(false)
+
+        if (!streamBuffers.isInitialized()) {
+            // 没有缓冲区和输出泵，直接取消作用域
+            cancel()
+        } else {
+            // 程序已经结束时输出缓冲区仍未结束，结束后输出泵交付完剩余的输出
+            finishOutput()
+            inputBuffer.release()
+        }
 
-        // 置空
-        inputBuffer.reset()
-        stdoutBuffer.reset()
-        stderrBuffer.reset()
+        if (closeJob == null && streamBuffers.isInitialized()) {
+            closeJob = launch {
+                withTimeoutOrNull(CLOSE_DRAIN_TIMEOUT_MILLIS) {
+                    pumpJobs.joinAll()
+                }
 
-        // 取消作用域
-        cancel()
+                // 输出泵停止后再归还缓冲区，最后取消作用域
+                stdoutBuffer.release()
+                stderrBuffer.release()
+                this@JavaProgramConsole.cancel()
+            }
+        }
 
-        if (JavaEngine.lastProgram == this) {
-            JavaEngine.lastProgram = null
+        context?.let {
+            if (it.program == this) {
+                it.program = null
+            }
         }
 
         // 关闭流
@@ -164,6 +338,33 @@ class JavaProgramConsole : CoroutineScope by MainScope() {
         runCatching {
             errorStream.close()
         }
+
+        // 删除输出日志
+        outputStore?.close()
+    }
+
+    /**
+     * 等待 [close] 后剩余的输出交付完成
+     */
+    suspend fun awaitClosed() {
+        closeJob?.join()
+    }
+
+    /**
+     * 标准输入和输出的缓冲区，缓冲区的数组从 [com.xiaoyv.java.compiler.tools.exec.io.queue.ByteArrayPool] 获取
+     */
+    private class StreamBuffers {
+        val input = ByteRingBuffer()
+        val stdinFeeder = JavaStdinFeeder(input)
+        val stdout = ByteRingBuffer()
+        val stderr = ByteRingBuffer()
+    }
+
+    companion object {
+        /**
+         * 关闭时等待输出泵交付剩余输出的最长时间
+         */
+        private const val CLOSE_DRAIN_TIMEOUT_MILLIS = 1000L
     }
 }
 
@@ -2,10 +2,17 @@
 
 package com.xiaoyv.java.compiler.tools.exec
 
+import android.os.Build
+import com.xiaoyv.java.compiler.JavaBuildContext
+import com.xiaoyv.java.compiler.JavaEngine
 import com.xiaoyv.java.compiler.tools.dex.parse.Dex
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelinePhase
+import dalvik.system.DexClassLoader
+import dalvik.system.InMemoryDexClassLoader
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import java.io.File
+import java.nio.ByteBuffer
 
 /**
  * JavaProgramHelper
@@ -23,31 +30,124 @@ object JavaProgramHelper {
      */
     @JvmStatic
     suspend fun queryMainFunctionList(dexFile: File): List<String> = withContext(Dispatchers.IO) {
-        arrayListOf<String>().apply {
-            runCatching {
-                val dex = Dex(dexFile)
-                dex.methodIds().forEach { method ->
-                    // 类路径 例如：Lpackage/Hello;
-                    val declaringClass = dex.typeNames()[method.declaringClassIndex]
-
-                    // 方法名 例如：main
-                    val methodName = dex.strings()[method.nameIndex]
-
-                    // 参数类型 例如：([Ljava/lang/String;)
-                    val param = dex.readTypeList(
-                        dex.protoIds()[method.protoIndex].parametersOffset
-                    ).toString()
-
-                    // 检测 Main 方法
-                    if (methodName == "main" && param == "([Ljava/lang/String;)") {
-                        add(
-                            declaringClass.replace("/", ".")
-                                .replace("L", "")
-                                .replace(";", "")
-                        )
+        JavaEngine.tracer.trace(JavaPipelinePhase.MAIN_DISCOVERY, null) { span ->
+            span.bytesIn = dexFile.length()
+            arrayListOf<String>().apply {
+                runCatching {
+                    val dex = if (dexFile.name.endsWith(".dex")) Dex.map(dexFile) else Dex(dexFile)
+                    span.classCount = dex.tableOfContents.classDefs.size
+                    queryMainFunctionList(dex, this)
+                }
+            }
+        }
+    }
+
+    /**
+     * 检测含有 main 方法的类
+     *
+     * @param dexBytes Dex文件内容
+     * @return 返回存在 main 方法的所有类 的全路径集合
+     */
+    @JvmStatic
+    suspend fun queryMainFunctionList(dexBytes: List<ByteArray>): List<String> =
+        withContext(Dispatchers.IO) {
+            JavaEngine.tracer.trace(JavaPipelinePhase.MAIN_DISCOVERY, null) { span ->
+                span.bytesIn = dexBytes.sumOf { it.size.toLong() }
+                span.classCount = 0
+                arrayListOf<String>().apply {
+                    runCatching {
+                        dexBytes.forEach {
+                            val dex = Dex(it)
+                            span.classCount += dex.tableOfContents.classDefs.size
+                            queryMainFunctionList(dex, this)
+                        }
                     }
                 }
             }
         }
+
+    /**
+     * 创建加载内存中 Dex 的类加载器，依赖 dex 由父加载器加载
+     *
+     * Android 8.0 以下没有 [InMemoryDexClassLoader]，Android 8.1 以下不支持多个 dex，
+     * 此时退化为写入缓存文件夹后通过 [DexClassLoader] 加载
+     *
+     * 开启 [com.xiaoyv.java.compiler.JavaEngineSetting.isDexLoaderCache] 时通过 [JavaDexLoaderCache] 加载，
+     * dex 只在第一次运行时写入磁盘，之后复用运行时的校验和优化结果
+     *
+     * @param dexBytes        Dex文件内容
+     * @param libraryDexFiles 依赖 jar 预编译的 dex 文件
+     * @param context         运行上下文，提供缓存文件夹
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun createMemoryClassLoader(
+        dexBytes: List<ByteArray>,
+        libraryDexFiles: List<File> = emptyList(),
+        context: JavaBuildContext = JavaEngine.defaultContext
+    ): ClassLoader {
+        if (context.setting.isDexLoaderCache) {
+            return JavaEngine.javaProgram.loaderCache.createClassLoader(dexBytes, libraryDexFiles)
+        }
+
+        val optimizedDirectory by lazy { context.restCacheDir() }
+
+        val parent = if (libraryDexFiles.isEmpty()) {
+            ClassLoader.getSystemClassLoader()
+        } else {
+            val libraryDexPath = libraryDexFiles.joinToString(File.pathSeparator) { it.absolutePath }
+            DexClassLoader(libraryDexPath, optimizedDirectory, null, ClassLoader.getSystemClassLoader())
+        }
+
+        return when {
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 -> {
+                val buffers = dexBytes.map { ByteBuffer.wrap(it) }.toTypedArray()
+                InMemoryDexClassLoader(buffers, parent)
+            }
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && dexBytes.size == 1 -> {
+                InMemoryDexClassLoader(ByteBuffer.wrap(dexBytes.first()), parent)
+            }
+            else -> {
+                val dexPath = dexBytes.mapIndexed { index, bytes ->
+                    val name = if (index == 0) "classes.dex" else "classes${index + 1}.dex"
+                    File(optimizedDirectory, name).also { it.writeBytes(bytes) }.absolutePath
+                }.joinToString(File.pathSeparator)
+                DexClassLoader(dexPath, optimizedDirectory, null, parent)
+            }
+        }
+    }
+
+    /**
+     * 只按名称索引扫描方法表：先二分查找 "main" 和 "[Ljava/lang/String;" 的索引，
+     * 名称不是 main 的方法直接跳过，不解码字符串和参数列表
+     */
+    private fun queryMainFunctionList(dex: Dex, mainFunctionList: MutableList<String>) {
+        val mainNameIndex = dex.findStringIndex("main")
+        if (mainNameIndex < 0) {
+            return
+        }
+        val stringArrayTypeIndex = dex.findTypeIndex("[Ljava/lang/String;")
+        if (stringArrayTypeIndex < 0) {
+            return
+        }
+
+        val methodCount = dex.tableOfContents.methodIds.size
+        for (methodIndex in 0 until methodCount) {
+            if (dex.nameIndexFromMethodIndex(methodIndex) != mainNameIndex) {
+                continue
+            }
+
+            // 参数类型 例如：([Ljava/lang/String;)
+            val parameters = dex.parameterTypeIndicesFromMethodIndex(methodIndex)
+            if (parameters.size != 1 || parameters[0].toInt() and 0xFFFF != stringArrayTypeIndex) {
+                continue
+            }
+
+            // 类路径 例如：Lpackage/Hello;
+            val declaringClass = dex.typeNames()[dex.declaringClassIndexFromMethodIndex(methodIndex)]
+            mainFunctionList.add(
+                declaringClass.substring(1, declaringClass.length - 1).replace('/', '.')
+            )
+        }
     }
 }
\ No newline at end of file
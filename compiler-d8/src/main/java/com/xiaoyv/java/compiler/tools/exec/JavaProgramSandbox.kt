@@ -0,0 +1,221 @@
+package com.xiaoyv.java.compiler.tools.exec
+
+import com.xiaoyv.java.compiler.JavaEngine
+import kotlinx.coroutines.*
+import java.lang.reflect.Method
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * JavaProgramSandbox
+ *
+ * 程序运行沙箱：监视程序线程组，超过 [JavaRunLimits] 的限制时终止程序，并记录结束原因。
+ *
+ * 终止程序时：
+ * 1. 关闭程序的标准流，阻塞的读写立即返回，之后的输出全部丢弃
+ * 2. 中断程序线程组内的全部线程
+ * 3. [FORCE_STOP_DELAY_MILLIS] 后仍存活的线程调用 Thread.stop() 强制结束，
+ *    Android 不支持 Thread.stop()，此时只能将线程降为最低优先级，等待其自行退出
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaProgramSandbox(
+    private val program: JavaProgramConsole,
+    val limits: JavaRunLimits
+) {
+    private val outputBytes = AtomicLong()
+
+    private val reason = AtomicReference<JavaExitReason?>()
+
+    private val exit = CompletableDeferred<JavaExitReason>()
+
+    @Volatile
+    private var mainThread: Thread? = null
+
+    /**
+     * 本次运行的线程组
+     */
+    @Volatile
+    private var threadGroup: ThreadGroup? = null
+
+    @Volatile
+    private var mainException: Throwable? = null
+
+    /**
+     * 程序结束的原因，运行中为 null
+     */
+    val exitReason: JavaExitReason?
+        get() = reason.get()
+
+    /**
+     * 程序已输出的字节数
+     */
+    val outputSize: Long
+        get() = outputBytes.get()
+
+    /**
+     * 等待程序结束
+     */
+    suspend fun awaitExit(): JavaExitReason = exit.await()
+
+    /**
+     * 记录程序输出的字节数，超过上限时终止程序
+     *
+     * @return 是否允许写入
+     */
+    internal fun onOutput(length: Int): Boolean {
+        if (reason.get() != null) {
+            return false
+        }
+        if (limits.maxOutputBytes <= 0 || outputBytes.addAndGet(length.toLong()) <= limits.maxOutputBytes) {
+            return true
+        }
+        terminate(JavaExitReason.OUTPUT_LIMIT)
+        return false
+    }
+
+    internal fun onStart(thread: Thread) {
+        mainThread = thread
+        threadGroup = thread.threadGroup
+    }
+
+    internal fun onUncaughtException(thread: Thread, e: Throwable) {
+        if (thread == mainThread) {
+            mainException = e
+        }
+    }
+
+    /**
+     * 监视程序直到结束：全部非守护线程结束，或超过运行限制
+     *
+     * @return 程序结束的原因
+     */
+    suspend fun watch(): JavaExitReason {
+        val startTime = System.nanoTime()
+        while (reason.get() == null) {
+            val threads = programThreads()
+            val elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+            when {
+                threads.none { !it.isDaemon } -> {
+                    finish(if (mainException == null) JavaExitReason.NORMAL else JavaExitReason.EXCEPTION)
+                }
+                limits.wallTimeMillis > 0 && elapsedMillis > limits.wallTimeMillis -> {
+                    terminate(JavaExitReason.TIMEOUT)
+                }
+                limits.maxThreads > 0 && threads.size > limits.maxThreads -> {
+                    terminate(JavaExitReason.THREAD_LIMIT)
+                }
+                limits.cpuTimeMillis > 0 && threads.any { cpuTimeMillis(it) > limits.cpuTimeMillis } -> {
+                    terminate(JavaExitReason.CPU_TIME_LIMIT)
+                }
+                else -> delay(limits.pollIntervalMillis.coerceAtLeast(1))
+            }
+        }
+        return exit.await()
+    }
+
+    /**
+     * 终止程序，程序已经结束时不做处理
+     */
+    fun terminate(exitReason: JavaExitReason) = terminate(exitReason, true)
+
+    /**
+     * 终止程序
+     *
+     * @param closeStreams 是否关闭程序的标准流，热重载时保留标准流给下一次运行
+     */
+    internal fun terminate(exitReason: JavaExitReason, closeStreams: Boolean) {
+        if (!finish(exitReason)) {
+            return
+        }
+        JavaEngine.logInfo("${exitReason.message}：${threadGroup?.name}")
+
+        if (closeStreams) {
+            program.closeStreams()
+        }
+
+        val threads = programThreads()
+        threads.forEach { it.interrupt() }
+        if (threads.isEmpty()) {
+            return
+        }
+
+        terminateScope.launch {
+            delay(FORCE_STOP_DELAY_MILLIS)
+            programThreads().forEach { forceStop(it) }
+        }
+    }
+
+    private fun finish(exitReason: JavaExitReason): Boolean {
+        if (!reason.compareAndSet(null, exitReason)) {
+            return false
+        }
+        exit.complete(exitReason)
+        return true
+    }
+
+    /**
+     * 程序线程组内存活的线程
+     */
+    private fun programThreads(): List<Thread> {
+        val group = threadGroup ?: return emptyList()
+        var threads = arrayOfNulls<Thread>(group.activeCount() + 4)
+        var count = group.enumerate(threads, true)
+        while (count == threads.size) {
+            threads = arrayOfNulls(threads.size * 2)
+            count = group.enumerate(threads, true)
+        }
+        return threads.take(count).filterNotNull().filter { it.isAlive }
+    }
+
+    @Suppress("DEPRECATION")
+    private fun forceStop(thread: Thread) {
+        if (!thread.isAlive) {
+            return
+        }
+        runCatching {
+            thread.stop()
+        }.onFailure {
+            thread.priority = Thread.MIN_PRIORITY
+        }
+    }
+
+    companion object {
+        /**
+         * 中断后等待线程自行退出的时间
+         */
+        private const val FORCE_STOP_DELAY_MILLIS = 500L
+
+        private val terminateScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+        /**
+         * ThreadMXBean#getThreadCpuTime，通过反射获取，Android 没有 java.lang.management
+         */
+        private val threadCpuTime: Pair<Any, Method>? by lazy {
+            runCatching {
+                val bean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean")
+                    .invoke(null)!!
+                val beanClass = Class.forName("java.lang.management.ThreadMXBean")
+                val supported = beanClass.getMethod("isThreadCpuTimeSupported").invoke(bean) as Boolean
+                check(supported)
+                beanClass.getMethod("setThreadCpuTimeEnabled", Boolean::class.javaPrimitiveType)
+                    .invoke(bean, true)
+                bean to beanClass.getMethod("getThreadCpuTime", Long::class.javaPrimitiveType)
+            }.onFailure {
+                JavaEngine.logInfo("当前平台不支持线程 CPU 时间，CPU 时间限制不生效")
+            }.getOrNull()
+        }
+
+        /**
+         * 线程的 CPU 时间（毫秒），不支持时返回 -1
+         */
+        private fun cpuTimeMillis(thread: Thread): Long {
+            val (bean, method) = threadCpuTime ?: return -1
+            val nanos = runCatching { method.invoke(bean, thread.id) as Long }.getOrDefault(-1L)
+            return if (nanos < 0) -1 else TimeUnit.NANOSECONDS.toMillis(nanos)
+        }
+    }
+}
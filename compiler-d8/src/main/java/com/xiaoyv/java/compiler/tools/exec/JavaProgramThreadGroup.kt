@@ -0,0 +1,28 @@
+package com.xiaoyv.java.compiler.tools.exec
+
+/**
+ * JavaProgramThreadGroup
+ *
+ * 程序线程所在的线程组，程序创建的线程默认也属于该组，
+ * 用于标准流路由和程序线程的管理。未捕获的异常输出到程序自己的 System.err，与 JVM 的默认行为一致。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaProgramThreadGroup(
+    val program: JavaProgramConsole,
+    val sandbox: JavaProgramSandbox,
+    name: String
+) : ThreadGroup(name) {
+
+    override fun uncaughtException(t: Thread, e: Throwable) {
+        sandbox.onUncaughtException(t, e)
+        if (e is ThreadDeath || sandbox.exitReason != null) {
+            return
+        }
+        runCatching {
+            program.errorStream.print("Exception in thread \"${t.name}\" ")
+            e.printStackTrace(program.errorStream)
+        }
+    }
+}
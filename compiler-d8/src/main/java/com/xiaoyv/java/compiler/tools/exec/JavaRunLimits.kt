@@ -0,0 +1,52 @@
+package com.xiaoyv.java.compiler.tools.exec
+
+import com.xiaoyv.java.compiler.JavaEngineSetting
+
+/**
+ * JavaRunLimits
+ *
+ * 程序运行限制，各项为 0 时不限制
+ *
+ * @param wallTimeMillis 运行超时（毫秒）
+ * @param cpuTimeMillis  每个线程的 CPU 时间上限（毫秒），仅在支持 ThreadMXBean 的平台生效
+ * @param maxOutputBytes 输出字节数上限
+ * @param maxThreads     同时存活的线程数上限
+ * @param pollIntervalMillis 沙箱检查各项限制的间隔（毫秒），即各项限制的精度，
+ *                       间隔越小终止越及时，但每次检查都要枚举线程组并读取各线程的 CPU 时间
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+data class JavaRunLimits(
+    val wallTimeMillis: Long = 0,
+    val cpuTimeMillis: Long = 0,
+    val maxOutputBytes: Long = 0,
+    val maxThreads: Int = 0,
+    val pollIntervalMillis: Long = DEFAULT_POLL_INTERVAL_MILLIS
+) {
+
+    companion object {
+        /**
+         * 默认检查间隔 50ms：运行限制通常是秒级，50ms 的误差可以忽略；
+         * 每次检查都要枚举线程组，间隔过小时沙箱会和程序争抢 CPU
+         */
+        const val DEFAULT_POLL_INTERVAL_MILLIS = 50L
+
+        /**
+         * 不限制
+         */
+        @JvmField
+        val UNLIMITED = JavaRunLimits()
+
+        /**
+         * 从编译设置读取运行限制
+         */
+        @JvmStatic
+        fun from(setting: JavaEngineSetting) = JavaRunLimits(
+            wallTimeMillis = setting.runWallTimeMillis.toLong(),
+            cpuTimeMillis = setting.runCpuTimeMillis.toLong(),
+            maxOutputBytes = setting.runMaxOutputBytes.toLong(),
+            maxThreads = setting.runMaxThreads
+        )
+    }
+}
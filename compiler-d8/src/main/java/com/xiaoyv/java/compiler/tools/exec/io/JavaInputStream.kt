@@ -1,6 +1,6 @@
 package com.xiaoyv.java.compiler.tools.exec.io
 
-import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteQueue
+import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteRingBuffer
 import java.io.InputStream
 
 /**
@@ -8,13 +8,20 @@ import java.io.InputStream
  *
  * @author Admin
  */
-class JavaInputStream(private val byteQueue: ByteQueue) : InputStream() {
+class JavaInputStream @JvmOverloads constructor(
+    private val byteQueue: ByteRingBuffer,
+    private val canRead: () -> Boolean = { true }
+) : InputStream() {
     private val mLock = Any()
 
     override fun read(): Int {
+        // 不允许读取时视为输入结束
+        if (!canRead()) {
+            return -1
+        }
         synchronized(mLock) {
             return try {
-                byteQueue.read(byteArrayOf(), 0, 0)
+                byteQueue.read()
             } catch (e: InterruptedException) {
                 -1
             }
@@ -22,6 +29,9 @@ class JavaInputStream(private val byteQueue: ByteQueue) : InputStream() {
     }
 
     override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (!canRead()) {
+            return -1
+        }
         synchronized(mLock) {
             return try {
                 byteQueue.read(b, off, len)
@@ -30,4 +40,10 @@ class JavaInputStream(private val byteQueue: ByteQueue) : InputStream() {
             }
         }
     }
-}
\ No newline at end of file
+
+    override fun available(): Int {
+        synchronized(mLock) {
+            return byteQueue.bytesAvailable
+        }
+    }
+}
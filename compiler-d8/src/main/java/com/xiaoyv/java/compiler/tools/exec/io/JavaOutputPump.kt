@@ -0,0 +1,157 @@
+package com.xiaoyv.java.compiler.tools.exec.io
+
+import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteArrayPool
+import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteQueueListener
+import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteRingBuffer
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.charset.Charset
+import java.nio.charset.CodingErrorAction
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
+
+/**
+ * 输出泵：合并程序的输出，按帧交给主线程
+ *
+ * - 写入时只发出一个合并的信号，不解码也不切换线程
+ * - 距上次交付不足 [frameMillis] 时继续攒批，攒够 [maxChunkBytes] 立即交付
+ * - 每帧最多交付一段，主线程处理完上一段之前不会继续读取，缓冲区写满后程序的输出会阻塞
+ * - 解码器复用，跨段的多字节字符会留到下一段一起解码
+ * - 缓冲区结束输入（[finish]）后不再等待下一帧，交付完剩余的输出后停止
+ *
+ * @param buffer        程序输出写入的缓冲区
+ * @param listener      在主线程接收每一段输出
+ * @param frameMillis   交付间隔
+ * @param maxChunkBytes 每段最大字节数
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaOutputPump @JvmOverloads constructor(
+    private val buffer: ByteRingBuffer,
+    private val listener: CoroutineScope.(String) -> Unit,
+    private val frameMillis: Long = DEFAULT_FRAME_MILLIS,
+    private val maxChunkBytes: Int = DEFAULT_MAX_CHUNK_BYTES,
+    charset: Charset = StandardCharsets.UTF_8
+) : ByteQueueListener {
+
+    /**
+     * 有新输出的信号，多次写入合并为一个
+     */
+    private val signal = Channel<Unit>(Channel.CONFLATED)
+
+    private val decoder = charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+
+    private val bytes = ByteArrayPool.acquire(maxChunkBytes)
+
+    /**
+     * 待解码的字节，保持写模式，position 之前为上一段遗留的不完整字符
+     */
+    private val input = ByteBuffer.wrap(bytes)
+
+    private val output = CharBuffer.allocate(bytes.size)
+
+    private var lastDeliverTime = 0L
+
+    override fun onUpdate() {
+        signal.trySend(Unit)
+    }
+
+    /**
+     * 结束缓冲区的输入，输出泵交付完已写入的输出后停止，程序之后的输出会被丢弃
+     */
+    fun finish() {
+        buffer.finish()
+        signal.trySend(Unit)
+    }
+
+    /**
+     * 在 [scope] 内启动输出泵，[finish] 后交付完剩余的输出时结束，
+     * [scope] 取消时立即停止。结束后归还数组
+     */
+    fun start(scope: CoroutineScope): Job = scope.launch(Dispatchers.IO) {
+        try {
+            while (isActive) {
+                // 先读取结束标记，标记之前写入的输出一定能读到
+                val finished = buffer.isFinished
+                if (buffer.bytesAvailable == 0) {
+                    if (finished || buffer.isClosed) {
+                        break
+                    }
+                    signal.receive()
+                    continue
+                }
+                awaitFrame()
+                deliver(decode(false))
+            }
+            // 末尾不完整的字符
+            deliver(decode(true))
+        } finally {
+            signal.close()
+            ByteArrayPool.release(bytes)
+        }
+    }
+
+    private suspend fun deliver(chunk: String?) {
+        chunk ?: return
+        lastDeliverTime = System.nanoTime()
+        withContext(Dispatchers.Main) {
+            listener.invoke(this, chunk)
+        }
+    }
+
+    /**
+     * 等待到下一帧，期间攒够 [maxChunkBytes] 或输入结束则立即返回
+     */
+    private suspend fun awaitFrame() {
+        val nextFrameTime = lastDeliverTime + TimeUnit.MILLISECONDS.toNanos(frameMillis)
+        while (buffer.bytesAvailable < maxChunkBytes && !buffer.isFinished) {
+            val remaining = TimeUnit.NANOSECONDS.toMillis(nextFrameTime - System.nanoTime())
+            if (remaining <= 0) {
+                return
+            }
+            withTimeoutOrNull(remaining) {
+                signal.receive()
+            } ?: return
+        }
+    }
+
+    /**
+     * 读取一段输出并解码
+     *
+     * @param endOfInput 输出已经结束，不完整的字符按替换字符解码
+     * @return 解码后的字符串，没有完整的字符时返回 null
+     */
+    private fun decode(endOfInput: Boolean): String? {
+        val bytesRead = if (endOfInput) 0 else buffer.poll(bytes, input.position(), input.remaining())
+        if (bytesRead > 0) {
+            input.position(input.position() + bytesRead)
+        }
+
+        input.flip()
+        output.clear()
+        decoder.decode(input, output, endOfInput)
+        if (endOfInput) {
+            decoder.flush(output)
+        }
+        input.compact()
+        output.flip()
+        return if (output.hasRemaining()) output.toString() else null
+    }
+
+    companion object {
+        /**
+         * 默认 16ms 交付一次，与屏幕刷新同步
+         */
+        const val DEFAULT_FRAME_MILLIS = 16L
+
+        /**
+         * 默认每段最多 64KB
+         */
+        const val DEFAULT_MAX_CHUNK_BYTES = 64 * 1024
+    }
+}
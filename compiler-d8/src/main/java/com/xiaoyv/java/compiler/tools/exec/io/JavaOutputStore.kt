@@ -0,0 +1,320 @@
+package com.xiaoyv.java.compiler.tools.exec.io
+
+import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteArrayPool
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * 程序输出存储：完整输出按顺序追加写入内存映射的日志文件，最近的输出同时保留在内存中
+ *
+ * - 日志文件按 [regionSize] 分段映射，追加写入只是内存拷贝，不经过系统调用
+ * - 每 [LINE_INDEX_INTERVAL] 行记录一次行首偏移，按行读取时从最近的记录向后扫描，
+ *   索引占用的内存约为输出行数的 1/128
+ * - 按字节偏移或行号读取一段输出，读取占用的内存只与读取的长度有关，与输出总量无关
+ *
+ * @param file           日志文件，已存在时清空，[close] 时删除
+ * @param recentCapacity 内存中保留的最近输出字节数
+ * @param regionSize     每段映射的字节数
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaOutputStore @JvmOverloads constructor(
+    val file: File,
+    recentCapacity: Int = DEFAULT_RECENT_CAPACITY,
+    private val regionSize: Int = DEFAULT_REGION_SIZE
+) : Closeable {
+    private val channel: FileChannel = RandomAccessFile(file, "rw").apply { setLength(0) }.channel
+
+    /**
+     * 已映射的分段，第 i 段对应文件的 [i * regionSize, (i + 1) * regionSize)
+     */
+    private val regions = arrayListOf<ByteBuffer>()
+
+    /**
+     * 最近输出的环形缓冲区
+     */
+    private val recent = ByteArray(recentCapacity.coerceAtLeast(1))
+
+    /**
+     * 第 i 个元素为第 i * [LINE_INDEX_INTERVAL] 行的行首偏移
+     */
+    private var lineIndex = LongArray(16)
+    private var lineIndexSize = 1
+
+    /**
+     * 换行符数量
+     */
+    private var newlines = 0L
+
+    /**
+     * 当前（最后一行）的行首偏移
+     */
+    private var lastLineStart = 0L
+
+    private var closed = false
+
+    /**
+     * 已写入的字节数
+     */
+    @Volatile
+    var size = 0L
+        private set
+
+    /**
+     * 行数，最后一行没有换行符时也计入
+     */
+    val lineCount: Long
+        @Synchronized get() = if (size > lastLineStart) newlines + 1 else newlines
+
+    /**
+     * 追加输出，关闭后写入的数据丢弃
+     */
+    @Synchronized
+    fun append(b: ByteArray, off: Int, len: Int) {
+        if (closed || len <= 0) {
+            return
+        }
+
+        // 行索引
+        for (i in off until off + len) {
+            if (b[i] != NEWLINE) {
+                continue
+            }
+            newlines++
+            lastLineStart = size + (i - off) + 1
+            if (newlines % LINE_INDEX_INTERVAL == 0L) {
+                if (lineIndexSize == lineIndex.size) {
+                    lineIndex = lineIndex.copyOf(lineIndexSize * 2)
+                }
+                lineIndex[lineIndexSize++] = lastLineStart
+            }
+        }
+
+        appendRecent(b, off, len)
+
+        // 分段追加写入，分段的 position 即下一次写入的位置
+        var offset = off
+        var remaining = len
+        while (remaining > 0) {
+            val region = region((size / regionSize).toInt())
+            val length = remaining.coerceAtMost(region.remaining())
+            region.put(b, offset, length)
+            offset += length
+            remaining -= length
+            size += length
+        }
+    }
+
+    /**
+     * 读取 [offset] 开始的最多 [length] 个字节
+     */
+    @Synchronized
+    fun read(offset: Long, length: Int): ByteArray {
+        if (closed || offset < 0 || offset >= size || length <= 0) {
+            return EMPTY
+        }
+        val bytes = ByteArray((size - offset).coerceAtMost(length.toLong()).toInt())
+        readInto(offset, bytes, 0, bytes.size)
+        return bytes
+    }
+
+    /**
+     * 第 [line] 行（从 0 开始）的行首偏移，超出行数时返回 -1
+     */
+    @Synchronized
+    fun lineOffset(line: Long): Long {
+        if (closed || line < 0 || line >= lineCount) {
+            return -1
+        }
+        var position = lineIndex[(line / LINE_INDEX_INTERVAL).toInt()]
+        var skip = line % LINE_INDEX_INTERVAL
+        if (skip == 0L) {
+            return position
+        }
+
+        // 从最近的索引向后扫描换行符
+        val chunk = ByteArrayPool.acquire(CHUNK_SIZE)
+        try {
+            while (position < size) {
+                val length = (size - position).coerceAtMost(chunk.size.toLong()).toInt()
+                readInto(position, chunk, 0, length)
+                for (i in 0 until length) {
+                    if (chunk[i] == NEWLINE && --skip == 0L) {
+                        return position + i + 1
+                    }
+                }
+                position += length
+            }
+        } finally {
+            ByteArrayPool.release(chunk)
+        }
+        return -1
+    }
+
+    /**
+     * 读取从第 [fromLine] 行（从 0 开始）开始的最多 [count] 行，不包含换行符
+     *
+     * @param maxLineBytes 每行最多读取的字节数，超出的部分丢弃
+     */
+    @JvmOverloads
+    @Synchronized
+    fun readLines(fromLine: Long, count: Int, maxLineBytes: Int = DEFAULT_MAX_LINE_BYTES): List<String> {
+        var position = lineOffset(fromLine)
+        if (position < 0 || count <= 0) {
+            return emptyList()
+        }
+
+        val lines = arrayListOf<String>()
+        val line = ByteArrayOutputStream()
+        var lineLength = 0L
+        val chunk = ByteArrayPool.acquire(CHUNK_SIZE)
+        try {
+            while (position < size && lines.size < count) {
+                val length = (size - position).coerceAtMost(chunk.size.toLong()).toInt()
+                readInto(position, chunk, 0, length)
+                var start = 0
+                for (i in 0 until length) {
+                    if (chunk[i] != NEWLINE) {
+                        continue
+                    }
+                    line.write(chunk, start, (i - start).coerceAtMost(maxLineBytes - line.size()))
+                    lines.add(decodeLine(line))
+                    line.reset()
+                    lineLength = 0
+                    start = i + 1
+                    if (lines.size == count) {
+                        break
+                    }
+                }
+                if (lines.size < count) {
+                    line.write(chunk, start, (length - start).coerceAtMost(maxLineBytes - line.size()))
+                    lineLength += length - start
+                }
+                position += length
+            }
+        } finally {
+            ByteArrayPool.release(chunk)
+        }
+
+        // 最后一行没有换行符
+        if (lines.size < count && lineLength > 0) {
+            lines.add(decodeLine(line))
+        }
+        return lines
+    }
+
+    /**
+     * 内存中保留的最近输出
+     */
+    @Synchronized
+    fun recentBytes(): ByteArray {
+        val length = size.coerceAtMost(recent.size.toLong()).toInt()
+        val bytes = ByteArray(length)
+        val end = (size % recent.size).toInt()
+        val head = length.coerceAtMost(end)
+        // 环形缓冲区的尾部在前，头部在后
+        System.arraycopy(recent, recent.size - (length - head), bytes, 0, length - head)
+        System.arraycopy(recent, end - head, bytes, length - head, head)
+        return bytes
+    }
+
+    /**
+     * 内存中保留的最近输出，跳过开头被截断的 UTF-8 字符
+     */
+    fun recentText(): String {
+        val bytes = recentBytes()
+        var start = 0
+        while (start < bytes.size && start < 3 && bytes[start].toInt() and 0xC0 == 0x80) {
+            start++
+        }
+        return String(bytes, start, bytes.size - start, Charsets.UTF_8)
+    }
+
+    /**
+     * 关闭并删除日志文件，之后的读取返回空
+     */
+    @Synchronized
+    override fun close() {
+        if (closed) {
+            return
+        }
+        closed = true
+        regions.clear()
+        runCatching { channel.close() }
+        file.delete()
+    }
+
+    private fun appendRecent(b: ByteArray, off: Int, len: Int) {
+        // 只保留最后的 recent.size 个字节
+        val skip = (len - recent.size).coerceAtLeast(0)
+        var offset = off + skip
+        var remaining = len - skip
+        var position = ((size + skip) % recent.size).toInt()
+        while (remaining > 0) {
+            val length = remaining.coerceAtMost(recent.size - position)
+            System.arraycopy(b, offset, recent, position, length)
+            offset += length
+            remaining -= length
+            position = 0
+        }
+    }
+
+    private fun region(index: Int): ByteBuffer {
+        if (index == regions.size) {
+            regions.add(channel.map(FileChannel.MapMode.READ_WRITE, index.toLong() * regionSize, regionSize.toLong()))
+        }
+        return regions[index]
+    }
+
+    private fun readInto(position: Long, dst: ByteArray, off: Int, len: Int) {
+        var current = position
+        var offset = off
+        var remaining = len
+        while (remaining > 0) {
+            // 复制一份视图读取，不影响分段的写入位置
+            val region = regions[(current / regionSize).toInt()].duplicate()
+            region.position((current % regionSize).toInt())
+            val length = remaining.coerceAtMost(regionSize - region.position())
+            region.get(dst, offset, length)
+            current += length
+            offset += length
+            remaining -= length
+        }
+    }
+
+    private fun decodeLine(line: ByteArrayOutputStream): String {
+        val text = line.toString(Charsets.UTF_8.name())
+        return text.removeSuffix("\r")
+    }
+
+    companion object {
+        /**
+         * 默认在内存中保留最近的 64KB
+         */
+        const val DEFAULT_RECENT_CAPACITY = 64 * 1024
+
+        /**
+         * 默认每段映射 4MB
+         */
+        const val DEFAULT_REGION_SIZE = 4 * 1024 * 1024
+
+        /**
+         * 按行读取时每行默认最多 64KB
+         */
+        const val DEFAULT_MAX_LINE_BYTES = 64 * 1024
+
+        /**
+         * 每 128 行记录一次行首偏移
+         */
+        const val LINE_INDEX_INTERVAL = 128
+
+        private const val CHUNK_SIZE = 8 * 1024
+        private const val NEWLINE = '\n'.code.toByte()
+        private val EMPTY = ByteArray(0)
+    }
+}
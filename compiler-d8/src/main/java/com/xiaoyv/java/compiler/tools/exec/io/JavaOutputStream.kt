@@ -1,29 +1,54 @@
 package com.xiaoyv.java.compiler.tools.exec.io
 
-import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteQueue
 import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteQueueListener
+import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteRingBuffer
 import java.io.OutputStream
 
 /**
  * 代理系统 System.out
  *
+ * 按缓冲区最大容量分段写入，每段写入后回调一次，避免输出超过缓冲区容量时
+ * 写入线程等待自己读取而阻塞
+ *
+ * @param onWrite 写入前回调写入的字节数，返回 false 时丢弃本次写入
+ * @param store   同时追加写入的输出存储，为 null 时不保存
+ *
  * @author Admin
  */
-class JavaOutputStream(
-    private val byteQueue: ByteQueue,
-    private val listener: ByteQueueListener
+class JavaOutputStream @JvmOverloads constructor(
+    private val byteQueue: ByteRingBuffer,
+    private val listener: ByteQueueListener,
+    private val onWrite: (Int) -> Boolean = { true },
+    private val store: JavaOutputStore? = null
 ) : OutputStream() {
 
+    /**
+     * 单字节写入复用的数组，[java.io.PrintStream] 的写入都在同步锁内
+     */
+    private val single = ByteArray(1)
+
     override fun write(b: Int) {
-        write(byteArrayOf(b.toByte()), 0, 1)
+        single[0] = b.toByte()
+        write(single, 0, 1)
     }
 
     override fun write(b: ByteArray, off: Int, len: Int) {
+        // 超过输出限制时丢弃
+        if (!onWrite(len)) {
+            return
+        }
+        store?.append(b, off, len)
         try {
-            byteQueue.write(b, off, len)
-            listener.onUpdate()
+            var offset = off
+            val end = off + len
+            while (offset < end) {
+                val length = (end - offset).coerceAtMost(byteQueue.maxCapacity)
+                byteQueue.write(b, offset, length)
+                listener.onUpdate()
+                offset += length
+            }
         } catch (e: InterruptedException) {
             e.printStackTrace()
         }
     }
-}
\ No newline at end of file
+}
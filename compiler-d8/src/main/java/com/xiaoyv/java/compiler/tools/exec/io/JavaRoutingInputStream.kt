@@ -0,0 +1,26 @@
+package com.xiaoyv.java.compiler.tools.exec.io
+
+import java.io.InputStream
+
+/**
+ * 代理系统 System.in，按当前线程转发到所属程序的输入流，见 [JavaStdio]
+ *
+ * @param fallback 不属于任何程序的线程使用的输入流
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaRoutingInputStream(private val fallback: InputStream) : InputStream() {
+
+    private fun target(): InputStream = JavaStdio.currentProgram()?.inputStream ?: fallback
+
+    override fun read(): Int = target().read()
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int = target().read(b, off, len)
+
+    override fun skip(n: Long): Long = target().skip(n)
+
+    override fun available(): Int = target().available()
+
+    override fun close() = target().close()
+}
@@ -0,0 +1,93 @@
+package com.xiaoyv.java.compiler.tools.exec.io
+
+import com.xiaoyv.java.compiler.tools.exec.JavaProgramConsole
+import java.io.PrintStream
+import java.util.*
+
+/**
+ * 代理系统 System.out/err，按当前线程转发到所属程序的输出流，见 [JavaStdio]
+ *
+ * 所有方法都直接转发，不经过本对象的同步锁，一个程序的输出阻塞时不影响其它程序
+ *
+ * @param fallback 不属于任何程序的线程使用的输出流
+ * @param select   选取程序的输出流
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaRoutingPrintStream(
+    private val fallback: PrintStream,
+    private val select: (JavaProgramConsole) -> PrintStream
+) : PrintStream(fallback) {
+
+    private fun target(): PrintStream = JavaStdio.currentProgram()?.let(select) ?: fallback
+
+    override fun write(b: Int) = target().write(b)
+
+    override fun write(buf: ByteArray, off: Int, len: Int) = target().write(buf, off, len)
+
+    override fun write(b: ByteArray) = target().write(b)
+
+    override fun flush() = target().flush()
+
+    override fun close() = target().close()
+
+    override fun checkError(): Boolean = target().checkError()
+
+    override fun print(b: Boolean) = target().print(b)
+
+    override fun print(c: Char) = target().print(c)
+
+    override fun print(i: Int) = target().print(i)
+
+    override fun print(l: Long) = target().print(l)
+
+    override fun print(f: Float) = target().print(f)
+
+    override fun print(d: Double) = target().print(d)
+
+    override fun print(s: CharArray) = target().print(s)
+
+    override fun print(s: String?) = target().print(s)
+
+    override fun print(obj: Any?) = target().print(obj)
+
+    override fun println() = target().println()
+
+    override fun println(x: Boolean) = target().println(x)
+
+    override fun println(x: Char) = target().println(x)
+
+    override fun println(x: Int) = target().println(x)
+
+    override fun println(x: Long) = target().println(x)
+
+    override fun println(x: Float) = target().println(x)
+
+    override fun println(x: Double) = target().println(x)
+
+    override fun println(x: CharArray) = target().println(x)
+
+    override fun println(x: String?) = target().println(x)
+
+    override fun println(x: Any?) = target().println(x)
+
+    override fun printf(format: String, vararg args: Any?): PrintStream =
+        target().printf(format, *args)
+
+    override fun printf(l: Locale?, format: String, vararg args: Any?): PrintStream =
+        target().printf(l, format, *args)
+
+    override fun format(format: String, vararg args: Any?): PrintStream =
+        target().format(format, *args)
+
+    override fun format(l: Locale?, format: String, vararg args: Any?): PrintStream =
+        target().format(l, format, *args)
+
+    override fun append(csq: CharSequence?): PrintStream = target().append(csq)
+
+    override fun append(csq: CharSequence?, start: Int, end: Int): PrintStream =
+        target().append(csq, start, end)
+
+    override fun append(c: Char): PrintStream = target().append(c)
+}
@@ -0,0 +1,176 @@
+package com.xiaoyv.java.compiler.tools.exec.io
+
+import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteArrayPool
+import com.xiaoyv.java.compiler.tools.exec.io.queue.ByteRingBuffer
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import java.io.Closeable
+import java.io.File
+import java.io.FileInputStream
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.ReadableByteChannel
+
+/**
+ * 标准输入泵：按提交顺序把数据源分块写入程序的输入缓冲区
+ *
+ * - 写入在 IO 线程进行，缓冲区写满时等待程序读取，提交数据的线程（如主线程）不会被阻塞
+ * - 流和通道按块直接读入复用的数组再写入缓冲区，字节数组直接写入缓冲区，都不会额外拷贝
+ * - 只有泵一个写入者，满足 [ByteRingBuffer] 单生产者的要求
+ *
+ * @param buffer    程序的输入缓冲区
+ * @param chunkSize 每次从流或通道读取的字节数
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaStdinFeeder @JvmOverloads constructor(
+    private val buffer: ByteRingBuffer,
+    private val chunkSize: Int = DEFAULT_CHUNK_SIZE
+) {
+    private val feeds = Channel<Feed>(Channel.UNLIMITED)
+
+    /**
+     * 在 [scope] 内启动输入泵，[scope] 取消时停止，未写入的数据源会被关闭
+     */
+    fun start(scope: CoroutineScope): Job = scope.launch(Dispatchers.IO) {
+        val chunk = ByteArrayPool.acquire(chunkSize)
+        try {
+            for (feed in feeds) {
+                try {
+                    // 取消时中断写入线程，结束缓冲区写满时的等待
+                    runInterruptible {
+                        feed.transfer(buffer, chunk)
+                    }
+                    if (feed.endOfInput) {
+                        buffer.finish()
+                    }
+                    feed.done.complete(Unit)
+                } catch (e: CancellationException) {
+                    feed.done.cancel(e)
+                    throw e
+                } catch (e: Exception) {
+                    feed.done.completeExceptionally(e)
+                } finally {
+                    runCatching { feed.close() }
+                }
+            }
+        } finally {
+            feeds.close()
+            while (true) {
+                val feed = feeds.tryReceive().getOrNull() ?: break
+                runCatching { feed.close() }
+                feed.done.cancel()
+            }
+            ByteArrayPool.release(chunk)
+        }
+    }
+
+    /**
+     * 写入字节数组，数组不会复制，在 IO 线程写入时才读取，返回的任务结束前不要修改数组
+     *
+     * @param endOfInput 写入后结束输入，程序读完后读取到 EOF
+     * @return 写入完成时结束的任务，可以等待或取消
+     */
+    fun feed(bytes: ByteArray, endOfInput: Boolean = false): Job = submit(BytesFeed(bytes, endOfInput))
+
+    /**
+     * 写入输入流的全部内容，写入完成后关闭输入流
+     */
+    fun feed(input: InputStream, endOfInput: Boolean = true): Job = submit(StreamFeed(input, endOfInput))
+
+    /**
+     * 写入通道的全部内容，写入完成后关闭通道，通道需为阻塞模式
+     */
+    fun feed(channel: ReadableByteChannel, endOfInput: Boolean = true): Job =
+        submit(ChannelFeed({ channel }, endOfInput))
+
+    /**
+     * 写入文件的全部内容，文件在写入时才打开
+     */
+    fun feed(file: File, endOfInput: Boolean = true): Job =
+        submit(ChannelFeed({ FileInputStream(file).channel }, endOfInput))
+
+    /**
+     * 之前提交的数据写入完成后结束输入
+     */
+    fun finish(): Job = submit(BytesFeed(EMPTY, true))
+
+    private fun submit(feed: Feed): Job {
+        if (feeds.trySend(feed).isFailure) {
+            runCatching { feed.close() }
+            feed.done.cancel()
+        }
+        return feed.done
+    }
+
+    /**
+     * 一个待写入的数据源
+     */
+    private abstract class Feed(val endOfInput: Boolean) : Closeable {
+        val done = CompletableDeferred<Unit>()
+
+        /**
+         * 写入缓冲区，在 IO 线程调用，[chunk] 为复用的数组
+         */
+        abstract fun transfer(buffer: ByteRingBuffer, chunk: ByteArray)
+
+        override fun close() {}
+    }
+
+    /**
+     * 直接持有调用方的数组，不做复制
+     */
+    private class BytesFeed(private val bytes: ByteArray, endOfInput: Boolean) : Feed(endOfInput) {
+        override fun transfer(buffer: ByteRingBuffer, chunk: ByteArray) {
+            buffer.write(bytes, 0, bytes.size)
+        }
+    }
+
+    private class StreamFeed(private val input: InputStream, endOfInput: Boolean) : Feed(endOfInput) {
+        override fun transfer(buffer: ByteRingBuffer, chunk: ByteArray) {
+            while (!buffer.isClosed) {
+                val length = input.read(chunk)
+                if (length < 0) {
+                    return
+                }
+                buffer.write(chunk, 0, length)
+            }
+        }
+
+        override fun close() = input.close()
+    }
+
+    private class ChannelFeed(
+        private val open: () -> ReadableByteChannel,
+        endOfInput: Boolean
+    ) : Feed(endOfInput) {
+        private var channel: ReadableByteChannel? = null
+
+        override fun transfer(buffer: ByteRingBuffer, chunk: ByteArray) {
+            val channel = open().also { channel = it }
+            val byteBuffer = ByteBuffer.wrap(chunk)
+            while (!buffer.isClosed) {
+                byteBuffer.clear()
+                val length = channel.read(byteBuffer)
+                if (length < 0) {
+                    return
+                }
+                buffer.write(chunk, 0, length)
+            }
+        }
+
+        override fun close() {
+            channel?.close()
+        }
+    }
+
+    companion object {
+        /**
+         * 默认每次读取 64KB
+         */
+        const val DEFAULT_CHUNK_SIZE = 64 * 1024
+
+        private val EMPTY = ByteArray(0)
+    }
+}
@@ -0,0 +1,78 @@
+package com.xiaoyv.java.compiler.tools.exec.io
+
+import com.xiaoyv.java.compiler.tools.exec.JavaProgramConsole
+import com.xiaoyv.java.compiler.tools.exec.JavaProgramThreadGroup
+
+/**
+ * JavaStdio
+ *
+ * 标准流路由：只替换一次 System.in/out/err，读写时按当前线程找到所属的程序，
+ * 转发到该程序自己的缓冲区，多个程序可以同时运行，输出互不干扰。
+ *
+ * 线程所属的程序按以下顺序查找：
+ * 1. 通过 [attach] 绑定的线程变量，只对绑定的线程生效，不会被创建的线程继承
+ * 2. 线程组，程序线程运行在 [JavaProgramThreadGroup] 中，创建的线程默认属于同一线程组
+ *
+ * 不使用可继承的线程变量：程序线程顺带创建的线程池线程（如 ForkJoinPool.commonPool()）
+ * 会一直继承绑定，之后执行其它程序或应用自己的任务时，输出会路由到错误的程序。
+ * 线程池线程只有在程序的线程组中创建时才属于该程序，程序结束时随线程组一起终止。
+ *
+ * 不属于任何程序的线程读写原来的标准流。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+object JavaStdio {
+
+    private val currentProgram = ThreadLocal<JavaProgramConsole?>()
+
+    /**
+     * 安装路由流，已安装时不重复安装
+     */
+    @JvmStatic
+    @Synchronized
+    fun install() {
+        val out = System.out
+        if (out !is JavaRoutingPrintStream) {
+            System.setOut(JavaRoutingPrintStream(out) { it.outputStream })
+        }
+        val err = System.err
+        if (err !is JavaRoutingPrintStream) {
+            System.setErr(JavaRoutingPrintStream(err) { it.errorStream })
+        }
+        val input = System.`in`
+        if (input !is JavaRoutingInputStream) {
+            System.setIn(JavaRoutingInputStream(input))
+        }
+    }
+
+    /**
+     * 将当前线程绑定到 [program]，由它创建的线程按线程组查找所属的程序
+     */
+    internal fun attach(program: JavaProgramConsole) {
+        currentProgram.set(program)
+    }
+
+    /**
+     * 当前线程所属的程序，已关闭的程序视为不存在
+     */
+    @JvmStatic
+    fun currentProgram(): JavaProgramConsole? {
+        val program = currentProgram.get() ?: currentThreadGroup()?.program
+        return program?.takeIf { it.isRunning }
+    }
+
+    /**
+     * 当前线程所在的程序线程组，不在任何程序线程组中时返回 null
+     */
+    internal fun currentThreadGroup(): JavaProgramThreadGroup? {
+        var group: ThreadGroup? = Thread.currentThread().threadGroup
+        while (group != null) {
+            if (group is JavaProgramThreadGroup) {
+                return group
+            }
+            group = group.parent
+        }
+        return null
+    }
+}
@@ -0,0 +1,87 @@
+package com.xiaoyv.java.compiler.tools.exec.io.queue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 字节数组池，数组长度均为 2 的幂，按长度分桶复用，
+ * 避免每次运行程序都重新分配输入输出缓冲区
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+public final class ByteArrayPool {
+    /**
+     * 池中最多保留 8MB
+     */
+    public static final long MAX_POOL_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * 最小数组长度 1KB
+     */
+    private static final int MIN_SIZE = 1024;
+
+    /**
+     * 最大数组长度 1GB
+     */
+    private static final int MAX_SIZE = 1 << 30;
+
+    @SuppressWarnings("unchecked")
+    private static final ConcurrentLinkedQueue<byte[]>[] BUCKETS = new ConcurrentLinkedQueue[31];
+    private static final AtomicLong POOLED_BYTES = new AtomicLong();
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKETS[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    private ByteArrayPool() {
+        throw new UnsupportedOperationException("u can't instantiate me...");
+    }
+
+    /**
+     * 获取长度不小于 minSize 的数组，内容不会清零
+     *
+     * @param minSize 最小长度
+     * @return 长度为 2 的幂的数组
+     */
+    public static byte[] acquire(int minSize) {
+        int size = sizeFor(minSize);
+        byte[] bytes = BUCKETS[Integer.numberOfTrailingZeros(size)].poll();
+        if (bytes != null) {
+            POOLED_BYTES.addAndGet(-size);
+            return bytes;
+        }
+        return new byte[size];
+    }
+
+    /**
+     * 归还数组，归还后调用方不能再使用该数组
+     *
+     * @param bytes 通过 {@link #acquire(int)} 获取的数组
+     */
+    public static void release(byte[] bytes) {
+        if (bytes == null || bytes.length < MIN_SIZE || Integer.bitCount(bytes.length) != 1) {
+            return;
+        }
+        if (POOLED_BYTES.addAndGet(bytes.length) > MAX_POOL_BYTES) {
+            POOLED_BYTES.addAndGet(-bytes.length);
+            return;
+        }
+        BUCKETS[Integer.numberOfTrailingZeros(bytes.length)].offer(bytes);
+    }
+
+    /**
+     * 不小于 minSize 的 2 的幂
+     */
+    public static int sizeFor(int minSize) {
+        if (minSize < 0 || minSize > MAX_SIZE) {
+            throw new IllegalArgumentException("size out of range: " + minSize);
+        }
+        if (minSize <= MIN_SIZE) {
+            return MIN_SIZE;
+        }
+        return Integer.highestOneBit(minSize - 1) << 1;
+    }
+}
@@ -0,0 +1,519 @@
+package com.xiaoyv.java.compiler.tools.exec.io.queue;
+
+import java.io.Closeable;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无锁的生产消费型字节环形缓冲区，只允许一位生产者和一位消费者，用于替代 {@link ByteQueue}
+ * <p>
+ * - 读写不加锁，读写位置分别由消费者和生产者独占修改，并填充到不同的缓存行，避免伪共享
+ * - 写满后容量翻倍增长，直到 {@link #getMaxCapacity()}，之后写入阻塞直到被读取
+ * - 缓冲数组从 {@link ByteArrayPool} 获取，{@link #reset()} 和 {@link #release()} 时归还
+ * <p>
+ * 容量增长时生产者会链接一段新的缓冲区，消费者读完旧的一段后切换到新的一段并归还旧数组，
+ * 已写入的数据不需要拷贝。
+ * <p>
+ * 不同线程先后作为生产者（或消费者）时，需要由调用方保证先后顺序，如 {@link java.io.PrintStream} 的同步锁。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+public class ByteRingBuffer implements Closeable {
+    /**
+     * 默认初始容量 8KB
+     */
+    public static final int DEFAULT_INITIAL_CAPACITY = 8 * 1024;
+
+    /**
+     * 默认最大容量，与 {@link ByteQueue#QUEUE_SIZE} 相同
+     */
+    public static final int DEFAULT_MAX_CAPACITY = ByteQueue.QUEUE_SIZE;
+
+    private final int initialCapacity;
+    private final int maxCapacity;
+
+    /**
+     * 消费者正在读取的一段
+     */
+    private Segment readSegment;
+
+    /**
+     * 生产者正在写入的一段
+     */
+    private Segment writeSegment;
+
+    private volatile Thread readWaiter;
+    private volatile Thread writeWaiter;
+    private volatile boolean closed;
+
+    /**
+     * 输入结束，已写入的数据读完后读取返回 -1
+     */
+    private volatile boolean finished;
+
+    /**
+     * 正在读写的标记，{@link #release()} 时有读写正在进行则不归还数组
+     */
+    private volatile boolean reading;
+    private volatile boolean writing;
+
+    public ByteRingBuffer() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity 初始容量，会向上取整为 2 的幂
+     * @param maxCapacity     最大容量，会向上取整为 2 的幂
+     */
+    public ByteRingBuffer(int initialCapacity, int maxCapacity) {
+        if (initialCapacity <= 0 || maxCapacity < initialCapacity) {
+            throw new IllegalArgumentException("initialCapacity: " + initialCapacity + ", maxCapacity: " + maxCapacity);
+        }
+        this.initialCapacity = ByteArrayPool.sizeFor(initialCapacity);
+        this.maxCapacity = ByteArrayPool.sizeFor(maxCapacity);
+        readSegment = writeSegment = new Segment(ByteArrayPool.acquire(this.initialCapacity));
+    }
+
+    public int getMaxCapacity() {
+        return maxCapacity;
+    }
+
+    /**
+     * 当前写入段的容量
+     */
+    public int getCapacity() {
+        Segment segment = writeSegment;
+        return segment == null ? 0 : segment.buffer.length;
+    }
+
+    /**
+     * 可读取的字节数，由消费者调用
+     */
+    public int getBytesAvailable() {
+        long available = 0;
+        for (Segment segment = readSegment; segment != null && !closed; segment = segment.next) {
+            available += segment.tail - segment.head;
+        }
+        return (int) Math.min(available, Integer.MAX_VALUE);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 读取一个字节，没有数据时阻塞
+     *
+     * @return 读取的字节，缓冲区关闭时返回 -1
+     */
+    public int read() throws InterruptedException {
+        reading = true;
+        try {
+            while (true) {
+                if (closed) {
+                    return -1;
+                }
+                boolean finished = this.finished;
+                int value = pollByteInternal();
+                if (value >= 0) {
+                    return value;
+                }
+                if (finished) {
+                    return -1;
+                }
+                awaitReadable();
+            }
+        } finally {
+            reading = false;
+        }
+    }
+
+    /**
+     * 读取数据，没有数据时阻塞
+     *
+     * @return 读取的字节数，缓冲区关闭或输入结束且数据已读完时返回 -1
+     */
+    public int read(byte[] buffer, int offset, int length) throws InterruptedException {
+        checkRange(buffer, offset, length);
+        if (length == 0) {
+            return 0;
+        }
+        reading = true;
+        try {
+            while (true) {
+                if (closed) {
+                    return -1;
+                }
+                // 先读取结束标记，标记之前写入的数据一定能读到
+                boolean finished = this.finished;
+                int bytesRead = pollInternal(buffer, offset, length);
+                if (bytesRead > 0) {
+                    return bytesRead;
+                }
+                if (finished) {
+                    return -1;
+                }
+                awaitReadable();
+            }
+        } finally {
+            reading = false;
+        }
+    }
+
+    /**
+     * 读取数据，没有数据时立即返回
+     *
+     * @return 读取的字节数，没有数据时返回 0，缓冲区关闭或输入结束且数据已读完时返回 -1
+     */
+    public int poll(byte[] buffer, int offset, int length) {
+        checkRange(buffer, offset, length);
+        reading = true;
+        try {
+            if (closed) {
+                return -1;
+            }
+            boolean finished = this.finished;
+            int bytesRead = length == 0 ? 0 : pollInternal(buffer, offset, length);
+            return bytesRead == 0 && finished && length > 0 ? -1 : bytesRead;
+        } finally {
+            reading = false;
+        }
+    }
+
+    /**
+     * 写入全部数据，达到最大容量时阻塞，缓冲区关闭或输入结束后写入的数据会被丢弃
+     */
+    public void write(byte[] buffer, int offset, int length) throws InterruptedException {
+        checkRange(buffer, offset, length);
+        writing = true;
+        try {
+            while (length > 0 && !closed && !finished) {
+                int bytesWritten = offerInternal(buffer, offset, length);
+                if (bytesWritten == 0) {
+                    awaitWritable();
+                    continue;
+                }
+                offset += bytesWritten;
+                length -= bytesWritten;
+            }
+        } finally {
+            writing = false;
+        }
+    }
+
+    /**
+     * 写入数据，达到最大容量时立即返回
+     *
+     * @return 写入的字节数，缓冲区关闭或输入结束时返回 -1
+     */
+    public int offer(byte[] buffer, int offset, int length) {
+        checkRange(buffer, offset, length);
+        writing = true;
+        try {
+            if (closed || finished) {
+                return -1;
+            }
+            int total = 0;
+            while (length > 0) {
+                int bytesWritten = offerInternal(buffer, offset, length);
+                if (bytesWritten == 0) {
+                    break;
+                }
+                offset += bytesWritten;
+                length -= bytesWritten;
+                total += bytesWritten;
+            }
+            return total;
+        } finally {
+            writing = false;
+        }
+    }
+
+    /**
+     * 结束输入：已写入的数据仍可读取，读完后读取返回 -1，阻塞的写入立即返回，之后写入的数据会被丢弃
+     */
+    public void finish() {
+        finished = true;
+        LockSupport.unpark(readWaiter);
+        LockSupport.unpark(writeWaiter);
+    }
+
+    /**
+     * 关闭缓冲区，唤醒阻塞的读写，未读取的数据会被丢弃
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(readWaiter);
+        LockSupport.unpark(writeWaiter);
+    }
+
+    /**
+     * 关闭缓冲区并将数组归还到 {@link ByteArrayPool}，之后只能通过 {@link #reset()} 重新使用
+     * <p>
+     * 如果此时仍有读写在进行（如程序线程还在输出），数组不会归还，交给 GC 回收
+     */
+    public void release() {
+        close();
+        if (!reading && !writing) {
+            recycle();
+        }
+    }
+
+    /**
+     * 清空并重新打开缓冲区，容量恢复为初始容量。调用时不能有正在进行的读写
+     */
+    public void reset() {
+        closed = true;
+        recycle();
+        readSegment = writeSegment = new Segment(ByteArrayPool.acquire(initialCapacity));
+        finished = false;
+        closed = false;
+    }
+
+    private synchronized void recycle() {
+        Segment segment = readSegment;
+        readSegment = writeSegment = null;
+        while (segment != null) {
+            ByteArrayPool.release(segment.buffer);
+            segment = segment.next;
+        }
+    }
+
+    /**
+     * 由消费者调用
+     */
+    private int pollInternal(byte[] buffer, int offset, int length) {
+        Segment segment = readSegment;
+        while (true) {
+            long head = segment.head;
+            long available = segment.cachedTail - head;
+            if (available <= 0) {
+                segment.cachedTail = segment.tail;
+                available = segment.cachedTail - head;
+            }
+            if (available > 0) {
+                int bytesToCopy = (int) Math.min(length, available);
+                int index = (int) head & segment.mask;
+                int firstRun = Math.min(bytesToCopy, segment.buffer.length - index);
+                System.arraycopy(segment.buffer, index, buffer, offset, firstRun);
+                if (bytesToCopy > firstRun) {
+                    System.arraycopy(segment.buffer, 0, buffer, offset + firstRun, bytesToCopy - firstRun);
+                }
+                segment.head = head + bytesToCopy;
+                signalWritable(segment, head + bytesToCopy);
+                return bytesToCopy;
+            }
+
+            segment = advance(segment);
+            if (segment == null) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 直接从缓冲数组读取一个字节，由消费者调用
+     *
+     * @return 读取的字节，没有数据时返回 -1
+     */
+    private int pollByteInternal() {
+        Segment segment = readSegment;
+        while (true) {
+            long head = segment.head;
+            if (segment.cachedTail - head <= 0) {
+                segment.cachedTail = segment.tail;
+            }
+            if (segment.cachedTail - head > 0) {
+                int value = segment.buffer[(int) head & segment.mask] & 0xFF;
+                segment.head = head + 1;
+                signalWritable(segment, head + 1);
+                return value;
+            }
+
+            segment = advance(segment);
+            if (segment == null) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * 生产者写满等待时，读取到这一段只剩一半数据再唤醒，避免每读取一次就唤醒一次。
+     * 生产者只会在达到最大容量的最后一段上等待，读取更早的段时不需要唤醒
+     */
+    private void signalWritable(Segment segment, long head) {
+        Thread waiter = writeWaiter;
+        if (waiter != null && segment.next == null && segment.tail - head <= segment.buffer.length >> 1) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * 当前一段没有可读数据时切换到下一段，由消费者调用
+     *
+     * @return 继续读取的一段，没有下一段时返回 null
+     */
+    private Segment advance(Segment segment) {
+        Segment next = segment.next;
+        if (next == null) {
+            return null;
+        }
+        // 生产者链接下一段之前写入的数据，链接之后本段不会再写入
+        if (segment.tail != segment.head) {
+            return segment;
+        }
+        readSegment = next;
+        ByteArrayPool.release(segment.buffer);
+        return next;
+    }
+
+    /**
+     * 由生产者调用
+     */
+    private int offerInternal(byte[] buffer, int offset, int length) {
+        Segment segment = writeSegment;
+        int capacity = segment.buffer.length;
+        long tail = segment.tail;
+        long free = capacity - (tail - segment.cachedHead);
+        if (free < length) {
+            segment.cachedHead = segment.head;
+            free = capacity - (tail - segment.cachedHead);
+        }
+        if (free == 0) {
+            if (capacity >= maxCapacity) {
+                return 0;
+            }
+            // 容量翻倍，链接新的一段
+            int grownCapacity = Math.min(maxCapacity, Math.max(capacity << 1, ByteArrayPool.sizeFor(length)));
+            Segment grown = new Segment(ByteArrayPool.acquire(grownCapacity));
+            segment.next = grown;
+            writeSegment = grown;
+            return offerInternal(buffer, offset, length);
+        }
+
+        int bytesToCopy = (int) Math.min(length, free);
+        int index = (int) tail & segment.mask;
+        int firstRun = Math.min(bytesToCopy, capacity - index);
+        System.arraycopy(buffer, offset, segment.buffer, index, firstRun);
+        if (bytesToCopy > firstRun) {
+            System.arraycopy(buffer, offset + firstRun, segment.buffer, 0, bytesToCopy - firstRun);
+        }
+        segment.tail = tail + bytesToCopy;
+        Thread waiter = readWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return bytesToCopy;
+    }
+
+    private void awaitReadable() throws InterruptedException {
+        readWaiter = Thread.currentThread();
+        try {
+            while (!closed && !finished) {
+                Segment segment = readSegment;
+                if (segment.tail != segment.head || segment.next != null) {
+                    return;
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            readWaiter = null;
+        }
+    }
+
+    private void awaitWritable() throws InterruptedException {
+        writeWaiter = Thread.currentThread();
+        try {
+            while (!closed && !finished) {
+                // 与 signalWritable 对应，空出一半容量后再继续写入
+                Segment segment = writeSegment;
+                if (segment.tail - segment.head <= segment.buffer.length >> 1) {
+                    return;
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            writeWaiter = null;
+        }
+    }
+
+    private static void checkRange(byte[] buffer, int offset, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length < 0");
+        }
+        if (offset < 0 || length + offset > buffer.length) {
+            throw new IllegalArgumentException("length + offset > buffer.length");
+        }
+    }
+
+    /**
+     * 读位置前的填充
+     */
+    @SuppressWarnings("unused")
+    abstract static class HeadPadding {
+        long p00, p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    /**
+     * 读位置，只由消费者修改
+     */
+    abstract static class HeadIndex extends HeadPadding {
+        volatile long head;
+
+        /**
+         * 消费者缓存的写位置，减少读取 {@link TailIndex#tail}
+         */
+        long cachedTail;
+    }
+
+    @SuppressWarnings("unused")
+    abstract static class TailPadding extends HeadIndex {
+        long p10, p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    /**
+     * 写位置，只由生产者修改
+     */
+    abstract static class TailIndex extends TailPadding {
+        volatile long tail;
+
+        /**
+         * 生产者缓存的读位置，减少读取 {@link HeadIndex#head}
+         */
+        long cachedHead;
+    }
+
+    @SuppressWarnings("unused")
+    abstract static class SegmentPadding extends TailIndex {
+        long p20, p21, p22, p23, p24, p25, p26, p27;
+    }
+
+    /**
+     * 一段容量固定的环形缓冲区
+     */
+    static final class Segment extends SegmentPadding {
+        final byte[] buffer;
+        final int mask;
+
+        /**
+         * 容量增长后的下一段，由生产者链接
+         */
+        volatile Segment next;
+
+        Segment(byte[] buffer) {
+            this.buffer = buffer;
+            this.mask = buffer.length - 1;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.xiaoyv.java.compiler.tools.exec.judge
+
+/**
+ * JavaJudgeCase
+ *
+ * 一组评测用例
+ *
+ * @param stdin          程序的标准输入
+ * @param expectedOutput 期望的标准输出
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaJudgeCase(
+    val stdin: ByteArray,
+    val expectedOutput: ByteArray
+) {
+    constructor(stdin: String, expectedOutput: String) : this(stdin.toByteArray(), expectedOutput.toByteArray())
+}
@@ -0,0 +1,21 @@
+package com.xiaoyv.java.compiler.tools.exec.judge
+
+/**
+ * JavaJudgeCompareMode
+ *
+ * 输出的比较方式
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+enum class JavaJudgeCompareMode {
+    /**
+     * 逐字节完全一致
+     */
+    EXACT,
+
+    /**
+     * 忽略每行末尾的空格、制表符、\r，以及输出末尾的空行
+     */
+    IGNORE_TRAILING_WHITESPACE
+}
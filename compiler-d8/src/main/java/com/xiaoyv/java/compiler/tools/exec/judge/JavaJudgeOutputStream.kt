@@ -0,0 +1,176 @@
+package com.xiaoyv.java.compiler.tools.exec.judge
+
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+
+/**
+ * JavaJudgeOutputStream
+ *
+ * 评测时程序的标准输出：边写入边与期望输出比较，不保存程序的输出
+ *
+ * [JavaJudgeCompareMode.IGNORE_TRAILING_WHITESPACE] 模式下，行末的空白和换行先只记录数量，
+ * 并预先与期望输出对应位置比较，后面出现非空白字符时才确认，输出结束时仍未确认的部分直接忽略，
+ * 期望输出按同样的规则预先规整。
+ *
+ * @param expectedOutput 期望输出
+ * @param mode           比较方式
+ * @param onWrite        写入前回调写入的字节数，返回 false 时丢弃本次写入
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaJudgeOutputStream @JvmOverloads constructor(
+    expectedOutput: ByteArray,
+    private val mode: JavaJudgeCompareMode = JavaJudgeCompareMode.IGNORE_TRAILING_WHITESPACE,
+    private val onWrite: (Int) -> Boolean = { true }
+) : OutputStream() {
+
+    private val expected = if (mode == JavaJudgeCompareMode.EXACT) expectedOutput else normalize(expectedOutput)
+
+    /**
+     * 已确认一致的期望输出长度
+     */
+    private var position = 0
+
+    private var mismatch = false
+
+    /**
+     * 未确认的换行数和换行后的空白数
+     */
+    private var pendingNewlines = 0
+    private var pendingSpaces = 0
+    private var newlineMismatch = false
+    private var spaceMismatch = false
+
+    private val single = ByteArray(1)
+
+    /**
+     * 已写入的字节数
+     */
+    @Volatile
+    var size = 0L
+        private set
+
+    /**
+     * 输出是否与期望一致，程序结束后调用
+     */
+    val isMatched: Boolean
+        @Synchronized get() = !mismatch && position == expected.size
+
+    @Synchronized
+    override fun write(b: Int) {
+        single[0] = b.toByte()
+        write(single, 0, 1)
+    }
+
+    @Synchronized
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        // 超过输出限制时丢弃
+        if (!onWrite(len)) {
+            return
+        }
+        size += len
+        if (mismatch) {
+            return
+        }
+        if (mode == JavaJudgeCompareMode.EXACT) {
+            compareExact(b, off, len)
+        } else {
+            for (i in off until off + len) {
+                if (!compareNormalized(b[i])) {
+                    mismatch = true
+                    return
+                }
+            }
+        }
+    }
+
+    private fun compareExact(b: ByteArray, off: Int, len: Int) {
+        if (position + len > expected.size) {
+            mismatch = true
+            return
+        }
+        for (i in 0 until len) {
+            if (expected[position + i] != b[off + i]) {
+                mismatch = true
+                return
+            }
+        }
+        position += len
+    }
+
+    /**
+     * @return 是否仍可能一致
+     */
+    private fun compareNormalized(byte: Byte): Boolean {
+        when (byte) {
+            SPACE, TAB, CR -> {
+                if (!spaceMismatch) {
+                    val index = position + pendingNewlines + pendingSpaces
+                    spaceMismatch = index >= expected.size || expected[index] != byte
+                }
+                pendingSpaces++
+            }
+            LF -> {
+                // 换行前的空白被丢弃
+                pendingSpaces = 0
+                spaceMismatch = false
+                if (!newlineMismatch) {
+                    val index = position + pendingNewlines
+                    newlineMismatch = index >= expected.size || expected[index] != LF
+                }
+                pendingNewlines++
+            }
+            else -> {
+                // 非空白字符，确认之前的换行和空白
+                if (newlineMismatch || spaceMismatch) {
+                    return false
+                }
+                position += pendingNewlines + pendingSpaces
+                pendingNewlines = 0
+                pendingSpaces = 0
+                if (position >= expected.size || expected[position] != byte) {
+                    return false
+                }
+                position++
+            }
+        }
+        return true
+    }
+
+    companion object {
+        private const val SPACE = ' '.code.toByte()
+        private const val TAB = '\t'.code.toByte()
+        private const val CR = '\r'.code.toByte()
+        private const val LF = '\n'.code.toByte()
+
+        /**
+         * 去掉每行末尾的空白和末尾的空行
+         */
+        @JvmStatic
+        fun normalize(bytes: ByteArray): ByteArray {
+            val output = ByteArrayOutputStream(bytes.size)
+            var newlines = 0
+            var spaceStart = -1
+            for ((index, byte) in bytes.withIndex()) {
+                when (byte) {
+                    SPACE, TAB, CR -> if (spaceStart < 0) spaceStart = index
+                    LF -> {
+                        spaceStart = -1
+                        newlines++
+                    }
+                    else -> {
+                        repeat(newlines) { output.write(LF.toInt()) }
+                        if (spaceStart >= 0) {
+                            output.write(bytes, spaceStart, index - spaceStart)
+                        }
+                        newlines = 0
+                        spaceStart = -1
+                        output.write(byte.toInt())
+                    }
+                }
+            }
+            return output.toByteArray()
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.xiaoyv.java.compiler.tools.exec.judge
+
+import com.xiaoyv.java.compiler.tools.exec.JavaExitReason
+
+/**
+ * JavaJudgeResult
+ *
+ * 一组用例的评测结果
+ *
+ * @param index       用例序号，与传入的用例顺序一致
+ * @param verdict     评测结果
+ * @param exitReason  程序结束的原因
+ * @param timeMillis  运行耗时，从 main 方法开始到程序结束
+ * @param stdoutBytes 标准输出的总字节数，输出边写入边比较、不在内存中保存，没有单独的峰值
+ * @param stderr      标准错误输出，最多保留前 64KB
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+data class JavaJudgeResult(
+    val index: Int,
+    val verdict: JavaJudgeVerdict,
+    val exitReason: JavaExitReason,
+    val timeMillis: Long,
+    val stdoutBytes: Long,
+    val stderr: String
+) {
+    val isAccepted: Boolean
+        get() = verdict == JavaJudgeVerdict.ACCEPTED
+}
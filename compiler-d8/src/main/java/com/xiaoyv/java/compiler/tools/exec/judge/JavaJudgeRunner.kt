@@ -0,0 +1,128 @@
+package com.xiaoyv.java.compiler.tools.exec.judge
+
+import com.xiaoyv.java.compiler.JavaBuildContext
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.tools.exec.JavaDexLoaderCache
+import com.xiaoyv.java.compiler.tools.exec.JavaProgramConsole
+import com.xiaoyv.java.compiler.tools.exec.JavaRunLimits
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelinePhase
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.PrintStream
+import java.lang.reflect.InvocationTargetException
+import java.util.concurrent.TimeUnit
+
+/**
+ * JavaJudgeRunner
+ *
+ * 批量评测：同一个程序按多组输入并发运行
+ *
+ * - 每组用例使用新的类加载器，静态变量互不影响，dex 和优化输出通过 [JavaDexLoaderCache] 共用
+ * - 标准输入直接读取用例的字节，标准输出边写入边比较，不经过界面输出的缓冲区
+ * - 同时运行的用例数不超过 parallelism
+ *
+ * 通过 [com.xiaoyv.java.compiler.tools.exec.JavaProgram.judge] 调用
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+internal class JavaJudgeRunner(
+    private val dexBytes: List<ByteArray>,
+    private val mainClass: String,
+    private val libraryDexFiles: List<File>,
+    private val limits: JavaRunLimits,
+    private val compareMode: JavaJudgeCompareMode,
+    private val loaderCache: JavaDexLoaderCache,
+    private val context: JavaBuildContext
+) {
+
+    suspend fun run(cases: List<JavaJudgeCase>, parallelism: Int): List<JavaJudgeResult> = coroutineScope {
+        val semaphore = Semaphore(parallelism)
+        // 所有用例加载同一个程序，dex 的哈希只计算一次
+        val loaderKey = loaderCache.cacheKey(dexBytes, libraryDexFiles)
+        cases.mapIndexed { index, case ->
+            async(Dispatchers.IO) {
+                semaphore.withPermit { runCase(index, case, loaderKey) }
+            }
+        }.awaitAll()
+    }
+
+    private suspend fun runCase(index: Int, case: JavaJudgeCase, loaderKey: String): JavaJudgeResult {
+        // 控制台只用于路由标准流和运行沙箱，使用用例自己的流，不会创建缓冲区和输出泵
+        val console = JavaProgramConsole(limits)
+        val sandbox = console.sandbox
+        val stdout = JavaJudgeOutputStream(case.expectedOutput, compareMode) { sandbox.onOutput(it) }
+        val stderr = TruncatedOutputStream(MAX_STDERR_BYTES)
+        console.attachStreams(ByteArrayInputStream(case.stdin), PrintStream(stdout), PrintStream(stderr))
+
+        try {
+            val method = JavaEngine.tracer.trace(JavaPipelinePhase.CLASS_LOAD, context) {
+                loaderCache.createClassLoader(loaderKey, dexBytes, libraryDexFiles)
+                    .loadClass(mainClass)
+                    .getDeclaredMethod("main", Array<String>::class.java)
+            }
+
+            val startTime = System.nanoTime()
+            val exitReason = JavaEngine.tracer.trace(JavaPipelinePhase.PROGRAM_RUN, context) { span ->
+                console.execute("JavaJudge-$index") {
+                    try {
+                        method.invoke(null, emptyArray<String>())
+                    } catch (e: InvocationTargetException) {
+                        throw e.targetException
+                    }
+                }
+                sandbox.watch().also {
+                    span.bytesIn = case.stdin.size.toLong()
+                    span.bytesOut = stdout.size
+                }
+            }
+            val timeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+
+            return JavaJudgeResult(
+                index = index,
+                verdict = JavaJudgeVerdict.of(exitReason, stdout.isMatched),
+                exitReason = exitReason,
+                timeMillis = timeMillis,
+                stdoutBytes = stdout.size,
+                stderr = stderr.toString(Charsets.UTF_8.name())
+            )
+        } finally {
+            console.close()
+        }
+    }
+
+    /**
+     * 只保留前 [limit] 个字节的输出流
+     */
+    private class TruncatedOutputStream(private val limit: Int) : ByteArrayOutputStream() {
+
+        @Synchronized
+        override fun write(b: Int) {
+            if (count < limit) {
+                super.write(b)
+            }
+        }
+
+        @Synchronized
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            val length = len.coerceAtMost(limit - count)
+            if (length > 0) {
+                super.write(b, off, length)
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * 标准错误输出最多保留 64KB
+         */
+        const val MAX_STDERR_BYTES = 64 * 1024
+    }
+}
@@ -0,0 +1,52 @@
+package com.xiaoyv.java.compiler.tools.exec.judge
+
+import com.xiaoyv.java.compiler.tools.exec.JavaExitReason
+
+/**
+ * JavaJudgeVerdict
+ *
+ * 评测结果
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+enum class JavaJudgeVerdict(val message: String) {
+    /**
+     * 输出与期望一致
+     */
+    ACCEPTED("答案正确"),
+
+    /**
+     * 正常结束，但输出与期望不一致
+     */
+    WRONG_ANSWER("答案错误"),
+
+    /**
+     * 未捕获的异常或超过线程数限制
+     */
+    RUNTIME_ERROR("运行错误"),
+
+    /**
+     * 超过运行时间或 CPU 时间限制
+     */
+    TIME_LIMIT_EXCEEDED("运行超时"),
+
+    /**
+     * 超过输出限制
+     */
+    OUTPUT_LIMIT_EXCEEDED("输出超限");
+
+    companion object {
+
+        /**
+         * 根据程序结束的原因和输出比较结果给出评测结果
+         */
+        @JvmStatic
+        fun of(exitReason: JavaExitReason, outputMatched: Boolean) = when (exitReason) {
+            JavaExitReason.NORMAL -> if (outputMatched) ACCEPTED else WRONG_ANSWER
+            JavaExitReason.TIMEOUT, JavaExitReason.CPU_TIME_LIMIT -> TIME_LIMIT_EXCEEDED
+            JavaExitReason.OUTPUT_LIMIT -> OUTPUT_LIMIT_EXCEEDED
+            JavaExitReason.EXCEPTION, JavaExitReason.THREAD_LIMIT, JavaExitReason.KILLED -> RUNTIME_ERROR
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.xiaoyv.java.compiler.tools.java
+
+import org.eclipse.jdt.core.compiler.CompilationProgress
+import org.eclipse.jdt.internal.compiler.CompilationResult
+import org.eclipse.jdt.internal.compiler.batch.Main
+import java.io.PrintWriter
+
+/**
+ * JavaClassCompileMain
+ *
+ * ECJ 编译入口，每个编译单元输出时回调 [resultListener]
+ *
+ * @author why
+ * @since 2022/3/7
+ */
+open class JavaClassCompileMain(
+    printWriter: PrintWriter,
+    progress: CompilationProgress,
+    private val resultListener: ((CompilationResult) -> Unit)? = null
+) : Main(printWriter, printWriter, false, null, progress) {
+
+    override fun outputClassFiles(unitResult: CompilationResult?) {
+        super.outputClassFiles(unitResult)
+        if (unitResult != null) {
+            resultListener?.invoke(unitResult)
+        }
+    }
+}
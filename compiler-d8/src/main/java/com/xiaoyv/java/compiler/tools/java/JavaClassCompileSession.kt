@@ -0,0 +1,333 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler.tools.java
+
+import com.xiaoyv.java.compiler.JavaEngine
+import org.eclipse.jdt.core.compiler.CompilationProgress
+import org.eclipse.jdt.internal.compiler.CompilationResult
+import org.eclipse.jdt.internal.compiler.batch.ClasspathJar
+import org.eclipse.jdt.internal.compiler.batch.FileSystem
+import java.io.File
+import java.io.PrintWriter
+import java.util.concurrent.locks.ReentrantReadWriteLock
+
+/**
+ * JavaClassCompileSession
+ *
+ * 常驻的 ECJ 编译会话：rt.jar 和 lib 文件夹内的 jar 只打开并索引一次，之后的每次编译直接复用，
+ * 不再重复读取 jar 的目录结构和包信息。
+ *
+ * 只有当类路径内的 jar 发生变化（路径、大小、修改时间），
+ * 或者编译的 source/target/encoding 设置改变时，缓存才会失效。
+ *
+ * @author why
+ * @since 2022/3/7
+ */
+class JavaClassCompileSession {
+
+    /**
+     * 缓存的类路径环境读写锁，编译时持有读锁，替换缓存时持有写锁
+     */
+    private val lock = ReentrantReadWriteLock()
+
+    /**
+     * 已预热的 jar 类路径，key 为 jar 的绝对路径
+     */
+    private val warmClasspaths = hashMapOf<String, WarmClasspath>()
+
+    /**
+     * 当前缓存对应的编译设置
+     */
+    private var settingKey: String? = null
+
+    /**
+     * 编译耗时统计
+     */
+    @Volatile
+    var stats = Stats()
+        private set
+
+    /**
+     * 使用常驻的类路径环境执行一次 ECJ 编译
+     *
+     * @param compileCmd   编译命令
+     * @param settingKey   编译设置的标识，由 source/target/encoding 组成
+     * @param printWriter  日志输出
+     * @param progress     编译进度
+     * @param resultListener 编译单元输出回调
+     */
+    @JvmOverloads
+    fun compile(
+        compileCmd: Array<String>,
+        settingKey: String,
+        printWriter: PrintWriter,
+        progress: CompilationProgress,
+        resultListener: ((CompilationResult) -> Unit)? = null
+    ): Boolean {
+        val startTime = System.currentTimeMillis()
+        val main = WarmMain(settingKey, printWriter, progress, resultListener)
+        val success = try {
+            main.compile(compileCmd)
+        } finally {
+            // ECJ 编译抛出异常时不会清理类路径环境，这里补上，确保释放读锁
+            main.fileSystem?.close()
+        }
+        record(main.warm, System.currentTimeMillis() - startTime)
+        return success
+    }
+
+    /**
+     * 使用常驻的类路径环境创建 [FileSystem]，供直接调用 ECJ Compiler 的场景使用，
+     * [block] 返回后环境即被清理，不要在外部持有
+     *
+     * @param settingKey     编译设置的标识，由 source/target/encoding 组成
+     * @param classpathNames 类路径集合
+     * @param encoding       编码
+     */
+    fun <T> useLibraryAccess(
+        settingKey: String,
+        classpathNames: List<String>,
+        encoding: String,
+        block: (FileSystem) -> T
+    ): T {
+        val startTime = System.currentTimeMillis()
+        val classpaths = classpathNames.mapNotNull {
+            FileSystem.getClasspath(it, encoding, null)
+        }.toTypedArray()
+
+        val (resolved, warm) = acquire(settingKey, classpaths)
+        val fileSystem = try {
+            WarmFileSystem(resolved, null)
+        } catch (e: Throwable) {
+            release()
+            throw e
+        }
+        try {
+            return block(fileSystem)
+        } finally {
+            fileSystem.cleanup()
+            record(warm, System.currentTimeMillis() - startTime)
+        }
+    }
+
+    /**
+     * 释放全部缓存的类路径，下一次编译将重新加载
+     */
+    fun invalidate() {
+        lock.writeLock().lock()
+        try {
+            invalidateLocked()
+        } finally {
+            lock.writeLock().unlock()
+        }
+    }
+
+    private fun invalidateLocked() {
+        warmClasspaths.values.forEach {
+            runCatching { it.classpath.reset() }
+        }
+        warmClasspaths.clear()
+        settingKey = null
+    }
+
+    /**
+     * 将本次编译的 jar 类路径替换为缓存的实例，成功返回时持有读锁，需要调用 [release] 释放
+     */
+    private fun acquire(
+        settingKey: String,
+        classpaths: Array<FileSystem.Classpath>
+    ): Pair<Array<FileSystem.Classpath>, Boolean> {
+        lock.readLock().lock()
+        if (isFresh(settingKey, classpaths)) {
+            return resolve(classpaths) to true
+        }
+        lock.readLock().unlock()
+
+        lock.writeLock().lock()
+        try {
+            if (this.settingKey != settingKey) {
+                invalidateLocked()
+                this.settingKey = settingKey
+            }
+            var warm = true
+            classpaths.filter { isCacheable(it) }.forEach {
+                val path = it.path
+                val signature = signature(path)
+                val cached = warmClasspaths[path]
+                if (cached == null || cached.signature != signature) {
+                    cached?.let { stale -> runCatching { stale.classpath.reset() } }
+
+                    // 打开 jar 并一次性建立包缓存，之后的查询都是只读的
+                    it.initialize()
+                    it.getModulesDeclaringPackage("java/lang", null)
+                    warmClasspaths[path] = WarmClasspath(it, signature)
+                    warm = false
+                }
+            }
+
+            // 降级为读锁
+            lock.readLock().lock()
+            return resolve(classpaths) to warm
+        } finally {
+            lock.writeLock().unlock()
+        }
+    }
+
+    private fun release() {
+        lock.readLock().unlock()
+    }
+
+    private fun isFresh(settingKey: String, classpaths: Array<FileSystem.Classpath>): Boolean {
+        if (this.settingKey != settingKey) {
+            return false
+        }
+        return classpaths.filter { isCacheable(it) }.all {
+            warmClasspaths[it.path]?.signature == signature(it.path)
+        }
+    }
+
+    private fun resolve(classpaths: Array<FileSystem.Classpath>) = classpaths.map {
+        if (isCacheable(it)) warmClasspaths[it.path]?.classpath ?: it else it
+    }.toTypedArray()
+
+    private fun isWarm(classpath: FileSystem.Classpath) =
+        warmClasspaths[classpath.path]?.classpath === classpath
+
+    /**
+     * 仅缓存依赖 jar，源码路径和输出目录每次都会变化
+     */
+    private fun isCacheable(classpath: FileSystem.Classpath) =
+        classpath.javaClass == ClasspathJar::class.java
+
+    private fun signature(path: String) = File(path).let {
+        "${it.length()}:${it.lastModified()}"
+    }
+
+    private fun record(warm: Boolean, costTime: Long) {
+        val current = stats
+        stats = if (current.compileCount == 0 || !warm) {
+            JavaEngine.logInfo("ECJ 首次编译（加载类路径）耗时：${costTime}ms")
+            current.copy(
+                compileCount = current.compileCount + 1,
+                firstCompileTime = costTime,
+                lastCompileTime = costTime,
+                lastCompileWarm = false
+            )
+        } else {
+            JavaEngine.logInfo("ECJ 热编译（复用类路径）耗时：${costTime}ms")
+            current.copy(
+                compileCount = current.compileCount + 1,
+                warmCompileCount = current.warmCompileCount + 1,
+                warmCompileTotalTime = current.warmCompileTotalTime + costTime,
+                lastCompileTime = costTime,
+                lastCompileWarm = true
+            )
+        }
+    }
+
+    /**
+     * 缓存的 jar 类路径
+     */
+    private class WarmClasspath(val classpath: FileSystem.Classpath, val signature: String)
+
+    /**
+     * 复用类路径环境的 ECJ 编译入口
+     */
+    private inner class WarmMain(
+        private val settingKey: String,
+        printWriter: PrintWriter,
+        progress: CompilationProgress,
+        resultListener: ((CompilationResult) -> Unit)?
+    ) : JavaClassCompileMain(printWriter, progress, resultListener) {
+
+        /**
+         * 本次编译的类路径是否全部来自缓存
+         */
+        var warm = false
+
+        /**
+         * 本次编译使用的类路径环境
+         */
+        var fileSystem: WarmFileSystem? = null
+
+        override fun getLibraryAccess(): FileSystem {
+            val (classpaths, warm) = acquire(settingKey, checkedClasspaths)
+            this.warm = warm
+            return try {
+                WarmFileSystem(classpaths, filenames).also { fileSystem = it }
+            } catch (e: Throwable) {
+                release()
+                throw e
+            }
+        }
+    }
+
+    /**
+     * 编译结束时只重置本次新建的类路径，缓存的 jar 保持打开
+     */
+    private inner class WarmFileSystem(
+        classpaths: Array<FileSystem.Classpath>,
+        initialFileNames: Array<String>?
+    ) : FileSystem(classpaths, initialFileNames, false, null) {
+
+        /**
+         * 读锁是否已释放，ECJ 和 [compile] 都可能调用清理，读锁只能释放一次
+         */
+        private var released = false
+
+        override fun cleanup() {
+            try {
+                classpaths.filterNot { isWarm(it) }.forEach { it.reset() }
+            } finally {
+                if (!released) {
+                    released = true
+                    release()
+                }
+            }
+        }
+
+        /**
+         * 编译异常结束时清理，正常结束时 ECJ 已经清理过
+         */
+        fun close() {
+            if (!released) {
+                cleanup()
+            }
+        }
+    }
+
+    /**
+     * 编译耗时统计
+     *
+     * @param compileCount          编译总次数
+     * @param firstCompileTime      最近一次加载类路径的编译耗时（毫秒）
+     * @param warmCompileCount      复用类路径的编译次数
+     * @param warmCompileTotalTime  复用类路径的编译总耗时（毫秒）
+     * @param lastCompileTime       最近一次编译耗时（毫秒）
+     * @param lastCompileWarm       最近一次编译是否复用了类路径
+     */
+    data class Stats(
+        val compileCount: Int = 0,
+        val firstCompileTime: Long = 0,
+        val warmCompileCount: Int = 0,
+        val warmCompileTotalTime: Long = 0,
+        val lastCompileTime: Long = 0,
+        val lastCompileWarm: Boolean = false
+    ) {
+        /**
+         * 热编译平均耗时（毫秒）
+         */
+        val warmCompileAverageTime: Long
+            get() = if (warmCompileCount == 0) 0 else warmCompileTotalTime / warmCompileCount
+    }
+
+    companion object {
+
+        /**
+         * 编译设置的标识
+         */
+        @JvmStatic
+        fun settingKey(source: String, target: String, encoding: String) =
+            "$source|$target|$encoding"
+    }
+}
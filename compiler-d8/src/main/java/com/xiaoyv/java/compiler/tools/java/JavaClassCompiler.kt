@@ -2,17 +2,21 @@
 
 package com.xiaoyv.java.compiler.tools.java
 
+import com.xiaoyv.java.compiler.JavaBuildContext
 import com.xiaoyv.java.compiler.JavaEngine
 import com.xiaoyv.java.compiler.JavaEngineSetting
 import com.xiaoyv.java.compiler.JavaPrintWriter
 import com.xiaoyv.java.compiler.exception.CompileException
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelinePhase
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelineSpan
 import com.xiaoyv.java.compiler.utils.FileUtils
-import com.xiaoyv.java.compiler.utils.ZipUtils
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import org.eclipse.jdt.internal.compiler.batch.Main
+import org.eclipse.jdt.internal.compiler.CompilationResult
 import java.io.File
+import java.io.IOException
 
 /**
  * JavaClassCompiler
@@ -22,6 +26,21 @@ import java.io.File
  */
 class JavaClassCompiler {
 
+    /**
+     * 常驻编译会话，复用 rt.jar 和依赖 jar 的类路径环境
+     */
+    val session = JavaClassCompileSession()
+
+    /**
+     * 内存编译器，与 [session] 共享类路径环境
+     */
+    private val memoryCompiler = JavaClassMemoryCompiler(session)
+
+    /**
+     * javac 编译器，编译上下文常驻复用，见 [JavaEngineSetting.isClassCompileJavac]
+     */
+    val javacCompiler = JavaClassJavacCompiler()
+
     /**
      * 根据文件路径执行编译操作
      *
@@ -55,14 +74,63 @@ class JavaClassCompiler {
         buildDir: File,
         libFolder: File? = null,
         compileProgress: (String, Int) -> Unit = { _, _ -> }
+    ): File = compile(
+        sourceFileOrDir, buildDir, libFolder, emptyList(), JavaEngine.defaultContext, compileProgress
+    )
+
+    /**
+     * 根据文件对象执行编译操作
+     *
+     * @param sourceFileOrDir  待编译文件或文件夹
+     * @param buildDir         build Dir
+     * @param libFolder        存放依赖的文件夹
+     * @param classpath        额外的类路径，如上游模块的 classes.jar
+     * @param context          编译上下文，提供编译设置和日志文件
+     */
+    internal suspend fun compile(
+        sourceFileOrDir: File,
+        buildDir: File,
+        libFolder: File?,
+        classpath: List<File>,
+        context: JavaBuildContext,
+        compileProgress: (String, Int) -> Unit
     ): File = withContext(Dispatchers.IO) {
+        JavaEngine.tracer.trace(JavaPipelinePhase.CLASS_COMPILE, context) { span ->
+            compileFiles(sourceFileOrDir, buildDir, libFolder, classpath, context, compileProgress, span)
+        }
+    }
+
+    /**
+     * 执行编译，统计数据写入 [span]
+     */
+    private fun CoroutineScope.compileFiles(
+        sourceFileOrDir: File,
+        buildDir: File,
+        libFolder: File?,
+        classpath: List<File>,
+        context: JavaBuildContext,
+        compileProgress: (String, Int) -> Unit,
+        span: JavaPipelineSpan
+    ): File {
+        val setting = context.setting
+
         // 待编译文件
         if (sourceFileOrDir.exists().not()) {
             throw CompileException("编译代码源不存在")
         }
+        span.bytesIn = if (sourceFileOrDir.isDirectory) {
+            FileUtils.getDirLength(sourceFileOrDir)
+        } else {
+            FileUtils.getFileLength(sourceFileOrDir)
+        }
+
+        // 增量编译（仅编译文件夹时生效，javac 编译时不生效）
+        val incremental = if (sourceFileOrDir.isDirectory && setting.isClassIncremental && !setting.isClassCompileJavac) {
+            JavaClassIncremental(buildDir)
+        } else null
 
-        // 类文件 保存文件夹
-        val buildClassesDir = buildClassesDir(buildDir)
+        // 类文件 保存文件夹，增量编译时保留上次的类文件
+        val buildClassesDir = buildClassesDir(buildDir, incremental == null)
         // Jar 保存文件夹
         val buildJarDir = buildJarDir(buildDir)
 
@@ -76,25 +144,79 @@ class JavaClassCompiler {
         }
 
         // 类路径（依赖文件路径，多个用 File.pathSeparator 分隔开）
-        val classPath = libClassPath + File.pathSeparator + JavaEngine.compilerSetting.rtPath
+        var classPath = libClassPath + File.pathSeparator + setting.rtPath
+        if (classpath.isNotEmpty()) {
+            classPath = classpath.joinToString(File.pathSeparator) { it.absolutePath } +
+                    File.pathSeparator + classPath
+        }
+
+        // 本次编译的源文件
+        val plan = incremental?.plan(
+            sourceFileOrDir, buildClassesDir, JavaClassIncremental.buildKey(
+                JavaClassCompileSession.settingKey(
+                    setting.classSourceVersion,
+                    setting.classTargetVersion,
+                    setting.compileEncoding
+                ),
+                classPath.split(File.pathSeparator).filter { it.isNotEmpty() }.map { File(it) }
+            )
+        )
+        val sources = if (plan == null || plan.isFullBuild) {
+            listOf(sourceFileOrDir.absolutePath)
+        } else {
+            // 未改动的类直接从上次的类文件中解析
+            classPath = buildClassesDir.absolutePath + File.pathSeparator + classPath
+            plan.compileFiles.map { it.absolutePath }
+        }
 
         JavaEngine.logInfo("编译的依赖类路径：$classPath")
 
+        // javac 编译
+        if (setting.isClassCompileJavac) {
+            return compileWithJavac(sourceFileOrDir, buildClassesDir, buildJarDir, classPath, context)
+                .also { span.bytesOut = it.length() }
+        }
+
+        // 没有需要编译的源文件，直接打包上次的类文件
+        if (sources.isEmpty()) {
+            incremental?.save()
+            span.cacheHit = true
+            return queryJarFile(buildClassesDir, buildJarDir, context).also { span.bytesOut = it.length() }
+        }
+        if (incremental != null) {
+            span.cacheHit = false
+        }
+
+        // 全量编译文件夹时，类文件不落盘，直接写入 jar
+        val jarWriter = if (sourceFileOrDir.isDirectory && incremental == null) {
+            JavaClassJarWriter(jarFile(buildJarDir))
+        } else null
+
         // 编译命令
-        val compileCmd = arrayListOf(
-            sourceFileOrDir.absolutePath,
-            "-d", buildClassesDir.absolutePath,
-            "-encoding", JavaEngine.compilerSetting.compileEncoding,
-            "-sourcepath", sourceFileOrDir.absolutePath,
-            "-classpath", classPath,
-            "-source", JavaEngine.compilerSetting.classSourceVersion,
-            "-target", JavaEngine.compilerSetting.classTargetVersion,
-            "-nowarn",
-            "-time",
-            "-noExit"
-        ).also {
-            if (JavaEngine.compilerSetting.isClassVerbose) {
-                it.add("-verbose")
+        val compileCmd = arrayListOf<String>().apply {
+            addAll(sources)
+            add("-d")
+            add(if (jarWriter != null) "none" else buildClassesDir.absolutePath)
+            add("-encoding")
+            add(setting.compileEncoding)
+            if (plan == null || plan.isFullBuild) {
+                add("-sourcepath")
+                add(sourceFileOrDir.absolutePath)
+            }
+            add("-classpath")
+            add(classPath)
+            add("-source")
+            add(setting.classSourceVersion)
+            add("-target")
+            add(setting.classTargetVersion)
+            add("-nowarn")
+            add("-time")
+            add("-noExit")
+            if (incremental != null) {
+                add("-referenceInfo")
+            }
+            if (setting.isClassVerbose) {
+                add("-verbose")
             }
         }.toTypedArray()
 
@@ -102,20 +224,45 @@ class JavaClassCompiler {
         JavaEngine.logInfo("编译命令: \n ${compileCmd.joinToString(" ")}")
 
         // 重置日志
-        val logFilePath = JavaEngine.compilerSetting.restLog()
+        val logFilePath = context.restLog().absolutePath
 
         // 日志输出
         val printWriter = JavaPrintWriter(logFilePath)
 
-        // 开始编译
-        val compile = Main.compile(compileCmd, printWriter, printWriter,
-            object : JavaClassCompileProgress() {
-                override fun onProgress(task: String, progress: Int) {
-                    launch(Dispatchers.Main) {
-                        compileProgress.invoke(task, progress)
-                    }
+        // 编译进度
+        val progress = object : JavaClassCompileProgress() {
+            override fun onProgress(task: String, progress: Int) {
+                launch(Dispatchers.Main) {
+                    compileProgress.invoke(task, progress)
                 }
-            })
+            }
+        }
+
+        // 编译单元输出回调
+        val resultListener: ((CompilationResult) -> Unit)? = when {
+            incremental != null -> incremental::record
+            jarWriter != null -> jarWriter::write
+            else -> null
+        }
+
+        // 开始编译
+        val compile = try {
+            if (setting.isClassCompileSession) {
+                val settingKey = JavaClassCompileSession.settingKey(
+                    setting.classSourceVersion,
+                    setting.classTargetVersion,
+                    setting.compileEncoding
+                )
+                session.compile(compileCmd, settingKey, printWriter, progress, resultListener)
+            } else {
+                JavaClassCompileMain(printWriter, progress, resultListener).compile(compileCmd)
+            }
+        } finally {
+            jarWriter?.close()
+        }
+
+        // 更新增量编译清单
+        incremental?.save()
 
         // 编译失败，读取错误日志
         if (compile.not()) {
@@ -125,21 +272,141 @@ class JavaClassCompiler {
         }
 
         // 编译单个文件情况，返回 class 类文件的路径
-        if (sourceFileOrDir.isFile) {
+        val output = if (sourceFileOrDir.isFile) {
             queryClassFile(sourceFileOrDir, buildClassesDir)
         }
         // 编译文件夹的情况，返回 jar 路径
-        else {
-            queryJarFile(buildClassesDir, buildJarDir)
+        else if (jarWriter != null) {
+            jarFile(buildJarDir)
+        } else {
+            queryJarFile(buildClassesDir, buildJarDir, context)
+        }
+        span.bytesOut = output.length()
+        return output
+    }
+
+    /**
+     * 使用 javac 全量编译，类文件写入 [buildClassesDir]
+     */
+    private fun compileWithJavac(
+        sourceFileOrDir: File,
+        buildClassesDir: File,
+        buildJarDir: File,
+        classPath: String,
+        context: JavaBuildContext
+    ): File {
+        val setting = context.setting
+
+        // 待编译的源文件
+        val sourceFiles = if (sourceFileOrDir.isDirectory) {
+            sourceFileOrDir.walkTopDown().filter { it.isFile && it.extension == "java" }.toList()
+        } else {
+            listOf(sourceFileOrDir)
+        }
+        if (sourceFiles.isEmpty()) {
+            throw CompileException("没有需要编译的源文件")
+        }
+
+        // 编译参数
+        val options = arrayListOf<String>().apply {
+            add("-d")
+            add(buildClassesDir.absolutePath)
+            add("-encoding")
+            add(setting.compileEncoding)
+            if (sourceFileOrDir.isDirectory) {
+                add("-sourcepath")
+                add(sourceFileOrDir.absolutePath)
+            }
+            add("-bootclasspath")
+            add(setting.rtPath)
+            add("-classpath")
+            add(classPath)
+            add("-source")
+            add(setting.classSourceVersion)
+            add("-target")
+            add(setting.classTargetVersion)
+            add("-nowarn")
+            if (setting.isClassVerbose) {
+                add("-verbose")
+            }
+            // 源文件较多时按处理器核数并行解析，名称表分段加锁，解析线程之间不再争用同一把锁
+            add("-XDparseThreads")
+            add("-XDuseConcurrentTable")
+            // 顶层类较多时按处理器核数并行生成字节码，类文件仍按顺序写入
+            add("-XDgenThreads")
+            // rt.jar 和依赖 jar 的索引保存到文件，之后的进程直接映射读取，不再解析 jar 的目录
+            val indexDir = File(JavaEngineSetting.defaultJavacIndexDir)
+            if (FileUtils.createOrExistsDir(indexDir)) {
+                add("-XDusezipindex")
+                add("-XDwritezipindexfiles")
+                add("-XDcachezipindexdir=${indexDir.absolutePath}")
+            }
+        }
+
+        JavaEngine.logInfo("javac 编译参数: \n ${options.joinToString(" ")}")
+
+        // 重置日志
+        val logFilePath = context.restLog().absolutePath
+
+        // 开始编译
+        val compile = JavaPrintWriter(logFilePath).use {
+            javacCompiler.compile(sourceFiles, options, it)
+        }
+
+        JavaEngine.logInfo("javac 上下文复用：${javacCompiler.statistics}")
+
+        // 编译失败，读取错误日志
+        if (compile.not()) {
+            val log = File(logFilePath).readText()
+            throw Exception("字节码编译错误：\n$log")
+        }
+
+        return if (sourceFileOrDir.isFile) {
+            queryClassFile(sourceFileOrDir, buildClassesDir)
+        } else {
+            queryJarFile(buildClassesDir, buildJarDir, context)
+        }
+    }
+
+    /**
+     * 在内存中编译源码，不读写任何源码和类文件
+     *
+     * @param sources    源码集合，key 为文件名（如：Main.java，pkg/Main.java），value 为源码内容
+     * @param libFolder  存放依赖的文件夹
+     * @param context    编译上下文
+     * @return 类文件集合，key 为类的内部名称（如：pkg/Main），value 为类文件内容
+     */
+    @JvmOverloads
+    suspend fun compileInMemory(
+        sources: Map<String, String>,
+        libFolder: File? = null,
+        context: JavaBuildContext = JavaEngine.defaultContext
+    ): Map<String, ByteArray> = withContext(Dispatchers.IO) {
+        JavaEngine.tracer.trace(JavaPipelinePhase.CLASS_COMPILE, context) { span ->
+            val classpath = arrayListOf<String>()
+            if (libFolder != null) {
+                JavaClassHelper.getLibJars(libFolder).forEach { classpath.add(it.absolutePath) }
+            }
+            classpath.add(context.setting.rtPath)
+
+            span.bytesIn = sources.values.sumOf { it.length.toLong() }
+            memoryCompiler.compile(sources, classpath, context.setting).also { classes ->
+                span.classCount = classes.size
+                span.bytesOut = classes.values.sumOf { it.size.toLong() }
+            }
         }
     }
 
     /**
      * class 保存文件夹
      */
-    private fun buildClassesDir(buildClassesDir: File) =
+    private fun buildClassesDir(buildClassesDir: File, clean: Boolean) =
         File(buildClassesDir.absolutePath + File.separator + "classes").also {
-            JavaEngineSetting.createAndCleanDir(it)
+            if (clean) {
+                JavaEngineSetting.createAndCleanDir(it)
+            } else {
+                FileUtils.createOrExistsDir(it)
+            }
         }
 
 
@@ -185,31 +452,27 @@ class JavaClassCompiler {
     }
 
     /**
-     * 将编译后的项目打包为 Jar
+     * jar 文件
      */
-    private fun queryJarFile(buildClassesDir: File, buildJarDir: File): File {
-        // 获取 build/classes/xxx 文件夹内的文件和包
-        val fileList = FileUtils.listFilesInDir(buildClassesDir)
-
-        // 构建 METE-INF
-        val metaInfDir = buildClassesDir.absolutePath + File.separator + "META-INF"
-        JavaEngineSetting.createAndCleanDir(metaInfDir)
-
-        // 构建 MANIFEST.MF
-        val minifest = metaInfDir + File.separator + "MANIFEST.MF"
-        JavaEngineSetting.createAndCleanFile(minifest)
+    private fun jarFile(buildJarDir: File) =
+        File(buildJarDir.absolutePath + File.separator + "classes.jar")
 
-        // Jar 存放路径
-        val jarPath = buildJarDir.absolutePath + File.separator + "classes.jar"
-        JavaEngineSetting.createAndCleanFile(jarPath)
+    /**
+     * 将编译后的项目打包为 Jar
+     */
+    private fun queryJarFile(buildClassesDir: File, buildJarDir: File, context: JavaBuildContext): File =
+        JavaEngine.tracer.trace(JavaPipelinePhase.JAR_PACKAGE, context) { span ->
+            val jarFile = jarFile(buildJarDir)
+            try {
+                JavaClassJarWriter(jarFile).use { it.write(buildClassesDir) }
+            } catch (e: IOException) {
+                JavaEngine.logError(e)
+                throw CompileException("Jar 打包错误：权限错误或未知错误")
+            }
+            span.bytesIn = FileUtils.getDirLength(buildClassesDir)
+            span.bytesOut = jarFile.length()
 
-        // 打包 jar
-        val jarFile = File(jarPath)
-        if (ZipUtils.zipFiles(fileList, jarFile)) {
             // 返回编译完成的 jar 文件路径
-            return jarFile
+            jarFile
         }
-
-        throw CompileException("Jar 打包错误：权限错误或未知错误")
-    }
-}
\ No newline at end of file
+}
@@ -26,9 +26,7 @@ object JavaClassHelper {
             return ""
         }
 
-        val javaLibraries = FileUtils.listFilesInDirWithFilter(libFolder) { file ->
-            FileUtils.isFile(file) && FileUtils.getFileName(file).endsWith(".jar")
-        } ?: return ""
+        val javaLibraries = getLibJars(libFolder)
 
         val classpath = StringBuilder(".")
         for (javaLibrary in javaLibraries) {
@@ -40,6 +38,20 @@ object JavaClassHelper {
         return classpath.toString()
     }
 
+    /**
+     * 获取当前项目 lib 目录的全部 jar 文件
+     *
+     * @param libFolder 当前项目添加的jar依赖文件夹
+     * @return 按文件名排序的 jar 集合
+     */
+    @JvmStatic
+    fun getLibJars(libFolder: File): List<File> {
+        val javaLibraries = FileUtils.listFilesInDirWithFilter(libFolder) { file ->
+            FileUtils.isFile(file) && FileUtils.getFileName(file).endsWith(".jar")
+        } ?: return emptyList()
+        return javaLibraries.sortedBy { it.name }
+    }
+
     @JvmStatic
     fun getClasses(jarPath: String) = getClasses(File(jarPath))
 
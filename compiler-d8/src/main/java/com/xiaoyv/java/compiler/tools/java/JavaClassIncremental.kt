@@ -0,0 +1,252 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler.tools.java
+
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.utils.FileUtils
+import org.eclipse.jdt.internal.compiler.CompilationResult
+import java.io.*
+
+/**
+ * JavaClassIncremental
+ *
+ * 增量编译清单：记录每个源文件的内容哈希、生成的类文件以及引用到的类型，
+ * 每次构建只重新编译改动的源文件和依赖它们的源文件，未受影响的 class 保持不变。
+ *
+ * 清单同时记录构建标识（编译设置和类路径），标识改变时全量编译，见 [buildKey]。
+ *
+ * @author why
+ * @since 2022/3/7
+ */
+class JavaClassIncremental(buildDir: File) {
+
+    /**
+     * 清单文件
+     */
+    private val manifestFile =
+        File(buildDir.absolutePath + File.separator + "incremental" + File.separator + MANIFEST_NAME)
+
+    /**
+     * 上一次构建的标识
+     */
+    private var savedKey: String? = null
+
+    /**
+     * 本次构建的标识
+     */
+    private var currentKey = ""
+
+    /**
+     * 上一次构建的清单，key 为源文件绝对路径
+     */
+    private val entries: MutableMap<String, SourceEntry> = readManifest()
+
+    /**
+     * 本次构建各源文件的哈希
+     */
+    private val currentHashes = hashMapOf<String, String>()
+
+    /**
+     * 计算本次需要编译的源文件，并删除受影响源文件旧的类文件
+     *
+     * @param sourceDir       源码文件夹
+     * @param buildClassesDir 类文件保存文件夹
+     * @param buildKey        本次构建的标识，见 [buildKey]，与上次不同时全量编译
+     */
+    fun plan(sourceDir: File, buildClassesDir: File, buildKey: String): Plan {
+        currentKey = buildKey
+        val sources = FileUtils.listFilesInDirWithFilter(sourceDir, { file ->
+            file.isFile && file.name.endsWith(".java")
+        }, true).map { it.absoluteFile }
+
+        sources.forEach {
+            currentHashes[it.absolutePath] = FileUtils.getFileMD5ToString(it)
+        }
+
+        // 没有清单、类文件已丢失或者编译设置、类路径改变时全量编译
+        val hasClasses = FileUtils.listFilesInDir(buildClassesDir).isNotEmpty()
+        if (entries.isEmpty() || !hasClasses || savedKey != buildKey) {
+            entries.clear()
+            FileUtils.deleteAllInDir(buildClassesDir)
+            return Plan(true, sources)
+        }
+
+        val removed = entries.keys.filter { !currentHashes.containsKey(it) }
+        val changed = sources.filter { entries[it.absolutePath]?.hash != currentHashes[it.absolutePath] }
+
+        // 改动源文件（旧的）声明的类型
+        val dirtyTypes = hashSetOf<String>()
+        val dirtySimpleNames = hashSetOf<String>()
+        (removed + changed.map { it.absolutePath }).forEach { path ->
+            val entry = entries[path]
+            if (entry == null) {
+                // 新增的源文件，只能按文件名推测声明的类型
+                dirtySimpleNames.add(File(path).nameWithoutExtension)
+            } else {
+                dirtyTypes.addAll(entry.types)
+                dirtySimpleNames.addAll(entry.types.map { it.substringAfterLast('/') })
+            }
+        }
+
+        // 传递查找依赖改动类型的源文件
+        val affected = linkedSetOf<String>()
+        changed.forEach { affected.add(it.absolutePath) }
+        var grown = true
+        while (grown) {
+            grown = false
+            entries.forEach { (path, entry) ->
+                if (path in affected || path in removed) {
+                    return@forEach
+                }
+                val depends = entry.references.any { reference ->
+                    reference in dirtyTypes || reference.substringAfterLast('/') in dirtySimpleNames
+                } || entry.simpleNames.any { it in dirtySimpleNames }
+                if (depends) {
+                    affected.add(path)
+                    dirtyTypes.addAll(entry.types)
+                    dirtySimpleNames.addAll(entry.types.map { it.substringAfterLast('/') })
+                    grown = true
+                }
+            }
+        }
+
+        // 删除受影响及已删除源文件的旧类文件
+        (affected + removed).forEach { path ->
+            entries.remove(path)?.classFiles?.forEach {
+                File(buildClassesDir, "$it.class").delete()
+            }
+        }
+
+        JavaEngine.logInfo(
+            "增量编译：共 ${sources.size} 个源文件，改动 ${changed.size} 个，" +
+                    "删除 ${removed.size} 个，需编译 ${affected.size} 个"
+        )
+        return Plan(false, affected.map { File(it) })
+    }
+
+    /**
+     * 记录编译单元的输出
+     */
+    fun record(result: CompilationResult) {
+        if (result.hasErrors()) {
+            return
+        }
+        val path = File(String(result.fileName)).absolutePath
+        val hash = currentHashes[path] ?: return
+
+        val classFiles = result.classFiles.map { String(it.fileName()) }
+        val types = classFiles.map { it.replace('$', '/') }.toSet()
+        val references = result.qualifiedReferences.orEmpty().map { compoundName ->
+            compoundName.joinToString("/") { String(it) }
+        }.toSet()
+        // 默认包的类型只会出现在简单名称和根名称引用中
+        val simpleNames = listOfNotNull(result.simpleNameReferences, result.rootReferences)
+            .flatMap { names -> names.map { String(it) } }
+            .toSet()
+
+        entries[path] = SourceEntry(hash, classFiles, types, references, simpleNames)
+    }
+
+    /**
+     * 保存清单
+     */
+    fun save() {
+        FileUtils.createOrExistsFile(manifestFile)
+        DataOutputStream(BufferedOutputStream(FileOutputStream(manifestFile))).use { out ->
+            out.writeInt(MANIFEST_VERSION)
+            out.writeUTF(currentKey)
+            out.writeInt(entries.size)
+            entries.forEach { (path, entry) ->
+                out.writeUTF(path)
+                out.writeUTF(entry.hash)
+                out.writeStrings(entry.classFiles)
+                out.writeStrings(entry.types)
+                out.writeStrings(entry.references)
+                out.writeStrings(entry.simpleNames)
+            }
+        }
+    }
+
+    private fun readManifest(): MutableMap<String, SourceEntry> {
+        val entries = hashMapOf<String, SourceEntry>()
+        if (!manifestFile.exists()) {
+            return entries
+        }
+        runCatching {
+            DataInputStream(BufferedInputStream(FileInputStream(manifestFile))).use { input ->
+                if (input.readInt() != MANIFEST_VERSION) {
+                    return entries
+                }
+                savedKey = input.readUTF()
+                repeat(input.readInt()) {
+                    val path = input.readUTF()
+                    entries[path] = SourceEntry(
+                        input.readUTF(),
+                        input.readStrings(),
+                        input.readStrings().toSet(),
+                        input.readStrings().toSet(),
+                        input.readStrings().toSet()
+                    )
+                }
+            }
+        }.onFailure {
+            JavaEngine.logError("增量编译清单读取失败，将执行全量编译：$it")
+            entries.clear()
+        }
+        return entries
+    }
+
+    private fun DataOutputStream.writeStrings(strings: Collection<String>) {
+        writeInt(strings.size)
+        strings.forEach { writeUTF(it) }
+    }
+
+    private fun DataInputStream.readStrings() = List(readInt()) { readUTF() }
+
+    /**
+     * 本次构建计划
+     *
+     * @param isFullBuild  是否全量编译
+     * @param compileFiles 需要编译的源文件
+     */
+    data class Plan(val isFullBuild: Boolean, val compileFiles: List<File>)
+
+    /**
+     * 源文件记录
+     *
+     * @param hash       源文件内容哈希
+     * @param classFiles 生成的类文件（相对路径，不含 .class）
+     * @param types      声明的类型，如 pkg/Outer/Inner
+     * @param references 引用的类型，如 java/util/List
+     * @param simpleNames 引用的简单名称和限定名的根名称，如 List、java
+     */
+    private class SourceEntry(
+        val hash: String,
+        val classFiles: List<String>,
+        val types: Set<String>,
+        val references: Set<String>,
+        val simpleNames: Set<String>
+    )
+
+    companion object {
+        private const val MANIFEST_NAME = "classes.manifest"
+        private const val MANIFEST_VERSION = 3
+
+        /**
+         * 构建标识：编译设置以及类路径中每一项的路径、大小和修改时间，
+         * 与 [JavaClassCompileSession] 判断 jar 是否变化的方式相同
+         *
+         * @param settingKey 编译设置的标识，见 [JavaClassCompileSession.settingKey]
+         * @param classpath  类路径，不含本次构建的类文件夹
+         */
+        @JvmStatic
+        fun buildKey(settingKey: String, classpath: List<File>) = buildString {
+            append(settingKey)
+            classpath.forEach {
+                append('\n').append(it.absolutePath)
+                    .append(':').append(it.length())
+                    .append(':').append(it.lastModified())
+            }
+        }
+    }
+}
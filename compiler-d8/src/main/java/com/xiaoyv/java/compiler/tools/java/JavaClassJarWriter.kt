@@ -0,0 +1,80 @@
+package com.xiaoyv.java.compiler.tools.java
+
+import com.xiaoyv.java.compiler.utils.FileUtils
+import org.eclipse.jdt.internal.compiler.CompilationResult
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+import java.util.jar.Attributes
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+import java.util.jar.Manifest
+
+/**
+ * JavaClassJarWriter
+ *
+ * 边编译边打包：ECJ 每输出一个编译单元，类文件就直接写入 classes.jar，
+ * 不再先写入 build/classes 再整体读取压缩。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaClassJarWriter(jarFile: File) : Closeable {
+
+    private val jarOutputStream: JarOutputStream
+
+    /**
+     * 已写入的条目，避免重复
+     */
+    private val entries = hashSetOf<String>()
+
+    init {
+        FileUtils.createOrExistsFile(jarFile)
+        val manifest = Manifest().apply {
+            mainAttributes[Attributes.Name.MANIFEST_VERSION] = "1.0"
+        }
+        jarOutputStream = JarOutputStream(BufferedOutputStream(FileOutputStream(jarFile)), manifest)
+    }
+
+    /**
+     * 写入编译单元生成的全部类文件，存在错误的编译单元会被忽略
+     */
+    @Synchronized
+    fun write(result: CompilationResult) {
+        if (result.hasErrors()) {
+            return
+        }
+        result.classFiles.forEach {
+            write(String(it.fileName()) + ".class", it.bytes)
+        }
+    }
+
+    /**
+     * 写入文件夹内的全部类文件
+     */
+    @Synchronized
+    fun write(classesDir: File) {
+        val dirPath = classesDir.absolutePath
+        FileUtils.listFilesInDirWithFilter(classesDir, { file ->
+            file.isFile && file.name.endsWith(".class")
+        }, true).forEach {
+            val name = it.absolutePath.substring(dirPath.length + 1).replace(File.separatorChar, '/')
+            write(name, it.readBytes())
+        }
+    }
+
+    private fun write(name: String, bytes: ByteArray) {
+        if (!entries.add(name)) {
+            return
+        }
+        jarOutputStream.putNextEntry(JarEntry(name))
+        jarOutputStream.write(bytes)
+        jarOutputStream.closeEntry()
+    }
+
+    @Synchronized
+    override fun close() {
+        jarOutputStream.close()
+    }
+}
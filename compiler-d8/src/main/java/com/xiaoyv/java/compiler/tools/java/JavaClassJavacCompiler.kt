@@ -0,0 +1,56 @@
+package com.xiaoyv.java.compiler.tools.java
+
+import com.sun.tools.javac.api.JavacTaskPool
+import java.io.File
+import java.io.Writer
+
+/**
+ * JavaClassJavacCompiler
+ *
+ * 使用 compiler-jdk8 内置的 javac 编译，编译上下文常驻复用：
+ *
+ * - rt.jar 和依赖 jar 中读取的符号（Symtab、ClassReader）、Names 表和 JavacFileManager 打开的 jar 在多次编译间保留
+ * - 每次编译只重置日志、待编译队列、Enter 的环境和上次从源码编译的类
+ * - 上下文按编译参数缓存，类路径、source/target 等参数不同时使用不同的上下文
+ * - 源码重新定义了 rt.jar 或依赖 jar 中的类时，该上下文不再复用
+ *
+ * 注解处理每轮需要新的上下文，这里总是关闭（-proc:none）
+ *
+ * @param maxPoolSize 最多缓存的上下文数量
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaClassJavacCompiler @JvmOverloads constructor(maxPoolSize: Int = DEFAULT_POOL_SIZE) {
+    private val pool = JavacTaskPool(maxPoolSize)
+
+    /**
+     * 上下文复用统计
+     */
+    val statistics: String
+        get() = pool.statistics()
+
+    /**
+     * 编译源文件，诊断信息写入 [writer]
+     *
+     * @param sourceFiles 待编译的源文件
+     * @param options     编译参数，如 -d、-classpath 等
+     * @return 是否编译成功
+     */
+    fun compile(sourceFiles: List<File>, options: List<String>, writer: Writer): Boolean =
+        pool.getTask(writer, null, options, sourceFiles) { task ->
+            task.call()
+        }
+
+    /**
+     * 释放缓存的上下文
+     */
+    fun clear() = pool.clear()
+
+    companion object {
+        /**
+         * 默认缓存 2 个上下文
+         */
+        const val DEFAULT_POOL_SIZE = 2
+    }
+}
@@ -0,0 +1,110 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler.tools.java
+
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.JavaEngineSetting
+import com.xiaoyv.java.compiler.exception.CompileException
+import org.eclipse.jdt.internal.compiler.Compiler
+import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies
+import org.eclipse.jdt.internal.compiler.ICompilerRequestor
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit
+import org.eclipse.jdt.internal.compiler.batch.FileSystem
+import org.eclipse.jdt.internal.compiler.env.INameEnvironment
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions
+import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory
+import java.util.*
+
+/**
+ * JavaClassMemoryCompiler
+ *
+ * 内存编译：源码字符串直接交给 ECJ 的 [Compiler]，通过 [ICompilerRequestor] 收集类文件字节，
+ * 全程不读写源码和类文件。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaClassMemoryCompiler(private val session: JavaClassCompileSession) {
+
+    /**
+     * 编译源码
+     *
+     * @param sources   源码集合，key 为文件名（如：Main.java，pkg/Main.java），value 为源码内容
+     * @param classpath 类路径集合（rt.jar，依赖 jar 等）
+     * @param setting   编译设置
+     * @return 类文件集合，key 为类的内部名称（如：pkg/Main，pkg/Main$Inner），value 为类文件内容
+     */
+    fun compile(
+        sources: Map<String, String>,
+        classpath: List<String>,
+        setting: JavaEngineSetting
+    ): Map<String, ByteArray> {
+        if (sources.isEmpty()) {
+            throw CompileException("编译代码源不存在")
+        }
+
+        val encoding = setting.compileEncoding
+        val units = sources.map { (fileName, code) ->
+            CompilationUnit(code.toCharArray(), fileName, encoding)
+        }.toTypedArray()
+
+        val classes = linkedMapOf<String, ByteArray>()
+        val errors = arrayListOf<String>()
+        val requestor = ICompilerRequestor { result ->
+            result.problems.orEmpty().filter { it.isError }.forEach {
+                errors.add("${String(it.originatingFileName)}:${it.sourceLineNumber}: ${it.message}")
+            }
+            if (!result.hasErrors()) {
+                result.classFiles.forEach {
+                    classes[String(it.fileName())] = it.bytes
+                }
+            }
+        }
+
+        val compile: (INameEnvironment) -> Unit = { environment ->
+            Compiler(
+                environment,
+                DefaultErrorHandlingPolicies.proceedWithAllProblems(),
+                compilerOptions(setting.classSourceVersion, setting.classTargetVersion, encoding),
+                requestor,
+                DefaultProblemFactory(Locale.getDefault())
+            ).compile(units)
+        }
+
+        val startTime = System.currentTimeMillis()
+        if (setting.isClassCompileSession) {
+            val settingKey = JavaClassCompileSession.settingKey(
+                setting.classSourceVersion, setting.classTargetVersion, encoding
+            )
+            session.useLibraryAccess(settingKey, classpath, encoding, compile)
+        } else {
+            val environment = FileSystem(classpath.toTypedArray(), null, encoding)
+            try {
+                compile(environment)
+            } finally {
+                environment.cleanup()
+            }
+        }
+        JavaEngine.logInfo("内存编译：${units.size} 个源文件，耗时：${System.currentTimeMillis() - startTime}ms")
+
+        if (errors.isNotEmpty()) {
+            throw CompileException("字节码编译错误：\n" + errors.joinToString("\n"))
+        }
+        return classes
+    }
+
+    /**
+     * 与命令行 -source -target -encoding 对应的编译选项
+     */
+    private fun compilerOptions(source: String, target: String, encoding: String) =
+        CompilerOptions(
+            mapOf(
+                CompilerOptions.OPTION_Source to source,
+                CompilerOptions.OPTION_Compliance to target,
+                CompilerOptions.OPTION_TargetPlatform to target,
+                CompilerOptions.OPTION_Encoding to encoding,
+                CompilerOptions.OPTION_LineNumberAttribute to CompilerOptions.GENERATE,
+                CompilerOptions.OPTION_SourceFileAttribute to CompilerOptions.GENERATE
+            )
+        )
+}
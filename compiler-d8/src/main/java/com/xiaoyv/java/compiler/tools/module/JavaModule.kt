@@ -0,0 +1,37 @@
+package com.xiaoyv.java.compiler.tools.module
+
+import java.io.File
+
+/**
+ * JavaModule
+ *
+ * 多模块构建中的一个模块
+ *
+ * @param name          模块名称，同一次构建内唯一，也是模块 build 文件夹的名称
+ * @param sourceDir     源码文件夹
+ * @param libFolder     存放依赖的文件夹
+ * @param dependencies  依赖的其它模块名称
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+data class JavaModule @JvmOverloads constructor(
+    val name: String,
+    val sourceDir: File,
+    val libFolder: File? = null,
+    val dependencies: List<String> = emptyList()
+) {
+
+    /**
+     * 模块构建产物
+     *
+     * @param module      模块
+     * @param classesJar  编译后的 classes.jar
+     * @param dexFile     转换后的 classes.dex
+     */
+    data class Output(
+        val module: JavaModule,
+        val classesJar: File,
+        val dexFile: File
+    )
+}
@@ -0,0 +1,172 @@
+@file:Suppress("MemberVisibilityCanBePrivate")
+
+package com.xiaoyv.java.compiler.tools.module
+
+import com.xiaoyv.java.compiler.JavaBuildContext
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.JavaEngineSetting
+import com.xiaoyv.java.compiler.exception.CompileException
+import com.xiaoyv.java.compiler.tools.java.JavaClassHelper
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * JavaModuleBuilder
+ *
+ * 多模块并行构建：按模块间的依赖关系调度，互不依赖的模块同时编译，
+ * 每个模块的 class 编译完成后立即开始转换 dex，class 编译和 dex 转换相互重叠。
+ *
+ * 同时执行的编译和转换任务数量不超过 [parallelism]。
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaModuleBuilder {
+
+    /**
+     * 同时执行的任务数，默认为 CPU 核心数
+     */
+    var parallelism: Int = Runtime.getRuntime().availableProcessors()
+
+    /**
+     * 构建全部模块
+     *
+     * @param modules     全部模块
+     * @param buildDir    build Dir，每个模块使用其中以模块名称命名的子文件夹
+     * @param setting     编译设置，默认为当前全局设置的快照
+     * @param onProgress  模块编译进度，回调在主线程
+     * @return 各模块的构建产物，按依赖顺序排列（被依赖的模块在前）
+     */
+    @JvmOverloads
+    suspend fun build(
+        modules: List<JavaModule>,
+        buildDir: File,
+        setting: JavaEngineSetting = JavaEngine.compilerSetting.snapshot(),
+        onProgress: (JavaModule, String, Int) -> Unit = { _, _, _ -> }
+    ): List<JavaModule.Output> = withContext(Dispatchers.IO) {
+        val sortedModules = sortModules(modules)
+        val moduleMap = sortedModules.associateBy { it.name }
+        val permits = Semaphore(parallelism.coerceAtLeast(1))
+        val startTime = System.currentTimeMillis()
+
+        val classJobs = ConcurrentHashMap<String, Deferred<File>>()
+        val dexJobs = sortedModules.map { module ->
+            val moduleBuildDir = File(buildDir, module.name)
+            val context = JavaBuildContext(
+                setting, File(moduleBuildDir, LOG_FILE_NAME), File(moduleBuildDir, CACHE_DIR_NAME)
+            )
+            val upstream = upstreamModules(module, moduleMap)
+
+            // 上游模块的 classes.jar 与依赖 jar
+            val upstreamClasspath: suspend () -> List<File> = {
+                upstream.map { classJobs.getValue(it.name).await() } +
+                        upstream.mapNotNull { it.libFolder }.flatMap { JavaClassHelper.getLibJars(it) }
+            }
+
+            // 编译 class，等待上游模块编译完成
+            val classJob = async {
+                val classpath = upstreamClasspath()
+                permits.withPermit {
+                    buildStep(module, "编译") {
+                        JavaEngine.classCompiler.compile(
+                            module.sourceDir, moduleBuildDir, module.libFolder, classpath, context
+                        ) { task, progress ->
+                            onProgress.invoke(module, task, progress)
+                        }
+                    }
+                }
+            }
+            classJobs[module.name] = classJob
+
+            // 转换 dex，本模块 class 编译完成后立即开始
+            async {
+                val classesJar = classJob.await()
+                val classpath = upstreamClasspath()
+                val dexFile = permits.withPermit {
+                    buildStep(module, "转换 Dex") {
+                        JavaEngine.dexCompiler.compile(
+                            listOf(classesJar), moduleBuildDir, module.libFolder, classpath, context
+                        )
+                    }
+                }
+                JavaModule.Output(module, classesJar, dexFile)
+            }
+        }
+
+        dexJobs.awaitAll().also {
+            JavaEngine.logInfo(
+                "多模块构建：${it.size} 个模块，并发数：$parallelism，" +
+                        "耗时：${System.currentTimeMillis() - startTime}ms"
+            )
+        }
+    }
+
+    private suspend fun <T> buildStep(module: JavaModule, step: String, block: suspend () -> T): T {
+        try {
+            return block()
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            throw CompileException("模块 ${module.name} ${step}失败：${e.message}")
+        }
+    }
+
+    /**
+     * 按依赖关系排序，被依赖的模块在前
+     */
+    private fun sortModules(modules: List<JavaModule>): List<JavaModule> {
+        val moduleMap = linkedMapOf<String, JavaModule>()
+        modules.forEach {
+            if (moduleMap.put(it.name, it) != null) {
+                throw CompileException("模块名称重复：${it.name}")
+            }
+            if (!it.sourceDir.isDirectory) {
+                throw CompileException("模块 ${it.name} 的源码文件夹不存在：${it.sourceDir.absolutePath}")
+            }
+        }
+        modules.forEach { module ->
+            module.dependencies.forEach {
+                if (!moduleMap.containsKey(it)) {
+                    throw CompileException("模块 ${module.name} 依赖的模块不存在：$it")
+                }
+            }
+        }
+
+        val sorted = arrayListOf<JavaModule>()
+        val remaining = moduleMap.values.toMutableList()
+        val resolved = hashSetOf<String>()
+        while (remaining.isNotEmpty()) {
+            val ready = remaining.filter { resolved.containsAll(it.dependencies) }
+            if (ready.isEmpty()) {
+                throw CompileException("模块之间存在循环依赖：${remaining.joinToString { it.name }}")
+            }
+            sorted.addAll(ready)
+            remaining.removeAll(ready)
+            ready.forEach { resolved.add(it.name) }
+        }
+        return sorted
+    }
+
+    /**
+     * 模块直接和间接依赖的全部模块
+     */
+    private fun upstreamModules(module: JavaModule, moduleMap: Map<String, JavaModule>): List<JavaModule> {
+        val upstream = linkedSetOf<JavaModule>()
+        val pending = ArrayDeque(module.dependencies)
+        while (pending.isNotEmpty()) {
+            val dependency = moduleMap.getValue(pending.removeFirst())
+            if (upstream.add(dependency)) {
+                pending.addAll(dependency.dependencies)
+            }
+        }
+        return upstream.toList()
+    }
+
+    companion object {
+        private const val LOG_FILE_NAME = "class_compile.log"
+        private const val CACHE_DIR_NAME = "cache"
+    }
+}
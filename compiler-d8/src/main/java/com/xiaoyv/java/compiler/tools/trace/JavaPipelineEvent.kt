@@ -0,0 +1,52 @@
+package com.xiaoyv.java.compiler.tools.trace
+
+/**
+ * JavaPipelineEvent
+ *
+ * 一个阶段开始或结束的事件，见 [com.xiaoyv.java.compiler.JavaEngine.pipelineEvents]
+ *
+ * 未统计的数值为 -1
+ *
+ * @param type           开始或结束
+ * @param phase          阶段
+ * @param contextId      所属上下文的编号，见 [com.xiaoyv.java.compiler.JavaBuildContext.id]，与上下文无关的阶段为 -1
+ * @param spanId         阶段编号，同一阶段的开始和结束事件编号相同
+ * @param timeMillis     事件发生的时间戳
+ * @param durationNanos  阶段耗时，开始事件为 0
+ * @param bytesIn        输入的字节数，如源码、类文件、dex 的大小
+ * @param bytesOut       输出的字节数
+ * @param classCount     处理的类数量
+ * @param allocatedBytes 阶段内堆内存的增长，为估算值，期间发生 GC 时偏小
+ * @param cacheHit       是否命中缓存，没有缓存的阶段为 null
+ * @param error          失败时的异常信息
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+data class JavaPipelineEvent(
+    val type: Type,
+    val phase: JavaPipelinePhase,
+    val contextId: Int,
+    val spanId: Long,
+    val timeMillis: Long,
+    val durationNanos: Long = 0,
+    val bytesIn: Long = -1,
+    val bytesOut: Long = -1,
+    val classCount: Int = -1,
+    val allocatedBytes: Long = -1,
+    val cacheHit: Boolean? = null,
+    val error: String? = null
+) {
+    /**
+     * 阶段耗时（毫秒）
+     */
+    val durationMillis: Double
+        get() = durationNanos / 1_000_000.0
+
+    val isSuccess: Boolean
+        get() = error == null
+
+    enum class Type {
+        START, END
+    }
+}
@@ -0,0 +1,58 @@
+package com.xiaoyv.java.compiler.tools.trace
+
+/**
+ * JavaPipelinePhase
+ *
+ * 编译运行流程的各个阶段
+ *
+ * @param key 上报指标时使用的名称
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+enum class JavaPipelinePhase(val key: String) {
+    /**
+     * 源码编译为类文件（ECJ）
+     */
+    CLASS_COMPILE("class_compile"),
+
+    /**
+     * 类文件打包为 jar
+     */
+    JAR_PACKAGE("jar_package"),
+
+    /**
+     * 类文件转换为 dex（D8）
+     */
+    DEX_COMPILE("dex_compile"),
+
+    /**
+     * 依赖 jar 转换为 dex
+     */
+    DEX_LIBRARY("dex_library"),
+
+    /**
+     * 查询编译结果缓存
+     */
+    RESULT_CACHE("result_cache"),
+
+    /**
+     * 扫描 dex 中包含 main 方法的类
+     */
+    MAIN_DISCOVERY("main_discovery"),
+
+    /**
+     * 创建类加载器并加载主类
+     */
+    CLASS_LOAD("class_load"),
+
+    /**
+     * 从准备运行到 main 方法开始执行
+     */
+    PROGRAM_START("program_start"),
+
+    /**
+     * 程序运行，从 main 方法开始执行到程序结束
+     */
+    PROGRAM_RUN("program_run")
+}
@@ -0,0 +1,54 @@
+package com.xiaoyv.java.compiler.tools.trace
+
+/**
+ * JavaPipelineSpan
+ *
+ * 正在进行的一个阶段，阶段内填写统计数据，结束时由 [JavaPipelineTracer] 生成结束事件
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaPipelineSpan internal constructor(
+    val phase: JavaPipelinePhase,
+    val contextId: Int,
+    val spanId: Long
+) {
+    /**
+     * 输入的字节数
+     */
+    var bytesIn = -1L
+
+    /**
+     * 输出的字节数
+     */
+    var bytesOut = -1L
+
+    /**
+     * 处理的类数量
+     */
+    var classCount = -1
+
+    /**
+     * 是否命中缓存
+     */
+    var cacheHit: Boolean? = null
+
+    /**
+     * 失败的原因，用于没有抛出异常的失败，如程序运行超时
+     */
+    var error: String? = null
+
+    internal val startTimeMillis = System.currentTimeMillis()
+
+    internal val startNanos = System.nanoTime()
+
+    internal val startHeapBytes = usedHeapBytes()
+
+    internal companion object {
+
+        /**
+         * 已使用的堆内存，Android 没有线程级的分配统计，阶段内的分配以堆增长估算
+         */
+        fun usedHeapBytes(): Long = Runtime.getRuntime().let { it.totalMemory() - it.freeMemory() }
+    }
+}
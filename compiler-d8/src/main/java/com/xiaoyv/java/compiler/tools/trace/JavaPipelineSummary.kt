@@ -0,0 +1,72 @@
+package com.xiaoyv.java.compiler.tools.trace
+
+/**
+ * JavaPipelineSummary
+ *
+ * 各阶段的汇总统计，见 [com.xiaoyv.java.compiler.JavaEngine.pipelineSummary]
+ *
+ * @param startTimeMillis 统计开始的时间戳
+ * @param endTimeMillis   生成汇总的时间戳
+ * @param phases          各阶段的统计，没有执行过的阶段不包含在内
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+data class JavaPipelineSummary(
+    val startTimeMillis: Long,
+    val endTimeMillis: Long,
+    val phases: Map<JavaPipelinePhase, Phase>
+) {
+
+    /**
+     * 转换为扁平的指标，如 `dex_compile.count`、`dex_compile.total_nanos`，便于上报
+     */
+    fun toMetrics(): Map<String, Long> = linkedMapOf<String, Long>().apply {
+        phases.forEach { (phase, stats) ->
+            val key = phase.key
+            put("$key.count", stats.count)
+            put("$key.failures", stats.failures)
+            put("$key.total_nanos", stats.totalNanos)
+            put("$key.max_nanos", stats.maxNanos)
+            put("$key.bytes_in", stats.bytesIn)
+            put("$key.bytes_out", stats.bytesOut)
+            put("$key.classes", stats.classCount)
+            put("$key.allocated_bytes", stats.allocatedBytes)
+            put("$key.cache_hits", stats.cacheHits)
+            put("$key.cache_misses", stats.cacheMisses)
+        }
+    }
+
+    /**
+     * 一个阶段的统计，数值为全部执行的累计
+     *
+     * @param count          执行次数
+     * @param failures       失败次数
+     * @param totalNanos     总耗时
+     * @param maxNanos       最长的一次耗时
+     * @param bytesIn        输入的字节数
+     * @param bytesOut       输出的字节数
+     * @param classCount     处理的类数量
+     * @param allocatedBytes 估算的内存分配
+     * @param cacheHits      命中缓存的次数
+     * @param cacheMisses    未命中缓存的次数
+     */
+    data class Phase(
+        val count: Long,
+        val failures: Long,
+        val totalNanos: Long,
+        val maxNanos: Long,
+        val bytesIn: Long,
+        val bytesOut: Long,
+        val classCount: Long,
+        val allocatedBytes: Long,
+        val cacheHits: Long,
+        val cacheMisses: Long
+    ) {
+        /**
+         * 平均耗时（毫秒）
+         */
+        val averageMillis: Double
+            get() = if (count == 0L) 0.0 else totalNanos / count / 1_000_000.0
+    }
+}
@@ -0,0 +1,198 @@
+package com.xiaoyv.java.compiler.tools.trace
+
+import com.xiaoyv.java.compiler.JavaBuildContext
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * JavaPipelineTracer
+ *
+ * 记录编译运行流程各阶段的耗时和数据量：
+ * - 有订阅者时通过 [events] 发出每个阶段的开始、结束事件，订阅者处理不过来时丢弃最早的事件，不会阻塞编译
+ * - 没有订阅者时只累计汇总，不创建事件对象
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaPipelineTracer {
+
+    private val eventFlow = MutableSharedFlow<JavaPipelineEvent>(
+        extraBufferCapacity = EVENT_BUFFER_CAPACITY,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+
+    private val spanIds = AtomicLong()
+
+    private val accumulators = EnumMap<JavaPipelinePhase, Accumulator>(JavaPipelinePhase::class.java).apply {
+        JavaPipelinePhase.values().forEach { put(it, Accumulator()) }
+    }
+
+    @Volatile
+    private var summaryStartTime = System.currentTimeMillis()
+
+    /**
+     * 各阶段的开始、结束事件
+     */
+    val events: SharedFlow<JavaPipelineEvent> = eventFlow.asSharedFlow()
+
+    /**
+     * 从上次 [resetSummary] 至今的汇总统计
+     */
+    fun summary(): JavaPipelineSummary {
+        val phases = linkedMapOf<JavaPipelinePhase, JavaPipelineSummary.Phase>()
+        accumulators.forEach { (phase, accumulator) ->
+            accumulator.snapshot()?.let { phases[phase] = it }
+        }
+        return JavaPipelineSummary(summaryStartTime, System.currentTimeMillis(), phases)
+    }
+
+    /**
+     * 清空汇总统计，如每次上报之后
+     */
+    fun resetSummary() {
+        accumulators.values.forEach { it.reset() }
+        summaryStartTime = System.currentTimeMillis()
+    }
+
+    /**
+     * 开始一个阶段
+     *
+     * @param context 所属上下文，与上下文无关的阶段为 null
+     */
+    fun begin(phase: JavaPipelinePhase, context: JavaBuildContext? = null): JavaPipelineSpan {
+        val span = JavaPipelineSpan(phase, context?.id ?: -1, spanIds.incrementAndGet())
+        if (eventFlow.subscriptionCount.value > 0) {
+            eventFlow.tryEmit(
+                JavaPipelineEvent(
+                    type = JavaPipelineEvent.Type.START,
+                    phase = phase,
+                    contextId = span.contextId,
+                    spanId = span.spanId,
+                    timeMillis = span.startTimeMillis
+                )
+            )
+        }
+        return span
+    }
+
+    /**
+     * 结束一个阶段
+     *
+     * @param throwable 阶段失败的异常，成功时为 null
+     */
+    fun end(span: JavaPipelineSpan, throwable: Throwable? = null) {
+        val error = throwable?.let { it.message ?: it.javaClass.name } ?: span.error
+        val durationNanos = System.nanoTime() - span.startNanos
+        val allocatedBytes = (JavaPipelineSpan.usedHeapBytes() - span.startHeapBytes).coerceAtLeast(0)
+        accumulators.getValue(span.phase).add(span, durationNanos, allocatedBytes, error != null)
+
+        if (eventFlow.subscriptionCount.value > 0) {
+            eventFlow.tryEmit(
+                JavaPipelineEvent(
+                    type = JavaPipelineEvent.Type.END,
+                    phase = span.phase,
+                    contextId = span.contextId,
+                    spanId = span.spanId,
+                    timeMillis = System.currentTimeMillis(),
+                    durationNanos = durationNanos,
+                    bytesIn = span.bytesIn,
+                    bytesOut = span.bytesOut,
+                    classCount = span.classCount,
+                    allocatedBytes = allocatedBytes,
+                    cacheHit = span.cacheHit,
+                    error = error
+                )
+            )
+        }
+    }
+
+    /**
+     * 记录 [block] 作为一个阶段，[block] 内通过 span 填写统计数据
+     */
+    internal inline fun <T> trace(
+        phase: JavaPipelinePhase,
+        context: JavaBuildContext?,
+        block: (JavaPipelineSpan) -> T
+    ): T {
+        val span = begin(phase, context)
+        var error: Throwable? = null
+        try {
+            return block.invoke(span)
+        } catch (e: Throwable) {
+            error = e
+            throw e
+        } finally {
+            // block 内的非局部返回也会结束阶段
+            end(span, error)
+        }
+    }
+
+    /**
+     * 一个阶段的累计统计
+     */
+    private class Accumulator {
+        private var count = 0L
+        private var failures = 0L
+        private var totalNanos = 0L
+        private var maxNanos = 0L
+        private var bytesIn = 0L
+        private var bytesOut = 0L
+        private var classCount = 0L
+        private var allocatedBytes = 0L
+        private var cacheHits = 0L
+        private var cacheMisses = 0L
+
+        @Synchronized
+        fun add(span: JavaPipelineSpan, durationNanos: Long, allocated: Long, failed: Boolean) {
+            count++
+            if (failed) failures++
+            totalNanos += durationNanos
+            maxNanos = maxOf(maxNanos, durationNanos)
+            if (span.bytesIn > 0) bytesIn += span.bytesIn
+            if (span.bytesOut > 0) bytesOut += span.bytesOut
+            if (span.classCount > 0) classCount += span.classCount
+            allocatedBytes += allocated
+            when (span.cacheHit) {
+                true -> cacheHits++
+                false -> cacheMisses++
+                null -> Unit
+            }
+        }
+
+        @Synchronized
+        fun snapshot(): JavaPipelineSummary.Phase? {
+            if (count == 0L) {
+                return null
+            }
+            return JavaPipelineSummary.Phase(
+                count, failures, totalNanos, maxNanos, bytesIn, bytesOut,
+                classCount, allocatedBytes, cacheHits, cacheMisses
+            )
+        }
+
+        @Synchronized
+        fun reset() {
+            count = 0
+            failures = 0
+            totalNanos = 0
+            maxNanos = 0
+            bytesIn = 0
+            bytesOut = 0
+            classCount = 0
+            allocatedBytes = 0
+            cacheHits = 0
+            cacheMisses = 0
+        }
+    }
+
+    companion object {
+        /**
+         * 事件缓冲数量
+         */
+        private const val EVENT_BUFFER_CAPACITY = 256
+    }
+}
@@ -0,0 +1,121 @@
+package com.xiaoyv.java.compiler.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <pre>
+ *     author: Blankj
+ *     blog  : http://blankj.com
+ *     time  : 2016/08/02
+ *     desc  : utils about encrypt
+ * </pre>
+ */
+public final class EncryptUtils {
+
+    private EncryptUtils() {
+        throw new UnsupportedOperationException("u can't instantiate me...");
+    }
+
+    /**
+     * Return the hex string of MD5 encryption.
+     *
+     * @param data The data.
+     * @return the hex string of MD5 encryption
+     */
+    public static String encryptMD5ToString(final byte[] data) {
+        return bytes2HexString(hashTemplate(data, "MD5"));
+    }
+
+    /**
+     * Return the hex string of SHA256 encryption.
+     *
+     * @param data The data.
+     * @return the hex string of SHA256 encryption
+     */
+    public static String encryptSHA256ToString(final byte[] data) {
+        return bytes2HexString(hashTemplate(data, "SHA-256"));
+    }
+
+    /**
+     * Return the hex string of file's SHA256 encryption.
+     *
+     * @param file The file.
+     * @return the hex string of file's SHA256 encryption
+     */
+    public static String encryptSHA256File2String(final File file) {
+        return bytes2HexString(encryptFile(file, "SHA-256"));
+    }
+
+    /**
+     * Return the bytes of hash encryption.
+     *
+     * @param data      The data.
+     * @param algorithm The name of hash encryption.
+     * @return the bytes of hash encryption
+     */
+    private static byte[] hashTemplate(final byte[] data, final String algorithm) {
+        if (data == null) return null;
+        try {
+            MessageDigest md = MessageDigest.getInstance(algorithm);
+            md.update(data);
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Return the bytes of file's hash encryption.
+     *
+     * @param file      The file.
+     * @param algorithm The name of hash encryption.
+     * @return the bytes of file's hash encryption
+     */
+    private static byte[] encryptFile(final File file, final String algorithm) {
+        if (file == null) return null;
+        DigestInputStream dis = null;
+        try {
+            FileInputStream fis = new FileInputStream(file);
+            MessageDigest md = MessageDigest.getInstance(algorithm);
+            dis = new DigestInputStream(fis, md);
+            byte[] buffer = new byte[1024 * 256];
+            while (true) {
+                if (!(dis.read(buffer) > 0)) break;
+            }
+            md = dis.getMessageDigest();
+            return md.digest();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            try {
+                if (dis != null) {
+                    dis.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static final char[] HEX_DIGITS =
+            {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private static String bytes2HexString(final byte[] bytes) {
+        if (bytes == null) return "";
+        int len = bytes.length;
+        if (len <= 0) return "";
+        char[] ret = new char[len << 1];
+        for (int i = 0, j = 0; i < len; i++) {
+            ret[j++] = HEX_DIGITS[bytes[i] >> 4 & 0x0f];
+            ret[j++] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(ret);
+    }
+}
@@ -0,0 +1,71 @@
+package com.xiaoyv.java.compiler
+
+import com.xiaoyv.java.compiler.tools.dex.JavaDexCompiler
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+/**
+ * JavaBuildContextTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaBuildContextTest {
+    private lateinit var workDir: File
+    private lateinit var libFolder: File
+
+    @Before
+    fun setUp() {
+        workDir = createTempDir("context")
+        libFolder = File(workDir, "libs").apply { mkdirs() }
+        JavaTestHelper.compileJar(
+            workDir, "lib", mapOf("lib/Util.java" to "package lib; public class Util { public static int one() { return 1; } }")
+        ).copyTo(File(libFolder, "lib.jar"))
+    }
+
+    @After
+    fun tearDown() {
+        workDir.deleteRecursively()
+    }
+
+    /**
+     * 两个上下文同时转换同一个依赖 jar，各自拿到完整的 dex，日志和缓存文件夹互不影响
+     */
+    @Test
+    fun buildTwoContextsConcurrentlyWithSameJar() = runBlocking {
+        val setting = JavaTestHelper.setting()
+        val dexCompiler = JavaDexCompiler(File(workDir, "dex-lib"))
+
+        repeat(3) { round ->
+            dexCompiler.libraryCache.clear()
+            val contexts = List(2) { index ->
+                val sessionDir = File(workDir, "session-$round-$index")
+                JavaBuildContext(setting.snapshot(), File(sessionDir, "class_compile.log"), File(sessionDir, "cache"), sessionDir)
+            }
+            val results = contexts.map { context ->
+                async(Dispatchers.IO) {
+                    context.restLog().writeText("context ${context.id}")
+                    context.restCacheDir()
+                    dexCompiler.compileLibraries(libFolder, context)
+                }
+            }.awaitAll()
+
+            assertEquals(results[0], results[1])
+            assertTrue(results[0].isNotEmpty())
+            results[0].forEach { assertTrue(it.isFile && it.length() > 0) }
+            contexts.forEach { context ->
+                assertEquals("context ${context.id}", context.logFile.readText())
+                assertTrue(context.cacheDir.isDirectory)
+                context.close()
+                assertFalse(context.logFile.exists())
+            }
+        }
+    }
+}
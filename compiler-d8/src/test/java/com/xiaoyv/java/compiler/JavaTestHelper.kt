@@ -0,0 +1,76 @@
+package com.xiaoyv.java.compiler
+
+import com.xiaoyv.java.compiler.tools.java.JavaClassCompileMain
+import org.eclipse.jdt.core.compiler.CompilationProgress
+import java.io.File
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * JavaTestHelper
+ *
+ * 单元测试公用的编译辅助方法
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+object JavaTestHelper {
+
+    /**
+     * 单元测试使用的 android.jar，作为 D8 的 library
+     */
+    val androidJar: File
+        get() = File(android.content.Context::class.java.protectionDomain.codeSource.location.toURI())
+
+    /**
+     * 只保存在内存中的编译设置
+     */
+    fun setting() = JavaEngineSetting.inMemory().apply {
+        rtPath = androidJar.absolutePath
+        dexMinApiLevel = 24
+    }
+
+    /**
+     * 使用 ECJ 编译源码并打包为 jar
+     *
+     * @param workDir 工作文件夹
+     * @param sources 源码，key 为相对路径，如 p/A.java
+     */
+    fun compileJar(workDir: File, name: String, sources: Map<String, String>): File {
+        val sourceDir = File(workDir, "$name-src")
+        val classesDir = File(workDir, "$name-classes")
+        val files = sources.map { (path, content) ->
+            File(sourceDir, path).apply {
+                parentFile?.mkdirs()
+                writeText(content)
+            }.absolutePath
+        }
+        val output = StringWriter()
+        val success = JavaClassCompileMain(PrintWriter(output), NoProgress())
+            .compile(arrayOf("-source", "1.8", "-target", "1.8", "-d", classesDir.absolutePath, *files.toTypedArray()))
+        check(success) { output.toString() }
+
+        val jar = File(workDir, "$name.jar")
+        ZipOutputStream(jar.outputStream()).use { zip ->
+            classesDir.walkTopDown().filter { it.isFile }.sortedBy { it.path }.forEach {
+                zip.putNextEntry(ZipEntry(it.relativeTo(classesDir).invariantSeparatorsPath))
+                zip.write(it.readBytes())
+                zip.closeEntry()
+            }
+        }
+        return jar
+    }
+
+    /**
+     * 不关心进度的编译进度
+     */
+    class NoProgress : CompilationProgress() {
+        override fun begin(remainingWork: Int) = Unit
+        override fun done() = Unit
+        override fun isCanceled() = false
+        override fun setTaskName(name: String?) = Unit
+        override fun worked(workIncrement: Int, remainingWork: Int) = Unit
+    }
+}
@@ -0,0 +1,67 @@
+package com.xiaoyv.java.compiler.tools.dex
+
+import com.xiaoyv.java.compiler.JavaBuildContext
+import com.xiaoyv.java.compiler.JavaTestHelper
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.util.zip.ZipFile
+
+/**
+ * JavaDexCompilerTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaDexCompilerTest {
+    private lateinit var workDir: File
+
+    @Before
+    fun setUp() {
+        workDir = createTempDir("dex")
+    }
+
+    @After
+    fun tearDown() {
+        workDir.deleteRecursively()
+    }
+
+    /**
+     * 逐类转换时 lambda 等合成类不能丢失：要么和所属的类在同一个 dex 中，要么单独输出
+     */
+    @Test
+    fun compilePerClassKeepsSynthetics() = runBlocking {
+        val jar = JavaTestHelper.compileJar(
+            workDir, "lambda", mapOf(
+                "p/Main.java" to """
+                    package p;
+                    public class Main {
+                        public static void main(String[] args) {
+                            Runnable task = () -> System.out.println(args.length);
+                            task.run();
+                        }
+                    }
+                """.trimIndent()
+            )
+        )
+        val classes = ZipFile(jar).use { zip ->
+            zip.entries().toList().filter { it.name.endsWith(".class") }.associate {
+                it.name.removeSuffix(".class") to zip.getInputStream(it).readBytes()
+            }
+        }
+        val sessionDir = File(workDir, "session")
+        val context = JavaBuildContext(
+            JavaTestHelper.setting(), File(sessionDir, "class_compile.log"), File(sessionDir, "cache"), sessionDir
+        )
+
+        val dexFiles = JavaDexCompiler(File(workDir, "dex-lib")).compilePerClassInMemory(classes, context = context)
+
+        assertTrue(dexFiles.keys.containsAll(classes.keys))
+        dexFiles.values.forEach { assertEquals("dex\n", String(it, 0, 4, Charsets.ISO_8859_1)) }
+        val synthetic = dexFiles.values.any { String(it, Charsets.ISO_8859_1).contains("Lambda") }
+        assertTrue("lambda 合成类丢失：${dexFiles.keys}", synthetic)
+    }
+}
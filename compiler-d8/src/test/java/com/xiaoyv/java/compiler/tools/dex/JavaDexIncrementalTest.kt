@@ -0,0 +1,59 @@
+package com.xiaoyv.java.compiler.tools.dex
+
+import com.xiaoyv.java.compiler.JavaTestHelper
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+/**
+ * JavaDexIncrementalTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaDexIncrementalTest {
+    private lateinit var workDir: File
+
+    @Before
+    fun setUp() {
+        workDir = createTempDir("dex-incremental")
+    }
+
+    @After
+    fun tearDown() {
+        workDir.deleteRecursively()
+    }
+
+    /**
+     * 共用合成类在生成它的类仍在使用时参与合并，全部不再使用后删除
+     */
+    @Test
+    fun keepSyntheticWhileOwnerUsed() {
+        val incremental = JavaDexIncremental(workDir, JavaTestHelper.setting())
+        incremental.storeSynthetic("LSynthetic;", byteArrayOf(1), listOf("a", "b"))
+
+        val kept = incremental.syntheticDexFiles(setOf("b", "c"))
+        assertEquals(1, kept.size)
+        assertArrayEquals(byteArrayOf(1), kept.single().readBytes())
+
+        assertTrue(incremental.syntheticDexFiles(setOf("c")).isEmpty())
+        assertTrue(incremental.syntheticDexFiles(setOf("a", "b")).isEmpty())
+    }
+
+    /**
+     * 同一个合成类再次生成时覆盖旧的缓存，合并时不会重复
+     */
+    @Test
+    fun replaceSyntheticWithSameDescriptor() {
+        val incremental = JavaDexIncremental(workDir, JavaTestHelper.setting())
+        incremental.storeSynthetic("LSynthetic;", byteArrayOf(1), listOf("a"))
+        incremental.storeSynthetic("LSynthetic;", byteArrayOf(2), listOf("b"))
+        incremental.storeSynthetic("LOther;", byteArrayOf(3), listOf("b"))
+
+        val files = incremental.syntheticDexFiles(setOf("a", "b"))
+        assertEquals(setOf(2.toByte(), 3.toByte()), files.map { it.readBytes().single() }.toSet())
+        assertTrue(incremental.syntheticDexFiles(setOf("a")).isEmpty())
+    }
+}
@@ -0,0 +1,89 @@
+package com.xiaoyv.java.compiler.tools.dex
+
+import com.xiaoyv.java.compiler.JavaTestHelper
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * JavaDexLibraryCacheTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaDexLibraryCacheTest {
+    private lateinit var workDir: File
+    private lateinit var cacheDir: File
+    private lateinit var jar: File
+
+    @Before
+    fun setUp() {
+        workDir = createTempDir("dex-lib")
+        cacheDir = File(workDir, "cache")
+        jar = JavaTestHelper.compileJar(
+            workDir, "lib", mapOf("lib/Util.java" to "package lib; public class Util { public static int one() { return 1; } }")
+        )
+    }
+
+    @After
+    fun tearDown() {
+        workDir.deleteRecursively()
+    }
+
+    /**
+     * 多个线程同时编译同一个 jar，全部拿到同一份完整的缓存，且不留下临时文件夹
+     */
+    @Test
+    fun concurrentWritersShareOneEntry() {
+        val threads = 8
+        val setting = JavaTestHelper.setting()
+        val caches = List(threads) { JavaDexLibraryCache(cacheDir) }
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            repeat(3) {
+                cacheDir.deleteRecursively()
+                val barrier = CyclicBarrier(threads)
+                val results = caches.map { cache ->
+                    executor.submit<List<File>> {
+                        barrier.await()
+                        cache.dexLibrary(jar, emptyList(), setting)
+                    }
+                }.map { it.get(1, TimeUnit.MINUTES) }
+
+                val expected = results.first()
+                assertTrue(expected.isNotEmpty())
+                results.forEach { dexFiles ->
+                    assertEquals(expected, dexFiles)
+                    dexFiles.forEach { assertTrue(it.isFile && it.length() > 0) }
+                }
+                assertEquals(listOf(expected.first().parentFile), cacheDir.listFiles()!!.toList())
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    /**
+     * 缺少完成标记的缓存文件夹视为不完整，重新编译并替换
+     */
+    @Test
+    fun replaceIncompleteEntry() {
+        val cache = JavaDexLibraryCache(cacheDir)
+        val setting = JavaTestHelper.setting()
+        val dexFiles = cache.dexLibrary(jar, emptyList(), setting)
+        val expected = dexFiles.map { it.readBytes().toList() }
+
+        val keyDir = dexFiles.first().parentFile!!
+        File(keyDir, ".complete").delete()
+        dexFiles.forEach { it.writeBytes(ByteArray(0)) }
+
+        val rebuilt = cache.dexLibrary(jar, emptyList(), setting)
+        assertEquals(expected, rebuilt.map { it.readBytes().toList() })
+        assertTrue(File(keyDir, ".complete").exists())
+    }
+}
@@ -0,0 +1,98 @@
+package com.xiaoyv.java.compiler.tools.dex
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * JavaDexResultCacheTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaDexResultCacheTest {
+    private lateinit var cacheDir: File
+
+    @Before
+    fun setUp() {
+        cacheDir = createTempDir("dex-result")
+    }
+
+    @After
+    fun tearDown() {
+        cacheDir.deleteRecursively()
+    }
+
+    @Test
+    fun putThenGet() {
+        val cache = JavaDexResultCache(cacheDir)
+        assertNull(cache.get("a"))
+        cache.put("a", dexBytes("a"))
+        assertEquals(dexBytes("a").map { it.toList() }, cache.get("a")!!.map { it.toList() })
+
+        // 重新打开时从磁盘加载
+        val reopened = JavaDexResultCache(cacheDir)
+        assertEquals(dexBytes("a").map { it.toList() }, reopened.get("a")!!.map { it.toList() })
+    }
+
+    /**
+     * 缓存文件缺失或被截断时视为未命中，并移除该条目
+     */
+    @Test
+    fun treatShortEntryAsMiss() {
+        val cache = JavaDexResultCache(cacheDir)
+        cache.put("a", dexBytes("a"))
+        File(cacheDir, "a/classes2.dex").writeBytes(ByteArray(1))
+
+        assertNull(cache.get("a"))
+        assertFalse(File(cacheDir, "a").exists())
+        assertEquals(0L, cache.stats.totalBytes)
+    }
+
+    /**
+     * 一边淘汰一边读取，读到的结果要么未命中，要么是完整的 dex
+     */
+    @Test
+    fun getWhileTrimming() {
+        val keys = List(8) { "key$it" }
+        val entryBytes = dexBytes(keys[0]).sumOf { it.size.toLong() }
+        val cache = JavaDexResultCache(cacheDir, entryBytes * 2)
+
+        val threads = 4
+        val barrier = CyclicBarrier(threads)
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            List(threads) { thread ->
+                executor.submit {
+                    barrier.await()
+                    repeat(500) { round ->
+                        val key = keys[(round + thread) % keys.size]
+                        if (round % 2 == 0) {
+                            cache.put(key, dexBytes(key))
+                        } else {
+                            cache.get(key)?.let { cached ->
+                                assertTrue("不完整的缓存：$key", sameDex(dexBytes(key), cached))
+                            }
+                        }
+                    }
+                }
+            }.forEach { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            executor.shutdownNow()
+        }
+        assertTrue(cache.stats.totalBytes <= entryBytes * 2)
+    }
+
+    private fun sameDex(expected: List<ByteArray>, actual: List<ByteArray>) =
+        expected.size == actual.size && expected.zip(actual).all { (a, b) -> a.contentEquals(b) }
+
+    private fun dexBytes(key: String) = listOf(
+        ByteArray(4096) { (key.hashCode() + it).toByte() },
+        ByteArray(2048) { (key.hashCode() - it).toByte() }
+    )
+}
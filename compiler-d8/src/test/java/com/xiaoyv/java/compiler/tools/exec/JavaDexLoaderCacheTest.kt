@@ -0,0 +1,87 @@
+package com.xiaoyv.java.compiler.tools.exec
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.lang.ref.WeakReference
+
+/**
+ * JavaDexLoaderCacheTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaDexLoaderCacheTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    /**
+     * 依赖的优化输出使用单独的条目，共用同一组依赖的程序复用该条目
+     */
+    @Test
+    fun useSeparateLibraryEntry() {
+        val cacheDir = folder.newFolder("loader")
+        val libraryDex = folder.newFile("library.dex").apply { writeBytes(byteArrayOf(1, 2, 3)) }
+        val cache = JavaDexLoaderCache(cacheDir)
+
+        val first = cache.createClassLoader(listOf(byteArrayOf(1)), listOf(libraryDex))
+        val second = cache.createClassLoader(listOf(byteArrayOf(2)), listOf(libraryDex))
+
+        val entryDirs = cacheDir.listFiles().orEmpty().toList()
+        assertEquals(3, entryDirs.size)
+        val (programDirs, libraryDirs) = entryDirs.partition { File(it, "classes.dex").exists() }
+        assertEquals(2, programDirs.size)
+        assertEquals(1, libraryDirs.size)
+        assertTrue(File(libraryDirs.single(), "oat").isDirectory)
+        assertNotSame(first, second)
+    }
+
+    /**
+     * 预先计算的 key 与直接传入 dex 时使用的 key 一致，命中同一个条目
+     */
+    @Test
+    fun reusePrecomputedKey() {
+        val cacheDir = folder.newFolder("loader")
+        val cache = JavaDexLoaderCache(cacheDir)
+        val dexBytes = listOf(byteArrayOf(1), byteArrayOf(2))
+
+        val key = cache.cacheKey(dexBytes)
+        cache.createClassLoader(key, dexBytes)
+        cache.createClassLoader(dexBytes)
+
+        assertEquals(1, cache.size)
+        assertEquals(listOf(key), cacheDir.list().orEmpty().toList())
+    }
+
+    /**
+     * 仍有类加载器存活的条目不会被淘汰，类加载器回收后才会淘汰
+     */
+    @Test
+    fun keepEntriesWithLiveLoader() {
+        val cacheDir = folder.newFolder("loader")
+        val cache = JavaDexLoaderCache(cacheDir, 1)
+
+        var first: ClassLoader? = cache.createClassLoader(listOf(byteArrayOf(1)))
+        val firstRef = WeakReference(first)
+        val second = cache.createClassLoader(listOf(byteArrayOf(2)))
+        assertEquals(2, cacheDir.listFiles().orEmpty().size)
+        assertNotNull(first)
+
+        first = null
+        repeat(50) {
+            if (firstRef.get() != null) {
+                System.gc()
+                Thread.sleep(20)
+            }
+        }
+        assertNull(firstRef.get())
+
+        // 第一个程序的类加载器已回收，写入新条目时淘汰
+        cache.createClassLoader(listOf(byteArrayOf(3)))
+        assertEquals(2, cacheDir.listFiles().orEmpty().size)
+        assertEquals(2, cache.size)
+        assertNotNull(second)
+    }
+}
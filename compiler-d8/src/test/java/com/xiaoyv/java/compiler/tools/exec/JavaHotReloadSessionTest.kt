@@ -0,0 +1,35 @@
+package com.xiaoyv.java.compiler.tools.exec
+
+import com.xiaoyv.java.compiler.tools.exec.JavaHotReloadSession.Companion.updateSynthetics
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * JavaHotReloadSessionTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaHotReloadSessionTest {
+
+    /**
+     * 合成类只在生成它的类仍有未重新转换的类时保留，重新转换或删除后由本次的输出替换
+     */
+    @Test
+    fun pruneSyntheticsOnReload() {
+        val first = updateSynthetics(
+            emptyMap(), emptySet(), setOf("A", "B"), mapOf("S1" to byteArrayOf(1), "S2" to byteArrayOf(2))
+        )
+        assertEquals(setOf("S1", "S2"), first.keys)
+
+        // B 未改动，A 重新转换后只生成了 S1
+        val second = updateSynthetics(first, setOf("B"), setOf("A"), mapOf("S1" to byteArrayOf(3)))
+        assertEquals(setOf("S1", "S2"), second.keys)
+        assertArrayEquals(byteArrayOf(3), second.getValue("S1").dex)
+        assertEquals(setOf("A"), second.getValue("S1").owners)
+
+        // B 被删除，A 重新转换后不再生成合成类
+        val third = updateSynthetics(second, emptySet(), setOf("A"), emptyMap())
+        assertTrue(third.isEmpty())
+    }
+}
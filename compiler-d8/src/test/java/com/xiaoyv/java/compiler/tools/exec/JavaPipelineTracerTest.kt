@@ -0,0 +1,105 @@
+package com.xiaoyv.java.compiler.tools.exec
+
+import com.xiaoyv.java.compiler.JavaEngine
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelineEvent
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelinePhase
+import com.xiaoyv.java.compiler.tools.trace.JavaPipelineTracer
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.flow.onSubscription
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * JavaPipelineTracerTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class JavaPipelineTracerTest {
+
+    /**
+     * 检测 main 方法记录为一个阶段，解析失败的 dex 也计入输入字节数
+     */
+    @Test
+    fun traceMainDiscovery() = runBlocking {
+        val tracer = JavaEngine.tracer
+        tracer.resetSummary()
+
+        val mainList = JavaProgramHelper.queryMainFunctionList(listOf(ByteArray(16), ByteArray(8)))
+        assertTrue(mainList.isEmpty())
+
+        val phase = tracer.summary().phases.getValue(JavaPipelinePhase.MAIN_DISCOVERY)
+        assertEquals(1L, phase.count)
+        assertEquals(0L, phase.failures)
+        assertEquals(24L, phase.bytesIn)
+
+        tracer.resetSummary()
+        assertFalse(JavaPipelinePhase.MAIN_DISCOVERY in tracer.summary().phases)
+    }
+
+    /**
+     * 汇总累计各次执行，抛出异常的阶段计为失败，扁平指标与汇总一致
+     */
+    @Test
+    fun accumulateSummary() {
+        val tracer = JavaPipelineTracer()
+        tracer.trace(JavaPipelinePhase.DEX_LIBRARY, null) { span ->
+            span.bytesIn = 100
+            span.cacheHit = true
+        }
+        tracer.trace(JavaPipelinePhase.DEX_LIBRARY, null) { span ->
+            span.bytesIn = 50
+            span.cacheHit = false
+        }
+        runCatching {
+            tracer.trace(JavaPipelinePhase.DEX_LIBRARY, null) { error("broken jar") }
+        }
+
+        val phase = tracer.summary().phases.getValue(JavaPipelinePhase.DEX_LIBRARY)
+        assertEquals(3L, phase.count)
+        assertEquals(1L, phase.failures)
+        assertEquals(150L, phase.bytesIn)
+        assertEquals(1L, phase.cacheHits)
+        assertEquals(1L, phase.cacheMisses)
+
+        val metrics = tracer.summary().toMetrics()
+        assertEquals(3L, metrics["dex_library.count"])
+        assertEquals(1L, metrics["dex_library.failures"])
+        assertEquals(150L, metrics["dex_library.bytes_in"])
+        assertNull(metrics["dex_compile.count"])
+    }
+
+    /**
+     * 有订阅者时发出同一编号的开始、结束事件，失败的结束事件带有异常信息
+     */
+    @Test
+    fun emitEventsWhileSubscribed() = runBlocking {
+        val tracer = JavaPipelineTracer()
+        val subscribed = CompletableDeferred<Unit>()
+        val events = async(Dispatchers.Default) {
+            tracer.events.onSubscription { subscribed.complete(Unit) }.take(4).toList()
+        }
+        withTimeout(5000) { subscribed.await() }
+        tracer.trace(JavaPipelinePhase.PROGRAM_RUN, null) { span -> span.bytesOut = 12 }
+        runCatching {
+            tracer.trace(JavaPipelinePhase.PROGRAM_RUN, null) { throw IllegalStateException("exit 1") }
+        }
+
+        val (start, end, failedStart, failedEnd) = withTimeout(5000) { events.await() }
+        assertEquals(JavaPipelineEvent.Type.START, start.type)
+        assertEquals(JavaPipelineEvent.Type.END, end.type)
+        assertEquals(start.spanId, end.spanId)
+        assertEquals(12L, end.bytesOut)
+        assertTrue(end.isSuccess)
+
+        assertEquals(failedStart.spanId, failedEnd.spanId)
+        assertNotEquals(start.spanId, failedStart.spanId)
+        assertEquals("exit 1", failedEnd.error)
+    }
+}
@@ -0,0 +1,190 @@
+package com.xiaoyv.java.compiler.tools.exec
+
+import kotlinx.coroutines.*
+import kotlinx.coroutines.test.resetMain
+import kotlinx.coroutines.test.setMain
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.PrintStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * JavaProgramConsoleTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+class JavaProgramConsoleTest {
+    private lateinit var mainThread: ExecutorService
+
+    @Before
+    fun setUp() {
+        mainThread = Executors.newSingleThreadExecutor()
+        Dispatchers.setMain(mainThread.asCoroutineDispatcher())
+    }
+
+    @After
+    fun tearDown() {
+        Dispatchers.resetMain()
+        mainThread.shutdownNow()
+    }
+
+    /**
+     * 程序已经结束，关闭时缓冲区内尚未交付的输出也要全部交付
+     */
+    @Test
+    fun drainOutputOnClose() = runBlocking {
+        val console = JavaProgramConsole()
+        val output = StringBuffer()
+        console.logNormalListener = { output.append(it) }
+        console.interceptSystemPrint()
+
+        val expected = lines(20_000)
+        console.outputStream.print(expected)
+        console.outputStream.flush()
+        console.close()
+
+        withTimeout(5000) { console.awaitClosed() }
+        assertEquals(expected, output.toString())
+    }
+
+    /**
+     * 强制结束运行中的程序时，结束前写入的输出仍会交付
+     */
+    @Test
+    fun drainOutputWhenKilled() = runBlocking {
+        val console = JavaProgramConsole()
+        val output = StringBuffer()
+        console.logNormalListener = { output.append(it) }
+        console.interceptSystemPrint()
+
+        val expected = lines(20_000)
+        val written = CountDownLatch(1)
+        val thread = console.execute("drain") {
+            console.outputStream.print(expected)
+            console.outputStream.flush()
+            written.countDown()
+            Thread.sleep(Long.MAX_VALUE)
+        }
+        assertTrue(written.await(5, TimeUnit.SECONDS))
+        console.close()
+
+        withTimeout(5000) { console.awaitClosed() }
+        assertEquals(expected, output.toString())
+        assertEquals(JavaExitReason.KILLED, console.exitReason)
+        thread.join(5000)
+        assertFalse(thread.isAlive)
+    }
+
+    /**
+     * 输出超过缓冲区容量时程序阻塞在写入，强制结束后写入立即返回，已写入的部分仍会交付
+     */
+    @Test
+    fun unblockWriterWhenKilled() = runBlocking {
+        val console = JavaProgramConsole()
+        val output = StringBuffer()
+        // 主线程处理很慢，输出泵跟不上，缓冲区写满
+        console.logNormalListener = {
+            Thread.sleep(20)
+            output.append(it)
+        }
+        console.interceptSystemPrint()
+
+        val expected = lines(500_000)
+        val thread = console.execute("blocked") {
+            console.outputStream.print(expected)
+        }
+        delay(200)
+        console.close()
+
+        thread.join(5000)
+        assertFalse(thread.isAlive)
+        withTimeout(5000) { console.awaitClosed() }
+        assertTrue(output.isNotEmpty())
+        assertTrue(expected.startsWith(output.toString()))
+    }
+
+    /**
+     * 重新运行后，上一次运行尚未退出的线程的读写不会混入新一次运行
+     */
+    @Test
+    fun fenceOldRunOnRestart() = runBlocking {
+        val console = JavaProgramConsole()
+        val output = StringBuffer()
+        console.logNormalListener = { output.append(it) }
+        console.interceptSystemPrint()
+
+        val restarted = CountDownLatch(1)
+        var oldRead = 0
+        val oldThread = console.execute("old") {
+            // 忽略中断，模拟重新运行后一段时间内仍在运行的旧线程
+            while (restarted.count > 0) {
+                runCatching { restarted.await() }
+            }
+            console.outputStream.print("old\n")
+            console.outputStream.flush()
+            oldRead = console.inputStream.read()
+        }
+        console.restart()
+        restarted.countDown()
+        oldThread.join(5000)
+        assertFalse(oldThread.isAlive)
+        assertEquals(-1, oldRead)
+
+        val newThread = console.execute("new") {
+            console.outputStream.print("new\n")
+            console.outputStream.flush()
+        }
+        newThread.join(5000)
+        console.close()
+
+        withTimeout(5000) { console.awaitClosed() }
+        assertEquals("new\n", output.toString())
+    }
+
+    /**
+     * 字符串输入末尾追加换行；程序未运行时不写入
+     */
+    @Test
+    fun inputStdinLine() = runBlocking {
+        val console = JavaProgramConsole()
+        assertFalse(console.inputStdin("ignored"))
+
+        console.interceptSystemPrint()
+        assertTrue(console.inputStdin("hello"))
+        val line = console.inputStream.bufferedReader().readLine()
+        console.close()
+
+        assertEquals("hello", line)
+        withTimeout(5000) { console.awaitClosed() }
+    }
+
+    /**
+     * 直接使用调用方的流时不创建缓冲区和输出泵，关闭时立即取消作用域
+     */
+    @Test
+    fun attachStreamsWithoutBuffers() {
+        val console = JavaProgramConsole()
+        val output = ByteArrayOutputStream()
+        console.attachStreams(ByteArrayInputStream("judge".toByteArray()), PrintStream(output), PrintStream(output))
+
+        val thread = console.execute("attach") { print(readLine()) }
+        thread.join(5000)
+        console.close()
+
+        assertFalse(console.isActive)
+        assertEquals("judge", output.toString())
+    }
+
+    private fun lines(count: Int) = buildString {
+        repeat(count) { append("line ").append(it).append('\n') }
+    }
+}
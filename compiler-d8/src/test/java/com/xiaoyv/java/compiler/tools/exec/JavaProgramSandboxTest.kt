@@ -0,0 +1,64 @@
+package com.xiaoyv.java.compiler.tools.exec
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.resetMain
+import kotlinx.coroutines.test.setMain
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * JavaProgramSandboxTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+class JavaProgramSandboxTest {
+    private lateinit var mainThread: ExecutorService
+
+    @Before
+    fun setUp() {
+        mainThread = Executors.newSingleThreadExecutor()
+        Dispatchers.setMain(mainThread.asCoroutineDispatcher())
+    }
+
+    @After
+    fun tearDown() {
+        Dispatchers.resetMain()
+        mainThread.shutdownNow()
+    }
+
+    /**
+     * 超时在下一次检查时才会发现，检查间隔决定了终止的时机
+     */
+    @Test
+    fun usePollIntervalFromLimits() {
+        val slow = timeout(JavaRunLimits(wallTimeMillis = 100, pollIntervalMillis = 2000))
+        assertTrue("slow poll: ${slow}ms", slow >= 2000)
+
+        val fast = timeout(JavaRunLimits(wallTimeMillis = 100, pollIntervalMillis = 10))
+        assertTrue("fast poll: ${fast}ms", fast < 1000)
+    }
+
+    private fun timeout(limits: JavaRunLimits): Long = runBlocking {
+        val console = JavaProgramConsole(limits)
+        console.interceptSystemPrint()
+        val startTime = System.nanoTime()
+        val thread = console.execute("sleep") { Thread.sleep(Long.MAX_VALUE) }
+        assertEquals(JavaExitReason.TIMEOUT, console.sandbox.watch())
+        val costTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+
+        thread.join(5000)
+        assertFalse(thread.isAlive)
+        console.close()
+        costTime
+    }
+}
@@ -0,0 +1,87 @@
+package com.xiaoyv.java.compiler.tools.exec.io
+
+import com.xiaoyv.java.compiler.tools.exec.JavaProgramConsole
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.test.resetMain
+import kotlinx.coroutines.test.setMain
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.PrintStream
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * JavaStdioTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+class JavaStdioTest {
+    private lateinit var mainThread: ExecutorService
+    private lateinit var console: JavaProgramConsole
+    private val output = ByteArrayOutputStream()
+
+    @Before
+    fun setUp() {
+        mainThread = Executors.newSingleThreadExecutor()
+        Dispatchers.setMain(mainThread.asCoroutineDispatcher())
+        console = JavaProgramConsole()
+        console.attachStreams(ByteArrayInputStream(ByteArray(0)), PrintStream(output, true), PrintStream(output, true))
+    }
+
+    @After
+    fun tearDown() {
+        console.close()
+        Dispatchers.resetMain()
+        mainThread.shutdownNow()
+    }
+
+    /**
+     * 程序线程和它在同一线程组中创建的线程都路由到程序
+     */
+    @Test
+    fun routeThreadsInProgramGroup() {
+        var programThread: JavaProgramConsole? = null
+        var childThread: JavaProgramConsole? = null
+        console.execute("route") {
+            programThread = JavaStdio.currentProgram()
+            Thread { childThread = JavaStdio.currentProgram() }.apply {
+                start()
+                join()
+            }
+        }.join(5000)
+
+        assertSame(console, programThread)
+        assertSame(console, childThread)
+        assertNull(JavaStdio.currentProgram())
+    }
+
+    /**
+     * 程序线程顺带创建的、不属于程序线程组的线程池线程不继承程序的标准流
+     */
+    @Test
+    fun doNotRoutePoolThreadsOutsideProgramGroup() {
+        val appGroup = Thread.currentThread().threadGroup
+        val pool = Executors.newSingleThreadExecutor { Thread(appGroup, it, "app-pool") }
+        try {
+            var poolThread: JavaProgramConsole? = console
+            console.execute("pool") {
+                poolThread = pool.submit<JavaProgramConsole?> { JavaStdio.currentProgram() }.get()
+            }.join(5000)
+            assertNull(poolThread)
+
+            // 程序结束后线程池线程仍然存活，应用自己的任务也不会路由到程序
+            assertNull(pool.submit<JavaProgramConsole?> { JavaStdio.currentProgram() }.get(5, TimeUnit.SECONDS))
+        } finally {
+            pool.shutdownNow()
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.xiaoyv.java.compiler.tools.exec.io.queue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ByteRingBuffer} 与 {@link ByteQueue} 的 JMH 基准测试
+ * <p>
+ * - roundTrip：同一线程写入再读出 chunk 字节，衡量无竞争时每次读写的开销
+ * - transfer：后台线程持续写入，基准线程每次读取 chunk 字节，衡量一生产者一消费者的吞吐
+ * <p>
+ * chunk 为 1 时 {@link ByteRingBuffer} 使用 {@link ByteRingBuffer#read()}，
+ * {@link ByteQueue} 没有单字节读取，使用长度为 1 的 {@link ByteQueue#read(byte[], int, int)}。
+ * 运行 {@link #main(String[])}，不会随单元测试执行
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteRingBufferBenchmark {
+
+    @State(Scope.Thread)
+    public static class RoundTripState {
+        @Param({"1", "64", "4096"})
+        int chunk;
+
+        ByteRingBuffer ring;
+        ByteQueue queue;
+        byte[] source;
+        byte[] target;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            ring = new ByteRingBuffer();
+            queue = new ByteQueue(ByteQueue.QUEUE_SIZE);
+            source = new byte[chunk];
+            target = new byte[chunk];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            ring.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TransferState {
+        @Param({"1", "64", "4096"})
+        int chunk;
+
+        ByteRingBuffer ring;
+        ByteQueue queue;
+        byte[] target;
+        Thread ringProducer;
+        Thread queueProducer;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            ring = new ByteRingBuffer();
+            queue = new ByteQueue(ByteQueue.QUEUE_SIZE);
+            target = new byte[chunk];
+            ringProducer = producer("ring-producer", (buffer, length) -> ring.write(buffer, 0, length));
+            // ByteQueue 写满后在写入中途阻塞时，写入方只在开始写入时队列为空才唤醒读取方，
+            // 读取方可能错过唤醒，这里只在空间足够时写入
+            queueProducer = producer("queue-producer", (buffer, length) -> {
+                while (ByteQueue.QUEUE_SIZE - queue.getBytesAvailable() < length) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    Thread.yield();
+                }
+                queue.write(buffer, 0, length);
+            });
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws InterruptedException {
+            ring.close();
+            ringProducer.interrupt();
+            queueProducer.interrupt();
+            ringProducer.join();
+            queueProducer.join();
+            ring.release();
+        }
+
+        private static Thread producer(String name, Writer writer) {
+            Thread thread = new Thread(() -> {
+                byte[] buffer = new byte[4096];
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        writer.write(buffer, buffer.length);
+                    }
+                } catch (InterruptedException ignored) {
+                    // 迭代结束
+                }
+            }, name);
+            thread.setDaemon(true);
+            thread.start();
+            return thread;
+        }
+
+        private interface Writer {
+            void write(byte[] buffer, int length) throws InterruptedException;
+        }
+    }
+
+    @Benchmark
+    public int ringRoundTrip(RoundTripState state) throws InterruptedException {
+        state.ring.write(state.source, 0, state.chunk);
+        if (state.chunk == 1) {
+            return state.ring.read();
+        }
+        return readFully(state.ring, state.target);
+    }
+
+    @Benchmark
+    public int queueRoundTrip(RoundTripState state) throws InterruptedException {
+        state.queue.write(state.source, 0, state.chunk);
+        return readFully(state.queue, state.target);
+    }
+
+    @Benchmark
+    public int ringTransfer(TransferState state) throws InterruptedException {
+        if (state.chunk == 1) {
+            return state.ring.read();
+        }
+        return readFully(state.ring, state.target);
+    }
+
+    @Benchmark
+    public int queueTransfer(TransferState state) throws InterruptedException {
+        return readFully(state.queue, state.target);
+    }
+
+    private static int readFully(ByteRingBuffer ring, byte[] target) throws InterruptedException {
+        int total = 0;
+        while (total < target.length) {
+            total += ring.read(target, total, target.length - total);
+        }
+        return total;
+    }
+
+    private static int readFully(ByteQueue queue, byte[] target) throws InterruptedException {
+        int total = 0;
+        while (total < target.length) {
+            total += queue.read(target, total, target.length - total);
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ByteRingBufferBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,91 @@
+package com.xiaoyv.java.compiler.tools.exec.io.queue
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.concurrent.thread
+
+/**
+ * ByteRingBufferTest
+ *
+ * @author why
+ * @since 2022/3/8
+ */
+class ByteRingBufferTest {
+
+    /**
+     * 单字节读取返回无符号值，跨越容量增长后的多段，输入结束后返回 -1
+     */
+    @Test
+    fun readSingleBytesAcrossSegments() {
+        val buffer = ByteRingBuffer(16, 256)
+        val bytes = ByteArray(200) { it.toByte() }
+        buffer.write(bytes, 0, 100)
+        assertEquals(0, buffer.read())
+        buffer.write(bytes, 100, 100)
+        buffer.finish()
+
+        for (expected in 1 until bytes.size) {
+            assertEquals(expected and 0xFF, buffer.read())
+        }
+        assertEquals(-1, buffer.read())
+        buffer.release()
+    }
+
+    /**
+     * 单字节读取与批量读取混用，数据顺序不变
+     */
+    @Test
+    fun mixSingleAndBulkReads() {
+        val buffer = ByteRingBuffer(16, 64)
+        val total = 100_000
+        val producer = thread {
+            val chunk = ByteArray(37)
+            var next = 0
+            while (next < total) {
+                val length = minOf(chunk.size, total - next)
+                for (i in 0 until length) {
+                    chunk[i] = (next + i).toByte()
+                }
+                buffer.write(chunk, 0, length)
+                next += length
+            }
+            buffer.finish()
+        }
+
+        val chunk = ByteArray(13)
+        var next = 0
+        while (true) {
+            if (next % 2 == 0) {
+                val value = buffer.read()
+                if (value == -1) break
+                assertEquals(next and 0xFF, value)
+                next++
+            } else {
+                val read = buffer.read(chunk, 0, chunk.size)
+                if (read == -1) break
+                for (i in 0 until read) {
+                    assertEquals((next + i).toByte(), chunk[i])
+                }
+                next += read
+            }
+        }
+        producer.join()
+        assertEquals(total, next)
+        buffer.release()
+    }
+
+    /**
+     * 关闭后阻塞的单字节读取被唤醒并返回 -1
+     */
+    @Test
+    fun closeWakesBlockedRead() {
+        val buffer = ByteRingBuffer()
+        var value = 0
+        val consumer = thread { value = buffer.read() }
+        Thread.sleep(50)
+        buffer.close()
+        consumer.join(5000)
+        assertFalse(consumer.isAlive)
+        assertEquals(-1, value)
+    }
+}
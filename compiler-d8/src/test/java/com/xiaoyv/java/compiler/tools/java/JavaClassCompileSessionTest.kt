@@ -0,0 +1,64 @@
+package com.xiaoyv.java.compiler.tools.java
+
+import com.xiaoyv.java.compiler.JavaTestHelper.NoProgress
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * JavaClassCompileSessionTest
+ *
+ * @author why
+ * @since 2022/3/7
+ */
+class JavaClassCompileSessionTest {
+    private lateinit var workDir: File
+
+    @Before
+    fun setUp() {
+        workDir = createTempDir("session")
+    }
+
+    @After
+    fun tearDown() {
+        workDir.deleteRecursively()
+    }
+
+    /**
+     * 编译过程中抛出异常，读锁也要释放，否则之后的 invalidate 会一直阻塞
+     */
+    @Test
+    fun releaseReadLockWhenCompileThrows() {
+        val session = JavaClassCompileSession()
+        val source = File(workDir, "Main.java").apply {
+            writeText("public class Main { }")
+        }
+        val compileCmd = arrayOf(
+            "-source", "1.8", "-target", "1.8",
+            "-d", File(workDir, "out").absolutePath,
+            source.absolutePath
+        )
+
+        val success = runCatching {
+            session.compile(
+                compileCmd, JavaClassCompileSession.settingKey("1.8", "1.8", "UTF-8"),
+                PrintWriter(StringWriter()), NoProgress()
+            ) { throw IllegalStateException("listener failed") }
+        }.getOrDefault(false)
+        assertFalse(success)
+
+        val invalidated = CountDownLatch(1)
+        thread {
+            session.invalidate()
+            invalidated.countDown()
+        }
+        assertTrue(invalidated.await(5, TimeUnit.SECONDS))
+    }
+}
@@ -0,0 +1,138 @@
+package com.xiaoyv.java.compiler.tools.java
+
+import com.xiaoyv.java.compiler.JavaTestHelper.NoProgress
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.PrintWriter
+import java.io.StringWriter
+
+/**
+ * JavaClassIncrementalTest
+ *
+ * @author why
+ * @since 2022/3/7
+ */
+class JavaClassIncrementalTest {
+    private lateinit var workDir: File
+    private lateinit var sourceDir: File
+    private lateinit var buildDir: File
+    private lateinit var classesDir: File
+
+    @Before
+    fun setUp() {
+        workDir = createTempDir("incremental")
+        sourceDir = File(workDir, "src").apply { mkdirs() }
+        buildDir = File(workDir, "build").apply { mkdirs() }
+        classesDir = File(buildDir, "classes").apply { mkdirs() }
+    }
+
+    @After
+    fun tearDown() {
+        workDir.deleteRecursively()
+    }
+
+    /**
+     * 默认包的类只会出现在简单名称引用中，改动后依赖它的类也要重新编译
+     */
+    @Test
+    fun rebuildDependentsOfDefaultPackageClass() {
+        source("A.java", "public class A { public static int value() { return 1; } }")
+        source("B.java", "public class B { int x = A.value(); }")
+        source("C.java", "public class C { }")
+        build().let {
+            assertTrue(it.isFullBuild)
+            assertEquals(setOf("A", "B", "C"), it.names)
+        }
+
+        source("A.java", "public class A { public static int value() { return 2; } }")
+        build().let {
+            assertFalse(it.isFullBuild)
+            assertEquals(setOf("A", "B"), it.names)
+        }
+    }
+
+    /**
+     * 通过外部类限定名引用默认包的内部类
+     */
+    @Test
+    fun rebuildDependentsOfDefaultPackageInnerClass() {
+        source("A.java", "public class A { public static class Inner { public static int v = 1; } }")
+        source("B.java", "public class B { int x = A.Inner.v; }")
+        source("C.java", "public class C { }")
+        build()
+
+        source("A.java", "public class A { public static class Inner { public static int v = 2; } }")
+        assertEquals(setOf("A", "B"), build().names)
+    }
+
+    /**
+     * 包内类型改动时，只重新编译引用了它的类
+     */
+    @Test
+    fun rebuildDependentsOfPackagedClass() {
+        source("p/A.java", "package p; public class A { public static int value() { return 1; } }")
+        source("q/B.java", "package q; public class B { int x = p.A.value(); }")
+        source("q/C.java", "package q; import p.*; public class C { int x = A.value(); }")
+        source("q/D.java", "package q; public class D { }")
+        build()
+
+        source("p/A.java", "package p; public class A { public static int value() { return 2; } }")
+        assertEquals(setOf("A", "B", "C"), build().names)
+    }
+
+    /**
+     * 编译设置或者类路径中的 jar 改变时全量编译，并清除旧的类文件
+     */
+    @Test
+    fun fullBuildWhenSettingOrJarChanges() {
+        val jar = File(workDir, "lib.jar").apply { writeBytes(byteArrayOf(1)) }
+        source("A.java", "public class A { }")
+        source("B.java", "public class B { }")
+        assertTrue(build(classpath = listOf(jar)).isFullBuild)
+        assertFalse(build(classpath = listOf(jar)).isFullBuild)
+
+        // 旧的类文件应被清除
+        val stale = File(classesDir, "Stale.class").apply { writeBytes(byteArrayOf(0)) }
+        build(level = "1.7", classpath = listOf(jar)).let {
+            assertTrue(it.isFullBuild)
+            assertEquals(setOf("A", "B"), it.names)
+        }
+        assertFalse(stale.exists())
+        assertFalse(build(level = "1.7", classpath = listOf(jar)).isFullBuild)
+
+        jar.writeBytes(byteArrayOf(1, 2))
+        assertTrue(build(level = "1.7", classpath = listOf(jar)).isFullBuild)
+        assertFalse(build(level = "1.7", classpath = listOf(jar)).isFullBuild)
+    }
+
+    private fun source(path: String, content: String) {
+        File(sourceDir, path).apply { parentFile?.mkdirs() }.writeText(content)
+    }
+
+    private val JavaClassIncremental.Plan.names
+        get() = compileFiles.map { it.nameWithoutExtension }.toSet()
+
+    /**
+     * 按增量计划编译一次，返回本次的计划
+     */
+    private fun build(level: String = "1.8", classpath: List<File> = emptyList()): JavaClassIncremental.Plan {
+        val incremental = JavaClassIncremental(buildDir)
+        val settingKey = JavaClassCompileSession.settingKey(level, level, "UTF-8")
+        val plan = incremental.plan(sourceDir, classesDir, JavaClassIncremental.buildKey(settingKey, classpath))
+        val compileCmd = arrayOf(
+            "-source", level, "-target", level,
+            "-d", classesDir.absolutePath,
+            "-classpath", classesDir.absolutePath, "-referenceInfo",
+            *plan.compileFiles.map { it.absolutePath }.toTypedArray()
+        )
+        val output = StringWriter()
+        val success = JavaClassCompileMain(PrintWriter(output), NoProgress(), incremental::record)
+            .compile(compileCmd)
+        assertTrue(output.toString(), success)
+        incremental.save()
+        return plan
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2016, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.sun.tools.javac.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+
+import com.sun.source.util.JavacTask;
+import com.sun.tools.javac.code.Kinds;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.PackageSymbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.compile.Annotate;
+import com.sun.tools.javac.compile.Check;
+import com.sun.tools.javac.compile.Enter;
+import com.sun.tools.javac.compile.LambdaToMethod;
+import com.sun.tools.javac.file.FSInfo;
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.main.JavaCompiler;
+import com.sun.tools.javac.main.Option;
+import com.sun.tools.javac.model.JavacElements;
+import com.sun.tools.javac.model.JavacTypes;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.Options;
+
+/**
+ * A pool of reusable JavacTasks. When a task is no longer used, its Context
+ * is cleaned and kept for the next task with the same options, so that the
+ * symbols read from the bootclasspath and classpath (Symtab, ClassReader),
+ * the Names table and the archives opened by the JavacFileManager survive
+ * between compilations. Only the per-compilation state (Log, Todo, the
+ * environments of Enter, the classes compiled from source) is reset.
+ *
+ * A context whose sources redefined a class of the platform or of a jar
+ * on the classpath is not reused, since the shared symbols may have been
+ * changed by that compilation. Nor is a context whose class path entries
+ * have changed on disk (a jar rebuilt at the same path): the entries are
+ * compared by length and last modification time, the contents of
+ * directories are not checked.
+ *
+ * Annotation processing creates a new context for each round, and is
+ * always disabled for pooled tasks.
+ *
+ * <p><b>This is NOT part of any supported API.
+ * If you write code that depends on this, you do so at your own risk.
+ * This code and its internal interfaces are subject to change or
+ * deletion without notice.</b>
+ */
+public class JavacTaskPool {
+
+    private static final JavacTool systemProvider = JavacTool.create();
+
+    private final int maxPoolSize;
+    private final Map<java.util.List<String>, java.util.List<ReusableContext>> options2Contexts =
+            new HashMap<java.util.List<String>, java.util.List<ReusableContext>>();
+    private int id;
+
+    private int statReused = 0;
+    private int statNew = 0;
+    private int statPolluted = 0;
+    private int statRemoved = 0;
+
+    /** Creates the pool.
+     *
+     * @param maxPoolSize maximum number of contexts to cache
+     */
+    public JavacTaskPool(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /** Creates a new task, with a context reused from the pool when one was
+     * kept for the same options, and runs the worker with it. The task must
+     * not be used after the worker returns.
+     *
+     * @param out a Writer for additional output from the compiler;
+     * use {@code System.err} if {@code null}
+     * @param diagnosticListener a diagnostic listener; if {@code
+     * null} use the compiler's default method for reporting
+     * diagnostics
+     * @param options compiler options, {@code null} means no options;
+     * {@code -proc:none} is always added
+     * @param files the source files to compile
+     * @param worker that should be run with the task
+     * @return an object representing the compilation result
+     */
+    public <Z> Z getTask(Writer out,
+                         DiagnosticListener<? super JavaFileObject> diagnosticListener,
+                         Iterable<String> options,
+                         Iterable<? extends File> files,
+                         Worker<Z> worker) {
+        java.util.List<String> opts = new ArrayList<String>();
+        if (options != null) {
+            for (String option : options)
+                opts.add(option);
+        }
+        if (!opts.contains("-proc:none"))
+            opts.add("-proc:none");
+        String signature = classPathSignature(opts);
+
+        ReusableContext ctx;
+        synchronized (this) {
+            java.util.List<ReusableContext> cached = options2Contexts.get(opts);
+            if (cached != null) {
+                //the symbols and archives read by these contexts are stale
+                for (java.util.Iterator<ReusableContext> it = cached.iterator(); it.hasNext(); ) {
+                    ReusableContext c = it.next();
+                    if (!c.signature.equals(signature)) {
+                        it.remove();
+                        c.close();
+                        statRemoved++;
+                    }
+                }
+            }
+            if (cached == null || cached.isEmpty()) {
+                ctx = new ReusableContext(opts, signature);
+                statNew++;
+            } else {
+                ctx = cached.remove(0);
+                statReused++;
+            }
+        }
+
+        ctx.useCount++;
+        Z result;
+        try {
+            JavacTaskImpl task = (JavacTaskImpl) systemProvider.getTask(out, ctx.fileManager,
+                    diagnosticListener, opts, null,
+                    ctx.fileManager.getJavaFileObjectsFromFiles(files), ctx);
+            Log.instance(ctx).newRound(ctx);
+            result = worker.withTask(task);
+        } catch (RuntimeException ex) {
+            //not returning the context to the pool if task crashes with an exception
+            //the task/context may be in a broken state
+            ctx.close();
+            throw ex;
+        } catch (Error ex) {
+            ctx.close();
+            throw ex;
+        }
+
+        ctx.newRound();
+        if (ctx.polluted) {
+            statPolluted++;
+            ctx.close();
+        } else {
+            synchronized (this) {
+                while (cacheSize() + 1 > maxPoolSize) {
+                    ReusableContext toRemove = null;
+                    for (java.util.List<ReusableContext> contexts : options2Contexts.values()) {
+                        for (ReusableContext c : contexts) {
+                            if (toRemove == null || c.timeStamp < toRemove.timeStamp)
+                                toRemove = c;
+                        }
+                    }
+                    if (toRemove == null)
+                        break;
+                    options2Contexts.get(toRemove.arguments).remove(toRemove);
+                    toRemove.close();
+                    statRemoved++;
+                }
+                if (maxPoolSize > 0) {
+                    java.util.List<ReusableContext> contexts = options2Contexts.get(ctx.arguments);
+                    if (contexts == null)
+                        options2Contexts.put(ctx.arguments, contexts = new ArrayList<ReusableContext>());
+                    contexts.add(ctx);
+                    ctx.timeStamp = id++;
+                } else {
+                    ctx.close();
+                }
+            }
+        }
+        return result;
+    }
+    //where:
+        private long cacheSize() {
+            long size = 0;
+            for (java.util.List<ReusableContext> contexts : options2Contexts.values())
+                size += contexts.size();
+            return size;
+        }
+
+        /** Returns the length and the last modification time of each entry
+         * of the class paths given in the options; the jars in the
+         * extension and endorsed directories are included.
+         */
+        static String classPathSignature(java.util.List<String> options) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < options.size(); i++) {
+                String arg = options.get(i);
+                String path = null;
+                boolean dirs = false;
+                for (Option o : CLASS_PATH_OPTIONS) {
+                    if (!o.matches(arg))
+                        continue;
+                    if (o.hasArg())
+                        path = (i + 1 < options.size()) ? options.get(++i) : null;
+                    else
+                        path = arg.substring(o.text.length());
+                    dirs = (o == Option.EXTDIRS || o == Option.DJAVA_EXT_DIRS ||
+                            o == Option.ENDORSEDDIRS || o == Option.DJAVA_ENDORSED_DIRS);
+                    break;
+                }
+                if (path == null)
+                    continue;
+                for (String entry : path.split(File.pathSeparator)) {
+                    if (entry.isEmpty())
+                        continue;
+                    File file = new File(entry);
+                    File[] jars = dirs ? file.listFiles() : null;
+                    if (jars == null) {
+                        appendSignature(sb, file);
+                    } else {
+                        Arrays.sort(jars);
+                        for (File jar : jars)
+                            appendSignature(sb, jar);
+                    }
+                }
+            }
+            return sb.toString();
+        }
+
+        private static void appendSignature(StringBuilder sb, File file) {
+            sb.append(file.getPath())
+                    .append(':').append(file.length())
+                    .append(':').append(file.lastModified())
+                    .append('\n');
+        }
+
+        private static final Option[] CLASS_PATH_OPTIONS = {
+            Option.CLASSPATH, Option.CP, Option.BOOTCLASSPATH,
+            Option.XBOOTCLASSPATH_PREPEND, Option.XBOOTCLASSPATH_APPEND, Option.XBOOTCLASSPATH,
+            Option.EXTDIRS, Option.DJAVA_EXT_DIRS, Option.ENDORSEDDIRS, Option.DJAVA_ENDORSED_DIRS
+        };
+
+    /** Releases all the cached contexts. */
+    public synchronized void clear() {
+        for (java.util.List<ReusableContext> contexts : options2Contexts.values()) {
+            for (ReusableContext c : contexts)
+                c.close();
+        }
+        options2Contexts.clear();
+    }
+
+    public interface Worker<Z> {
+        public Z withTask(JavacTask task);
+    }
+
+    public synchronized String statistics() {
+        return "statReused: " + statReused +
+                ", statNew: " + statNew +
+                ", statPolluted: " + statPolluted +
+                ", statRemoved: " + statRemoved;
+    }
+
+    static class ReusableContext extends Context {
+
+        final java.util.List<String> arguments;
+        final String signature;
+        final JavacFileManager fileManager;
+        boolean polluted = false;
+
+        int useCount;
+        long timeStamp;
+
+        ReusableContext(java.util.List<String> arguments, String signature) {
+            super();
+            this.arguments = arguments;
+            this.signature = signature;
+            this.fileManager = createFileManager(arguments);
+            ReusableJavaCompiler.preRegister(this);
+        }
+
+        /** Creates the file manager shared by the tasks of this context.
+         * The file manager has a context of its own and never sees the task
+         * options, so the hidden options it reads (-XDusezipindex,
+         * -XDcachezipindexdir, ...) are copied into its options here.
+         */
+        private static JavacFileManager createFileManager(java.util.List<String> arguments) {
+            Context fmContext = new Context();
+            fmContext.put(Locale.class, (Locale) null);
+            fmContext.put(Log.outKey, new PrintWriter(System.err, true));
+            Options fmOptions = Options.instance(fmContext);
+            for (String arg : arguments) {
+                if (Option.XD.matches(arg)) {
+                    String option = arg.substring(Option.XD.text.length());
+                    int eq = option.indexOf('=');
+                    String key = (eq < 0) ? option : option.substring(0, eq);
+                    String value = (eq < 0) ? option : option.substring(eq + 1);
+                    fmOptions.put(key, value);
+                }
+            }
+            return new JavacFileManager(fmContext, true, null);
+        }
+
+        /** Drops the values bound to the finished task and resets the
+         * per-compilation state of the shared components.
+         */
+        void newRound() {
+            drop(DiagnosticListener.class);
+            drop(Log.outKey);
+            drop(JavaFileManager.class);
+            drop(JavacTask.class);
+            drop(Locale.class);
+            drop(FSInfo.class);
+            drop(JavacTrees.class);
+            drop(JavacElements.class);
+            drop(JavacTypes.class);
+
+            //forget the classes compiled from source (Check records all of
+            //them, including the member and local classes that Lower removes
+            //from the trees), and find if any of them has redefined a class
+            //read from the platform or a jar
+            Symtab syms = Symtab.instance(this);
+            Check chk = Check.instance(this);
+            for (ClassSymbol c : chk.compiled.values())
+                forget(syms, c);
+
+            ((ReusableJavaCompiler) JavaCompiler.instance(this)).clear();
+            Enter.instance(this).newRound();
+            Types.instance(this).newRound();
+            chk.newRound();
+            Annotate.instance(this).newRound();
+            LambdaToMethod.instance(this).newRound();
+            MultiTaskListener.instance(this).clear();
+        }
+        //where:
+            private void forget(Symtab syms, ClassSymbol c) {
+                if (c.flatname.toString().startsWith("java.") ||
+                        (c.classfile != null && c.classfile.getKind() != JavaFileObject.Kind.SOURCE)) {
+                    polluted = true;
+                }
+                if (syms.classes.get(c.flatname) == c)
+                    syms.classes.remove(c.flatname);
+                if (c.owner != null && c.owner.kind == Kinds.PCK) {
+                    PackageSymbol p = (PackageSymbol) c.owner;
+                    if (p.members_field != null && p.members_field.lookup(c.name).sym == c)
+                        p.members_field.remove(c);
+                    if (p.package_info == c)
+                        p.package_info = null;
+                }
+            }
+
+        void close() {
+            fileManager.close();
+        }
+    }
+
+    static class ReusableJavaCompiler extends JavaCompiler {
+
+        static void preRegister(Context context) {
+            context.put(compilerKey, new Context.Factory<JavaCompiler>() {
+                public JavaCompiler make(Context c) {
+                    return new ReusableJavaCompiler(c);
+                }
+            });
+        }
+
+        ReusableJavaCompiler(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void close(boolean disposeNames) {
+            //keep the shared components, only flush the output
+            log.flush();
+            try {
+                fileManager.flush();
+            } catch (IOException ex) {
+                // ignore, reported again by the next compilation
+            }
+        }
+
+        @Override
+        protected void checkReusable() {
+            //do nothing - it's ok to reuse the compiler
+        }
+
+        void clear() {
+            newRound();
+        }
+    }
+}
@@ -95,6 +95,10 @@ public class MultiTaskListener implements TaskListener {
         }
     }
 
+    public void clear() {
+        listeners = new TaskListener[0];
+    }
+
     @Override
     public void started(TaskEvent e) {
         // guard against listeners being updated by a listener
@@ -119,6 +119,31 @@ public class Types {
         functionDescriptorLookupError = new FunctionDescriptorLookupError();
         noWarnings = new Warner(null);
     }
+
+    /** Creates a Types sharing the components of the given one, with its
+     *  own visitors and caches, so that it can be used by another thread.
+     */
+    protected Types(Types types) {
+        syms = types.syms;
+        names = types.names;
+        allowBoxing = types.allowBoxing;
+        allowCovariantReturns = types.allowCovariantReturns;
+        allowObjectToPrimitiveCast = types.allowObjectToPrimitiveCast;
+        reader = types.reader;
+        chk = types.chk;
+        enter = types.enter;
+        capturedName = types.capturedName;
+        messages = types.messages;
+        diags = types.diags;
+        functionDescriptorLookupError = new FunctionDescriptorLookupError();
+        noWarnings = new Warner(null);
+    }
+
+    /** A Types for another thread, see {@link #Types(Types)}.
+     */
+    public Types forThread() {
+        return new Types(this);
+    }
     // </editor-fold>
 
      // <editor-fold defaultstate="collapsed" desc="bounds">
@@ -548,6 +573,18 @@ public class Types {
 
     private DescriptorCache descCache = new DescriptorCache();
 
+    /**
+     * Clear the caches holding symbols of the previous compilation, when
+     * the context is reused.
+     */
+    public void newRound() {
+        descCache._map.clear();
+        isDerivedRawCache.clear();
+        implCache._map.clear();
+        membersCache._map.clear();
+        closureCache.clear();
+    }
+
     /**
      * Find the method descriptor associated to this class symbol - if the
      * symbol 'origin' is not a functional interface, an exception is thrown.
@@ -117,6 +117,17 @@ public class Annotate {
         validateQ.append(a);
     }
 
+    /** Drop the work left over by an aborted compilation, when the
+     *  context is reused. */
+    public void newRound() {
+        enterCount = 0;
+        q.clear();
+        typesQ.clear();
+        repeatedQ.clear();
+        afterRepeatedQ.clear();
+        validateQ.clear();
+    }
+
     /** Called when the Enter phase starts. */
     public void enterStart() {
         enterCount++;
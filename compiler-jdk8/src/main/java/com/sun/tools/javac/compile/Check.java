@@ -195,6 +195,16 @@ public class Check {
      */
     public Map<Name,ClassSymbol> compiled = new HashMap<Name, ClassSymbol>();
 
+    /** Forget the classes compiled by the previous compilation and its
+     *  deferred mandatory warnings, when the context is reused.
+     */
+    public void newRound() {
+        compiled.clear();
+        deprecationHandler.clear();
+        uncheckedHandler.clear();
+        sunApiHandler.clear();
+    }
+
     /** A handler for messages about deprecated usage.
      */
     private MandatoryWarningHandler deprecationHandler;
@@ -145,6 +145,14 @@ public class Enter extends JCTree.Visitor {
         typeEnvs = TypeEnvs.instance(context);
     }
 
+    /** Forget the environments of the classes entered by the previous
+     *  compilation, when the context is reused.
+     */
+    public void newRound() {
+        typeEnvs.clear();
+        uncompleted = null;
+    }
+
     /** Accessor for typeEnvs
      */
     public Env<AttrContext> getEnv(TypeSymbol sym) {
@@ -215,6 +215,14 @@ public class LambdaToMethod extends TreeTranslator {
     }
     // </editor-fold>
 
+    /** Restart the numbering of the lambda methods, when the context is
+     *  reused; the same sources then yield the same lambda method names
+     *  as in a fresh compiler.
+     */
+    public void newRound() {
+        analyzer = new LambdaAnalyzerPreprocessor();
+    }
+
     private class KlassInfo {
 
         /**
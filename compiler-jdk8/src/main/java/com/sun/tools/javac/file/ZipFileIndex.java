@@ -28,6 +28,7 @@ package com.sun.tools.javac.file;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.ref.Reference;
@@ -41,6 +42,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 import java.util.zip.ZipException;
@@ -67,6 +71,12 @@ import com.sun.tools.javac.file.RelativePath.RelativeFile;
  * file created for each archive, used by the compiler for compilation, at the
  * location specified by the "cachezipindexdir" option.
  *
+ * The index file holds the sorted directories and entries of the archive in
+ * fixed size records, and is memory mapped and searched in place (see
+ * {@link IndexFile}), so that reading it does not rebuild the directory maps.
+ * It is used only if the path, length, last modified time and the checksum of
+ * the end of the archive match the ones recorded when it was written.
+ *
  * If system property nonBatchMode option is specified the compiler will use
  * timestamp checking to reindex the zip files if it is needed. In batch mode
  * the timestamps are not checked and the compiler uses the cached indexes.
@@ -97,7 +107,8 @@ public class ZipFileIndex {
     private RandomAccessFile zipRandomFile;
     private Entry[] entries;
 
-    private boolean readFromIndex = false;
+    private IndexFile indexFile = null;
+    private boolean indexWritten = false;
     private File zipIndexFile = null;
     private boolean triedToReadIndex = false;
     final RelativeDirectory symbolFilePrefix;
@@ -183,6 +194,8 @@ public class ZipFileIndex {
 
         directories = Collections.<RelativeDirectory, DirectoryEntry>emptyMap();
         allDirs = Collections.<RelativeDirectory>emptySet();
+        indexFile = null;
+        indexWritten = false;
 
         try {
             openFile();
@@ -195,6 +208,9 @@ public class ZipFileIndex {
             }
         }
 
+        // write the index now, the archive may stay open until the VM exits
+        writeIndex();
+
         lastReferenceTimeStamp = System.currentTimeMillis();
     }
 
@@ -208,6 +224,7 @@ public class ZipFileIndex {
         // Make sure there is a valid but empty index if the file doesn't exist
         entries = Entry.EMPTY_ARRAY;
         directories = Collections.<RelativeDirectory, DirectoryEntry>emptyMap();
+        indexFile = null;
         zipFileLastModified = NOT_MODIFIED;
         allDirs = Collections.<RelativeDirectory>emptySet();
     }
@@ -233,6 +250,8 @@ public class ZipFileIndex {
     synchronized Entry getZipIndexEntry(RelativePath path) {
         try {
             checkIndex();
+            if (indexFile != null)
+                return indexFile.getEntry(path);
             DirectoryEntry de = directories.get(path.dirname());
             String lookFor = path.basename();
             return (de == null) ? null : de.getEntry(lookFor);
@@ -248,6 +267,8 @@ public class ZipFileIndex {
     public synchronized com.sun.tools.javac.util.List<String> getFiles(RelativeDirectory path) {
         try {
             checkIndex();
+            if (indexFile != null)
+                return indexFile.getFiles(path, false);
 
             DirectoryEntry de = directories.get(path);
             com.sun.tools.javac.util.List<String> ret = de == null ? null : de.getFiles();
@@ -265,6 +286,8 @@ public class ZipFileIndex {
     public synchronized List<String> getDirectories(RelativeDirectory path) {
         try {
             checkIndex();
+            if (indexFile != null)
+                return indexFile.getFiles(path, true);
 
             DirectoryEntry de = directories.get(path);
             com.sun.tools.javac.util.List<String> ret = de == null ? null : de.getDirectories();
@@ -284,7 +307,10 @@ public class ZipFileIndex {
         try {
             checkIndex();
             if (allDirs == Collections.EMPTY_SET) {
-                allDirs = new java.util.LinkedHashSet<RelativeDirectory>(directories.keySet());
+                if (indexFile != null)
+                    allDirs = indexFile.getAllDirectories();
+                else
+                    allDirs = new java.util.LinkedHashSet<RelativeDirectory>(directories.keySet());
             }
 
             return allDirs;
@@ -319,6 +345,8 @@ public class ZipFileIndex {
         }
 
         checkIndex();
+        if (indexFile != null)
+            return indexFile.findDirectory(path.getPath()) >= 0;
         return directories.get(path) != null;
     }
 
@@ -700,8 +728,6 @@ public class ZipFileIndex {
         private boolean zipFileEntriesInited;
         private boolean entriesInited;
 
-        private long writtenOffsetOffset = 0;
-
         private RelativeDirectory dirName;
 
         private com.sun.tools.javac.util.List<String> zipFileEntriesFiles = com.sun.tools.javac.util.List.<String>nil();
@@ -712,8 +738,6 @@ public class ZipFileIndex {
 
         private ZipFileIndex zipFileIndex;
 
-        private int numEntries;
-
         DirectoryEntry(RelativeDirectory dirName, ZipFileIndex index) {
             filesInited = false;
             directoriesInited = false;
@@ -776,65 +800,13 @@ public class ZipFileIndex {
                 return;
             }
 
-            if (!zipFileIndex.readFromIndex) {
-                int from = -Arrays.binarySearch(zipFileIndex.entries,
-                        new Entry(dirName, ZipFileIndex.MIN_CHAR)) - 1;
-                int to = -Arrays.binarySearch(zipFileIndex.entries,
-                        new Entry(dirName, MAX_CHAR)) - 1;
+            int from = -Arrays.binarySearch(zipFileIndex.entries,
+                    new Entry(dirName, ZipFileIndex.MIN_CHAR)) - 1;
+            int to = -Arrays.binarySearch(zipFileIndex.entries,
+                    new Entry(dirName, MAX_CHAR)) - 1;
 
-                for (int i = from; i < to; i++) {
-                    entries.add(zipFileIndex.entries[i]);
-                }
-            } else {
-                File indexFile = zipFileIndex.getIndexFile();
-                if (indexFile != null) {
-                    RandomAccessFile raf = null;
-                    try {
-                        raf = new RandomAccessFile(indexFile, "r");
-                        raf.seek(writtenOffsetOffset);
-
-                        for (int nFiles = 0; nFiles < numEntries; nFiles++) {
-                            // Read the name bytes
-                            int zfieNameBytesLen = raf.readInt();
-                            byte [] zfieNameBytes = new byte[zfieNameBytesLen];
-                            raf.read(zfieNameBytes);
-                            String eName = new String(zfieNameBytes, "UTF-8");
-
-                            // Read isDir
-                            boolean eIsDir = raf.readByte() == (byte)0 ? false : true;
-
-                            // Read offset of bytes in the real Jar/Zip file
-                            int eOffset = raf.readInt();
-
-                            // Read size of the file in the real Jar/Zip file
-                            int eSize = raf.readInt();
-
-                            // Read compressed size of the file in the real Jar/Zip file
-                            int eCsize = raf.readInt();
-
-                            // Read java time stamp of the file in the real Jar/Zip file
-                            long eJavaTimestamp = raf.readLong();
-
-                            Entry rfie = new Entry(dirName, eName);
-                            rfie.isDir = eIsDir;
-                            rfie.offset = eOffset;
-                            rfie.size = eSize;
-                            rfie.compressedSize = eCsize;
-                            rfie.javatime = eJavaTimestamp;
-                            entries.add(rfie);
-                        }
-                    } catch (Throwable t) {
-                        // Do nothing
-                    } finally {
-                        try {
-                            if (raf != null) {
-                                raf.close();
-                            }
-                        } catch (Throwable t) {
-                            // Do nothing
-                        }
-                    }
-                }
+            for (int i = from; i < to; i++) {
+                entries.add(zipFileIndex.entries[i]);
             }
 
             entriesInited = true;
@@ -852,56 +824,29 @@ public class ZipFileIndex {
             return false;
         }
 
-        boolean ret = false;
         synchronized (this) {
             triedToReadIndex = true;
-            RandomAccessFile raf = null;
             try {
                 File indexFileName = getIndexFile();
-                raf = new RandomAccessFile(indexFileName, "r");
-
-                long fileStamp = raf.readLong();
-                if (zipFile.lastModified() != fileStamp) {
-                    ret = false;
-                } else {
-                    directories = new LinkedHashMap<RelativeDirectory, DirectoryEntry>();
-                    int numDirs = raf.readInt();
-                    for (int nDirs = 0; nDirs < numDirs; nDirs++) {
-                        int dirNameBytesLen = raf.readInt();
-                        byte [] dirNameBytes = new byte[dirNameBytesLen];
-                        raf.read(dirNameBytes);
-
-                        RelativeDirectory dirNameStr = getRelativeDirectory(new String(dirNameBytes, "UTF-8"));
-                        DirectoryEntry de = new DirectoryEntry(dirNameStr, this);
-                        de.numEntries = raf.readInt();
-                        de.writtenOffsetOffset = raf.readLong();
-                        directories.put(dirNameStr, de);
-                    }
-                    ret = true;
-                    zipFileLastModified = fileStamp;
-                }
+                if (indexFileName == null || !indexFileName.exists())
+                    return false;
+                indexFile = IndexFile.open(indexFileName, this);
             } catch (Throwable t) {
-                // Do nothing
-            } finally {
-                if (raf != null) {
-                    try {
-                        raf.close();
-                    } catch (Throwable tt) {
-                        // Do nothing
-                    }
-                }
-            }
-            if (ret == true) {
-                readFromIndex = true;
+                // Do nothing, the index is built from the zip file
+                indexFile = null;
             }
+            if (indexFile == null)
+                return false;
+            entries = Entry.EMPTY_ARRAY;
+            directories = Collections.<RelativeDirectory, DirectoryEntry>emptyMap();
+            allDirs = Collections.<RelativeDirectory>emptySet();
+            indexWritten = true;
         }
-
-        return ret;
+        return true;
     }
 
     private boolean writeIndex() {
-        boolean ret = false;
-        if (readFromIndex || !usePreindexedCache) {
+        if (indexFile != null || indexWritten || !usePreindexedCache) {
             return true;
         }
 
@@ -909,106 +854,19 @@ public class ZipFileIndex {
             return true;
         }
 
-        File indexFile = getIndexFile();
-        if (indexFile == null) {
+        File indexFileName = getIndexFile();
+        if (indexFileName == null) {
             return false;
         }
 
-        RandomAccessFile raf = null;
-        long writtenSoFar = 0;
         try {
-            raf = new RandomAccessFile(indexFile, "rw");
-
-            raf.writeLong(zipFileLastModified);
-            writtenSoFar += 8;
-
-            List<DirectoryEntry> directoriesToWrite = new ArrayList<DirectoryEntry>();
-            Map<RelativeDirectory, Long> offsets = new HashMap<RelativeDirectory, Long>();
-            raf.writeInt(directories.keySet().size());
-            writtenSoFar += 4;
-
-            for (RelativeDirectory dirName: directories.keySet()) {
-                DirectoryEntry dirEntry = directories.get(dirName);
-
-                directoriesToWrite.add(dirEntry);
-
-                // Write the dir name bytes
-                byte [] dirNameBytes = dirName.getPath().getBytes("UTF-8");
-                int dirNameBytesLen = dirNameBytes.length;
-                raf.writeInt(dirNameBytesLen);
-                writtenSoFar += 4;
-
-                raf.write(dirNameBytes);
-                writtenSoFar += dirNameBytesLen;
-
-                // Write the number of files in the dir
-                List<Entry> dirEntries = dirEntry.getEntriesAsCollection();
-                raf.writeInt(dirEntries.size());
-                writtenSoFar += 4;
-
-                offsets.put(dirName, new Long(writtenSoFar));
-
-                // Write the offset of the file's data in the dir
-                dirEntry.writtenOffsetOffset = 0L;
-                raf.writeLong(0L);
-                writtenSoFar += 8;
-            }
-
-            for (DirectoryEntry de : directoriesToWrite) {
-                // Fix up the offset in the directory table
-                long currFP = raf.getFilePointer();
-
-                long offsetOffset = offsets.get(de.dirName).longValue();
-                raf.seek(offsetOffset);
-                raf.writeLong(writtenSoFar);
-
-                raf.seek(currFP);
-
-                // Now write each of the files in the DirectoryEntry
-                List<Entry> list = de.getEntriesAsCollection();
-                for (Entry zfie : list) {
-                    // Write the name bytes
-                    byte [] zfieNameBytes = zfie.name.getBytes("UTF-8");
-                    int zfieNameBytesLen = zfieNameBytes.length;
-                    raf.writeInt(zfieNameBytesLen);
-                    writtenSoFar += 4;
-                    raf.write(zfieNameBytes);
-                    writtenSoFar += zfieNameBytesLen;
-
-                    // Write isDir
-                    raf.writeByte(zfie.isDir ? (byte)1 : (byte)0);
-                    writtenSoFar += 1;
-
-                    // Write offset of bytes in the real Jar/Zip file
-                    raf.writeInt(zfie.offset);
-                    writtenSoFar += 4;
-
-                    // Write size of the file in the real Jar/Zip file
-                    raf.writeInt(zfie.size);
-                    writtenSoFar += 4;
-
-                    // Write compressed size of the file in the real Jar/Zip file
-                    raf.writeInt(zfie.compressedSize);
-                    writtenSoFar += 4;
-
-                    // Write java time stamp of the file in the real Jar/Zip file
-                    raf.writeLong(zfie.getLastModified());
-                    writtenSoFar += 8;
-                }
-            }
-        } catch (Throwable t) {
-            // Do nothing
-        } finally {
-            try {
-                if (raf != null) {
-                    raf.close();
-                }
-            } catch(IOException ioe) {
-                // Do nothing
-            }
+            IndexFile.write(indexFileName, this);
+            indexWritten = true;
+        } catch (IOException e) {
+            // Do nothing, the index is written again the next time
         }
 
-        return ret;
+        return indexWritten;
     }
 
     public boolean writeZipIndex() {
@@ -1023,8 +881,10 @@ public class ZipFileIndex {
                 return null;
             }
 
+            // archives with the same name in different directories get different index files
             zipIndexFile = new File((preindexedCacheLocation == null ? "" : preindexedCacheLocation) +
-                    zipFile.getName() + ".index");
+                    zipFile.getName() + "." +
+                    Integer.toHexString(getAbsoluteFile().getPath().hashCode()) + ".index");
         }
 
         return zipIndexFile;
@@ -1056,6 +916,375 @@ public class ZipFileIndex {
         return rd;
     }
 
+    /* ----------------------------------------------------------------------------
+     * IndexFile
+     * ----------------------------------------------------------------------------*/
+
+    /**
+     * A memory mapped index of a zip archive. The names are kept as UTF-8 bytes,
+     * and the directories, and the entries of each directory, are sorted by the
+     * unsigned value of these bytes, so a lookup is a binary search on the
+     * mapped buffer which creates only the objects it returns.
+     *
+     * <pre>
+     *   header:    magic, version, zip length, zip last modified, checksum,
+     *              key offset, key length, directory count, entry count
+     *   directory: name offset, name length, first entry, entry count
+     *   entry:     name offset, name length, flags, offset, size,
+     *              compressed size, dos time
+     *   names:     UTF-8 bytes of the key and of all the names
+     * </pre>
+     *
+     * The key is the absolute path of the archive followed by the symbol file
+     * prefix; the checksum is a CRC-32 of the end of the archive, which holds
+     * its central directory.
+     */
+    static class IndexFile {
+        private static final int MAGIC = 0x4A5A4958; // "JZIX"
+        private static final int VERSION = 2;
+
+        private static final int HEADER_SIZE = 48;
+        private static final int DIR_SIZE = 16;
+        private static final int ENTRY_SIZE = 28;
+        private static final int FLAG_DIR = 1;
+
+        private static final int CHECKSUM_LENGTH = 64 * 1024;
+
+        private final ZipFileIndex zipFileIndex;
+        private final ByteBuffer buffer;
+        private final int dirCount;
+        private final int entryTable;
+
+        // the lists returned by getFiles, by directory
+        private final Object[] fileLists;
+        private final Object[] dirLists;
+
+        private IndexFile(ZipFileIndex zipFileIndex, ByteBuffer buffer) {
+            this.zipFileIndex = zipFileIndex;
+            this.buffer = buffer;
+            this.dirCount = buffer.getInt(40);
+            this.entryTable = HEADER_SIZE + dirCount * DIR_SIZE;
+            this.fileLists = new Object[dirCount];
+            this.dirLists = new Object[dirCount];
+        }
+
+        /**
+         * Maps an index file, or returns null if it was not written for the
+         * current content of the archive.
+         */
+        static IndexFile open(File indexFile, ZipFileIndex index) throws IOException {
+            ByteBuffer buffer;
+            RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+
+            if (buffer.limit() < HEADER_SIZE
+                    || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != VERSION
+                    || buffer.getLong(8) != index.zipFile.length()
+                    || buffer.getLong(16) != index.zipFileLastModified) {
+                return null;
+            }
+
+            long namesStart = HEADER_SIZE + (long) buffer.getInt(40) * DIR_SIZE
+                    + (long) buffer.getInt(44) * ENTRY_SIZE;
+            byte[] key = key(index);
+            int keyOffset = buffer.getInt(32);
+            if (namesStart > buffer.limit()
+                    || keyOffset < namesStart
+                    || (long) keyOffset + key.length > buffer.limit()
+                    || buffer.getInt(36) != key.length
+                    || compare(buffer, keyOffset, key.length, key) != 0) {
+                return null;
+            }
+
+            // last, since it reads the archive
+            if (buffer.getLong(24) != checksum(index.zipFile)) {
+                return null;
+            }
+            return new IndexFile(index, buffer);
+        }
+
+        /**
+         * Returns the index of a directory, or -1.
+         */
+        int findDirectory(String path) {
+            byte[] name = utf8(path);
+            int low = 0;
+            int high = dirCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int rec = HEADER_SIZE + mid * DIR_SIZE;
+                int c = compare(buffer, buffer.getInt(rec), buffer.getInt(rec + 4), name);
+                if (c < 0)
+                    low = mid + 1;
+                else if (c > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the index of an entry of a directory, or -1.
+         */
+        private int findEntry(int dir, String fileName) {
+            byte[] name = utf8(fileName);
+            int rec = HEADER_SIZE + dir * DIR_SIZE;
+            int low = buffer.getInt(rec + 8);
+            int high = low + buffer.getInt(rec + 12) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int e = entryTable + mid * ENTRY_SIZE;
+                int c = compare(buffer, buffer.getInt(e), buffer.getInt(e + 4), name);
+                if (c < 0)
+                    low = mid + 1;
+                else if (c > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        Entry getEntry(RelativePath path) {
+            RelativeDirectory dirname = path.dirname();
+            int dir = findDirectory(dirname.getPath());
+            if (dir < 0)
+                return null;
+            String fileName = path.basename();
+            int index = findEntry(dir, fileName);
+            if (index < 0)
+                return null;
+
+            int e = entryTable + index * ENTRY_SIZE;
+            Entry entry = new Entry(dirname, fileName);
+            entry.isDir = (buffer.getInt(e + 8) & FLAG_DIR) != 0;
+            entry.offset = buffer.getInt(e + 12);
+            entry.size = buffer.getInt(e + 16);
+            entry.compressedSize = buffer.getInt(e + 20);
+            entry.setNativeTime(buffer.getInt(e + 24));
+            return entry;
+        }
+
+        /**
+         * Returns the names of the files, or of the subdirectories, of a directory.
+         */
+        @SuppressWarnings("unchecked")
+        com.sun.tools.javac.util.List<String> getFiles(RelativeDirectory path, boolean directories) {
+            int dir = findDirectory(path.getPath());
+            if (dir < 0)
+                return com.sun.tools.javac.util.List.<String>nil();
+
+            Object[] lists = directories ? dirLists : fileLists;
+            if (lists[dir] == null) {
+                com.sun.tools.javac.util.ListBuffer<String> names =
+                        new com.sun.tools.javac.util.ListBuffer<String>();
+                int rec = HEADER_SIZE + dir * DIR_SIZE;
+                int first = buffer.getInt(rec + 8);
+                int count = buffer.getInt(rec + 12);
+                for (int i = first; i < first + count; i++) {
+                    int e = entryTable + i * ENTRY_SIZE;
+                    if (((buffer.getInt(e + 8) & FLAG_DIR) != 0) == directories)
+                        names.append(string(buffer.getInt(e), buffer.getInt(e + 4)));
+                }
+                lists[dir] = names.toList();
+            }
+            return (com.sun.tools.javac.util.List<String>) lists[dir];
+        }
+
+        Set<RelativeDirectory> getAllDirectories() {
+            Set<RelativeDirectory> dirs = new java.util.LinkedHashSet<RelativeDirectory>();
+            for (int i = 0; i < dirCount; i++) {
+                int rec = HEADER_SIZE + i * DIR_SIZE;
+                dirs.add(zipFileIndex.getRelativeDirectory(string(buffer.getInt(rec), buffer.getInt(rec + 4))));
+            }
+            return dirs;
+        }
+
+        private String string(int offset, int length) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++)
+                bytes[i] = buffer.get(offset + i);
+            try {
+                return new String(bytes, "UTF-8");
+            } catch (java.io.UnsupportedEncodingException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+
+        /**
+         * Writes the index of an archive which has been read from its central
+         * directory. The file is written aside and then renamed, so that
+         * another compiler never maps a partially written index.
+         */
+        static void write(File indexFile, ZipFileIndex index) throws IOException {
+            // sort the directories and their entries by their UTF-8 names
+            List<Sorted<DirectoryEntry>> dirs = new ArrayList<Sorted<DirectoryEntry>>();
+            for (Map.Entry<RelativeDirectory, DirectoryEntry> e : index.directories.entrySet())
+                dirs.add(new Sorted<DirectoryEntry>(utf8(e.getKey().getPath()), e.getValue()));
+            Collections.sort(dirs);
+
+            List<List<Sorted<Entry>>> dirEntries = new ArrayList<List<Sorted<Entry>>>();
+            byte[] key = key(index);
+            int namesLength = key.length;
+            int entryCount = 0;
+            for (Sorted<DirectoryEntry> dir : dirs) {
+                List<Sorted<Entry>> entries = new ArrayList<Sorted<Entry>>();
+                for (Entry entry : dir.value.getEntriesAsCollection())
+                    entries.add(new Sorted<Entry>(utf8(entry.name), entry));
+                Collections.sort(entries);
+                dirEntries.add(entries);
+
+                namesLength += dir.name.length;
+                for (Sorted<Entry> entry : entries)
+                    namesLength += entry.name.length;
+                entryCount += entries.size();
+            }
+
+            int entryTable = HEADER_SIZE + dirs.size() * DIR_SIZE;
+            int names = entryTable + entryCount * ENTRY_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate(names + namesLength);
+
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, index.zipFile.length());
+            buffer.putLong(16, index.zipFileLastModified);
+            buffer.putLong(24, checksum(index.zipFile));
+            buffer.putInt(32, names);
+            buffer.putInt(36, key.length);
+            buffer.putInt(40, dirs.size());
+            buffer.putInt(44, entryCount);
+
+            buffer.position(names);
+            buffer.put(key);
+
+            int entryIndex = 0;
+            for (int d = 0; d < dirs.size(); d++) {
+                Sorted<DirectoryEntry> dir = dirs.get(d);
+                List<Sorted<Entry>> entries = dirEntries.get(d);
+
+                int rec = HEADER_SIZE + d * DIR_SIZE;
+                buffer.putInt(rec, buffer.position());
+                buffer.putInt(rec + 4, dir.name.length);
+                buffer.putInt(rec + 8, entryIndex);
+                buffer.putInt(rec + 12, entries.size());
+                buffer.put(dir.name);
+
+                for (Sorted<Entry> sorted : entries) {
+                    Entry entry = sorted.value;
+                    int e = entryTable + entryIndex * ENTRY_SIZE;
+                    buffer.putInt(e, buffer.position());
+                    buffer.putInt(e + 4, sorted.name.length);
+                    buffer.putInt(e + 8, entry.isDir ? FLAG_DIR : 0);
+                    buffer.putInt(e + 12, entry.offset);
+                    buffer.putInt(e + 16, entry.size);
+                    buffer.putInt(e + 20, entry.compressedSize);
+                    buffer.putInt(e + 24, entry.nativetime);
+                    buffer.put(sorted.name);
+                    entryIndex++;
+                }
+            }
+
+            File dir = indexFile.getAbsoluteFile().getParentFile();
+            File tmp = File.createTempFile(indexFile.getName(), ".tmp", dir);
+            try {
+                FileOutputStream out = new FileOutputStream(tmp);
+                try {
+                    out.write(buffer.array());
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(indexFile)) {
+                    indexFile.delete();
+                    if (!tmp.renameTo(indexFile))
+                        throw new IOException("cannot write " + indexFile);
+                }
+            } finally {
+                tmp.delete();
+            }
+        }
+
+        private static byte[] key(ZipFileIndex index) throws IOException {
+            String prefix = (index.symbolFilePrefix == null ? "" : index.symbolFilePrefix.getPath());
+            return utf8(index.getAbsoluteFile().getPath() + "\n" + prefix);
+        }
+
+        /**
+         * Computes a CRC-32 of the last bytes of a file.
+         */
+        private static long checksum(File file) throws IOException {
+            CRC32 crc = new CRC32();
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                long length = raf.length();
+                long pos = Math.max(0, length - CHECKSUM_LENGTH);
+                byte[] buf = new byte[8192];
+                raf.seek(pos);
+                while (pos < length) {
+                    int n = raf.read(buf, 0, (int) Math.min(buf.length, length - pos));
+                    if (n < 0)
+                        break;
+                    crc.update(buf, 0, n);
+                    pos += n;
+                }
+            } finally {
+                raf.close();
+            }
+            return crc.getValue();
+        }
+
+        private static byte[] utf8(String s) {
+            try {
+                return s.getBytes("UTF-8");
+            } catch (java.io.UnsupportedEncodingException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+
+        /**
+         * Compares the bytes at offset in the buffer with a name, as unsigned values.
+         */
+        private static int compare(ByteBuffer buffer, int offset, int length, byte[] name) {
+            int n = Math.min(length, name.length);
+            for (int i = 0; i < n; i++) {
+                int c = (buffer.get(offset + i) & 0xFF) - (name[i] & 0xFF);
+                if (c != 0)
+                    return c;
+            }
+            return length - name.length;
+        }
+
+        private static int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (c != 0)
+                    return c;
+            }
+            return a.length - b.length;
+        }
+
+        private static class Sorted<T> implements Comparable<Sorted<T>> {
+            final byte[] name;
+            final T value;
+
+            Sorted(byte[] name, T value) {
+                this.name = name;
+                this.value = value;
+            }
+
+            public int compareTo(Sorted<T> other) {
+                return compare(name, other.name);
+            }
+        }
+    }
+
     static class Entry implements Comparable<Entry> {
         public static final Entry[] EMPTY_ARRAY = {};
 
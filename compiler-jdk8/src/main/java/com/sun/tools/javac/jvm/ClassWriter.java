@@ -204,6 +204,39 @@ public class ClassWriter extends ClassFile {
             (dumpModFlags != null && dumpModFlags.indexOf('m') != -1);
     }
 
+    /** Construct a class writer sharing the options of the given one, with
+     *  its own buffers, Types and Log, so that class files can be written on
+     *  another thread with {@link #writeClassFile}.
+     */
+    protected ClassWriter(ClassWriter writer, Types types, Log log) {
+        this.types = types;
+        this.log = log;
+        names = writer.names;
+        options = writer.options;
+        target = writer.target;
+        source = writer.source;
+        fileManager = writer.fileManager;
+        signatureGen = new CWSignatureGenerator(types);
+
+        verbose = writer.verbose;
+        scramble = writer.scramble;
+        scrambleAll = writer.scrambleAll;
+        retrofit = writer.retrofit;
+        genCrt = writer.genCrt;
+        debugstackmap = writer.debugstackmap;
+        emitSourceFile = writer.emitSourceFile;
+        dumpClassModifiers = writer.dumpClassModifiers;
+        dumpFieldModifiers = writer.dumpFieldModifiers;
+        dumpInnerClassModifiers = writer.dumpInnerClassModifiers;
+        dumpMethodModifiers = writer.dumpMethodModifiers;
+    }
+
+    /** A class writer for another thread, see {@link #ClassWriter(ClassWriter, Types, Log)}.
+     */
+    public ClassWriter forThread(Types types, Log log) {
+        return new ClassWriter(this, types, log);
+    }
+
 /******************************************************************
  * Diagnostics: dump generated class names and modifiers
  ******************************************************************/
@@ -1633,6 +1666,36 @@ public class ClassWriter extends ClassFile {
         return outFile; // may be null if write failed
     }
 
+    /** Emit a class file, whose contents were written by {@link #writeClassFile}.
+     *  @param c      The class.
+     *  @param bytes  The contents of the class file.
+     */
+    public JavaFileObject writeClass(ClassSymbol c, byte[] bytes)
+        throws IOException
+    {
+        JavaFileObject outFile
+            = fileManager.getJavaFileForOutput(CLASS_OUTPUT,
+                                               c.flatname.toString(),
+                                               JavaFileObject.Kind.CLASS,
+                                               c.sourcefile);
+        OutputStream out = outFile.openOutputStream();
+        try {
+            out.write(bytes);
+            if (verbose)
+                log.printVerbose("wrote.file", outFile);
+            out.close();
+            out = null;
+        } finally {
+            if (out != null) {
+                // if we are propagating an exception, delete the file
+                out.close();
+                outFile.delete();
+                outFile = null;
+            }
+        }
+        return outFile; // may be null if write failed
+    }
+
     /** Write class `c' to outstream `out'.
      */
     public void writeClassFile(OutputStream out, ClassSymbol c)
@@ -180,6 +180,57 @@ public class Gen extends JCTree.Visitor {
         this.useJsrLocally = false; // reset in visitTry
     }
 
+    /** Creates a code generator sharing the components of the given one,
+     *  with its own constant pool, Types and Log, so that classes can be
+     *  generated on another thread.
+     */
+    protected Gen(Gen gen, Types types, Log log) {
+        this.log = log;
+        this.types = types;
+        names = gen.names;
+        syms = gen.syms;
+        chk = gen.chk;
+        rs = gen.rs;
+        make = gen.make.forToplevel(null);
+        target = gen.target;
+        methodType = new MethodType(null, null, null, syms.methodClass);
+        allowGenerics = gen.allowGenerics;
+        stringBufferType = gen.stringBufferType;
+        stringBufferAppend = new HashMap<Type,Symbol>();
+        accessDollar = gen.accessDollar;
+        flow = gen.flow;
+        lower = gen.lower;
+        lineDebugInfo = gen.lineDebugInfo;
+        varDebugInfo = gen.varDebugInfo;
+        lvtRanges = gen.lvtRanges;
+        genCrt = gen.genCrt;
+        debugCode = gen.debugCode;
+        allowInvokedynamic = gen.allowInvokedynamic;
+        pool = new Pool(types);
+        typeAnnoAsserts = gen.typeAnnoAsserts;
+        generateIproxies = gen.generateIproxies;
+        stackMap = gen.stackMap;
+        jsrlimit = gen.jsrlimit;
+        useJsrLocally = false;
+    }
+
+    /** A code generator for another thread, see {@link #Gen(Gen, Types, Log)}.
+     *  The Resolve of the compiler is shared, and only used while holding
+     *  its lock.
+     */
+    public Gen forThread(Types types, Log log) {
+        return new Gen(this, types, log);
+    }
+
+    /** Can classes be generated by the code generators of other threads?
+     *  Not when local variable ranges are computed, since these are shared
+     *  with Flow, nor when Miranda methods are added, since these are
+     *  checked against the shared Types.
+     */
+    public boolean canGenerateInParallel() {
+        return !varDebugInfo && !generateIproxies;
+    }
+
     /** Switches
      */
     private final boolean lineDebugInfo;
@@ -297,9 +348,11 @@ public class Gen extends JCTree.Visitor {
             return sym;
         }
         if (!target.obeyBinaryCompatibility())
-            return rs.isAccessible(attrEnv, (TypeSymbol)sym.owner)
-                ? sym
-                : sym.clone(site.tsym);
+            synchronized (rs) {
+                return rs.isAccessible(attrEnv, (TypeSymbol)sym.owner)
+                    ? sym
+                    : sym.clone(site.tsym);
+            }
 
         if (!target.interfaceFieldsBinaryCompatibility()) {
             if ((sym.owner.flags() & INTERFACE) != 0 && sym.kind == VAR)
@@ -381,8 +434,10 @@ public class Gen extends JCTree.Visitor {
     void callMethod(DiagnosticPosition pos,
                     Type site, Name name, List<Type> argtypes,
                     boolean isStatic) {
-        Symbol msym = rs.
-            resolveInternalMethod(pos, attrEnv, site, name, argtypes, null);
+        Symbol msym;
+        synchronized (rs) {
+            msym = rs.resolveInternalMethod(pos, attrEnv, site, name, argtypes, null);
+        }
         if (isStatic) items.makeStaticItem(msym).invoke();
         else items.makeMemberItem(msym, name == names.init).invoke();
     }
@@ -2248,12 +2303,14 @@ public class Gen extends JCTree.Visitor {
             Assert.checkNull(t.constValue());
             Symbol method = stringBufferAppend.get(t);
             if (method == null) {
-                method = rs.resolveInternalMethod(tree.pos(),
-                                                  attrEnv,
-                                                  stringBufferType,
-                                                  names.append,
-                                                  List.of(t),
-                                                  null);
+                synchronized (rs) {
+                    method = rs.resolveInternalMethod(tree.pos(),
+                                                      attrEnv,
+                                                      stringBufferType,
+                                                      names.append,
+                                                      List.of(t),
+                                                      null);
+                }
                 stringBufferAppend.put(t, method);
             }
             return method;
@@ -2555,6 +2612,132 @@ public class Gen extends JCTree.Visitor {
         }
     }
 
+    /** Complete the classes which may be needed to generate the code and
+     *  the class file of a class: the classes of the types and symbols in
+     *  its trees and annotations, with their enclosing classes and their
+     *  supertypes. Classes are otherwise completed on demand, which is not
+     *  possible while classes are generated on other threads, see
+     *  {@link #forThread}.
+     *  @param cdef  The tree representing the class definition.
+     */
+    public void completeReferences(JCClassDecl cdef) {
+        new ReferenceCompleter().scan(cdef);
+    }
+
+    class ReferenceCompleter extends TreeScanner implements Attribute.Visitor {
+
+        /** The types and symbols which have been completed.
+         */
+        private final Set<Object> completed = new HashSet<Object>();
+
+        @Override
+        public void scan(JCTree tree) {
+            if (tree != null) {
+                complete(tree.type);
+                complete(TreeInfo.symbolFor(tree));
+                super.scan(tree);
+            }
+        }
+
+        void complete(Symbol sym) {
+            if (sym == null || !completed.add(sym))
+                return;
+            if (sym.kind == TYP) {
+                sym.complete();
+                complete(sym.owner);
+                complete(types.supertype(sym.type));
+                complete(types.interfaces(sym.type));
+            } else if ((sym.kind == MTH || sym.kind == VAR) && sym.type != null) {
+                complete(sym.owner);
+                // the erasure is cached in the symbol
+                complete(sym.erasure(types));
+                if (sym instanceof DynamicMethodSymbol) {
+                    for (Object arg : ((DynamicMethodSymbol) sym).staticArgs) {
+                        if (arg instanceof Type)
+                            complete((Type) arg);
+                        else if (arg instanceof Pool.MethodHandle)
+                            complete(((Pool.MethodHandle) arg).refSym);
+                    }
+                }
+            } else {
+                return;
+            }
+            complete(sym.type);
+            for (Attribute.Compound a : sym.getRawAttributes())
+                a.accept(this);
+            for (Attribute.Compound a : sym.getRawTypeAttributes())
+                a.accept(this);
+        }
+
+        void complete(List<Type> ts) {
+            for (List<Type> l = ts; l.nonEmpty(); l = l.tail)
+                complete(l.head);
+        }
+
+        void complete(Type t) {
+            if (t == null || !completed.add(t))
+                return;
+            switch (t.getTag()) {
+            case CLASS:
+                complete(t.tsym);
+                complete(t.getEnclosingType());
+                complete(t.getTypeArguments());
+                if (t.isCompound()) {
+                    complete(types.supertype(t));
+                    complete(types.interfaces(t));
+                }
+                break;
+            case ARRAY:
+                complete(((ArrayType) t).elemtype);
+                break;
+            case METHOD:
+            case FORALL:
+                complete(t.getTypeArguments());
+                complete(t.getParameterTypes());
+                complete(t.getReturnType());
+                complete(t.getThrownTypes());
+                break;
+            case WILDCARD:
+                complete(((WildcardType) t).type);
+                break;
+            case TYPEVAR:
+                complete(t.getUpperBound());
+                complete(t.getLowerBound());
+                break;
+            default:
+                break;
+            }
+        }
+
+        public void visitConstant(Attribute.Constant value) {
+        }
+
+        public void visitClass(Attribute.Class clazz) {
+            complete(clazz.classType);
+        }
+
+        public void visitCompound(Attribute.Compound compound) {
+            complete(compound.type);
+            for (Pair<MethodSymbol, Attribute> p : compound.values) {
+                complete(p.fst);
+                p.snd.accept(this);
+            }
+        }
+
+        public void visitArray(Attribute.Array array) {
+            complete(array.type);
+            for (Attribute a : array.values)
+                a.accept(this);
+        }
+
+        public void visitEnum(Attribute.Enum e) {
+            complete(e.value);
+        }
+
+        public void visitError(Attribute.Error e) {
+        }
+    }
+
 /* ************************************************************************
  * Auxiliary classes
  *************************************************************************/
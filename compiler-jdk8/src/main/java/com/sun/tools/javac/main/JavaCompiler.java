@@ -35,6 +35,11 @@ import java.util.MissingResourceException;
 import java.util.Queue;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.processing.Processor;
 import javax.lang.model.SourceVersion;
@@ -403,6 +408,8 @@ public class JavaCompiler {
                         options.isSet(G_CUSTOM, "lines");
         genEndPos     = options.isSet(XJCOV) ||
                         context.get(DiagnosticListener.class) != null;
+        parseThreads  = getThreads(options, "parseThreads");
+        genThreads    = getThreads(options, "genThreads");
         devVerbose    = options.isSet("dev");
         processPcks   = options.isSet("process.packages");
         werror        = options.isSet(WERROR);
@@ -506,6 +513,18 @@ public class JavaCompiler {
      */
     public boolean genEndPos;
 
+    /** The number of threads which parse the source files, see parseFiles.
+     *  Set with -XDparseThreads=n, or -XDparseThreads for one thread per processor;
+     *  at most MAX_THREADS.
+     */
+    public int parseThreads;
+
+    /** The number of threads which generate the class files, see generate.
+     *  Set with -XDgenThreads=n, or -XDgenThreads for one thread per processor;
+     *  at most MAX_THREADS.
+     */
+    public int genThreads;
+
     /** Switch: should we debug ignored exceptions
      */
     protected boolean devVerbose;
@@ -848,9 +867,7 @@ public class JavaCompiler {
             explicitAnnotationProcessingRequested = true;
         // as a JavaCompiler can only be used once, throw an exception if
         // it has been used before.
-        if (hasBeenUsed)
-            throw new AssertionError("attempt to reuse JavaCompiler");
-        hasBeenUsed = true;
+        checkReusable();
 
         // forcibly set the equivalent of -Xlint:-options, so that no further
         // warnings about command line options are generated from this point on
@@ -880,6 +897,33 @@ public class JavaCompiler {
         }
     }
 
+    /**
+     * Check that this compiler has not been used before, unless it is shared
+     * through a reusable context (see {@link com.sun.tools.javac.api.JavacTaskPool}).
+     */
+    protected void checkReusable() {
+        if (hasBeenUsed)
+            throw new AssertionError("attempt to reuse JavaCompiler");
+        hasBeenUsed = true;
+    }
+
+    /**
+     * Reset the per-compilation state, so that a compiler shared through a
+     * reusable context can compile another set of files.
+     */
+    protected void newRound() {
+        inputFiles.clear();
+        todo.clear();
+        desugaredEnvs.clear();
+        compileStates.clear();
+        delegateCompiler = null;
+        rootClasses = null;
+        deferredDiagnosticHandler = null;
+        annotationProcessingOccurred = false;
+        implicitSourceFilesRead = false;
+        elapsed_msec = 0;
+    }
+
     /**
      * The phases following annotation processing: attribution,
      * desugar, and finally code generation.
@@ -908,8 +952,17 @@ public class JavaCompiler {
                 break;
 
             case BY_TODO:
-                while (!todo.isEmpty())
-                    generate(desugar(flow(attribute(todo.remove()))));
+                if (canGenerateInParallel()) {
+                    // generate the classes together, so that there are enough
+                    // of them to be generated in parallel
+                    ListBuffer<Pair<Env<AttrContext>, JCClassDecl>> classes = new ListBuffer<>();
+                    while (!todo.isEmpty())
+                        classes.addAll(desugar(flow(attribute(todo.remove()))));
+                    generate(classes);
+                } else {
+                    while (!todo.isEmpty())
+                        generate(desugar(flow(attribute(todo.remove()))));
+                }
                 break;
 
             default:
@@ -952,17 +1005,173 @@ public class JavaCompiler {
        if (shouldStop(CompileState.PARSE))
            return List.nil();
 
-        //parse all files
-        ListBuffer<JCCompilationUnit> trees = new ListBuffer<>();
+        ListBuffer<JavaFileObject> files = new ListBuffer<>();
         Set<JavaFileObject> filesSoFar = new HashSet<JavaFileObject>();
         for (JavaFileObject fileObject : fileObjects) {
             if (!filesSoFar.contains(fileObject)) {
                 filesSoFar.add(fileObject);
-                trees.append(parse(fileObject));
+                files.append(fileObject);
             }
         }
+
+        if (canParseInParallel(files.size()))
+            return parseFilesInParallel(files.toList());
+
+        //parse all files
+        ListBuffer<JCCompilationUnit> trees = new ListBuffer<>();
+        for (JavaFileObject fileObject : files) {
+            trees.append(parse(fileObject));
+        }
         return trees.toList();
     }
+    // where
+        /** The least number of files which are parsed in parallel. */
+        private static final int MIN_PARALLEL_PARSE_FILES = 8;
+
+        /** The largest number of threads which parse or generate. */
+        private static final int MAX_THREADS = 64;
+
+        private static int getThreads(Options options, String name) {
+            String s = options.get(name);
+            if (s == null)
+                return 1;
+            try {
+                int n = Integer.parseInt(s);
+                if (n > 0)
+                    return Math.min(n, MAX_THREADS);
+            } catch (NumberFormatException e) {
+                // -XDparseThreads or -XDgenThreads without a value
+            }
+            return Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+        }
+
+        /** The files are parsed in parallel only when nothing observes the
+         *  order of parsing: the task listeners and the verbose output see each
+         *  file as it is parsed. The other name tables are not thread safe, as
+         *  with -XDuseUnsharedTable.
+         */
+        private boolean canParseInParallel(int fileCount) {
+            return parseThreads > 1
+                    && names.table instanceof ConcurrentNameTable
+                    && fileCount >= MIN_PARALLEL_PARSE_FILES
+                    && taskListener.isEmpty()
+                    && !verbose;
+        }
+
+        private static ForkJoinPool workerPool;
+
+        /** The threads which parse the files and generate the class files.
+         *  The pool has as many threads as the most workers run so far; when
+         *  more are run, it is replaced by a larger pool. The old pool is not
+         *  shut down, since other compilations may still be running their
+         *  workers on it; its threads end once they are idle.
+         */
+        private static synchronized ForkJoinPool workerPool(int parallelism) {
+            if (workerPool == null || workerPool.getParallelism() < parallelism)
+                workerPool = new ForkJoinPool(parallelism);
+            return workerPool;
+        }
+
+    /**
+     * Parses a list of files on the threads of a fork-join pool. The sources
+     * are read in this thread, since the file manager is not thread safe.
+     * Each parsing thread has its own parser factory, TreeMaker and Log; the
+     * Log defers all the diagnostics, which are then reported to the log of
+     * the compiler in the order of the files, as if they had been parsed one
+     * after another. The doc comments are parsed lazily, later, with the
+     * parser factory of the compiler. Only the Names table is shared, which
+     * is a ConcurrentNameTable when -XDparseThreads is set.
+     */
+    private List<JCCompilationUnit> parseFilesInParallel(List<JavaFileObject> files) {
+        final int count = files.size();
+        final JavaFileObject[] fileArray = files.toArray(new JavaFileObject[count]);
+        final CharSequence[] contents = new CharSequence[count];
+        for (int i = 0; i < count; i++) {
+            JavaFileObject prev = log.useSource(fileArray[i]);
+            try {
+                contents[i] = readSource(fileArray[i]);
+            } finally {
+                log.useSource(prev);
+            }
+        }
+
+        final JCCompilationUnit[] trees = new JCCompilationUnit[count];
+        final java.util.List<Queue<JCDiagnostic>> diagnostics =
+                new java.util.ArrayList<Queue<JCDiagnostic>>(java.util.Collections.<Queue<JCDiagnostic>>nCopies(count, null));
+        final AtomicInteger next = new AtomicInteger();
+        final boolean keepComments = keepComments();
+
+        java.util.List<Callable<Void>> workers = new java.util.ArrayList<Callable<Void>>();
+        for (int t = Math.min(parseThreads, count); t > 0; t--) {
+            final Log parseLog = Log.instance(new Context());
+            final ParserFactory factory = parserFactory.forLog(parseLog);
+            workers.add(new Callable<Void>() {
+                public Void call() {
+                    int i;
+                    while ((i = next.getAndIncrement()) < count) {
+                        if (contents[i] == null)
+                            continue;
+                        JavaFileObject prev = parseLog.useSource(fileArray[i]);
+                        Log.DeferredDiagnosticHandler handler = new Log.DeferredDiagnosticHandler(parseLog);
+                        try {
+                            Parser parser = factory.newParser(contents[i], keepComments, genEndPos, lineDebugInfo);
+                            JCCompilationUnit tree = parser.parseCompilationUnit();
+                            tree.sourcefile = fileArray[i];
+                            if (tree.endPositions != null)
+                                parseLog.setEndPosTable(fileArray[i], tree.endPositions);
+                            trees[i] = tree;
+                        } finally {
+                            parseLog.popDiagnosticHandler(handler);
+                            parseLog.useSource(prev);
+                            diagnostics.set(i, handler.getDiagnostics());
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        runWorkers(workers);
+
+        ListBuffer<JCCompilationUnit> result = new ListBuffer<>();
+        for (int i = 0; i < count; i++) {
+            JCCompilationUnit tree = trees[i];
+            if (tree == null) {
+                // the source could not be read
+                tree = make.TopLevel(List.<JCTree.JCAnnotation>nil(), null, List.<JCTree>nil());
+                tree.sourcefile = fileArray[i];
+            } else {
+                if (tree.endPositions != null)
+                    log.setEndPosTable(fileArray[i], tree.endPositions);
+                parserFactory.adoptDocComments(tree);
+                for (JCDiagnostic d : diagnostics.get(i))
+                    log.report(d);
+            }
+            result.append(tree);
+        }
+        return result.toList();
+    }
+
+    /**
+     * Runs the workers on the threads of the worker pool, and rethrows the
+     * first exception thrown by any of them.
+     */
+    private static void runWorkers(java.util.List<Callable<Void>> workers) {
+        try {
+            for (Future<Void> f : workerPool(workers.size()).invokeAll(workers))
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Abort(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new Abort(cause);
+        }
+    }
 
     /**
      * Enter the symbols found in a list of parse trees if the compilation
@@ -1551,6 +1760,14 @@ public class JavaCompiler {
         if (shouldStop(CompileState.GENERATE))
             return;
 
+        if (canGenerateInParallel()) {
+            java.util.List<java.util.List<Pair<Env<AttrContext>, JCClassDecl>>> groups = groupByOutermostClass(queue);
+            if (groups.size() >= MIN_PARALLEL_GENERATE_CLASSES) {
+                generateInParallel(groups, results);
+                return;
+            }
+        }
+
         boolean usePrintSource = (stubOutput || sourceOutput || printFlat);
 
         for (Pair<Env<AttrContext>, JCClassDecl> x: queue) {
@@ -1599,6 +1816,160 @@ public class JavaCompiler {
         }
     }
 
+        // where
+        /** The least number of top-level classes which are generated in parallel. */
+        private static final int MIN_PARALLEL_GENERATE_CLASSES = 4;
+
+        /** The classes are generated in parallel only when nothing observes
+         *  the order of generation: the task listeners and the compile policy
+         *  notes see each class as it is generated, and source or native
+         *  header output is written by components which are not thread safe.
+         *  The class writers enter names, and only the concurrent name table
+         *  is thread safe.
+         */
+        private boolean canGenerateInParallel() {
+            return genThreads > 1
+                    && names.table instanceof ConcurrentNameTable
+                    && taskListener.isEmpty()
+                    && !verboseCompilePolicy
+                    && !(stubOutput || sourceOutput || printFlat)
+                    && !fileManager.hasLocation(StandardLocation.NATIVE_HEADER_OUTPUT)
+                    && gen.canGenerateInParallel();
+        }
+
+        /** Groups the classes by the environment of their outermost class,
+         *  which desugar returns one after another.
+         */
+        private java.util.List<java.util.List<Pair<Env<AttrContext>, JCClassDecl>>> groupByOutermostClass(
+                Queue<Pair<Env<AttrContext>, JCClassDecl>> queue) {
+            java.util.List<java.util.List<Pair<Env<AttrContext>, JCClassDecl>>> groups =
+                    new java.util.ArrayList<java.util.List<Pair<Env<AttrContext>, JCClassDecl>>>();
+            java.util.List<Pair<Env<AttrContext>, JCClassDecl>> group = null;
+            for (Pair<Env<AttrContext>, JCClassDecl> x : queue) {
+                if (group == null || group.get(0).fst != x.fst) {
+                    group = new java.util.ArrayList<Pair<Env<AttrContext>, JCClassDecl>>();
+                    groups.add(group);
+                }
+                group.add(x);
+            }
+            return groups;
+        }
+
+        private JavaFileObject sourceOf(Env<AttrContext> env) {
+            return env.enclClass.sym.sourcefile != null ?
+                    env.enclClass.sym.sourcefile :
+                    env.toplevel.sourcefile;
+        }
+
+    /**
+     * Generates the class files of the top-level classes, each with its
+     * member and local classes, on the threads of a fork-join pool. Each
+     * thread has its own code generator, class writer, Types and Log; the
+     * Log defers all the diagnostics. The classes which the code generators
+     * may need are completed in this thread beforehand, since the class
+     * reader is not thread safe. The diagnostics are then reported and the
+     * class files are written in the order of the queue, as if the classes
+     * had been generated one after another.
+     */
+    private void generateInParallel(java.util.List<java.util.List<Pair<Env<AttrContext>, JCClassDecl>>> groups,
+                                    Queue<JavaFileObject> results) {
+        final java.util.List<Pair<Env<AttrContext>, JCClassDecl>> classes =
+                new java.util.ArrayList<Pair<Env<AttrContext>, JCClassDecl>>();
+        final int[] groupStart = new int[groups.size() + 1];
+        for (int g = 0; g < groups.size(); g++) {
+            groupStart[g] = classes.size();
+            classes.addAll(groups.get(g));
+        }
+        final int groupCount = groups.size();
+        groupStart[groupCount] = classes.size();
+
+        for (Pair<Env<AttrContext>, JCClassDecl> x : classes) {
+            JavaFileObject prev = log.useSource(sourceOf(x.fst));
+            try {
+                gen.completeReferences(x.snd);
+            } catch (CompletionFailure ex) {
+                chk.completionError(x.snd.pos(), ex);
+            } finally {
+                log.useSource(prev);
+            }
+        }
+        if (errorCount() > 0)
+            return;
+
+        final int count = classes.size();
+        final byte[][] classFiles = new byte[count][];
+        final CompletionFailure[] failures = new CompletionFailure[count];
+        final java.util.List<Queue<JCDiagnostic>> diagnostics =
+                new java.util.ArrayList<Queue<JCDiagnostic>>(java.util.Collections.<Queue<JCDiagnostic>>nCopies(count, null));
+        final AtomicInteger next = new AtomicInteger();
+
+        java.util.List<Callable<Void>> workers = new java.util.ArrayList<Callable<Void>>();
+        for (int t = Math.min(genThreads, groupCount); t > 0; t--) {
+            final Log genLog = Log.instance(new Context());
+            final Types genTypes = types.forThread();
+            final Gen classGen = gen.forThread(genTypes, genLog);
+            final ClassWriter classWriter = writer.forThread(genTypes, genLog);
+            workers.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    int g;
+                    while ((g = next.getAndIncrement()) < groupCount) {
+                        for (int i = groupStart[g]; i < groupStart[g + 1]; i++) {
+                            Env<AttrContext> env = classes.get(i).fst;
+                            JCClassDecl cdef = classes.get(i).snd;
+                            JavaFileObject prev = genLog.useSource(sourceOf(env));
+                            Log.DeferredDiagnosticHandler handler = new Log.DeferredDiagnosticHandler(genLog);
+                            try {
+                                if (classGen.genClass(env, cdef)) {
+                                    out.reset();
+                                    classWriter.writeClassFile(out, cdef.sym);
+                                    classFiles[i] = out.toByteArray();
+                                }
+                            } catch (ClassWriter.PoolOverflow ex) {
+                                genLog.error(cdef.pos(), "limit.pool");
+                            } catch (ClassWriter.StringOverflow ex) {
+                                genLog.error(cdef.pos(), "limit.string.overflow",
+                                             ex.value.substring(0, 20));
+                            } catch (CompletionFailure ex) {
+                                failures[i] = ex;
+                            } finally {
+                                genLog.popDiagnosticHandler(handler);
+                                genLog.useSource(prev);
+                                diagnostics.set(i, handler.getDiagnostics());
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        runWorkers(workers);
+
+        for (int i = 0; i < count; i++) {
+            Env<AttrContext> env = classes.get(i).fst;
+            JCClassDecl cdef = classes.get(i).snd;
+            JavaFileObject prev = log.useSource(sourceOf(env));
+            try {
+                for (JCDiagnostic d : diagnostics.get(i))
+                    log.report(d);
+                if (failures[i] != null)
+                    chk.completionError(cdef.pos(), failures[i]);
+                if (classFiles[i] != null && errorCount() == 0) {
+                    JavaFileObject file = writer.writeClass(cdef.sym, classFiles[i]);
+                    if (results != null && file != null)
+                        results.add(file);
+                }
+            } catch (IOException ex) {
+                log.error(cdef.pos(), "class.cant.write",
+                          cdef.sym, ex.getMessage());
+                return;
+            } finally {
+                log.useSource(prev);
+            }
+        }
+    }
+
         // where
         Map<JCCompilationUnit, Queue<Env<AttrContext>>> groupByFile(Queue<Env<AttrContext>> envs) {
             // use a LinkedHashMap to preserve the order of the original list as much as possible
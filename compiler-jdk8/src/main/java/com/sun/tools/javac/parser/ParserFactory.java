@@ -29,6 +29,7 @@ import java.util.Locale;
 
 import com.sun.tools.javac.code.Source;
 import com.sun.tools.javac.tree.DocTreeMaker;
+import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
 import com.sun.tools.javac.tree.TreeMaker;
 import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.Log;
@@ -80,6 +81,41 @@ public class ParserFactory {
         this.locale = context.get(Locale.class);
     }
 
+    /** Create a parser factory for another thread, see {@link #forLog}.
+     */
+    protected ParserFactory(ParserFactory fac, Log log) {
+        super();
+        this.F = fac.F.forToplevel(null);
+        this.docTreeMaker = fac.docTreeMaker;
+        this.log = log;
+        this.names = fac.names;
+        this.tokens = fac.tokens;
+        this.source = fac.source;
+        this.options = fac.options;
+        this.scannerFactory = new ScannerFactory(fac.scannerFactory, log);
+        this.locale = fac.locale;
+    }
+
+    /** Returns a factory for parsers which report their diagnostics to the
+     *  given log and make their trees with their own TreeMaker, so that it can
+     *  be used by another thread than the parsers of this factory. The Names
+     *  table is shared. The doc comments of the trees are parsed lazily with
+     *  the DocTreeMaker of this factory, so they must be adopted by this
+     *  factory before they are read, see {@link #adoptDocComments}.
+     */
+    public ParserFactory forLog(Log log) {
+        return new ParserFactory(this, log);
+    }
+
+    /** Makes the doc comments of a tree parsed by a factory of
+     *  {@link #forLog} parse with this factory, and so report their
+     *  diagnostics to the log of this factory.
+     */
+    public void adoptDocComments(JCCompilationUnit tree) {
+        if (tree.docComments instanceof LazyDocCommentTable)
+            ((LazyDocCommentTable) tree.docComments).fac = this;
+    }
+
     public JavacParser newParser(CharSequence input, boolean keepDocComments, boolean keepEndPos, boolean keepLineMap) {
         Lexer lexer = scannerFactory.newScanner(input, keepDocComments);
         return new JavacParser(this, lexer, keepDocComments, keepLineMap, keepEndPos);
@@ -68,6 +68,16 @@ public class ScannerFactory {
         this.tokens = Tokens.instance(context);
     }
 
+    /** Create a scanner factory which shares the tables of another one,
+     *  but reports its errors to the given log.
+     */
+    protected ScannerFactory(ScannerFactory fac, Log log) {
+        this.log = log;
+        this.names = fac.names;
+        this.source = fac.source;
+        this.tokens = fac.tokens;
+    }
+
     public Scanner newScanner(CharSequence input, boolean keepDocComments) {
         if (input instanceof CharBuffer) {
             CharBuffer buf = (CharBuffer) input;
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2016, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+package com.sun.tools.javac.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of Name.Table which can be used by several threads at once,
+ * for instance when the source files are parsed in parallel or when a
+ * context is shared between concurrent compilations.
+ *
+ * The table is split in segments, selected by the hash of a name, each with
+ * its own lock, hash table and byte arena. The bytes of a name are copied
+ * once into the current chunk of the arena of its segment; a full chunk is
+ * never copied, a new one is started instead, so the bytes and the offset
+ * of a name never change and a Name can be read by any thread without
+ * locking. The index of a name is a sequence number, which keeps the
+ * indexes of the first names small, as Tokens expects.
+ *
+ * Set with -XDuseConcurrentTable.
+ *
+ *  <p><b>This is NOT part of any supported API.
+ *  If you write code that depends on this, you do so at your own risk.
+ *  This code and its internal interfaces are subject to change or
+ *  deletion without notice.</b>
+ */
+public class ConcurrentNameTable extends Name.Table {
+
+    /** The number of segments, a power of two.
+     */
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+
+    /** The size of a chunk of an arena; longer names get their own array.
+     */
+    private static final int CHUNK_SIZE = 0x4000;
+
+    private final Segment[] segments;
+
+    /** The index of the next name.
+     */
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    /** A buffer per thread for the UTF-8 bytes of the characters looked up.
+     */
+    private final ThreadLocal<byte[]> utfBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[256];
+        }
+    };
+
+    /** Allocator
+     *  @param names The main name table
+     *  @param hashSize the initial size of the hash table of each segment,
+     *                  needs to be a power of two.
+     */
+    public ConcurrentNameTable(Names names, int hashSize) {
+        super(names);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(hashSize);
+    }
+
+    public ConcurrentNameTable(Names names) {
+        this(names, 0x800);
+    }
+
+    @Override
+    public Name fromChars(char[] cs, int start, int len) {
+        // most names are ASCII, their bytes are their chars
+        int h = 0;
+        int i = 0;
+        while (i < len) {
+            char c = cs[start + i];
+            if (c == 0 || c >= 0x80)
+                break;
+            h = (h << 5) - h + c;
+            i++;
+        }
+        if (i == len)
+            return segment(h).enter(this, h, cs, start, len);
+
+        byte[] buf = utfBuffer.get();
+        if (buf.length < len * 3) {
+            buf = new byte[len * 3];
+            utfBuffer.set(buf);
+        }
+        int nbytes = Convert.chars2utf(cs, start, buf, 0, len);
+        return fromUtf(buf, 0, nbytes);
+    }
+
+    @Override
+    public Name fromUtf(byte[] cs, int start, int len) {
+        int h = hashValue(cs, start, len);
+        return segment(h).enter(this, h, cs, start, len);
+    }
+
+    /** The segment is selected with the high bits of the hash, the bucket
+     *  with the low bits.
+     */
+    private Segment segment(int h) {
+        return segments[((h ^ (h >>> 16)) * 0x9E3779B9) >>> (32 - SEGMENT_SHIFT)];
+    }
+
+    @Override
+    public void dispose() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    private static class Segment {
+        private NameImpl[] hashes;
+        private int hashMask;
+        private int count;
+
+        /** The current chunk of the arena, and the number of bytes used in it.
+         */
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int used;
+
+        Segment(int hashSize) {
+            hashes = new NameImpl[hashSize];
+            hashMask = hashSize - 1;
+        }
+
+        synchronized Name enter(ConcurrentNameTable table, int h, byte[] cs, int start, int len) {
+            NameImpl n = hashes[h & hashMask];
+            while (n != null &&
+                    (n.hash != h || n.length != len || !Name.Table.equals(n.bytes, n.offset, cs, start, len))) {
+                n = n.next;
+            }
+            if (n != null)
+                return n;
+
+            int offset = allocate(len);
+            System.arraycopy(cs, start, bytes, offset, len);
+            return add(table, h, offset, len);
+        }
+
+        /** Enter a name of ASCII characters.
+         */
+        synchronized Name enter(ConcurrentNameTable table, int h, char[] cs, int start, int len) {
+            NameImpl n = hashes[h & hashMask];
+            while (n != null &&
+                    (n.hash != h || n.length != len || !equals(n.bytes, n.offset, cs, start, len))) {
+                n = n.next;
+            }
+            if (n != null)
+                return n;
+
+            int offset = allocate(len);
+            for (int i = 0; i < len; i++)
+                bytes[offset + i] = (byte) cs[start + i];
+            return add(table, h, offset, len);
+        }
+
+        /** The array in which the last name was allocated.
+         */
+        private byte[] bytes;
+
+        /** Allocates the bytes of a name, in the current chunk or in an
+         *  array of its own, and returns its offset in {@link #bytes}.
+         */
+        private int allocate(int len) {
+            int offset;
+            if (len > CHUNK_SIZE / 4) {
+                bytes = new byte[len];
+                offset = 0;
+            } else {
+                if (used + len > CHUNK_SIZE) {
+                    chunk = new byte[CHUNK_SIZE];
+                    used = 0;
+                }
+                bytes = chunk;
+                offset = used;
+                // an empty name still gets its own offset
+                used += Math.max(len, 1);
+            }
+            return offset;
+        }
+
+        private Name add(ConcurrentNameTable table, int h, int offset, int len) {
+            NameImpl n = new NameImpl(table, bytes, offset, len, h, table.nextIndex.getAndIncrement());
+            bytes = null;
+            n.next = hashes[h & hashMask];
+            hashes[h & hashMask] = n;
+            if (++count > hashes.length - (hashes.length >> 2))
+                rehash();
+            return n;
+        }
+
+        private void rehash() {
+            NameImpl[] old = hashes;
+            hashes = new NameImpl[old.length * 2];
+            hashMask = hashes.length - 1;
+            for (NameImpl head : old) {
+                NameImpl n = head;
+                while (n != null) {
+                    NameImpl next = n.next;
+                    n.next = hashes[n.hash & hashMask];
+                    hashes[n.hash & hashMask] = n;
+                    n = next;
+                }
+            }
+        }
+
+        private static boolean equals(byte[] bytes, int offset, char[] cs, int start, int len) {
+            for (int i = 0; i < len; i++) {
+                if (bytes[offset + i] != cs[start + i])
+                    return false;
+            }
+            return true;
+        }
+
+        synchronized void clear() {
+            hashes = new NameImpl[hashes.length];
+            count = 0;
+            chunk = new byte[CHUNK_SIZE];
+            used = 0;
+        }
+    }
+
+    static class NameImpl extends Name {
+        /** The next name occupying the same hash bucket, guarded by the
+         *  lock of the segment.
+         */
+        NameImpl next;
+
+        /** The array, shared with other names, holding the bytes of this
+         *  name at the given offset.
+         */
+        final byte[] bytes;
+        final int offset;
+        final int length;
+
+        /** The hash value of the bytes.
+         */
+        final int hash;
+
+        final int index;
+
+        NameImpl(ConcurrentNameTable table, byte[] bytes, int offset, int length, int hash, int index) {
+            super(table);
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+            this.index = index;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public int getByteLength() {
+            return length;
+        }
+
+        @Override
+        public byte getByteAt(int i) {
+            return bytes[offset + i];
+        }
+
+        @Override
+        public byte[] getByteArray() {
+            return bytes;
+        }
+
+        @Override
+        public int getByteOffset() {
+            return offset;
+        }
+
+        /** Return the hash value of this name.
+         */
+        public int hashCode() {
+            return index;
+        }
+    }
+}
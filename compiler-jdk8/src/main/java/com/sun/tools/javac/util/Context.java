@@ -163,6 +163,19 @@ public class Context {
 
     public Context() {}
 
+    /**
+     * Remove the value for the key in this context, so that another value
+     * can be put. Used when a context is reused by another compilation.
+     */
+    public <T> void drop(Key<T> key) {
+        checkState(ht);
+        ht.remove(key);
+    }
+
+    public <T> void drop(Class<T> clazz) {
+        drop(key(clazz));
+    }
+
     /**
      * The table of preregistered factories.
      */
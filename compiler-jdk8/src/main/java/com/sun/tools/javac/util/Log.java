@@ -405,6 +405,28 @@ public class Log extends AbstractLog {
         this.nwarnings = other.nwarnings;
     }
 
+    /**
+     * Reset the log for another compilation sharing the same context
+     * (see {@link com.sun.tools.javac.api.JavacTaskPool}): the counts and
+     * recorded errors are cleared, and the writer and diagnostic listener
+     * are taken from the context again.
+     */
+    public void newRound(Context context) {
+        PrintWriter pw = context.get(outKey);
+        if (pw != null)
+            setWriters(pw);
+        @SuppressWarnings("unchecked")
+        DiagnosticListener<? super JavaFileObject> dl =
+            context.get(DiagnosticListener.class);
+        this.diagListener = dl;
+        diagnosticHandler = new DefaultDiagnosticHandler();
+        sourceMap.clear();
+        recorded.clear();
+        source = null;
+        nerrors = 0;
+        nwarnings = 0;
+    }
+
     /**
      * Replace the specified diagnostic handler with the
      * handler that was current at the time this handler was created.
@@ -180,6 +180,16 @@ public class MandatoryWarningHandler {
         }
     }
 
+    /**
+     * Discard the diagnostics deferred by previous calls of report().
+     */
+    public void clear() {
+        sourcesWithReportedWarnings = null;
+        deferredDiagnosticKind = null;
+        deferredDiagnosticSource = null;
+        deferredDiagnosticArg = null;
+    }
+
     /**
      * Check two objects, each possibly null, are either both null or are equal.
      */
@@ -318,6 +318,10 @@ public class Names {
         boolean useUnsharedTable = options.isSet("useUnsharedTable");
         if (useUnsharedTable)
             return new UnsharedNameTable(this);
+        else if (options.isSet("useConcurrentTable")
+                || options.isSet("parseThreads") || options.isSet("genThreads"))
+            // the parsing and class writing threads enter names concurrently
+            return new ConcurrentNameTable(this);
         else
             return new SharedNameTable(this);
     }
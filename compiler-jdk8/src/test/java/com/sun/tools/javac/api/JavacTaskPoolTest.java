@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2016, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.sun.tools.javac.api;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import com.sun.source.util.JavacTask;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a context reused by {@link JavacTaskPool} produces the same
+ * class files as a fresh compiler.
+ */
+public class JavacTaskPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** The compiler output of all the compilations of a test. */
+    private final StringWriter log = new StringWriter();
+
+    /** The lambda methods are numbered per compilation, not per context.
+     */
+    @Test
+    public void sameBytesForSameSourceWithLambdas() throws IOException {
+        File source = source("Main.java",
+                "public class Main {\n" +
+                "    public static void main(String[] args) {\n" +
+                "        Runnable first = () -> System.out.println(args.length);\n" +
+                "        Runnable second = () -> System.out.println(args.length + 1);\n" +
+                "        first.run();\n" +
+                "        second.run();\n" +
+                "    }\n" +
+                "}\n");
+        JavacTaskPool pool = new JavacTaskPool(1);
+        //the options, and so the output directory, select the pooled context
+        File out = folder.newFolder("out");
+
+        byte[] first = compile(pool, source, out, "Main.class");
+        byte[] second = compile(pool, source, out, "Main.class");
+
+        assertTrue(pool.statistics(), pool.statistics().contains("statReused: 1"));
+        assertTrue(contains(first, "lambda$main$0"));
+        assertArrayEquals(first, second);
+    }
+
+    /** The hidden zip index options reach the file manager of the pooled
+     * context, so the index of a jar on the class path is written.
+     */
+    @Test
+    public void writeZipIndexThroughPool() throws IOException {
+        File lib = source("Lib.java",
+                "package lib;\n" +
+                "public class Lib {\n" +
+                "    public static int value() { return 42; }\n" +
+                "}\n");
+        File libOut = folder.newFolder("lib");
+        assertTrue(log.toString(), call(pool(), lib, libOut));
+        File jar = jar(libOut, "lib/Lib.class");
+
+        File source = source("Main.java",
+                "public class Main {\n" +
+                "    public static void main(String[] args) {\n" +
+                "        System.out.println(lib.Lib.value());\n" +
+                "    }\n" +
+                "}\n");
+        File indexDir = folder.newFolder("index");
+        assertTrue(log.toString(), call(pool(), source, folder.newFolder("out"),
+                "-classpath", jar.getAbsolutePath(),
+                "-XDusezipindex",
+                "-XDwritezipindexfiles",
+                "-XDcachezipindexdir=" + indexDir.getAbsolutePath()));
+
+        String[] indexFiles = indexDir.list();
+        assertNotNull(indexFiles);
+        assertEquals(1, indexFiles.length);
+        assertTrue(indexFiles[0], indexFiles[0].startsWith("lib.jar.") && indexFiles[0].endsWith(".index"));
+    }
+
+    /** A jar rebuilt at the same path between two compilations is read
+     * again, the context that read the old jar is not reused.
+     */
+    @Test
+    public void rereadJarRebuiltAtSamePath() throws IOException {
+        File jar = new File(folder.newFolder(), "lib.jar");
+        File libOut = folder.newFolder("lib");
+        assertTrue(log.toString(), call(pool(), source("Lib.java",
+                "package lib;\n" +
+                "public class Lib {\n" +
+                "    public static int a() { return 1; }\n" +
+                "}\n"), libOut));
+        jar(jar, libOut, "lib/Lib.class");
+
+        JavacTaskPool pool = new JavacTaskPool(1);
+        File out = folder.newFolder("out");
+        assertTrue(log.toString(), call(pool, source("Main.java",
+                "public class Main {\n" +
+                "    int value = lib.Lib.a();\n" +
+                "}\n"), out, "-classpath", jar.getAbsolutePath()));
+
+        long lastModified = jar.lastModified();
+        assertTrue(log.toString(), call(pool(), source("Lib.java",
+                "package lib;\n" +
+                "public class Lib {\n" +
+                "    public static int b() { return 2; }\n" +
+                "}\n"), libOut));
+        jar(jar, libOut, "lib/Lib.class");
+        //the class file has the same length, and the file system may not
+        //have a finer resolution than the time taken by the test
+        assertTrue(jar.setLastModified(lastModified + 2000));
+
+        assertTrue(log.toString(), call(pool, source("Main.java",
+                "public class Main {\n" +
+                "    int value = lib.Lib.b();\n" +
+                "}\n"), out, "-classpath", jar.getAbsolutePath()));
+        assertTrue(pool.statistics(), pool.statistics().contains("statReused: 0"));
+        assertTrue(pool.statistics(), pool.statistics().contains("statRemoved: 1"));
+    }
+
+    private static JavacTaskPool pool() {
+        return new JavacTaskPool(1);
+    }
+
+    private File jar(File dir, String entry) throws IOException {
+        return jar(new File(folder.newFolder(), "lib.jar"), dir, entry);
+    }
+
+    private static File jar(File jar, File dir, String entry) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry(entry));
+            out.write(Files.readAllBytes(new File(dir, entry).toPath()));
+            out.closeEntry();
+        }
+        return jar;
+    }
+
+    private File source(String name, String content) throws IOException {
+        File dir = folder.newFolder();
+        File file = new File(dir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private byte[] compile(JavacTaskPool pool, File source, File out, String className)
+            throws IOException {
+        File classFile = new File(out, className);
+        Files.deleteIfExists(classFile.toPath());
+        assertTrue(log.toString(), call(pool, source, out));
+        return Files.readAllBytes(classFile.toPath());
+    }
+
+    private boolean call(JavacTaskPool pool, File source, File out, String... extraOptions) {
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-source", "1.8", "-target", "1.8",
+                "-bootclasspath", bootClassPath(),
+                "-d", out.getAbsolutePath()));
+        options.addAll(Arrays.asList(extraOptions));
+        return pool.getTask(log, null, options, Collections.singletonList(source),
+                new JavacTaskPool.Worker<Boolean>() {
+                    public Boolean withTask(JavacTask task) {
+                        return task.call();
+                    }
+                });
+    }
+
+    /** The android.jar of the unit tests provides the platform classes.
+     */
+    static String bootClassPath() {
+        try {
+            Class<?> c = Class.forName("android.content.Context");
+            return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        } catch (ClassNotFoundException | URISyntaxException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static boolean contains(byte[] bytes, String text) {
+        return new String(bytes, StandardCharsets.ISO_8859_1).contains(text);
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2016, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.sun.tools.javac.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.tools.JavaFileObject;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.DocTrees;
+import com.sun.source.util.TreePath;
+import com.sun.tools.javac.api.JavacTaskImpl;
+import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.util.ConcurrentNameTable;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.Names;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the parallel phases of {@link JavaCompiler} give the same
+ * class files and diagnostics as a sequential compilation. The files are
+ * compiled through the compiler API, which keeps the doc comments, as the
+ * javac backend of compiler-d8 does.
+ */
+public class ParallelCompileTest {
+
+    /** More files than JavaCompiler parses in parallel at least. */
+    private static final int FILE_COUNT = 24;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameClassesWithParallelParse() throws IOException {
+        List<File> files = sources();
+
+        Result sequential = compile(files, true);
+        Result parallel = compile(files, true, "-XDparseThreads=4");
+
+        assertTrue(sequential.log, sequential.success);
+        assertTrue(parallel.concurrentNames);
+        assertEquals(sequential.docComments, parallel.docComments);
+        assertSameResult(sequential, parallel);
+    }
+
+    /** The diagnostics of the parsing threads are reported in file order.
+     */
+    @Test
+    public void sameDiagnosticsWithParallelParse() throws IOException {
+        List<File> files = sources(3, 17);
+
+        Result sequential = compile(files);
+        Result parallel = compile(files, "-XDparseThreads=4");
+
+        assertFalse(sequential.success);
+        assertFalse(parallel.success);
+        assertEquals(sequential.log, parallel.log);
+    }
+
+    @Test
+    public void sameClassesWithParallelGen() throws IOException {
+        List<File> files = sources();
+
+        Result sequential = compile(files);
+        Result parallel = compile(files, "-XDgenThreads=4");
+        Result both = compile(files, "-XDparseThreads=4", "-XDgenThreads=4");
+
+        assertTrue(sequential.log, sequential.success);
+        assertTrue(parallel.concurrentNames);
+        assertSameResult(sequential, parallel);
+        assertSameResult(sequential, both);
+    }
+
+    /** The errors of the class writing threads are reported in class order,
+     *  and the class files of the other classes are still written.
+     */
+    @Test
+    public void sameDiagnosticsWithParallelGen() throws IOException {
+        List<File> files = sources();
+        files.add(tooLarge(files.get(0).getParentFile(), "Big"));
+
+        Result sequential = compile(files);
+        Result parallel = compile(files, "-XDgenThreads=4");
+
+        assertFalse(sequential.success);
+        assertTrue(sequential.log, sequential.log.contains("code too large"));
+        assertSameResult(sequential, parallel);
+    }
+
+    /** The errors of the class writers, such as a constant pool overflow,
+     *  are reported to the log of their thread, in class order.
+     */
+    @Test
+    public void sameWriterDiagnosticsWithParallelGen() throws IOException {
+        List<File> files = sources();
+        files.add(tooManyConstants(files.get(0).getParentFile(), "Constants"));
+
+        Result sequential = compile(files);
+        Result parallel = compile(files, "-XDgenThreads=4");
+
+        assertFalse(sequential.success);
+        assertTrue(sequential.log, sequential.log.contains("too many constants"));
+        assertSameResult(sequential, parallel);
+    }
+
+    private static void assertSameResult(Result expected, Result actual) {
+        assertEquals(expected.success, actual.success);
+        assertEquals(expected.log, actual.log);
+        assertEquals(expected.classes.keySet(), actual.classes.keySet());
+        for (Map.Entry<String, byte[]> e : expected.classes.entrySet())
+            assertArrayEquals(e.getKey(), e.getValue(), actual.classes.get(e.getKey()));
+    }
+
+    /** Writes a class whose static initializer exceeds the size of a method.
+     */
+    private static File tooLarge(File pkg, String name) throws IOException {
+        StringBuilder sb = new StringBuilder("package p;\npublic class " + name + " {\n")
+                .append("    static final int[] DATA = {");
+        for (int i = 0; i < 12000; i++)
+            sb.append(i).append(',');
+        sb.append("};\n}\n");
+        File file = new File(pkg, name + ".java");
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /** Writes a class whose constant fields overflow the constant pool.
+     */
+    private static File tooManyConstants(File pkg, String name) throws IOException {
+        StringBuilder sb = new StringBuilder("package p;\npublic class " + name + " {\n");
+        for (int i = 0; i < 22000; i++)
+            sb.append("    static final String F").append(i).append(" = \"v").append(i).append("\";\n");
+        sb.append("}\n");
+        File file = new File(pkg, name + ".java");
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /** Writes the test sources, the files at the broken indexes have a
+     *  syntax error.
+     */
+    private List<File> sources(int... broken) throws IOException {
+        File dir = folder.newFolder();
+        File pkg = new File(dir, "p");
+        assertTrue(pkg.mkdir());
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            String prev = "C" + (i == 0 ? FILE_COUNT - 1 : i - 1);
+            String content =
+                    "package p;\n" +
+                    "import java.util.*;\n" +
+                    "import java.util.function.*;\n" +
+                    "/**\n" +
+                    " * Class {@code C" + i + "}, see {@link " + prev + "}.\n" +
+                    " * @param <T> the items\n" +
+                    " * @deprecated use " + prev + "\n" +
+                    " */\n" +
+                    "public class C" + i + "<T extends Comparable<T>> {\n" +
+                    "    static final String NAME_" + i + " = \"c" + i + "\\u00e9\";\n" +
+                    "    private final List<T> items = new ArrayList<>();\n" +
+                    "    class Inner" + i + " { int size() { return items.size(); } }\n" +
+                    "    <R> List<R> map(Function<? super T, ? extends R> f) {\n" +
+                    "        List<R> result = new ArrayList<>();\n" +
+                    "        items.forEach(t -> result.add(f.apply(t)));\n" +
+                    "        return result;\n" +
+                    "    }\n" +
+                    "    int kind(String s) {\n" +
+                    "        switch (s) {\n" +
+                    "            case \"a" + i + "\": return " + i + ";\n" +
+                    "            case \"b" + i + "\": return new Inner" + i + "().size();\n" +
+                    "            default: return " + prev + ".NAME_" + (i == 0 ? FILE_COUNT - 1 : i - 1) + ".length();\n" +
+                    "        }\n" +
+                    "    }\n" +
+                    "    Runnable task() {\n" +
+                    "        return new Runnable() { public void run() { Collections.sort(items); } };\n" +
+                    "    }\n" +
+                    (Arrays.binarySearch(broken, i) >= 0 ? "    int broken( {\n" : "") +
+                    "}\n";
+            File file = new File(pkg, "C" + i + ".java");
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        return files;
+    }
+
+    private Result compile(List<File> files, String... extraOptions) throws IOException {
+        return compile(files, false, extraOptions);
+    }
+
+    /** Compiles the files with task.call(), as the javac backend of
+     *  compiler-d8 does, or, to read the doc comments, with task.parse()
+     *  and task.generate().
+     */
+    private Result compile(List<File> files, boolean docComments, String... extraOptions)
+            throws IOException {
+        File out = folder.newFolder();
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-source", "1.8", "-target", "1.8",
+                "-encoding", "UTF-8",
+                "-Xlint:all",
+                "-bootclasspath", bootClassPath(),
+                "-d", out.getAbsolutePath()));
+        options.addAll(Arrays.asList(extraOptions));
+
+        Result result = new Result();
+        StringWriter log = new StringWriter();
+        JavacTool tool = JavacTool.create();
+        try (JavacFileManager fm = tool.getStandardFileManager(null, null, null)) {
+            Iterable<? extends JavaFileObject> units = fm.getJavaFileObjectsFromFiles(files);
+            JavacTaskImpl task = (JavacTaskImpl) tool.getTask(log, fm, null, options, null, units);
+            // the context is cleared when the task completes
+            Context context = task.getContext();
+            result.concurrentNames = Names.instance(context).table instanceof ConcurrentNameTable;
+            Log compilerLog = Log.instance(context);
+
+            if (docComments) {
+                DocTrees trees = DocTrees.instance(task);
+                for (CompilationUnitTree unit : task.parse()) {
+                    for (Tree type : unit.getTypeDecls())
+                        result.docComments.add(String.valueOf(trees.getDocCommentTree(TreePath.getPath(unit, type))));
+                }
+                task.generate();
+                result.success = compilerLog.nerrors == 0;
+            } else {
+                result.success = task.call();
+            }
+        }
+        result.log = log.toString().replace(out.getAbsolutePath(), "<out>");
+        readClasses(out, "", result.classes);
+        return result;
+    }
+
+    private static void readClasses(File dir, String prefix, Map<String, byte[]> classes)
+            throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+        for (File f : children) {
+            if (f.isDirectory())
+                readClasses(f, prefix + f.getName() + "/", classes);
+            else
+                classes.put(prefix + f.getName(), Files.readAllBytes(f.toPath()));
+        }
+    }
+
+    /** The android.jar of the unit tests provides the platform classes.
+     */
+    private static String bootClassPath() {
+        try {
+            Class<?> c = Class.forName("android.content.Context");
+            return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        } catch (ClassNotFoundException | URISyntaxException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Result {
+        boolean success;
+        boolean concurrentNames;
+        String log;
+        final List<String> docComments = new ArrayList<>();
+        final Map<String, byte[]> classes = new TreeMap<>();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.sun.tools.javac.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of the name tables: {@link ConcurrentNameTable},
+ * {@link SharedNameTable} and {@link UnsharedNameTable} entering names from
+ * 1, 4 and 8 threads.
+ *
+ * Each operation enters one identifier with {@code fromChars}, as the
+ * scanner does. A new table is made for each iteration, so the first pass
+ * over the identifiers adds them and the following passes find them, most
+ * lookups of a compilation being of names already in the table. The threads
+ * start at different identifiers.
+ *
+ * The shared and unshared tables are not thread safe, so they are entered
+ * under the lock of the table, which is what sharing them between parsing
+ * threads would take. With one thread the lock is never contended.
+ *
+ * Run {@link #main(String[])}, it is not run with the unit tests. On JDK 9
+ * and later pass --limit-modules java.se,jdk.unsupported, as the unit tests
+ * do, so that the classes of this module are used; the forked VM inherits
+ * the option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameTableBenchmark {
+
+    /** The number of distinct identifiers, a power of two. */
+    private static final int IDENTIFIERS = 1 << 14;
+
+    @State(Scope.Benchmark)
+    public static class TableState {
+        @Param({"concurrent", "shared", "unshared"})
+        String table;
+
+        char[][] identifiers;
+        Names names;
+        Name.Table nameTable;
+        boolean locked;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() {
+            identifiers = identifiers();
+            names = new Names(new Context());
+        }
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            switch (table) {
+                case "concurrent":
+                    nameTable = new ConcurrentNameTable(names);
+                    break;
+                case "shared":
+                    nameTable = new SharedNameTable(names);
+                    break;
+                case "unshared":
+                    nameTable = new UnsharedNameTable(names);
+                    break;
+                default:
+                    throw new IllegalArgumentException(table);
+            }
+            locked = !(nameTable instanceof ConcurrentNameTable);
+        }
+
+        Name enter(char[] cs) {
+            if (!locked)
+                return nameTable.fromChars(cs, 0, cs.length);
+            synchronized (nameTable) {
+                return nameTable.fromChars(cs, 0, cs.length);
+            }
+        }
+
+        /** Identifiers of the lengths and shapes found in sources. */
+        private static char[][] identifiers() {
+            String[] words = {
+                "get", "set", "is", "value", "name", "index", "list", "map", "size",
+                "count", "item", "node", "tree", "type", "string", "builder", "result",
+                "element", "context", "buffer", "length", "offset", "to", "from", "with"
+            };
+            Random random = new Random(42);
+            char[][] identifiers = new char[IDENTIFIERS][];
+            for (int i = 0; i < IDENTIFIERS; i++) {
+                StringBuilder sb = new StringBuilder(words[random.nextInt(words.length)]);
+                for (int w = random.nextInt(3); w > 0; w--) {
+                    String word = words[random.nextInt(words.length)];
+                    sb.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+                }
+                sb.append(i);
+                identifiers[i] = sb.toString().toCharArray();
+            }
+            return identifiers;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(ThreadParams threads) {
+            next = threads.getThreadIndex() * (IDENTIFIERS / threads.getThreadCount());
+        }
+
+        char[] next(char[][] identifiers) {
+            return identifiers[next++ & (IDENTIFIERS - 1)];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Name enter1(TableState state, Cursor cursor) {
+        return state.enter(cursor.next(state.identifiers));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Name enter4(TableState state, Cursor cursor) {
+        return state.enter(cursor.next(state.identifiers));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Name enter8(TableState state, Cursor cursor) {
+        return state.enter(cursor.next(state.identifiers));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(NameTableBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}